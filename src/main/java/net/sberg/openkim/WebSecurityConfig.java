@@ -22,6 +22,7 @@ import net.sberg.openkim.user.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
 import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.authentication.builders.AuthenticationManagerBuilder;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
@@ -51,6 +52,18 @@ public class WebSecurityConfig {
         return http.build();
     }
 
+    @Bean
+    @Profile("simulator")
+    public SecurityFilterChain simulatorFilterChain(HttpSecurity http) throws Exception {
+        http
+                .securityMatcher("/dev/simulator/**")
+                .authorizeHttpRequests((request) -> request
+                        .anyRequest().permitAll()
+                )
+                .csrf((csrf) -> csrf.disable());
+        return http.build();
+    }
+
     @Bean
     public SecurityFilterChain defaultFilterChain(HttpSecurity http) throws Exception {
         http
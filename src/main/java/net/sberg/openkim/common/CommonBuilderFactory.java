@@ -16,6 +16,8 @@
  */
 package net.sberg.openkim.common;
 
+import net.sberg.openkim.common.circuitbreaker.CircuitBreakerRegistry;
+import net.sberg.openkim.common.circuitbreaker.EnumCircuitBreakerEndpointType;
 import net.sberg.openkim.konnektor.*;
 import net.sberg.openkim.konnektor.CMSAttribute;
 import net.sberg.openkim.log.DefaultLogger;
@@ -47,11 +49,15 @@ import java.security.KeyStore;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.text.MessageFormat;
+import java.util.List;
 
 public class CommonBuilderFactory {
 
     private static final Logger log = LoggerFactory.getLogger(CommonBuilderFactory.class);
 
+    //operations carrying whole documents as base64, sent as mtom/xop attachments if enabled for the konnektor
+    private static final List<String> MTOM_OPERATIONS = List.of("#SignDocument", "#EncryptDocument", "#DecryptDocument", "#VerifyDocument");
+
     public void checkKonnektorServiceBean(Konnektor konnektor, KonnektorServiceBean konnektorServiceBean, DefaultLogger logger) throws Exception {
         log.info("checkKonnektorWebServiceBean for: " + konnektorServiceBean.getEnumKonnektorServiceBeanType() + " - " + konnektorServiceBean.getEndpointTls());
         logger.logLine("checkKonnektorWebServiceBean for: " + konnektorServiceBean.getEnumKonnektorServiceBeanType() + " - " + konnektorServiceBean.getEndpointTls());
@@ -165,6 +171,8 @@ public class CommonBuilderFactory {
         connector.setMarshaller(marshaller);
         connector.setUnmarshaller(marshaller);
         connector.setInterceptors(new ClientInterceptor[]{new KonnektorWebserviceInterceptor(soapAction, logger)});
+        connector.setCircuitBreaker(CircuitBreakerRegistry.get(logger.getDefaultLoggerContext().getKonfiguration(), EnumCircuitBreakerEndpointType.KONNEKTOR, konnektor.getIp()));
+        connector.setMtom(konnektor, konnektor.isMtomEnabled() && soapAction != null && MTOM_OPERATIONS.stream().anyMatch(soapAction::endsWith));
         connector.afterPropertiesSet();
         return connector;
 
@@ -23,8 +23,10 @@ public interface ICommonConstants {
     String CONFIG_FILENAME = BASE_DIR + "config.cfg";
     String POP3_LOG_DIR = BASE_DIR + "pop3" + File.separator;
     String POP3_LOG_FILENAME = POP3_LOG_DIR + "{0}.log";
+    String POP3_CACHE_DIR = BASE_DIR + "pop3cache" + File.separator;
     String SMTP_LOG_DIR = BASE_DIR + "smtp" + File.separator;
     String SMTP_LOG_FILENAME = SMTP_LOG_DIR + "{0}.log";
+    String SMTP_SPOOL_DIR = BASE_DIR + "smtpspool" + File.separator;
     String KONNEKTOR_DIR = BASE_DIR + "konnektor" + File.separator + "{0}" + File.separator;
     String KONNEKTOR_TRUSTORE_JKS = KONNEKTOR_DIR + "truststore.jks";
     String KONNEKTOR_TRUSTORE_JKS_PWD = "changeit";
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.common.circuitbreaker;
+
+import net.sberg.openkim.konfiguration.Konfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Circuit breaker of one remote endpoint.
+ * The outcomes of the last calls are kept in a sliding window. If the failure rate of the window reaches the threshold,
+ * the breaker opens and calls fail immediately. After the probe interval one call is let through (half open),
+ * its outcome closes or reopens the breaker.
+ */
+public class CircuitBreaker {
+
+    private static final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    private final EnumCircuitBreakerEndpointType endpointType;
+    private final String endpoint;
+
+    private boolean enabled;
+    private int failureRateThreshold;
+    private int minimumCalls;
+    private long probeIntervalInMillis;
+
+    private boolean[] window = new boolean[0];
+    private int windowPos;
+    private int windowCalls;
+    private int windowFailures;
+
+    private EnumCircuitBreakerState state = EnumCircuitBreakerState.CLOSED;
+    private long stateChanged = System.currentTimeMillis();
+    private boolean probeRunning;
+    private long probeStarted;
+    private long rejected;
+    private String lastError;
+
+    protected CircuitBreaker(EnumCircuitBreakerEndpointType endpointType, String endpoint) {
+        this.endpointType = endpointType;
+        this.endpoint = endpoint;
+    }
+
+    protected synchronized void configure(Konfiguration konfiguration) {
+        enabled = konfiguration.isCircuitBreakerEnabled();
+        failureRateThreshold = konfiguration.getCircuitBreakerFailureRateThreshold();
+        minimumCalls = konfiguration.getCircuitBreakerMinimumCalls();
+        probeIntervalInMillis = konfiguration.getCircuitBreakerProbeIntervalInSeconds() * 1000L;
+        if (window.length != Math.max(1, konfiguration.getCircuitBreakerWindowSize())) {
+            window = new boolean[Math.max(1, konfiguration.getCircuitBreakerWindowSize())];
+            resetWindow();
+        }
+        if (!enabled && !state.equals(EnumCircuitBreakerState.CLOSED)) {
+            changeState(EnumCircuitBreakerState.CLOSED);
+            resetWindow();
+        }
+    }
+
+    /**
+     * Call before the remote call. Report the outcome with {@link #onSuccess()} or {@link #onFailure(Throwable)}.
+     *
+     * @throws CircuitBreakerOpenException the endpoint is not available, the call must not be made
+     */
+    public synchronized void acquire() throws CircuitBreakerOpenException {
+        if (!enabled) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (state.equals(EnumCircuitBreakerState.OPEN)) {
+            if (now - stateChanged < probeIntervalInMillis) {
+                rejected++;
+                throw new CircuitBreakerOpenException(endpointType, endpoint);
+            }
+            changeState(EnumCircuitBreakerState.HALF_OPEN);
+            probeRunning = false;
+        }
+        if (state.equals(EnumCircuitBreakerState.HALF_OPEN)) {
+            //one probe call, a probe without outcome is replaced after the probe interval
+            if (probeRunning && now - probeStarted < probeIntervalInMillis) {
+                rejected++;
+                throw new CircuitBreakerOpenException(endpointType, endpoint);
+            }
+            probeRunning = true;
+            probeStarted = now;
+        }
+    }
+
+    /**
+     * The endpoint answered. Also to be called for functional errors of the endpoint (soap faults, 4xx http status codes).
+     */
+    public synchronized void onSuccess() {
+        if (!enabled) {
+            return;
+        }
+        if (state.equals(EnumCircuitBreakerState.HALF_OPEN)) {
+            log.info("circuit breaker closed: " + endpointType + " " + endpoint);
+            changeState(EnumCircuitBreakerState.CLOSED);
+            resetWindow();
+            return;
+        }
+        if (state.equals(EnumCircuitBreakerState.CLOSED)) {
+            record(false);
+        }
+    }
+
+    /**
+     * The endpoint is not reachable, timed out or answered with a server error.
+     */
+    public synchronized void onFailure(Throwable e) {
+        if (!enabled) {
+            return;
+        }
+        lastError = e == null ? null : e.getClass().getSimpleName() + ": " + e.getMessage();
+        if (state.equals(EnumCircuitBreakerState.HALF_OPEN)) {
+            log.warn("circuit breaker reopened: " + endpointType + " " + endpoint + " - " + lastError);
+            changeState(EnumCircuitBreakerState.OPEN);
+            return;
+        }
+        if (state.equals(EnumCircuitBreakerState.CLOSED)) {
+            record(true);
+            if (windowCalls >= minimumCalls && windowFailures * 100 >= failureRateThreshold * windowCalls) {
+                log.warn("circuit breaker opened: " + endpointType + " " + endpoint + " - " + windowFailures + " of " + windowCalls + " calls failed - " + lastError);
+                changeState(EnumCircuitBreakerState.OPEN);
+            }
+        }
+    }
+
+    private void record(boolean failure) {
+        if (windowCalls == window.length) {
+            if (window[windowPos]) {
+                windowFailures--;
+            }
+        } else {
+            windowCalls++;
+        }
+        window[windowPos] = failure;
+        if (failure) {
+            windowFailures++;
+        }
+        windowPos = (windowPos + 1) % window.length;
+    }
+
+    private void resetWindow() {
+        windowPos = 0;
+        windowCalls = 0;
+        windowFailures = 0;
+    }
+
+    private void changeState(EnumCircuitBreakerState state) {
+        this.state = state;
+        this.stateChanged = System.currentTimeMillis();
+        this.probeRunning = false;
+    }
+
+    public EnumCircuitBreakerEndpointType getEndpointType() {
+        return endpointType;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    public synchronized EnumCircuitBreakerState getState() {
+        return state;
+    }
+
+    public synchronized long getStateChanged() {
+        return stateChanged;
+    }
+
+    public synchronized int getWindowCalls() {
+        return windowCalls;
+    }
+
+    public synchronized int getWindowFailures() {
+        return windowFailures;
+    }
+
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    public synchronized String getLastError() {
+        return lastError;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.common.circuitbreaker;
+
+/**
+ * The circuit breaker of the endpoint is open, the call was not made. A temporary error, the request may be repeated.
+ */
+public class CircuitBreakerOpenException extends Exception {
+
+    private final EnumCircuitBreakerEndpointType endpointType;
+    private final String endpoint;
+
+    public CircuitBreakerOpenException(EnumCircuitBreakerEndpointType endpointType, String endpoint) {
+        super(endpointType + " " + endpoint + " not available, circuit breaker open");
+        this.endpointType = endpointType;
+        this.endpoint = endpoint;
+    }
+
+    public EnumCircuitBreakerEndpointType getEndpointType() {
+        return endpointType;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public static boolean isCause(Throwable e) {
+        while (e != null) {
+            if (e instanceof CircuitBreakerOpenException) {
+                return true;
+            }
+            e = e.getCause();
+        }
+        return false;
+    }
+}
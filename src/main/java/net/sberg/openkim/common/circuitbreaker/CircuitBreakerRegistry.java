@@ -0,0 +1,50 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.common.circuitbreaker;
+
+import net.sberg.openkim.konfiguration.Konfiguration;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide circuit breakers of the remote endpoints (konnektor webservices, vzd, kas, mta).
+ */
+public class CircuitBreakerRegistry {
+
+    private static final Map<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+
+    /**
+     * @param konfiguration current settings of the breakers, may be null if not available in the calling context
+     */
+    public static final CircuitBreaker get(Konfiguration konfiguration, EnumCircuitBreakerEndpointType endpointType, String endpoint) {
+        CircuitBreaker circuitBreaker = circuitBreakers.computeIfAbsent(endpointType + "|" + endpoint, key -> new CircuitBreaker(endpointType, endpoint));
+        if (konfiguration != null) {
+            circuitBreaker.configure(konfiguration);
+        }
+        return circuitBreaker;
+    }
+
+    public static final List<CircuitBreaker> getAll() {
+        List<CircuitBreaker> result = new ArrayList<>(circuitBreakers.values());
+        result.sort(Comparator.comparing(CircuitBreaker::getEndpointType).thenComparing(CircuitBreaker::getEndpoint));
+        return result;
+    }
+}
@@ -19,16 +19,31 @@ package net.sberg.openkim.common.x509;
 import net.sberg.openkim.konnektor.Konnektor;
 import org.bouncycastle.asn1.*;
 import org.bouncycastle.asn1.cms.*;
-import org.bouncycastle.asn1.x509.Certificate;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
 import org.bouncycastle.cms.*;
+import org.bouncycastle.cms.jcajce.JceCMSContentEncryptorBuilder;
+import org.bouncycastle.cms.jcajce.JceKeyAgreeRecipientInfoGenerator;
+import org.bouncycastle.cms.jcajce.JceKeyTransRecipientInfoGenerator;
+import org.bouncycastle.operator.OutputAEADEncryptor;
+import org.bouncycastle.operator.jcajce.JcaAlgorithmParametersConverter;
 import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.crypto.spec.OAEPParameterSpec;
+import javax.crypto.spec.PSource;
 import javax.mail.internet.MimePart;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.MGF1ParameterSpec;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -37,7 +52,6 @@ public class CMSUtils {
 
     private static final Logger log = LoggerFactory.getLogger(CMSUtils.class);
 
-    private static final String ECC_OID = "1.2.840.10045.2.1";
     private static final String RECIPIENT_OID = "1.2.276.0.76.4.173";
     public static final String AUTH_ENVELOPED_DATA_OID = "1.2.840.113549.1.9.16.1.23";
     public static final String ENVELOPED_DATA_OID = "1.2.840.113549.1.7.3";
@@ -151,6 +165,12 @@ public class CMSUtils {
                 if (keyTransRecipientId.getIssuer() == null || keyTransRecipientId.getSerialNumber() == null) {
                     return false;
                 }
+            } else if (recipientInformation.getRID().getType() == RecipientId.keyAgree) {
+                //ecc certificates, see encryptAuthEnveloped
+                KeyAgreeRecipientId keyAgreeRecipientId = (KeyAgreeRecipientId) recipientInformation.getRID();
+                if (keyAgreeRecipientId.getIssuer() == null || keyAgreeRecipientId.getSerialNumber() == null) {
+                    return false;
+                }
             } else {
                 return false;
             }
@@ -207,8 +227,7 @@ public class CMSUtils {
                 ASN1EncodableVector recipientEmail = new ASN1EncodableVector();
                 DERIA5String deria5Email = new DERIA5String(x509CertificateResult.getMailAddress());
                 recipientEmail.add(deria5Email);
-                Certificate certificate = Certificate.getInstance(cert);
-                IssuerAndSerialNumber issuerAndSerialNumber = new IssuerAndSerialNumber(certificate);
+                IssuerAndSerialNumber issuerAndSerialNumber = new IssuerAndSerialNumber(X509CertificateCache.get(cert).getCertificateStructure());
                 RecipientIdentifier recipientIdentifier = new RecipientIdentifier(issuerAndSerialNumber);
                 recipientEmail.add(recipientIdentifier);
                 DERSequence seq = new DERSequence(recipientEmail);
@@ -220,13 +239,54 @@ public class CMSUtils {
         return attr.getEncoded();
     }
 
+    /**
+     * Builds the AuthEnvelopedData of the signed mail like the EncryptDocument operation of the konnektor:
+     * AES-256-GCM content encryption, RSA-OAEP (SHA-256, MGF1 SHA-256) key transport for rsa certificates,
+     * ephemeral-static ECDH (X9.63 KDF SHA-256, AES-256 key wrap) for ecc certificates and the recipient-emails attribute.
+     */
+    public static final byte[] encryptAuthEnveloped(byte[] signedMsg, List<X509CertificateResult> recipients, Konnektor konnektor) throws Exception {
+        CMSAuthEnvelopedDataGenerator generator = new CMSAuthEnvelopedDataGenerator();
+        AlgorithmIdentifier rsaOaep = new JcaAlgorithmParametersConverter().getAlgorithmIdentifier(
+            PKCSObjectIdentifiers.id_RSAES_OAEP,
+            new OAEPParameterSpec("SHA-256", "MGF1", MGF1ParameterSpec.SHA256, PSource.PSpecified.DEFAULT)
+        );
+        for (Iterator<X509CertificateResult> iterator = recipients.iterator(); iterator.hasNext(); ) {
+            X509CertificateResult x509CertificateResult = iterator.next();
+            List<byte[]> certs = konnektor.isEccEncryptionAvailable() ? x509CertificateResult.getCerts() : x509CertificateResult.getRsaCerts();
+            for (Iterator<byte[]> iterator1 = certs.iterator(); iterator1.hasNext(); ) {
+                X509CertificateInfo x509CertificateInfo = X509CertificateCache.get(iterator1.next());
+                //parsed by bc, the jdk does not support the brainpool curves
+                X509Certificate cert = new JcaX509CertificateConverter().setProvider("BC").getCertificate(new X509CertificateHolder(x509CertificateInfo.getCertificateStructure()));
+                if (x509CertificateInfo.isEcc()) {
+                    KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("EC", "BC");
+                    keyPairGenerator.initialize(((ECPublicKey) cert.getPublicKey()).getParams());
+                    KeyPair ephemeralKeyPair = keyPairGenerator.generateKeyPair();
+                    generator.addRecipientInfoGenerator(
+                        new JceKeyAgreeRecipientInfoGenerator(CMSAlgorithm.ECDH_SHA256KDF, ephemeralKeyPair.getPrivate(), ephemeralKeyPair.getPublic(), CMSAlgorithm.AES256_WRAP)
+                            .addRecipient(cert)
+                            .setProvider("BC")
+                    );
+                } else {
+                    generator.addRecipientInfoGenerator(
+                        new JceKeyTransRecipientInfoGenerator(cert, rsaOaep).setProvider("BC")
+                    );
+                }
+            }
+        }
+        Attribute recipientEmails = Attribute.getInstance(buildCmsAttributeRecipientEmails(recipients, konnektor));
+        generator.setUnauthenticatedAttributeGenerator(new SimpleAttributeTableGenerator(new AttributeTable(recipientEmails)));
+
+        CMSAuthEnvelopedData cmsAuthEnvelopedData = generator.generate(
+            new CMSProcessableByteArray(signedMsg),
+            (OutputAEADEncryptor) new JceCMSContentEncryptorBuilder(CMSAlgorithm.AES256_GCM).setProvider("BC").build()
+        );
+        return cmsAuthEnvelopedData.getEncoded();
+    }
+
     public static final X509CertificateResult filterRsaCerts(X509CertificateResult x509CertificateResult) throws Exception {
-        ASN1ObjectIdentifier eccPublicKeyId = new ASN1ObjectIdentifier(ECC_OID);
         for (Iterator<byte[]> iterator = x509CertificateResult.getCerts().iterator(); iterator.hasNext(); ) {
             byte[] cert = iterator.next();
-            Certificate certificate = Certificate.getInstance(cert);
-            ASN1ObjectIdentifier certPubKeyAlgorithmIdentifier = certificate.getSubjectPublicKeyInfo().getAlgorithm().getAlgorithm();
-            if (!eccPublicKeyId.equals(certPubKeyAlgorithmIdentifier)) {
+            if (!X509CertificateCache.get(cert).isEcc()) {
                 x509CertificateResult.getRsaCerts().add(cert);
             }
         }
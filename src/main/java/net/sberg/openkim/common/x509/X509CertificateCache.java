@@ -0,0 +1,136 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.common.x509;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.isismtt.x509.AdmissionSyntax;
+import org.bouncycastle.asn1.isismtt.x509.Admissions;
+import org.bouncycastle.asn1.isismtt.x509.ProfessionInfo;
+import org.bouncycastle.asn1.x509.Certificate;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.util.encoders.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.security.MessageDigest;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide cache of parsed certificates, keyed by the SHA-256 of the DER bytes.
+ * The VZD and card certificates are the same for many mails, so they are parsed only once.
+ */
+public class X509CertificateCache {
+
+    private static final Logger log = LoggerFactory.getLogger(X509CertificateCache.class);
+
+    private static final String ADMISSION_OID = "1.3.36.8.3.3";
+    private static final String ECC_OID = "1.2.840.10045.2.1";
+
+    private static final int MAX_ENTRIES = 10000;
+    private static final int EXPIRE_AFTER_ACCESS_IN_HOURS = 24;
+
+    private static final Cache<String, X509CertificateInfo> cache = CacheBuilder.newBuilder()
+        .maximumSize(MAX_ENTRIES)
+        .expireAfterAccess(EXPIRE_AFTER_ACCESS_IN_HOURS, TimeUnit.HOURS)
+        .build();
+
+    /**
+     * @throws IllegalArgumentException if the bytes are no valid certificate
+     */
+    public static final X509CertificateInfo get(byte[] certBytes) {
+        String key = createKey(certBytes);
+        X509CertificateInfo info = cache.getIfPresent(key);
+        if (info == null) {
+            info = parse(key, certBytes);
+            if (!info.isExpired()) {
+                cache.put(key, info);
+            }
+        } else if (info.isExpired()) {
+            cache.invalidate(key);
+        }
+        return info;
+    }
+
+    public static final long getEntryCount() {
+        return cache.size();
+    }
+
+    private static X509CertificateInfo parse(String key, byte[] certBytes) {
+        try {
+            Certificate certificateStructure = Certificate.getInstance(certBytes);
+            X509Certificate certificate = (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(new ByteArrayInputStream(certBytes));
+            boolean ecc = new ASN1ObjectIdentifier(ECC_OID).equals(certificateStructure.getSubjectPublicKeyInfo().getAlgorithm().getAlgorithm());
+
+            List<String> telematikIds = new ArrayList<>();
+            List<String> professionOids = new ArrayList<>();
+            boolean telematikIdError = false;
+            try {
+                Extension extension = certificateStructure.getTBSCertificate().getExtensions().getExtension(new ASN1ObjectIdentifier(ADMISSION_OID));
+                AdmissionSyntax admissionSyntax = AdmissionSyntax.getInstance(extension.getParsedValue());
+                Admissions[] admissions = admissionSyntax.getContentsOfAdmissions();
+                for (Admissions ad : admissions) {
+                    ProfessionInfo[] professionInfos = ad.getProfessionInfos();
+                    for (ProfessionInfo professionInfo : professionInfos) {
+                        telematikIds.add(professionInfo.getRegistrationNumber());
+                        ASN1ObjectIdentifier[] oids = professionInfo.getProfessionOIDs();
+                        if (oids != null) {
+                            for (ASN1ObjectIdentifier professionOid : oids) {
+                                professionOids.add(professionOid.getId());
+                            }
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                log.warn("certificate contains no valid admission: " + key, e);
+                telematikIdError = true;
+            }
+
+            return new X509CertificateInfo(
+                key,
+                certificate,
+                certificateStructure,
+                telematikIds,
+                professionOids,
+                telematikIdError,
+                ecc,
+                certificateStructure.getStartDate().getDate(),
+                certificateStructure.getEndDate().getDate(),
+                certificateStructure.getIssuer().toString(),
+                certificateStructure.getSerialNumber().getValue().toString()
+            );
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalArgumentException("error on parsing certificate: " + key, e);
+        }
+    }
+
+    private static String createKey(byte[] certBytes) {
+        try {
+            return Hex.toHexString(MessageDigest.getInstance("SHA-256").digest(certBytes));
+        } catch (Exception e) {
+            throw new IllegalStateException("error on creating the certificate cache key", e);
+        }
+    }
+}
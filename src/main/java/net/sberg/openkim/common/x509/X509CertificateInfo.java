@@ -0,0 +1,118 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.common.x509;
+
+import org.bouncycastle.asn1.x509.Certificate;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Parsed certificate, shared by all callers through the {@link X509CertificateCache} and therefore immutable.
+ */
+public final class X509CertificateInfo {
+    private final String key;
+    private final X509Certificate certificate;
+    private final Certificate certificateStructure;
+    private final List<String> telematikIds;
+    private final List<String> professionOids;
+    private final boolean telematikIdError;
+    private final boolean ecc;
+    private final long notBefore;
+    private final long notAfter;
+    private final String issuer;
+    private final String serialNumber;
+
+    X509CertificateInfo(
+        String key,
+        X509Certificate certificate,
+        Certificate certificateStructure,
+        List<String> telematikIds,
+        List<String> professionOids,
+        boolean telematikIdError,
+        boolean ecc,
+        Date notBefore,
+        Date notAfter,
+        String issuer,
+        String serialNumber
+    ) {
+        this.key = key;
+        this.certificate = certificate;
+        this.certificateStructure = certificateStructure;
+        this.telematikIds = Collections.unmodifiableList(new ArrayList<>(telematikIds));
+        this.professionOids = Collections.unmodifiableList(new ArrayList<>(professionOids));
+        this.telematikIdError = telematikIdError;
+        this.ecc = ecc;
+        this.notBefore = notBefore.getTime();
+        this.notAfter = notAfter.getTime();
+        this.issuer = issuer;
+        this.serialNumber = serialNumber;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public X509Certificate getCertificate() {
+        return certificate;
+    }
+
+    public Certificate getCertificateStructure() {
+        return certificateStructure;
+    }
+
+    public List<String> getTelematikIds() {
+        return telematikIds;
+    }
+
+    public List<String> getProfessionOids() {
+        return professionOids;
+    }
+
+    public boolean isTelematikIdError() {
+        return telematikIdError;
+    }
+
+    public boolean isEcc() {
+        return ecc;
+    }
+
+    public Date getNotBefore() {
+        return new Date(notBefore);
+    }
+
+    public Date getNotAfter() {
+        return new Date(notAfter);
+    }
+
+    /**
+     * @return a new instance, the issuer and serial are mutable
+     */
+    public IssuerAndSerial getIssuerAndSerial() {
+        IssuerAndSerial issuerAndSerial = new IssuerAndSerial();
+        issuerAndSerial.setIssuer(issuer);
+        issuerAndSerial.setSerialNumber(serialNumber);
+        return issuerAndSerial;
+    }
+
+    public boolean isExpired() {
+        return notAfter < System.currentTimeMillis();
+    }
+}
@@ -16,12 +16,6 @@
  */
 package net.sberg.openkim.common.x509;
 
-import org.bouncycastle.asn1.ASN1ObjectIdentifier;
-import org.bouncycastle.asn1.isismtt.x509.AdmissionSyntax;
-import org.bouncycastle.asn1.isismtt.x509.Admissions;
-import org.bouncycastle.asn1.isismtt.x509.ProfessionInfo;
-import org.bouncycastle.asn1.x509.Extension;
-import org.bouncycastle.cert.X509CertificateHolder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,20 +28,16 @@ public class X509CertificateUtils {
             if (!telematikIdResult.getErrorCode().equals(EnumX509ErrorCode.OK)) {
                 return telematikIdResult;
             }
-            X509CertificateHolder certificateHolder = new X509CertificateHolder(certBytes);
-            Extension extension = certificateHolder.getExtension(new ASN1ObjectIdentifier("1.3.36.8.3.3"));
-            AdmissionSyntax admissionSyntax = AdmissionSyntax.getInstance(extension.getParsedValue());
-            Admissions[] admissions = admissionSyntax.getContentsOfAdmissions();
-            for (Admissions ad : admissions) {
-                ProfessionInfo[] professionInfos = ad.getProfessionInfos();
-                for (ProfessionInfo professionInfo : professionInfos) {
-                    String telematikId = professionInfo.getRegistrationNumber();
-                    if (telematikIdResult.getTelematikId() == null || telematikIdResult.getTelematikId().trim().isEmpty()) {
-                        telematikIdResult.setTelematikId(telematikId);
-                    } else if (!telematikIdResult.getTelematikId().equals(telematikId)) {
-                        telematikIdResult.setErrorCode(EnumX509ErrorCode.MORE_THAN_ONE_TELEMATIKID);
-                        return telematikIdResult;
-                    }
+            X509CertificateInfo certificateInfo = X509CertificateCache.get(certBytes);
+            if (certificateInfo.isTelematikIdError()) {
+                throw new IllegalStateException("certificate contains no valid admission: " + certificateInfo.getKey());
+            }
+            for (String telematikId : certificateInfo.getTelematikIds()) {
+                if (telematikIdResult.getTelematikId() == null || telematikIdResult.getTelematikId().trim().isEmpty()) {
+                    telematikIdResult.setTelematikId(telematikId);
+                } else if (!telematikIdResult.getTelematikId().equals(telematikId)) {
+                    telematikIdResult.setErrorCode(EnumX509ErrorCode.MORE_THAN_ONE_TELEMATIKID);
+                    return telematikIdResult;
                 }
             }
         } catch (Exception e) {
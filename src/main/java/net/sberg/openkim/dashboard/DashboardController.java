@@ -16,9 +16,16 @@
  */
 package net.sberg.openkim.dashboard;
 
+import net.sberg.openkim.common.circuitbreaker.CircuitBreaker;
+import net.sberg.openkim.common.circuitbreaker.CircuitBreakerRegistry;
+import net.sberg.openkim.gateway.smtp.spool.SmtpSpoolService;
 import net.sberg.openkim.konfiguration.Konfiguration;
 import net.sberg.openkim.konfiguration.KonfigurationService;
 import net.sberg.openkim.konnektor.Konnektor;
+import net.sberg.openkim.konnektor.admission.EnumKonnektorAdmissionPriority;
+import net.sberg.openkim.konnektor.admission.KonnektorAdmissionQueue;
+import net.sberg.openkim.konnektor.admission.KonnektorAdmissionService;
+import net.sberg.openkim.pipeline.operation.konnektor.dns.DnsCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -31,6 +38,7 @@ import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.ResponseStatus;
 
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 
 @Controller
@@ -40,6 +48,10 @@ public class DashboardController {
 
     @Autowired
     private KonfigurationService konfigurationService;
+    @Autowired
+    private SmtpSpoolService smtpSpoolService;
+    @Autowired
+    private KonnektorAdmissionService konnektorAdmissionService;
 
     @RequestMapping(value = "/dashboard", method = RequestMethod.GET)
     @ResponseStatus(value = HttpStatus.OK)
@@ -62,6 +74,10 @@ public class DashboardController {
             model.addAttribute("fehler", true);
         }
         model.addAttribute("result", result);
+        model.addAttribute("smtpSpool", createSmtpSpoolMonitoringResult(konfiguration));
+        model.addAttribute("konnektorAdmissions", createKonnektorAdmissionMonitoringResults(konfiguration));
+        model.addAttribute("circuitBreakers", createCircuitBreakerMonitoringResults());
+        model.addAttribute("dnsCache", createDnsCacheMonitoringResult(konfiguration));
         return "dashboard/dashboardUebersicht";
     }
 
@@ -84,4 +100,102 @@ public class DashboardController {
         }
         return result;
     }
+
+    @RequestMapping(value = "/api/dashboard/smtpspool", method = RequestMethod.GET)
+    @ResponseStatus(value = HttpStatus.OK)
+    @ResponseBody
+    public SmtpSpoolMonitoringResult apiSmtpSpool() throws Exception {
+        return createSmtpSpoolMonitoringResult(konfigurationService.getKonfiguration());
+    }
+
+    @RequestMapping(value = "/api/dashboard/konnektoradmission", method = RequestMethod.GET)
+    @ResponseStatus(value = HttpStatus.OK)
+    @ResponseBody
+    public List<KonnektorAdmissionMonitoringResult> apiKonnektorAdmission() throws Exception {
+        return createKonnektorAdmissionMonitoringResults(konfigurationService.getKonfiguration());
+    }
+
+    @RequestMapping(value = "/api/dashboard/circuitbreaker", method = RequestMethod.GET)
+    @ResponseStatus(value = HttpStatus.OK)
+    @ResponseBody
+    public List<CircuitBreakerMonitoringResult> apiCircuitBreaker() throws Exception {
+        return createCircuitBreakerMonitoringResults();
+    }
+
+    @RequestMapping(value = "/api/dashboard/dnscache", method = RequestMethod.GET)
+    @ResponseStatus(value = HttpStatus.OK)
+    @ResponseBody
+    public DnsCacheMonitoringResult apiDnsCache() throws Exception {
+        return createDnsCacheMonitoringResult(konfigurationService.getKonfiguration());
+    }
+
+    private DnsCacheMonitoringResult createDnsCacheMonitoringResult(Konfiguration konfiguration) {
+        DnsCacheMonitoringResult dnsCacheMonitoringResult = new DnsCacheMonitoringResult();
+        dnsCacheMonitoringResult.setEnabled(konfiguration.isDnsCacheEnabled());
+        dnsCacheMonitoringResult.setEntryCount(DnsCache.getEntryCount());
+        dnsCacheMonitoringResult.setHits(DnsCache.getHits());
+        dnsCacheMonitoringResult.setMisses(DnsCache.getMisses());
+        dnsCacheMonitoringResult.setCoalesced(DnsCache.getCoalesced());
+        dnsCacheMonitoringResult.setPrefetches(DnsCache.getPrefetches());
+        long requests = dnsCacheMonitoringResult.getHits() + dnsCacheMonitoringResult.getMisses();
+        dnsCacheMonitoringResult.setHitRatePercent(requests == 0 ? 0 : dnsCacheMonitoringResult.getHits() * 100 / requests);
+        return dnsCacheMonitoringResult;
+    }
+
+    private List<CircuitBreakerMonitoringResult> createCircuitBreakerMonitoringResults() {
+        List<CircuitBreakerMonitoringResult> result = new ArrayList<>();
+        for (CircuitBreaker circuitBreaker : CircuitBreakerRegistry.getAll()) {
+            if (!circuitBreaker.isEnabled()) {
+                continue;
+            }
+            CircuitBreakerMonitoringResult circuitBreakerMonitoringResult = new CircuitBreakerMonitoringResult();
+            circuitBreakerMonitoringResult.setEndpointType(circuitBreaker.getEndpointType());
+            circuitBreakerMonitoringResult.setEndpoint(circuitBreaker.getEndpoint());
+            circuitBreakerMonitoringResult.setState(circuitBreaker.getState());
+            circuitBreakerMonitoringResult.setStateChanged(new Date(circuitBreaker.getStateChanged()));
+            circuitBreakerMonitoringResult.setWindowCalls(circuitBreaker.getWindowCalls());
+            circuitBreakerMonitoringResult.setWindowFailures(circuitBreaker.getWindowFailures());
+            circuitBreakerMonitoringResult.setRejected(circuitBreaker.getRejected());
+            circuitBreakerMonitoringResult.setLastError(circuitBreaker.getLastError());
+            result.add(circuitBreakerMonitoringResult);
+        }
+        return result;
+    }
+
+    private List<KonnektorAdmissionMonitoringResult> createKonnektorAdmissionMonitoringResults(Konfiguration konfiguration) {
+        List<KonnektorAdmissionMonitoringResult> result = new ArrayList<>();
+        for (Konnektor konnektor : konfiguration.getKonnektoren()) {
+            KonnektorAdmissionQueue queue = konnektorAdmissionService.getQueue(konnektor.getUuid());
+            if (queue == null) {
+                continue;
+            }
+            KonnektorAdmissionMonitoringResult konnektorAdmissionMonitoringResult = new KonnektorAdmissionMonitoringResult();
+            konnektorAdmissionMonitoringResult.setKonnektorIp(konnektor.getIp());
+            konnektorAdmissionMonitoringResult.setLimit(queue.getLimit());
+            konnektorAdmissionMonitoringResult.setInFlight(queue.getInFlight());
+            konnektorAdmissionMonitoringResult.setWaitingInteractive(queue.getWaiting(EnumKonnektorAdmissionPriority.INTERACTIVE));
+            konnektorAdmissionMonitoringResult.setWaitingBulk(queue.getWaiting(EnumKonnektorAdmissionPriority.BULK));
+            konnektorAdmissionMonitoringResult.setMaxWaiting(queue.getMaxWaiting());
+            konnektorAdmissionMonitoringResult.setAdmitted(queue.getAdmitted());
+            konnektorAdmissionMonitoringResult.setRejected(queue.getRejected());
+            long[] waitTimeHistogram = queue.getWaitTimeHistogram();
+            for (int i = 0; i < waitTimeHistogram.length; i++) {
+                String bucket = i < KonnektorAdmissionQueue.WAIT_TIME_BUCKETS_IN_MILLIS.length
+                    ? "<= " + KonnektorAdmissionQueue.WAIT_TIME_BUCKETS_IN_MILLIS[i] + " ms"
+                    : "> " + KonnektorAdmissionQueue.WAIT_TIME_BUCKETS_IN_MILLIS[i - 1] + " ms";
+                konnektorAdmissionMonitoringResult.getWaitTimeHistogram().put(bucket, waitTimeHistogram[i]);
+            }
+            result.add(konnektorAdmissionMonitoringResult);
+        }
+        return result;
+    }
+
+    private SmtpSpoolMonitoringResult createSmtpSpoolMonitoringResult(Konfiguration konfiguration) {
+        SmtpSpoolMonitoringResult smtpSpoolMonitoringResult = new SmtpSpoolMonitoringResult();
+        smtpSpoolMonitoringResult.setEnabled(smtpSpoolService.isEnabled(konfiguration));
+        smtpSpoolMonitoringResult.setQueueDepth(smtpSpoolService.getQueueDepth());
+        smtpSpoolMonitoringResult.setInProgress(smtpSpoolService.getInProgressCount());
+        smtpSpoolMonitoringResult.setOldestEntryAgeInSeconds(smtpSpoolService.getOldestEntryAgeInSeconds());
+        return smtpSpoolMonitoringResult;
+    }
 }
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.dashboard;
+
+import lombok.Data;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@Data
+public class KonnektorAdmissionMonitoringResult {
+    private String konnektorIp;
+    private int limit;
+    private int inFlight;
+    private int waitingInteractive;
+    private int waitingBulk;
+    private int maxWaiting;
+    private long admitted;
+    private long rejected;
+    private Map<String, Long> waitTimeHistogram = new LinkedHashMap<>();
+}
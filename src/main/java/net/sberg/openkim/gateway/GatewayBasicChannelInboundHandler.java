@@ -17,7 +17,9 @@
 package net.sberg.openkim.gateway;
 
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.group.ChannelGroup;
 import net.sberg.openkim.gateway.pop3.Pop3GatewaySession;
+import net.sberg.openkim.gateway.pop3.prefetch.Pop3MessagePrefetcher;
 import net.sberg.openkim.gateway.smtp.SmtpGatewaySession;
 import org.apache.james.protocols.api.Protocol;
 import org.apache.james.protocols.api.ProtocolSession;
@@ -31,8 +33,35 @@ public class GatewayBasicChannelInboundHandler extends BasicChannelInboundHandle
 
     private static final Logger log = LoggerFactory.getLogger(GatewayBasicChannelInboundHandler.class);
 
-    public GatewayBasicChannelInboundHandler(ProtocolMDCContextFactory mdcContextFactory, Protocol protocol, Encryption secure, boolean proxyRequired) {
+    private final ChannelGroup connections;
+
+    public GatewayBasicChannelInboundHandler(ProtocolMDCContextFactory mdcContextFactory, Protocol protocol, Encryption secure, boolean proxyRequired, ChannelGroup connections) {
         super(mdcContextFactory, protocol, secure, proxyRequired);
+        this.connections = connections;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        //tracked for draining the sessions on reloading the gateway
+        connections.add(ctx.channel());
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        //the pop3 prefetch downloads only between the commands of the session
+        ProtocolSession session = (ProtocolSession) ctx.channel().attr(SESSION_ATTRIBUTE_KEY).get();
+        Pop3MessagePrefetcher prefetcher = session instanceof Pop3GatewaySession ? ((Pop3GatewaySession) session).getPop3MessagePrefetcher() : null;
+        if (prefetcher != null) {
+            prefetcher.commandStarted();
+        }
+        try {
+            super.channelRead(ctx, msg);
+        } finally {
+            if (prefetcher != null) {
+                prefetcher.commandFinished();
+            }
+        }
     }
 
     protected void cleanup(ChannelHandlerContext ctx) {
@@ -40,10 +69,7 @@ public class GatewayBasicChannelInboundHandler extends BasicChannelInboundHandle
         if (session != null) {
             if (session instanceof SmtpGatewaySession) {
                 try {
-                    if (((SmtpGatewaySession) session).getSmtpClient() != null) {
-                        ((SmtpGatewaySession) session).getSmtpClient().logout();
-                        ((SmtpGatewaySession) session).setSmtpClient(null);
-                    }
+                    ((SmtpGatewaySession) session).releaseSmtpClient();
                     ((SmtpGatewaySession) session).cleanup();
                 } catch (Exception e) {
                     log.error("error on logout the smtp client", e);
@@ -51,13 +77,7 @@ public class GatewayBasicChannelInboundHandler extends BasicChannelInboundHandle
                 }
             } else if (session instanceof Pop3GatewaySession) {
                 try {
-                    if (((Pop3GatewaySession) session).getPop3ClientFolder() != null) {
-                        ((Pop3GatewaySession) session).getPop3ClientFolder().close(true);
-                        ((Pop3GatewaySession) session).getPop3ClientStore().close();
-                        ((Pop3GatewaySession) session).setPop3ClientFolder(null);
-                        ((Pop3GatewaySession) session).setPop3ClientStore(null);
-                        ((Pop3GatewaySession) session).getDelMsgs().clear();
-                    }
+                    ((Pop3GatewaySession) session).closePop3Client();
                     ((Pop3GatewaySession) session).cleanup();
                 } catch (Exception e) {
                     log.error("error on logout the smtp client", e);
@@ -44,8 +44,8 @@ public class GatewayKeystoreController extends AbstractWebController {
     @ResponseBody
     public String delete() throws Exception {
         gatewayKeystoreService.delete();
-        smtpGateway.restart();
-        pop3Gateway.restart();
+        smtpGateway.reload();
+        pop3Gateway.reload();
         return "";
     }
 
@@ -54,8 +54,8 @@ public class GatewayKeystoreController extends AbstractWebController {
     @ResponseBody
     public String createSelfsigned() throws Exception {
         gatewayKeystoreService.createSelfSigned();
-        smtpGateway.restart();
-        pop3Gateway.restart();
+        smtpGateway.reloadKeystore();
+        pop3Gateway.reloadKeystore();
         return "ok";
     }
 
@@ -71,8 +71,8 @@ public class GatewayKeystoreController extends AbstractWebController {
     @ResponseBody
     public String create(@RequestBody GatewayKeystoreData eldixSmtpKeystoreData) throws Exception {
         gatewayKeystoreService.create(eldixSmtpKeystoreData);
-        smtpGateway.restart();
-        pop3Gateway.restart();
+        smtpGateway.reloadKeystore();
+        pop3Gateway.reloadKeystore();
         return "ok";
     }
 }
@@ -17,18 +17,49 @@
 package net.sberg.openkim.gateway;
 
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.concurrent.GlobalEventExecutor;
 import org.apache.james.protocols.api.Protocol;
 import org.apache.james.protocols.netty.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 public class GatewayNettyServer extends AbstractAsyncServer {
+
+    private static final Logger log = LoggerFactory.getLogger(GatewayNettyServer.class);
+
+    private static final ExecutorService drainExecutor = Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder().setNameFormat("gateway-drain-%d").setDaemon(true).build()
+    );
+
     public static class Factory {
         private Protocol protocol;
         private boolean proxyRequired;
+        private boolean nativeTransport;
         private Optional<Encryption> secure;
         private Optional<ChannelHandlerFactory> frameHandlerFactory;
 
@@ -49,6 +80,14 @@ public class GatewayNettyServer extends AbstractAsyncServer {
             return this;
         }
 
+        /**
+         * @param nativeTransport epoll instead of nio, if the native library is available on this platform
+         */
+        public GatewayNettyServer.Factory nativeTransport(boolean nativeTransport) {
+            this.nativeTransport = nativeTransport;
+            return this;
+        }
+
         public GatewayNettyServer.Factory proxyRequired(boolean proxyRequired) {
             this.proxyRequired = proxyRequired;
             return this;
@@ -64,6 +103,7 @@ public class GatewayNettyServer extends AbstractAsyncServer {
             return new GatewayNettyServer(protocol,
                 secure.orElse(null),
                 proxyRequired,
+                nativeTransport,
                 frameHandlerFactory.orElse(new LineDelimiterBasedChannelHandlerFactory(AbstractChannelPipelineFactory.MAX_LINE_LENGTH)));
         }
     }
@@ -74,11 +114,25 @@ public class GatewayNettyServer extends AbstractAsyncServer {
     private int maxCurConnections;
     private int maxCurConnectionsPerIP;
     private boolean proxyRequired;
+    private final boolean nativeTransport;
+    private List<InetSocketAddress> listenAddresses = new ArrayList<>();
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private DefaultEventLoopGroup eventLoopGroup;
+    private ServerBootstrap bootstrap;
+    private volatile boolean bound;
+    private volatile boolean accepting;
+    private boolean epoll;
 
-    private GatewayNettyServer(Protocol protocol, Encryption secure, boolean proxyRequired, ChannelHandlerFactory frameHandlerFactory) {
+    //the bound server channels and the accepted connections, closed channels are removed by the groups
+    private final ChannelGroup listeners = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+    private final ChannelGroup connections = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+
+    private GatewayNettyServer(Protocol protocol, Encryption secure, boolean proxyRequired, boolean nativeTransport, ChannelHandlerFactory frameHandlerFactory) {
         this.protocol = protocol;
         this.secure = secure;
         this.proxyRequired = proxyRequired;
+        this.nativeTransport = nativeTransport;
         this.frameHandlerFactory = frameHandlerFactory;
     }
 
@@ -97,12 +151,194 @@ public class GatewayNettyServer extends AbstractAsyncServer {
     }
 
     protected ChannelInboundHandlerAdapter createCoreHandler() {
-        return new GatewayBasicChannelInboundHandler(new ProtocolMDCContextFactory.Standard(), protocol, secure, proxyRequired);
+        return new GatewayBasicChannelInboundHandler(new ProtocolMDCContextFactory.Standard(), protocol, secure, proxyRequired, connections);
     }
 
+    @Override
+    public synchronized void setListenAddresses(InetSocketAddress... addresses) {
+        super.setListenAddresses(addresses);
+        listenAddresses = Arrays.asList(addresses);
+    }
+
+    public boolean isListeningOn(InetSocketAddress address) {
+        return listenAddresses.contains(address);
+    }
+
+    private boolean isListeningOnAny(List<InetSocketAddress> addresses) {
+        for (Iterator<InetSocketAddress> iterator = addresses.iterator(); iterator.hasNext(); ) {
+            if (isListeningOn(iterator.next())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * Bound by the gateway itself instead of the AbstractAsyncServer, which always uses the nio transport.
+     */
     @Override
     public synchronized void bind() throws Exception {
-        super.bind();
+        if (bound) {
+            throw new IllegalStateException("Server running already");
+        }
+        if (listenAddresses.isEmpty()) {
+            throw new IllegalStateException("no listen address available");
+        }
+
+        epoll = nativeTransport && Epoll.isAvailable();
+        if (nativeTransport && !epoll) {
+            log.warn("epoll not available, the gateway uses the nio transport", Epoll.unavailabilityCause());
+        }
+        if (epoll) {
+            bossGroup = new EpollEventLoopGroup(1, createThreadFactory("boss"));
+            workerGroup = new EpollEventLoopGroup(0, createThreadFactory("io"));
+        } else {
+            bossGroup = new NioEventLoopGroup(1, createThreadFactory("boss"));
+            workerGroup = new NioEventLoopGroup(0, createThreadFactory("io"));
+        }
+
+        bootstrap = new ServerBootstrap()
+            .group(bossGroup, workerGroup)
+            .channel(epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class)
+            .option(ChannelOption.SO_BACKLOG, getBacklog())
+            .option(ChannelOption.SO_REUSEADDR, true)
+            .childOption(ChannelOption.TCP_NODELAY, true)
+            .childHandler(createPipelineFactory());
+
+        try {
+            for (Iterator<InetSocketAddress> iterator = listenAddresses.iterator(); iterator.hasNext(); ) {
+                listeners.add(bootstrap.bind(iterator.next()).sync().channel());
+            }
+        } catch (Exception e) {
+            shutdown();
+            throw e;
+        }
+        bound = true;
+        accepting = true;
+        log.info("gateway listener bound with the " + (epoll ? "epoll" : "nio") + " transport: " + listenAddresses);
+    }
+
+    /**
+     * Binds this server in place of the former one. A former listener on the same address stops accepting before,
+     * if the bind fails, it accepts again. The caller drains the former server only after a successful bind.
+     */
+    public void bindReplacing(GatewayNettyServer formerServer) throws Exception {
+        boolean formerStopped = false;
+        //the same port can only be bound after the former listener is closed
+        if (formerServer != null && formerServer.isListeningOnAny(listenAddresses)) {
+            formerServer.stopAccepting();
+            formerStopped = true;
+        }
+        try {
+            bind();
+        } catch (Exception e) {
+            if (formerStopped) {
+                try {
+                    formerServer.resumeAccepting();
+                    log.warn("gateway listener not bound, the former listener accepts again: " + listenAddresses);
+                } catch (Exception resumeException) {
+                    e.addSuppressed(resumeException);
+                }
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean isBound() {
+        return bound;
+    }
+
+    public boolean isAccepting() {
+        return bound && accepting;
+    }
+
+    /**
+     * @return true if bound with the epoll transport, false for nio
+     */
+    public boolean isNativeTransportUsed() {
+        return epoll;
+    }
+
+    private ThreadFactory createThreadFactory(String type) {
+        return new ThreadFactoryBuilder().setNameFormat("gateway-" + listenAddresses.get(0).getPort() + "-" + type + "-%d").setDaemon(true).build();
+    }
+
+    /**
+     * Closes the listeners, accepted connections stay open.
+     */
+    public synchronized void stopAccepting() {
+        accepting = false;
+        listeners.close().awaitUninterruptibly();
+    }
+
+    /**
+     * Binds the listeners again after {@link #stopAccepting()}, the accepted connections were kept open.
+     */
+    public synchronized void resumeAccepting() throws Exception {
+        if (!bound) {
+            throw new IllegalStateException("Server not bound");
+        }
+        if (accepting) {
+            return;
+        }
+        for (Iterator<InetSocketAddress> iterator = listenAddresses.iterator(); iterator.hasNext(); ) {
+            listeners.add(bootstrap.bind(iterator.next()).sync().channel());
+        }
+        accepting = true;
+    }
+
+    /**
+     * Closes the listeners and unbinds the server in the background, as soon as the open sessions are finished.
+     * Sessions still open after the drain timeout are closed.
+     */
+    public void drainAndUnbind(int drainTimeoutInSeconds, String name) {
+        stopAccepting();
+        log.info(name + ": stopped accepting, draining " + connections.size() + " sessions");
+        drainExecutor.execute(() -> {
+            long deadline = System.currentTimeMillis() + drainTimeoutInSeconds * 1000L;
+            for (Iterator<Channel> iterator = new ArrayList<>(connections).iterator(); iterator.hasNext(); ) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                iterator.next().closeFuture().awaitUninterruptibly(remaining);
+            }
+            if (connections.size() > 0) {
+                log.warn(name + ": drain timeout reached, closing " + connections.size() + " sessions");
+            }
+            try {
+                unbind();
+                log.info(name + ": drained and unbound");
+            } catch (Exception e) {
+                log.error(name + ": error on unbinding the drained server", e);
+            }
+        });
+    }
+
+    @Override
+    public synchronized void unbind() {
+        if (!bound) {
+            return;
+        }
+        shutdown();
+        bound = false;
+    }
+
+    private void shutdown() {
+        accepting = false;
+        listeners.close().awaitUninterruptibly();
+        //closes the remaining connections
+        workerGroup.shutdownGracefully().awaitUninterruptibly();
+        bossGroup.shutdownGracefully().awaitUninterruptibly();
+        if (eventLoopGroup != null) {
+            eventLoopGroup.shutdownGracefully();
+            eventLoopGroup = null;
+        }
     }
 
     private ChannelHandlerFactory getFrameHandlerFactory() {
@@ -111,6 +347,7 @@ public class GatewayNettyServer extends AbstractAsyncServer {
 
     @Override
     protected AbstractChannelPipelineFactory createPipelineFactory() {
+        eventLoopGroup = new DefaultEventLoopGroup(16);
         return new AbstractSSLAwareChannelPipelineFactory(
             getTimeout(),
             maxCurConnections,
@@ -118,7 +355,7 @@ public class GatewayNettyServer extends AbstractAsyncServer {
             proxyRequired,
             secure,
             getFrameHandlerFactory(),
-            new DefaultEventLoopGroup(16)
+            eventLoopGroup
         ) {
           @Override
          protected ChannelInboundHandlerAdapter createHandler() {
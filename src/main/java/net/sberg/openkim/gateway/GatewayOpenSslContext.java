@@ -0,0 +1,142 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.gateway;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslProvider;
+import io.netty.util.ReferenceCountUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLContextSpi;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509KeyManager;
+import java.security.SecureRandom;
+
+/**
+ * SSLContext of the gateway listeners backed by netty-tcnative (OpenSSL/BoringSSL).
+ * The james protocols create their tls engines from a SSLContext, the engines of this context are OpenSSL engines.
+ * The key material is taken from the key manager on each handshake, a swapped keystore is used without rebinding.
+ */
+public class GatewayOpenSslContext extends SSLContext {
+
+    private static final Logger log = LoggerFactory.getLogger(GatewayOpenSslContext.class);
+
+    private GatewayOpenSslContext(SslContext sslContext) {
+        super(new OpenSslContextSpi(sslContext), null, "TLS");
+    }
+
+    /**
+     * @return null, if the native OpenSSL library is not available on this platform or does not support the key material
+     */
+    public static SSLContext create(X509KeyManager keyManager) {
+        if (!OpenSsl.isAvailable()) {
+            log.warn("OpenSSL not available, the gateway uses the java tls implementation", OpenSsl.unavailabilityCause());
+            return null;
+        }
+        try {
+            if (!isKeyMaterialSupported(keyManager)) {
+                return null;
+            }
+            SslContext sslContext = SslContextBuilder.forServer(keyManager)
+                .sslProvider(SslProvider.OPENSSL)
+                .build();
+            log.info("gateway tls with " + OpenSsl.versionString());
+            return new GatewayOpenSslContext(sslContext);
+        } catch (Exception e) {
+            log.warn("error on creating the OpenSSL context, the gateway uses the java tls implementation", e);
+            return null;
+        }
+    }
+
+    /**
+     * The key material is converted on each handshake, unsupported keys (e.g. BoringSSL has no brainpool curves) would only fail then.
+     *
+     * @return false, if OpenSSL does not support a key of the key manager
+     */
+    public static boolean isKeyMaterialSupported(X509KeyManager keyManager) {
+        String[] keyTypes = new String[]{"RSA", "EC"};
+        for (int i = 0; i < keyTypes.length; i++) {
+            String[] aliases = keyManager.getServerAliases(keyTypes[i], null);
+            for (int j = 0; aliases != null && j < aliases.length; j++) {
+                try {
+                    SslContext probe = SslContextBuilder.forServer(keyManager.getPrivateKey(aliases[j]), keyManager.getCertificateChain(aliases[j]))
+                        .sslProvider(SslProvider.OPENSSL)
+                        .build();
+                    ReferenceCountUtil.release(probe);
+                } catch (Exception e) {
+                    log.warn("key of the gateway keystore not supported by OpenSSL, the gateway uses the java tls implementation: " + aliases[j], e);
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static class OpenSslContextSpi extends SSLContextSpi {
+
+        private final SslContext sslContext;
+
+        private OpenSslContextSpi(SslContext sslContext) {
+            this.sslContext = sslContext;
+        }
+
+        @Override
+        protected void engineInit(KeyManager[] keyManagers, TrustManager[] trustManagers, SecureRandom secureRandom) {
+            //initialized by the SslContextBuilder
+        }
+
+        @Override
+        protected SSLSocketFactory engineGetSocketFactory() {
+            throw new UnsupportedOperationException("only ssl engines are supported");
+        }
+
+        @Override
+        protected SSLServerSocketFactory engineGetServerSocketFactory() {
+            throw new UnsupportedOperationException("only ssl engines are supported");
+        }
+
+        @Override
+        protected SSLEngine engineCreateSSLEngine() {
+            return sslContext.newEngine(ByteBufAllocator.DEFAULT);
+        }
+
+        @Override
+        protected SSLEngine engineCreateSSLEngine(String host, int port) {
+            return sslContext.newEngine(ByteBufAllocator.DEFAULT, host, port);
+        }
+
+        @Override
+        protected SSLSessionContext engineGetServerSessionContext() {
+            return sslContext.sessionContext();
+        }
+
+        @Override
+        protected SSLSessionContext engineGetClientSessionContext() {
+            throw new UnsupportedOperationException("only the server side is supported");
+        }
+    }
+}
@@ -20,7 +20,10 @@ import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import net.sberg.openkim.common.EnumMailConnectionSecurity;
 import net.sberg.openkim.common.ICommonConstants;
+import net.sberg.openkim.gateway.GatewayKeyManager;
 import net.sberg.openkim.gateway.GatewayNettyServer;
+import net.sberg.openkim.gateway.GatewayOpenSslContext;
+import net.sberg.openkim.gateway.pop3.prefetch.Pop3MessagePrefetchService;
 import net.sberg.openkim.konfiguration.Konfiguration;
 import net.sberg.openkim.konfiguration.KonfigurationService;
 import net.sberg.openkim.log.LogService;
@@ -35,12 +38,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.KeyManager;
 import javax.net.ssl.SSLContext;
-import java.io.File;
-import java.io.FileInputStream;
 import java.net.InetSocketAddress;
-import java.security.KeyStore;
 
 @Service
 public class Pop3Gateway {
@@ -48,6 +48,10 @@ public class Pop3Gateway {
     private static final Logger log = LoggerFactory.getLogger(Pop3Gateway.class);
 
     private GatewayNettyServer server;
+    private final GatewayKeyManager keyManager = new GatewayKeyManager();
+    private String keystoreFilename = ICommonConstants.BASE_DIR+ICommonConstants.OPENKIM_SERVER_KEYSTORE_FILENAME;
+    private boolean tlsActive = false;
+    private boolean openSslActive = false;
 
     @Autowired
     private LogService logService;
@@ -55,6 +59,10 @@ public class Pop3Gateway {
     private PipelineService pipelineService;
     @Autowired
     private KonfigurationService konfigurationService;
+    @Autowired
+    private Pop3GatewayMessageService pop3GatewayMessageService;
+    @Autowired
+    private Pop3MessagePrefetchService pop3MessagePrefetchService;
     @Value("${gatewaykeystore.password}")
     private String keyStorePwd;
 
@@ -85,77 +93,121 @@ public class Pop3Gateway {
     }
 
     private void start() throws Exception {
+        start(null);
+    }
+
+    /**
+     * @param formerServer stops accepting before or after binding the new listener, depending on the listen address
+     * @return false if the new listener is not bound, a former listener on the same address accepts again
+     */
+    private boolean start(GatewayNettyServer formerServer) throws Exception {
         try {
             Konfiguration konfiguration = konfigurationService.getKonfiguration();
             if (konfiguration == null) {
-                return;
+                return false;
             }
 
             if (log.isInfoEnabled()) {
                 log.info("***POP3 Gateway activated***");
             }
 
-            server = new GatewayNettyServer.Factory()
-                .protocol(createProtocol(konfiguration)).secure(buildSSLContext(konfiguration))
+            InetSocketAddress listenAddress = new InetSocketAddress(konfiguration.getGatewayHost(), Integer.parseInt(konfiguration.getPop3GatewayPort()));
+            SSLContext sslContext = buildSSLContext(konfiguration);
+            Encryption encryption = null;
+            if (sslContext != null) {
+                if (konfiguration.getPop3GatewayConnectionSec().equals(EnumMailConnectionSecurity.STARTTLS)) {
+                    encryption = Encryption.createStartTls(sslContext, null, null, ClientAuth.NONE);
+                }
+                else {
+                    encryption = Encryption.createTls(sslContext, null, null, ClientAuth.NONE);
+                }
+            }
+            GatewayNettyServer nextServer = new GatewayNettyServer.Factory()
+                .protocol(createProtocol()).secure(encryption)
+                .nativeTransport(konfiguration.isGatewayNativeTransportEnabled())
                 .build();
-            server.setTimeout(konfiguration.getPop3GatewayIdleTimeoutInSeconds());
-            server.setListenAddresses(new InetSocketAddress(konfiguration.getGatewayHost(), Integer.parseInt(konfiguration.getPop3GatewayPort())));
-            server.bind();
+            nextServer.setTimeout(konfiguration.getPop3GatewayIdleTimeoutInSeconds());
+            nextServer.setListenAddresses(listenAddress);
+            nextServer.bindReplacing(formerServer);
+            server = nextServer;
+            tlsActive = encryption != null;
+            openSslActive = sslContext instanceof GatewayOpenSslContext;
             startSucces = true;
 
             if (log.isInfoEnabled()) {
                 log.info("***POP3 Gateway is started***");
             }
+            return true;
         } catch (Exception e) {
             log.error("error on starting the pop3 gateway", e);
+            return false;
         }
     }
 
-    private Encryption buildSSLContext(Konfiguration konfiguration) throws Exception {
-        Encryption encryption = null;
+    private SSLContext buildSSLContext(Konfiguration konfiguration) throws Exception {
+        SSLContext context = null;
         if (!konfiguration.getPop3GatewayConnectionSec().equals(EnumMailConnectionSecurity.NONE)) {
-            FileInputStream fis = null;
             try {
-                KeyStore ks = KeyStore.getInstance("PKCS12", "BC");
-                fis = new FileInputStream(new File(ICommonConstants.BASE_DIR+ICommonConstants.OPENKIM_SERVER_KEYSTORE_FILENAME));
-                ks.load(fis, keyStorePwd.toCharArray());
-
-                // Set up key manager factory to use our key store
-                KeyManagerFactory kmf = KeyManagerFactory.getInstance("PKIX", "BCJSSE");
-                kmf.init(ks, keyStorePwd.toCharArray());
+                keyManager.reload(keystoreFilename, keyStorePwd);
 
-                // Initialize the SSLContext to work with our key managers.
-                SSLContext context = SSLContext.getInstance("TLS", "BCJSSE");
-                context.init(kmf.getKeyManagers(), null, null);
-                if (konfiguration.getPop3GatewayConnectionSec().equals(EnumMailConnectionSecurity.STARTTLS)) {
-                    encryption = Encryption.createStartTls(context, null, null, ClientAuth.NONE);
-                }
-                else {
-                    encryption = Encryption.createTls(context, null, null, ClientAuth.NONE);
+                // Initialize the SSLContext to work with our swappable key manager, OpenSSL if configured and available.
+                context = konfiguration.isGatewayOpenSslEnabled() ? GatewayOpenSslContext.create(keyManager) : null;
+                if (context == null) {
+                    context = SSLContext.getInstance("TLS", "BCJSSE");
+                    context.init(new KeyManager[]{keyManager}, null, null);
                 }
-
             }
             catch (Exception e) {
                 log.error("error on starting the pop3 gateway - bulding ssl context", e);
-            }
-            finally {
-                if (fis != null) {
-                    fis.close();
-                }
-                return encryption;
+                context = null;
             }
         }
-        return encryption;
+        return context;
     }
 
-    protected Protocol createProtocol(Konfiguration konfiguration) throws WiringException {
-        Pop3GatewayProtocolHandlerChain chain = new Pop3GatewayProtocolHandlerChain(pipelineService);
+    protected Protocol createProtocol() throws WiringException {
+        Pop3GatewayProtocolHandlerChain chain = new Pop3GatewayProtocolHandlerChain(pipelineService, pop3GatewayMessageService, pop3MessagePrefetchService);
         chain.wireExtensibleHandlers();
-        return new Pop3GatewayProtocol(chain, new Pop3GatewayConfiguration(konfiguration, logService));
+        return new Pop3GatewayProtocol(chain, new Pop3GatewayConfiguration(konfigurationService::getKonfiguration, logService, pop3GatewayMessageService));
     }
 
-    public void restart() throws Exception {
-        destroy();
-        start();
+    /**
+     * Binds the listener with the current konfiguration. The former listener stops accepting,
+     * its sessions are finished up to the drain timeout. If the new listener can not be bound, the former one stays.
+     */
+    public synchronized void reload() throws Exception {
+        GatewayNettyServer formerServer = server;
+        startSucces = false;
+        if (start(formerServer)) {
+            if (formerServer != null) {
+                formerServer.drainAndUnbind(konfigurationService.getKonfiguration().getGatewayDrainTimeoutInSeconds(), "pop3 gateway");
+            }
+        } else if (formerServer != null) {
+            //the sessions of the former listener are not drained
+            startSucces = formerServer.isAccepting();
+        }
+    }
+
+    /**
+     * New tls handshakes use the changed openkim keystore, the listener stays bound.
+     * A keystore not supported by the OpenSSL listener rebinds the listener with the java tls implementation.
+     */
+    public synchronized void reloadKeystore() throws Exception {
+        if (!startSucces || !tlsActive) {
+            reload();
+            return;
+        }
+        try {
+            keyManager.reload(keystoreFilename, keyStorePwd);
+            if (openSslActive && !GatewayOpenSslContext.isKeyMaterialSupported(keyManager)) {
+                //OpenSSL would only fail on the handshakes, the listener is rebuilt with the java tls implementation
+                reload();
+                return;
+            }
+            log.info("***POP3 Gateway keystore reloaded***");
+        } catch (Exception e) {
+            log.error("error on reloading the keystore of the pop3 gateway", e);
+            reload();
+        }
     }
 }
@@ -20,14 +20,18 @@ import net.sberg.openkim.konfiguration.Konfiguration;
 import net.sberg.openkim.log.LogService;
 import org.apache.james.protocols.pop3.POP3Configuration;
 
+import java.util.function.Supplier;
+
 public class Pop3GatewayConfiguration extends POP3Configuration {
 
-    private final Konfiguration konfiguration;
+    private final Supplier<Konfiguration> konfigurationSupplier;
     private final LogService logService;
+    private final Pop3GatewayMessageService pop3GatewayMessageService;
 
-    public Pop3GatewayConfiguration(Konfiguration konfiguration, LogService logService) {
-        this.konfiguration = konfiguration;
+    public Pop3GatewayConfiguration(Supplier<Konfiguration> konfigurationSupplier, LogService logService, Pop3GatewayMessageService pop3GatewayMessageService) {
+        this.konfigurationSupplier = konfigurationSupplier;
         this.logService = logService;
+        this.pop3GatewayMessageService = pop3GatewayMessageService;
     }
 
     @Override
@@ -39,7 +43,14 @@ public class Pop3GatewayConfiguration extends POP3Configuration {
         return logService;
     }
 
+    public Pop3GatewayMessageService getPop3GatewayMessageService() {
+        return pop3GatewayMessageService;
+    }
+
+    /**
+     * @return the current version of the konfiguration, sessions keep the version they started with
+     */
     public Konfiguration getKonfiguration() {
-        return konfiguration;
+        return konfigurationSupplier.get();
     }
 }
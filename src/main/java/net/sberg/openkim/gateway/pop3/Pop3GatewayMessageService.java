@@ -0,0 +1,371 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.gateway.pop3;
+
+import com.sun.mail.pop3.POP3Message;
+import net.sberg.openkim.gateway.pop3.cache.Pop3MessageCacheService;
+import net.sberg.openkim.gateway.pop3.cache.Pop3MessageHeaderIndexService;
+import net.sberg.openkim.gateway.pop3.cache.Pop3MessagePreview;
+import net.sberg.openkim.gateway.pop3.prefetch.Pop3MessagePrefetcher;
+import net.sberg.openkim.konfiguration.EnumGatewayTIMode;
+import net.sberg.openkim.konfiguration.Konfiguration;
+import net.sberg.openkim.konnektor.Konnektor;
+import net.sberg.openkim.log.DefaultLogger;
+import net.sberg.openkim.pipeline.PipelineService;
+import net.sberg.openkim.pipeline.operation.DefaultPipelineOperationContext;
+import net.sberg.openkim.pipeline.operation.mail.CreateDsnOperation;
+import net.sberg.openkim.pipeline.operation.mail.CreateEmbeddedMessageRfc822Operation;
+import net.sberg.openkim.pipeline.operation.mail.DecryptVerifyMailOperation;
+import net.sberg.openkim.pipeline.operation.mail.MailUtils;
+import net.sberg.openkim.pipeline.operation.mail.kas.KasIncomingMailOperation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.mail.Message;
+import javax.mail.internet.MimeMessage;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+@Service
+public class Pop3GatewayMessageService {
+
+    private static final Logger log = LoggerFactory.getLogger(Pop3GatewayMessageService.class);
+
+    @Autowired
+    private PipelineService pipelineService;
+    @Autowired
+    private Pop3MessageCacheService pop3MessageCacheService;
+    @Autowired
+    private Pop3MessageHeaderIndexService pop3MessageHeaderIndexService;
+
+    public String getUid(Pop3GatewaySession pop3GatewaySession, Message message) throws Exception {
+        return getEntry(pop3GatewaySession, message).getUid();
+    }
+
+    public Pop3MessageTableEntry getEntry(Pop3GatewaySession pop3GatewaySession, Message message) throws Exception {
+        return pop3GatewaySession.getPop3MessageTable().get(message.getMessageNumber());
+    }
+
+    /**
+     * Downloads the upstream message, the copy is processed without the upstream folder of the session.
+     */
+    public MimeMessage download(MimeMessage message) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(Math.max(message.getSize(), 0) + 1024);
+        message.writeTo(baos);
+        byte[] msg = baos.toByteArray();
+        return MailUtils.parseMimeMessage(msg, 0, msg.length);
+    }
+
+    public byte[] load(Pop3GatewaySession pop3GatewaySession, MimeMessage message) throws Exception {
+        DefaultLogger logger = pop3GatewaySession.getLogger();
+        Konfiguration konfiguration = logger.getDefaultLoggerContext().getKonfiguration();
+
+        if (konfiguration.getGatewayTIMode().equals(EnumGatewayTIMode.NO_TI)) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            message.writeTo(baos);
+            byte[] pop3msg = baos.toByteArray();
+            baos.reset();
+            baos.close();
+            return pop3msg;
+        }
+
+        Pop3MessageTableEntry entry = getEntry(pop3GatewaySession, message);
+
+        Pop3MessagePrefetcher prefetcher = pop3GatewaySession.getPop3MessagePrefetcher();
+        if (prefetcher != null && entry.getUid() != null) {
+            CompletableFuture<byte[]> prefetched = prefetcher.claim(entry.getUid());
+            if (prefetched != null) {
+                try {
+                    //a prefetch waiting for the konnektor does not delay the retr longer than a konnektor call
+                    byte[] pop3msg = prefetched.get(logger.getDefaultLoggerContext().getKonnektor().getTimeoutInSeconds(), TimeUnit.SECONDS);
+                    if (pop3msg != null) {
+                        pop3GatewaySession.log("message loaded from prefetch");
+                        return pop3msg;
+                    }
+                } catch (TimeoutException e) {
+                    pop3GatewaySession.log("prefetch not finished - load message");
+                }
+            }
+        }
+
+        return load(pop3GatewaySession, logger, message, entry);
+    }
+
+    /**
+     * Loads the message from the cache or decrypts and verifies it.
+     * The logger may differ from the session logger, e.g. for the prefetch beside the session.
+     * The message may be the upstream message or a downloaded copy of it, the table entry identifies the upstream message.
+     */
+    public byte[] load(Pop3GatewaySession pop3GatewaySession, DefaultLogger logger, MimeMessage message, Pop3MessageTableEntry entry) throws Exception {
+        String uid = entry.getUid();
+        //no uidl support of the mail server, no cache
+        if (uid == null) {
+            return process(pop3GatewaySession, logger, message);
+        }
+        Konfiguration konfiguration = logger.getDefaultLoggerContext().getKonfiguration();
+        String mailboxId = Pop3MessageCacheService.createMailboxId(logger.getDefaultLoggerContext());
+
+        return pop3MessageCacheService.runExclusive(mailboxId, uid, () -> {
+            byte[] pop3msg = null;
+            byte[] contentHash = null;
+            if (pop3MessageCacheService.isEnabled(konfiguration)) {
+                contentHash = Pop3MessageCacheService.createContentHash(message);
+                pop3msg = pop3MessageCacheService.get(konfiguration, mailboxId, logger.getDefaultLoggerContext().getMailServerPassword(), uid, contentHash, entry.getSize());
+            }
+
+            if (pop3msg != null) {
+                if (logger == pop3GatewaySession.getLogger()) {
+                    pop3GatewaySession.log("message loaded from cache");
+                }
+                if (pop3MessageHeaderIndexService.get(mailboxId, uid) == null) {
+                    pop3MessageHeaderIndexService.put(mailboxId, uid, pop3msg);
+                }
+                return pop3msg;
+            }
+
+            pop3msg = process(pop3GatewaySession, logger, message);
+            //a message deleted meanwhile by the session (prefetch) is not cached again, the entries are invalidated on quit
+            if (logger.getDefaultLoggerContext().getMailSignVerifyErrorContext().isEmpty()
+                && logger.getDefaultLoggerContext().getMailDecryptErrorContext().isEmpty()
+                && !pop3GatewaySession.isDeleted(entry.getNumber())
+            ) {
+                if (contentHash != null) {
+                    pop3MessageCacheService.put(konfiguration, mailboxId, logger.getDefaultLoggerContext().getMailServerPassword(), uid, contentHash, entry.getSize(), pop3msg);
+                }
+                pop3MessageHeaderIndexService.put(mailboxId, uid, pop3msg);
+            }
+            return pop3msg;
+        });
+    }
+
+    /**
+     * @return the headers and body lines of the message, not dot-stuffed
+     */
+    public byte[] top(Pop3GatewaySession pop3GatewaySession, POP3Message message, int lineCount) throws Exception {
+        DefaultLogger logger = pop3GatewaySession.getLogger();
+        Konfiguration konfiguration = logger.getDefaultLoggerContext().getKonfiguration();
+
+        if (konfiguration.getGatewayTIMode().equals(EnumGatewayTIMode.NO_TI)) {
+            return message.top(lineCount).readAllBytes();
+        }
+
+        String mailboxId = Pop3MessageCacheService.createMailboxId(logger.getDefaultLoggerContext());
+        Pop3MessageTableEntry entry = getEntry(pop3GatewaySession, message);
+        String uid = entry.getUid();
+
+        if (uid != null) {
+            Pop3MessagePreview preview = pop3MessageHeaderIndexService.get(mailboxId, uid);
+            if (preview != null && preview.covers(lineCount)) {
+                pop3GatewaySession.log("top - message loaded from header index");
+                return preview.top(lineCount);
+            }
+
+            byte[] pop3msg = pop3MessageCacheService.get(konfiguration, mailboxId, logger.getDefaultLoggerContext().getMailServerPassword(), uid, null, entry.getSize());
+            if (pop3msg != null) {
+                pop3GatewaySession.log("top - message loaded from cache");
+                pop3MessageHeaderIndexService.put(mailboxId, uid, pop3msg);
+                return Pop3MessagePreview.create(pop3msg, lineCount).top(lineCount);
+            }
+        }
+
+        //kim message -> decrypt once, following top and retr commands are served from the index and the cache
+        if (konfiguration.isPop3DecryptTopEnabled() && message.getHeader(MailUtils.X_KOM_LE_VERSION) != null) {
+            pop3GatewaySession.log("top - decrypt message");
+            byte[] pop3msg = load(pop3GatewaySession, message);
+            return Pop3MessagePreview.create(pop3msg, lineCount).top(lineCount);
+        }
+
+        return message.top(lineCount).readAllBytes();
+    }
+
+    public boolean isCached(Pop3GatewaySession pop3GatewaySession, String uid) {
+        DefaultLogger logger = pop3GatewaySession.getLogger();
+        return pop3MessageCacheService.contains(
+            logger.getDefaultLoggerContext().getKonfiguration(),
+            Pop3MessageCacheService.createMailboxId(logger.getDefaultLoggerContext()),
+            uid
+        );
+    }
+
+    /**
+     * Drops a prefetched result of the deleted message, the cache entries stay valid until the deletion is committed by QUIT.
+     */
+    public void discardPrefetched(Pop3GatewaySession pop3GatewaySession, Message message) throws Exception {
+        String uid = getUid(pop3GatewaySession, message);
+        if (pop3GatewaySession.getPop3MessagePrefetcher() != null && uid != null) {
+            pop3GatewaySession.getPop3MessagePrefetcher().claim(uid);
+        }
+    }
+
+    /**
+     * @return the uids of the messages deleted by the session, determined before the upstream folder is closed
+     */
+    public List<String> getDeletedUids(Pop3GatewaySession pop3GatewaySession) throws Exception {
+        List<String> uids = new ArrayList<>();
+        for (Iterator<Integer> iterator = pop3GatewaySession.getDelMsgs().iterator(); iterator.hasNext(); ) {
+            String uid = pop3GatewaySession.getPop3MessageTable().get(iterator.next()).getUid();
+            if (uid != null) {
+                uids.add(uid);
+            }
+        }
+        return uids;
+    }
+
+    /**
+     * Invalidates the cache entries of the messages deleted upstream.
+     */
+    public void invalidate(Pop3GatewaySession pop3GatewaySession, List<String> uids) throws Exception {
+        String mailboxId = Pop3MessageCacheService.createMailboxId(pop3GatewaySession.getLogger().getDefaultLoggerContext());
+        for (Iterator<String> iterator = uids.iterator(); iterator.hasNext(); ) {
+            String uid = iterator.next();
+            pop3MessageCacheService.invalidate(mailboxId, uid);
+            pop3MessageHeaderIndexService.invalidate(mailboxId, uid);
+        }
+    }
+
+    private byte[] decryptVerify(
+        DefaultLogger logger,
+        String userMailAddress,
+        MimeMessage encryptedMsg
+    ) throws Exception {
+        Konnektor konnektor = logger.getDefaultLoggerContext().getKonnektor();
+        try {
+            DecryptVerifyMailOperation decryptVerifyMailOperation = (DecryptVerifyMailOperation) pipelineService.getOperation(DecryptVerifyMailOperation.BUILTIN_VENDOR+"."+DecryptVerifyMailOperation.NAME);
+
+            DefaultPipelineOperationContext defaultPipelineOperationContext = new DefaultPipelineOperationContext(logger);
+            defaultPipelineOperationContext.setEnvironmentValue(DecryptVerifyMailOperation.NAME, DecryptVerifyMailOperation.ENV_ENCRYPTED_MSG, encryptedMsg);
+            defaultPipelineOperationContext.setEnvironmentValue(DecryptVerifyMailOperation.NAME, DecryptVerifyMailOperation.ENV_USER_MAIL_ADDRESS, userMailAddress);
+
+            AtomicInteger failedCounter = new AtomicInteger();
+            decryptVerifyMailOperation.execute(
+                defaultPipelineOperationContext,
+                context -> {
+                    log.info("decrypt and verify mail finished");
+                },
+                (context, e) -> {
+                    log.error("error on decrypting and verifying mail", e);
+                    failedCounter.incrementAndGet();
+                }
+            );
+
+            if (failedCounter.get() == 0) {
+                return (byte[])defaultPipelineOperationContext.getEnvironmentValue(DecryptVerifyMailOperation.NAME, DecryptVerifyMailOperation.ENV_RESULT_MSG_BYTES);
+            }
+            else {
+                throw new IllegalStateException("error on decrypting and verifying mail");
+            }
+        } catch (Exception e) {
+            log.error("error on mail decrypting and verifying for the konnektor: " + konnektor.getIp(), e);
+            throw e;
+        }
+    }
+
+    private byte[] process(Pop3GatewaySession pop3GatewaySession, DefaultLogger logger, MimeMessage message) throws Exception {
+        if (logger.getDefaultLoggerContext().getKonfiguration().getGatewayTIMode().equals(EnumGatewayTIMode.FULLSTACK)) {
+            KasIncomingMailOperation kasIncomingMailOperation = (KasIncomingMailOperation) pipelineService.getOperation(KasIncomingMailOperation.BUILTIN_VENDOR+"."+KasIncomingMailOperation.NAME);
+            DefaultPipelineOperationContext defaultPipelineOperationContext = new DefaultPipelineOperationContext(logger);
+            defaultPipelineOperationContext.setEnvironmentValue(KasIncomingMailOperation.NAME, KasIncomingMailOperation.ENV_MSG, message);
+            defaultPipelineOperationContext.setEnvironmentValue(KasIncomingMailOperation.NAME, KasIncomingMailOperation.ENV_POP3_GATEWAY_SESSION, pop3GatewaySession);
+
+            AtomicReference<Exception> kasFailure = new AtomicReference<>();
+            kasIncomingMailOperation.execute(
+                defaultPipelineOperationContext,
+                context -> {
+                    log.info("handle kas finished");
+                },
+                (context, e) -> {
+                    log.error("error on handling of kas", e);
+                    kasFailure.set(e);
+                }
+            );
+            boolean valid = (boolean)defaultPipelineOperationContext.getEnvironmentValue(KasIncomingMailOperation.NAME, KasIncomingMailOperation.ENV_VALID_RESULT);
+            if (!valid) {
+                //embedded message
+                throw new IllegalStateException("error on handling of kas: "+pop3GatewaySession.getSessionID(), kasFailure.get());
+            }
+            message = (MimeMessage) defaultPipelineOperationContext.getEnvironmentValue(KasIncomingMailOperation.NAME, KasIncomingMailOperation.ENV_RESULT_MSG);
+        }
+
+        String userMailAddress = logger.getDefaultLoggerContext().getMailServerUsername();
+        if (!logger.getDefaultLoggerContext().getKonfiguration().getGatewayTIMode().equals(EnumGatewayTIMode.FULLSTACK) && logger.getDefaultLoggerContext().getSenderAddressMapping().containsKey(userMailAddress)) {
+            userMailAddress = logger.getDefaultLoggerContext().getSenderAddressMapping().get(userMailAddress);
+        }
+
+        byte[] pop3msg = decryptVerify(logger, userMailAddress, message);
+        if (!logger.getDefaultLoggerContext().getMailSignVerifyErrorContext().isEmpty()) {
+
+            CreateDsnOperation createDsnOperation = (CreateDsnOperation) pipelineService.getOperation(CreateDsnOperation.BUILTIN_VENDOR + "." + CreateDsnOperation.NAME);
+
+            DefaultPipelineOperationContext defaultPipelineOperationContext = new DefaultPipelineOperationContext(logger);
+            defaultPipelineOperationContext.setEnvironmentValue(CreateDsnOperation.NAME, CreateDsnOperation.ENV_ORIGIN_MSG, message);
+            defaultPipelineOperationContext.setEnvironmentValue(CreateDsnOperation.NAME, CreateDsnOperation.ENV_ERROR_CONTEXT, logger.getDefaultLoggerContext().getMailSignVerifyErrorContext());
+
+            AtomicInteger failedCounter = new AtomicInteger();
+            createDsnOperation.execute(
+                defaultPipelineOperationContext,
+                context -> {
+                    log.info("create dsn finished");
+                },
+                (context, e) -> {
+                    log.error("error on creating of dsn", e);
+                    failedCounter.incrementAndGet();
+                }
+            );
+
+            if (failedCounter.get() == 0) {
+                pop3msg = (byte[]) defaultPipelineOperationContext.getEnvironmentValue(CreateDsnOperation.NAME, CreateDsnOperation.ENV_DSN_MSG_BYTES);
+            } else {
+                throw new IllegalStateException("error on creating dsn mail");
+            }
+        }
+        else if (!logger.getDefaultLoggerContext().getMailDecryptErrorContext().isEmpty()) {
+            CreateEmbeddedMessageRfc822Operation createEmbeddedMessageRfc822Operation = (CreateEmbeddedMessageRfc822Operation) pipelineService.getOperation(CreateEmbeddedMessageRfc822Operation.BUILTIN_VENDOR + "." + CreateEmbeddedMessageRfc822Operation.NAME);
+
+            DefaultPipelineOperationContext defaultPipelineOperationContext = new DefaultPipelineOperationContext(logger);
+            defaultPipelineOperationContext.setEnvironmentValue(CreateEmbeddedMessageRfc822Operation.NAME, CreateEmbeddedMessageRfc822Operation.ENV_ORIGIN_MSG, message);
+            defaultPipelineOperationContext.setEnvironmentValue(CreateEmbeddedMessageRfc822Operation.NAME, CreateEmbeddedMessageRfc822Operation.ENV_ERROR_CONTEXT, logger.getDefaultLoggerContext().getMailDecryptErrorContext());
+
+            AtomicInteger failedCounter = new AtomicInteger();
+            createEmbeddedMessageRfc822Operation.execute(
+                defaultPipelineOperationContext,
+                context -> {
+                    log.info("add embedded message finished");
+                },
+                (context, e) -> {
+                    log.error("error on embedding message", e);
+                    failedCounter.incrementAndGet();
+                }
+            );
+
+            if (failedCounter.get() == 0) {
+                pop3msg = (byte[]) defaultPipelineOperationContext.getEnvironmentValue(CreateEmbeddedMessageRfc822Operation.NAME, CreateEmbeddedMessageRfc822Operation.ENV_RESULT_MSG_BYTES);
+            } else {
+                throw new IllegalStateException("error on embedding message");
+            }
+        }
+        return pop3msg;
+    }
+}
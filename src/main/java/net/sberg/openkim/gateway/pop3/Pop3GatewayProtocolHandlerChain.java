@@ -17,6 +17,7 @@
 package net.sberg.openkim.gateway.pop3;
 
 import net.sberg.openkim.gateway.pop3.cmdhandler.*;
+import net.sberg.openkim.gateway.pop3.prefetch.Pop3MessagePrefetchService;
 import net.sberg.openkim.pipeline.PipelineService;
 import org.apache.james.protocols.api.handler.*;
 import org.apache.james.protocols.pop3.POP3Session;
@@ -26,25 +27,25 @@ import java.util.List;
 
 public class Pop3GatewayProtocolHandlerChain extends ProtocolHandlerChainImpl {
 
-    public Pop3GatewayProtocolHandlerChain(PipelineService pipelineService) throws WiringException {
-        addAll(initDefaultHandlers(pipelineService));
+    public Pop3GatewayProtocolHandlerChain(PipelineService pipelineService, Pop3GatewayMessageService pop3GatewayMessageService, Pop3MessagePrefetchService pop3MessagePrefetchService) throws WiringException {
+        addAll(initDefaultHandlers(pipelineService, pop3GatewayMessageService, pop3MessagePrefetchService));
         wireExtensibleHandlers();
     }
 
-    protected List<ProtocolHandler> initDefaultHandlers(PipelineService pipelineService) {
+    protected List<ProtocolHandler> initDefaultHandlers(PipelineService pipelineService, Pop3GatewayMessageService pop3GatewayMessageService, Pop3MessagePrefetchService pop3MessagePrefetchService) {
         List<ProtocolHandler> handlers = new ArrayList<>();
 
-        handlers.add(new Pop3GatewayPassCmdHandler(pipelineService));
+        handlers.add(new Pop3GatewayPassCmdHandler(pipelineService, pop3MessagePrefetchService));
         handlers.add(new Pop3GatewayCapaCmdHandler());
-        handlers.add(new Pop3GatewayAuthCmdHandler(pipelineService));
+        handlers.add(new Pop3GatewayAuthCmdHandler(pipelineService, pop3MessagePrefetchService));
         handlers.add(new Pop3GatewayUserCmdHandler());
         handlers.add(new Pop3GatewayListCmdHandler());
         handlers.add(new Pop3GatewayUidlCmdHandler());
         handlers.add(new Pop3GatewayRsetCmdHandler());
-        handlers.add(new Pop3GatewayDeleCmdHandler());
+        handlers.add(new Pop3GatewayDeleCmdHandler(pop3GatewayMessageService));
         handlers.add(new Pop3GatewayNoopCmdHandler());
-        handlers.add(new Pop3GatewayRetrCmdHandler(pipelineService));
-        handlers.add(new Pop3GatewayTopCmdHandler());
+        handlers.add(new Pop3GatewayRetrCmdHandler(pop3GatewayMessageService));
+        handlers.add(new Pop3GatewayTopCmdHandler(pop3GatewayMessageService));
         handlers.add(new Pop3GatewayStatCmdHandler());
         handlers.add(new Pop3GatewayQuitCmdHandler());
         handlers.add(new Pop3GatewayStlsCmdHandler());
@@ -17,6 +17,7 @@
 package net.sberg.openkim.gateway.pop3;
 
 import net.sberg.openkim.common.ICommonConstants;
+import net.sberg.openkim.gateway.pop3.prefetch.Pop3MessagePrefetcher;
 import net.sberg.openkim.konfiguration.Konfiguration;
 import net.sberg.openkim.konnektor.Konnektor;
 import net.sberg.openkim.log.DefaultLogger;
@@ -31,20 +32,25 @@ import java.io.File;
 import java.text.MessageFormat;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Pop3GatewaySession extends POP3SessionImpl {
 
     private static final DateTimeFormatter dtFormatter = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
-    private final List<Integer> delMsgs = new ArrayList<>();
+    //read by the prefetch beside the session
+    private final Set<Integer> delMsgs = ConcurrentHashMap.newKeySet();
 
     private Store pop3ClientStore;
     private Folder pop3ClientFolder;
+    private Pop3MessagePrefetcher pop3MessagePrefetcher;
+    private Pop3MessageTable pop3MessageTable;
     private EnumPop3GatewayState gatewayState = EnumPop3GatewayState.UNKNOWN;
 
     private final DefaultLogger logger;
+    private final Konfiguration konfiguration;
     private String id;
 
     public Pop3GatewaySession(
@@ -56,7 +62,8 @@ public class Pop3GatewaySession extends POP3SessionImpl {
 
         DefaultLoggerContext defaultLoggerContext = new DefaultLoggerContext();
         LogService logService = ((Pop3GatewayConfiguration) getConfiguration()).getLogService();
-        Konfiguration konfiguration = ((Pop3GatewayConfiguration) getConfiguration()).getKonfiguration();
+        //the session keeps the version of the konfiguration it started with
+        konfiguration = ((Pop3GatewayConfiguration) getConfiguration()).getKonfiguration();
         Konnektor konnektor = null;
         if (konfiguration.getKonnektoren().size() > 0) {
             konnektor = konfiguration.getKonnektoren().get(0);
@@ -80,6 +87,7 @@ public class Pop3GatewaySession extends POP3SessionImpl {
                     .buildFileName(MessageFormat.format(ICommonConstants.POP3_LOG_FILENAME, getSessionID()))
             );
         }
+        logger.logLine("konfiguration version " + konfiguration.getVersion());
 
 
         if (!new File(ICommonConstants.POP3_LOG_DIR).exists()) {
@@ -96,15 +104,20 @@ public class Pop3GatewaySession extends POP3SessionImpl {
     }
 
     public int getPop3ClientIdleTimeoutInSeconds() {
-        return ((Pop3GatewayConfiguration) getConfiguration()).getKonfiguration().getPop3ClientIdleTimeoutInSeconds();
+        return konfiguration.getPop3ClientIdleTimeoutInSeconds();
     }
 
-    public List<Integer> getDelMsgs() {
+    public Set<Integer> getDelMsgs() {
         return delMsgs;
     }
 
-    public void setPop3ClientFolder(Folder pop3ClientFolder) {
+    public boolean isDeleted(int messageNumber) {
+        return delMsgs.contains(messageNumber);
+    }
+
+    public synchronized void setPop3ClientFolder(Folder pop3ClientFolder) {
         this.pop3ClientFolder = pop3ClientFolder;
+        this.pop3MessageTable = null;
     }
 
     public Folder getPop3ClientFolder() {
@@ -119,6 +132,50 @@ public class Pop3GatewaySession extends POP3SessionImpl {
         return pop3ClientStore;
     }
 
+    /**
+     * Loads the message table on first use, the upstream maildrop is locked for the session and does not change.
+     */
+    public synchronized Pop3MessageTable getPop3MessageTable() throws Exception {
+        if (pop3MessageTable == null) {
+            pop3MessageTable = Pop3MessageTable.load(pop3ClientFolder);
+        }
+        return pop3MessageTable;
+    }
+
+    public Pop3MessagePrefetcher getPop3MessagePrefetcher() {
+        return pop3MessagePrefetcher;
+    }
+
+    public void setPop3MessagePrefetcher(Pop3MessagePrefetcher pop3MessagePrefetcher) {
+        this.pop3MessagePrefetcher = pop3MessagePrefetcher;
+    }
+
+    public void stopPop3MessagePrefetcher() {
+        if (pop3MessagePrefetcher != null) {
+            pop3MessagePrefetcher.stop();
+            pop3MessagePrefetcher = null;
+            log("prefetch stopped");
+        }
+    }
+
+    /**
+     * Closes the upstream folder and store, the deletions of the session are committed upstream on closing the folder.
+     * The cache entries of the deleted messages are invalidated afterwards, they stay valid if the session is reset or the quit fails.
+     */
+    public void closePop3Client() throws Exception {
+        stopPop3MessagePrefetcher();
+        if (pop3ClientFolder != null) {
+            Pop3GatewayMessageService pop3GatewayMessageService = ((Pop3GatewayConfiguration) getConfiguration()).getPop3GatewayMessageService();
+            List<String> deletedUids = pop3GatewayMessageService.getDeletedUids(this);
+            pop3ClientFolder.close(true);
+            pop3GatewayMessageService.invalidate(this, deletedUids);
+            pop3ClientStore.close();
+            setPop3ClientFolder(null);
+            setPop3ClientStore(null);
+            delMsgs.clear();
+        }
+    }
+
     public EnumPop3GatewayState getGatewayState() {
         return gatewayState;
     }
@@ -130,7 +187,7 @@ public class Pop3GatewaySession extends POP3SessionImpl {
     public void log(String content) {
         StringBuilder logContent = new StringBuilder();
         logContent.append(dtFormatter.format(LocalDateTime.now()));
-        if (((Pop3GatewayConfiguration) getConfiguration()).getKonfiguration().isLogPersonalInformations() && logger.getDefaultLoggerContext().getMailServerUsername() != null) {
+        if (konfiguration.isLogPersonalInformations() && logger.getDefaultLoggerContext().getMailServerUsername() != null) {
             logContent.append(" ");
             logContent.append(logger.getDefaultLoggerContext().getMailServerUsername());
         }
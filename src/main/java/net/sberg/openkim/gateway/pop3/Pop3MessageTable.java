@@ -0,0 +1,85 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.gateway.pop3;
+
+import com.sun.mail.pop3.POP3Folder;
+
+import javax.mail.FetchProfile;
+import javax.mail.Folder;
+import javax.mail.Message;
+import javax.mail.UIDFolder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Number, UIDL and size of the upstream messages of a pop3 session.
+ * Loaded with one UIDL and one LIST exchange, LIST, UIDL and STAT are answered from it.
+ * The uids are null if the server does not support UIDL, the messages are neither cached nor prefetched then.
+ */
+public class Pop3MessageTable {
+
+    private final List<Pop3MessageTableEntry> entries;
+    private final boolean uidlSupported;
+
+    private Pop3MessageTable(List<Pop3MessageTableEntry> entries, boolean uidlSupported) {
+        this.entries = Collections.unmodifiableList(entries);
+        this.uidlSupported = uidlSupported;
+    }
+
+    public static Pop3MessageTable load(Folder folder) throws Exception {
+        POP3Folder pop3Folder = (POP3Folder) folder;
+        Message[] messages = pop3Folder.getMessages();
+
+        FetchProfile fetchProfile = new FetchProfile();
+        fetchProfile.add(UIDFolder.FetchProfileItem.UID);
+        pop3Folder.fetch(messages, fetchProfile);
+        int[] sizes = pop3Folder.getSizes();
+
+        List<Pop3MessageTableEntry> entries = new ArrayList<>(messages.length);
+        boolean uidlSupported = true;
+        for (int i = 0; i < messages.length; i++) {
+            Pop3MessageTableEntry entry = new Pop3MessageTableEntry();
+            entry.setNumber(messages[i].getMessageNumber());
+            entry.setUid(pop3Folder.getUID(messages[i]));
+            if (entry.getUid() == null) {
+                uidlSupported = false;
+            }
+            entry.setSize(sizes != null && i < sizes.length ? sizes[i] : 0);
+            entries.add(entry);
+        }
+        return new Pop3MessageTable(entries, uidlSupported);
+    }
+
+    public List<Pop3MessageTableEntry> getEntries() {
+        return entries;
+    }
+
+    public boolean isUidlSupported() {
+        return uidlSupported;
+    }
+
+    /**
+     * @return the entry or null if the message number is not valid
+     */
+    public Pop3MessageTableEntry get(int number) {
+        if (number < 1 || number > entries.size()) {
+            return null;
+        }
+        return entries.get(number - 1);
+    }
+}
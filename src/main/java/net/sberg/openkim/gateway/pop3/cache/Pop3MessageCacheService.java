@@ -0,0 +1,314 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.gateway.pop3.cache;
+
+import jakarta.annotation.PostConstruct;
+import net.sberg.openkim.common.ICommonConstants;
+import net.sberg.openkim.konfiguration.Konfiguration;
+import net.sberg.openkim.log.DefaultLoggerContext;
+import net.sberg.openkim.pipeline.operation.mail.kas.AesGcmHelper;
+import org.bouncycastle.util.encoders.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import javax.mail.internet.MimeMessage;
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Encrypted-at-rest disk cache of decrypted and verified pop3 messages.
+ * Entries are keyed by mailbox and upstream UIDL and bound to the content hash and the size of the encrypted upstream message.
+ * TOP reads the entries bound to the size only, the upstream content is not loaded for it:
+ * the server does not reuse an UIDL for another message of the maildrop (RFC 1939 7.) and the size is known from LIST.
+ */
+@Service
+public class Pop3MessageCacheService {
+
+    private static final Logger log = LoggerFactory.getLogger(Pop3MessageCacheService.class);
+
+    private static final String CACHE_FILE_SUFFIX = ".cache";
+    private static final int CONTENT_HASH_LENGTH = 32;
+    private static final int MESSAGE_SIZE_LENGTH = 8;
+
+    private final Map<String, Pop3MessageCacheEntry> entries = new ConcurrentHashMap<>();
+    //one pending load per message, unrelated messages are loaded in parallel
+    private final Map<String, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong totalSize = new AtomicLong();
+    private final Object evictMutex = new Object();
+
+    @Value("${konfiguration.encryptionKeys}")
+    private String encryptionKeys;
+
+    @PostConstruct
+    protected void init() {
+        File dir = new File(ICommonConstants.POP3_CACHE_DIR);
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        File[] files = dir.listFiles((d, name) -> name.endsWith(CACHE_FILE_SUFFIX));
+        if (files == null) {
+            return;
+        }
+        for (int i = 0; i < files.length; i++) {
+            Pop3MessageCacheEntry entry = new Pop3MessageCacheEntry();
+            entry.setKey(files[i].getName().substring(0, files[i].getName().length() - CACHE_FILE_SUFFIX.length()));
+            entry.setFile(files[i]);
+            entry.setSize(files[i].length());
+            entry.setCreated(files[i].lastModified());
+            entries.put(entry.getKey(), entry);
+            totalSize.addAndGet(entry.getSize());
+        }
+        log.info("pop3 message cache initialized with " + entries.size() + " entries and " + totalSize.get() + " bytes");
+    }
+
+    public static String createMailboxId(DefaultLoggerContext defaultLoggerContext) {
+        return defaultLoggerContext.getMailServerUsername() + "@" + defaultLoggerContext.getMailServerHost() + ":" + defaultLoggerContext.getMailServerPort();
+    }
+
+    public static byte[] createContentHash(MimeMessage message) throws Exception {
+        DigestOutputStream digestOutputStream = new DigestOutputStream(OutputStream.nullOutputStream(), MessageDigest.getInstance("SHA-256"));
+        message.writeTo(digestOutputStream);
+        digestOutputStream.close();
+        return digestOutputStream.getMessageDigest().digest();
+    }
+
+    public boolean isEnabled(Konfiguration konfiguration) {
+        return konfiguration.isPop3MessageCacheEnabled();
+    }
+
+    /**
+     * Runs the given task exclusively for the message. Sessions of the same mailbox run the loading and filling of the cache with it,
+     * so a message is decrypted only once even if several sessions retrieve it at the same time.
+     */
+    public <T> T runExclusive(String mailboxId, String uid, Callable<T> task) throws Exception {
+        String key = createKey(mailboxId, uid);
+        CompletableFuture<Void> own = new CompletableFuture<>();
+        CompletableFuture<Void> running;
+        while ((running = inFlight.putIfAbsent(key, own)) != null) {
+            running.get();
+        }
+        try {
+            return task.call();
+        } finally {
+            inFlight.remove(key, own);
+            own.complete(null);
+        }
+    }
+
+    /**
+     * @param contentHash hash of the upstream message, may be null if the upstream content is not available (TOP),
+     *                    the entry is bound to the uid and the message size then
+     * @param messageSize size of the upstream message as listed by the server
+     */
+    public byte[] get(Konfiguration konfiguration, String mailboxId, String password, String uid, byte[] contentHash, long messageSize) {
+        if (!isEnabled(konfiguration)) {
+            return null;
+        }
+        String key = createKey(mailboxId, uid);
+        Pop3MessageCacheEntry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (isExpired(konfiguration, entry)) {
+            remove(key);
+            return null;
+        }
+        try {
+            byte[] content = Files.readAllBytes(entry.getFile().toPath());
+            ByteBuffer byteBuffer = ByteBuffer.wrap(content);
+
+            byte[] storedContentHash = new byte[CONTENT_HASH_LENGTH];
+            byteBuffer.get(storedContentHash);
+            long storedMessageSize = byteBuffer.getLong();
+            if ((contentHash != null && !Arrays.equals(storedContentHash, contentHash)) || storedMessageSize != messageSize) {
+                remove(key);
+                return null;
+            }
+
+            byte[] iv = new byte[AesGcmHelper.IV_LENGTH_BYTE];
+            byteBuffer.get(iv);
+            byte[] cipherText = new byte[byteBuffer.remaining()];
+            byteBuffer.get(cipherText);
+
+            Cipher cipher = AesGcmHelper.createCipher();
+            cipher.init(Cipher.DECRYPT_MODE, createSecretKey(mailboxId, password), new GCMParameterSpec(AesGcmHelper.TAG_LENGTH_BIT, iv));
+            cipher.updateAAD(key.getBytes(StandardCharsets.UTF_8));
+            cipher.updateAAD(storedContentHash);
+            cipher.updateAAD(ByteBuffer.allocate(MESSAGE_SIZE_LENGTH).putLong(storedMessageSize).array());
+            return cipher.doFinal(cipherText);
+        } catch (Exception e) {
+            //unreadable, manipulated or encrypted with old credentials
+            log.warn("pop3 message cache entry not readable and removed: " + key, e);
+            remove(key);
+            return null;
+        }
+    }
+
+    public boolean contains(Konfiguration konfiguration, String mailboxId, String uid) {
+        if (!isEnabled(konfiguration)) {
+            return false;
+        }
+        Pop3MessageCacheEntry entry = entries.get(createKey(mailboxId, uid));
+        return entry != null && !isExpired(konfiguration, entry);
+    }
+
+    public void put(Konfiguration konfiguration, String mailboxId, String password, String uid, byte[] contentHash, long messageSize, byte[] msg) {
+        if (!isEnabled(konfiguration)) {
+            return;
+        }
+        String key = createKey(mailboxId, uid);
+        File tmpFile = null;
+        try {
+            byte[] iv = AesGcmHelper.getRandomNonce(AesGcmHelper.IV_LENGTH_BYTE);
+            Cipher cipher = AesGcmHelper.createCipher();
+            cipher.init(Cipher.ENCRYPT_MODE, createSecretKey(mailboxId, password), new GCMParameterSpec(AesGcmHelper.TAG_LENGTH_BIT, iv));
+            cipher.updateAAD(key.getBytes(StandardCharsets.UTF_8));
+            cipher.updateAAD(contentHash);
+            cipher.updateAAD(ByteBuffer.allocate(MESSAGE_SIZE_LENGTH).putLong(messageSize).array());
+            byte[] cipherText = cipher.doFinal(msg);
+
+            byte[] content = ByteBuffer.allocate(CONTENT_HASH_LENGTH + MESSAGE_SIZE_LENGTH + iv.length + cipherText.length)
+                .put(contentHash)
+                .putLong(messageSize)
+                .put(iv)
+                .put(cipherText)
+                .array();
+
+            File dir = new File(ICommonConstants.POP3_CACHE_DIR);
+            dir.mkdirs();
+            File file = new File(dir, key + CACHE_FILE_SUFFIX);
+            tmpFile = File.createTempFile(key, ".tmp", dir);
+            Files.write(tmpFile.toPath(), content);
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            Pop3MessageCacheEntry entry = new Pop3MessageCacheEntry();
+            entry.setKey(key);
+            entry.setFile(file);
+            entry.setSize(content.length);
+            entry.setCreated(System.currentTimeMillis());
+            Pop3MessageCacheEntry oldEntry = entries.put(key, entry);
+            if (oldEntry != null) {
+                totalSize.addAndGet(-oldEntry.getSize());
+            }
+            totalSize.addAndGet(entry.getSize());
+
+            evict(konfiguration);
+        } catch (Exception e) {
+            log.error("error on writing the pop3 message cache entry: " + key, e);
+            if (tmpFile != null) {
+                tmpFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Removes the entry after a pending load of the message has filled the cache.
+     */
+    public void invalidate(String mailboxId, String uid) throws Exception {
+        String key = createKey(mailboxId, uid);
+        runExclusive(mailboxId, uid, () -> {
+            remove(key);
+            return null;
+        });
+    }
+
+    public int getEntryCount() {
+        return entries.size();
+    }
+
+    public long getTotalSize() {
+        return totalSize.get();
+    }
+
+    private boolean isExpired(Konfiguration konfiguration, Pop3MessageCacheEntry entry) {
+        return System.currentTimeMillis() - entry.getCreated() > TimeUnit.HOURS.toMillis(konfiguration.getPop3MessageCacheTtlInHours());
+    }
+
+    private void evict(Konfiguration konfiguration) {
+        long maxSize = konfiguration.getPop3MessageCacheMaxSizeInMB() * 1024L * 1024L;
+        synchronized (evictMutex) {
+            for (Iterator<Pop3MessageCacheEntry> iterator = new ArrayList<>(entries.values()).iterator(); iterator.hasNext(); ) {
+                Pop3MessageCacheEntry entry = iterator.next();
+                if (isExpired(konfiguration, entry)) {
+                    remove(entry.getKey());
+                }
+            }
+            if (totalSize.get() <= maxSize) {
+                return;
+            }
+            List<Pop3MessageCacheEntry> sortedEntries = new ArrayList<>(entries.values());
+            sortedEntries.sort(Comparator.comparingLong(Pop3MessageCacheEntry::getCreated));
+            for (Iterator<Pop3MessageCacheEntry> iterator = sortedEntries.iterator(); iterator.hasNext() && totalSize.get() > maxSize; ) {
+                remove(iterator.next().getKey());
+            }
+        }
+    }
+
+    private void remove(String key) {
+        Pop3MessageCacheEntry entry = entries.remove(key);
+        if (entry != null) {
+            totalSize.addAndGet(-entry.getSize());
+            entry.getFile().delete();
+        }
+    }
+
+    private String createKey(String mailboxId, String uid) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(mailboxId.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+            digest.update(uid.getBytes(StandardCharsets.UTF_8));
+            return Hex.toHexString(digest.digest());
+        } catch (Exception e) {
+            throw new IllegalStateException("error on creating the pop3 message cache key", e);
+        }
+    }
+
+    //the key depends on the mailbox credentials, a password change makes old entries unreadable
+    private SecretKey createSecretKey(String mailboxId, String password) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(encryptionKeys.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        mac.update(mailboxId.getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) '\n');
+        mac.update((password == null ? "" : password).getBytes(StandardCharsets.UTF_8));
+        return new SecretKeySpec(mac.doFinal(), "AES");
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.gateway.pop3.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory index of the inner headers and the first body lines of decrypted messages, used to answer TOP.
+ */
+@Service
+public class Pop3MessageHeaderIndexService {
+
+    public static final int PREVIEW_BODY_LINES = 20;
+
+    private static final int MAX_ENTRIES = 10000;
+    private static final int EXPIRE_AFTER_ACCESS_IN_HOURS = 24;
+
+    private final Cache<String, Pop3MessagePreview> index = CacheBuilder.newBuilder()
+        .maximumSize(MAX_ENTRIES)
+        .expireAfterAccess(EXPIRE_AFTER_ACCESS_IN_HOURS, TimeUnit.HOURS)
+        .build();
+
+    public Pop3MessagePreview get(String mailboxId, String uid) {
+        return index.getIfPresent(createKey(mailboxId, uid));
+    }
+
+    public Pop3MessagePreview put(String mailboxId, String uid, byte[] msg) throws Exception {
+        Pop3MessagePreview preview = Pop3MessagePreview.create(msg, PREVIEW_BODY_LINES);
+        index.put(createKey(mailboxId, uid), preview);
+        return preview;
+    }
+
+    public void invalidate(String mailboxId, String uid) {
+        index.invalidate(createKey(mailboxId, uid));
+    }
+
+    public long getEntryCount() {
+        return index.size();
+    }
+
+    private String createKey(String mailboxId, String uid) {
+        return mailboxId + "\n" + uid;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.gateway.pop3.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Headers and first body lines of a message for TOP. The lines are split on the raw bytes,
+ * 8-bit headers and bodies are returned unchanged, the dot-stuffing is done on sending the response.
+ */
+public class Pop3MessagePreview {
+
+    private static final byte[] CRLF = new byte[]{'\r', '\n'};
+
+    private final byte[] headers;
+    private final List<byte[]> bodyLines;
+    private final boolean complete;
+
+    private Pop3MessagePreview(byte[] headers, List<byte[]> bodyLines, boolean complete) {
+        this.headers = headers;
+        this.bodyLines = bodyLines;
+        this.complete = complete;
+    }
+
+    public static Pop3MessagePreview create(byte[] msg, int maxBodyLines) {
+        ByteArrayOutputStream headers = new ByteArrayOutputStream();
+        List<byte[]> bodyLines = new ArrayList<>();
+        boolean complete = true;
+
+        boolean body = false;
+        int start = 0;
+        while (start < msg.length) {
+            int end = start;
+            while (end < msg.length && msg[end] != '\n') {
+                end++;
+            }
+            int next = end + 1;
+            //CRLF or bare LF
+            if (end > start && msg[end - 1] == '\r') {
+                end--;
+            }
+            if (!body) {
+                headers.write(msg, start, end - start);
+                headers.write(CRLF, 0, CRLF.length);
+                if (end == start) {
+                    body = true;
+                }
+            } else if (bodyLines.size() < maxBodyLines) {
+                bodyLines.add(Arrays.copyOfRange(msg, start, end));
+            } else {
+                complete = false;
+                break;
+            }
+            start = next;
+        }
+        return new Pop3MessagePreview(headers.toByteArray(), bodyLines, complete);
+    }
+
+    public boolean covers(int lineCount) {
+        return complete || lineCount <= bodyLines.size();
+    }
+
+    /**
+     * @return the headers and the given number of body lines, each line terminated by CRLF and not dot-stuffed
+     */
+    public byte[] top(int lineCount) {
+        ByteArrayOutputStream result = new ByteArrayOutputStream(headers.length + 80 * Math.min(lineCount, bodyLines.size()));
+        result.write(headers, 0, headers.length);
+        int i = 0;
+        for (Iterator<byte[]> iterator = bodyLines.iterator(); iterator.hasNext() && i < lineCount; i++) {
+            byte[] line = iterator.next();
+            result.write(line, 0, line.length);
+            result.write(CRLF, 0, CRLF.length);
+        }
+        return result.toByteArray();
+    }
+}
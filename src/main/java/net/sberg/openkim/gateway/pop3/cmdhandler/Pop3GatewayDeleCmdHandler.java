@@ -18,6 +18,7 @@ package net.sberg.openkim.gateway.pop3.cmdhandler;
 
 import com.google.common.collect.ImmutableSet;
 import net.sberg.openkim.common.metrics.DefaultMetricFactory;
+import net.sberg.openkim.gateway.pop3.Pop3GatewayMessageService;
 import net.sberg.openkim.gateway.pop3.Pop3GatewaySession;
 import org.apache.james.protocols.api.Request;
 import org.apache.james.protocols.api.Response;
@@ -38,6 +39,12 @@ public class Pop3GatewayDeleCmdHandler extends AbstractPOP3CommandHandler {
 
     private static final Response DELETED = new POP3Response(POP3Response.OK_RESPONSE, "Message deleted").immutable();
 
+    private Pop3GatewayMessageService pop3GatewayMessageService;
+
+    public Pop3GatewayDeleCmdHandler(Pop3GatewayMessageService pop3GatewayMessageService) {
+        this.pop3GatewayMessageService = pop3GatewayMessageService;
+    }
+
     @Override
     @SuppressWarnings("unchecked")
     public Response onCommand(POP3Session session, Request request) {
@@ -53,6 +60,7 @@ public class Pop3GatewayDeleCmdHandler extends AbstractPOP3CommandHandler {
                 Message message = ((Pop3GatewaySession) session).getPop3ClientFolder().getMessage(messageId);
                 message.setFlag(Flags.Flag.DELETED, true);
                 ((Pop3GatewaySession) session).getDelMsgs().add(messageId);
+                pop3GatewayMessageService.discardPrefetched((Pop3GatewaySession) session, message);
                 ((Pop3GatewaySession) session).log("del ends");
                 return DELETED;
             } catch (Exception e) {
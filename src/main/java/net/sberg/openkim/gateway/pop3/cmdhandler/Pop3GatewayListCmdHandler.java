@@ -19,6 +19,8 @@ package net.sberg.openkim.gateway.pop3.cmdhandler;
 import com.google.common.collect.ImmutableSet;
 import net.sberg.openkim.common.metrics.DefaultMetricFactory;
 import net.sberg.openkim.gateway.pop3.Pop3GatewaySession;
+import net.sberg.openkim.gateway.pop3.Pop3MessageTable;
+import net.sberg.openkim.gateway.pop3.Pop3MessageTableEntry;
 import org.apache.james.protocols.api.Request;
 import org.apache.james.protocols.api.Response;
 import org.apache.james.protocols.pop3.POP3Response;
@@ -27,9 +29,9 @@ import org.apache.james.protocols.pop3.core.AbstractPOP3CommandHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.mail.Message;
-import javax.mail.internet.MimeMessage;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.Set;
 
 public class Pop3GatewayListCmdHandler extends AbstractPOP3CommandHandler {
     private static final Collection<String> COMMANDS = ImmutableSet.of("LIST");
@@ -46,25 +48,36 @@ public class Pop3GatewayListCmdHandler extends AbstractPOP3CommandHandler {
         ((Pop3GatewaySession) session).log("list begins");
         if (session.getHandlerState() == POP3Session.TRANSACTION) {
             try {
+                Pop3MessageTable pop3MessageTable = ((Pop3GatewaySession) session).getPop3MessageTable();
+                Set<Integer> delMsgs = ((Pop3GatewaySession) session).getDelMsgs();
                 if (request.getArgument() != null) {
                     int messageId = Integer.parseInt(request.getArgument());
-                    MimeMessage message = (MimeMessage) ((Pop3GatewaySession) session).getPop3ClientFolder().getMessage(messageId);
-                    POP3Response response = new POP3Response(POP3Response.OK_RESPONSE, messageId + " " + message.getSize());
+                    Pop3MessageTableEntry entry = pop3MessageTable.get(messageId);
+                    if (entry == null || delMsgs.contains(messageId)) {
+                        ((Pop3GatewaySession) session).log("list ends - error");
+                        return new POP3Response(POP3Response.ERR_RESPONSE, "Message (" + messageId + ") does not exist.").immutable();
+                    }
+                    POP3Response response = new POP3Response(POP3Response.OK_RESPONSE, messageId + " " + entry.getSize());
                     ((Pop3GatewaySession) session).log("list ends");
                     return response;
                 } else {
-                    Message[] sizes = ((Pop3GatewaySession) session).getPop3ClientFolder().getMessages();
-                    POP3Response response = new POP3Response(POP3Response.OK_RESPONSE, sizes.length == 0 ? "0 Messages" : "");
-                    if (sizes.length == 0) {
+                    StringBuilder contentBuilder = new StringBuilder();
+                    int count = 0;
+                    for (Iterator<Pop3MessageTableEntry> iterator = pop3MessageTable.getEntries().iterator(); iterator.hasNext(); ) {
+                        Pop3MessageTableEntry entry = iterator.next();
+                        if (delMsgs.contains(entry.getNumber())) {
+                            continue;
+                        }
+                        if (contentBuilder.length() > 0) {
+                            contentBuilder.append("\r\n");
+                        }
+                        contentBuilder.append(entry.getNumber()).append(" ").append(entry.getSize());
+                        count++;
+                    }
+                    POP3Response response = new POP3Response(POP3Response.OK_RESPONSE, count == 0 ? "0 Messages" : "");
+                    if (count == 0) {
                         response.appendLine(".");
                     } else {
-                        StringBuilder contentBuilder = new StringBuilder();
-                        for (int i = 0; i < sizes.length; i++) {
-                            if (contentBuilder.length() > 0) {
-                                contentBuilder.append("\r\n");
-                            }
-                            contentBuilder.append(i + 1).append(" ").append(sizes[i]);
-                        }
                         contentBuilder.append("\r\n.");
                         response.appendLine(contentBuilder.toString());
                     }
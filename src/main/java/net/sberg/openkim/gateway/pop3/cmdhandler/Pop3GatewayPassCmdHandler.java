@@ -20,9 +20,14 @@ import com.google.common.collect.ImmutableSet;
 import net.sberg.openkim.common.EnumMailAuthMethod;
 import net.sberg.openkim.common.EnumMailConnectionSecurity;
 import net.sberg.openkim.common.ICommonConstants;
+import net.sberg.openkim.common.circuitbreaker.CircuitBreaker;
+import net.sberg.openkim.common.circuitbreaker.CircuitBreakerOpenException;
+import net.sberg.openkim.common.circuitbreaker.CircuitBreakerRegistry;
+import net.sberg.openkim.common.circuitbreaker.EnumCircuitBreakerEndpointType;
 import net.sberg.openkim.common.metrics.DefaultMetricFactory;
 import net.sberg.openkim.gateway.pop3.EnumPop3GatewayState;
 import net.sberg.openkim.gateway.pop3.Pop3GatewaySession;
+import net.sberg.openkim.gateway.pop3.prefetch.Pop3MessagePrefetchService;
 import net.sberg.openkim.konfiguration.EnumGatewayTIMode;
 import net.sberg.openkim.konfiguration.Konfiguration;
 import net.sberg.openkim.pipeline.PipelineService;
@@ -42,6 +47,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xbill.DNS.Type;
 
+import javax.mail.AuthenticationFailedException;
 import javax.mail.Folder;
 import javax.mail.Session;
 import javax.mail.Store;
@@ -55,9 +61,11 @@ public class Pop3GatewayPassCmdHandler extends AbstractPOP3CommandHandler {
     private static final Logger log = LoggerFactory.getLogger(Pop3GatewayPassCmdHandler.class);
 
     private PipelineService pipelineService;
+    private Pop3MessagePrefetchService pop3MessagePrefetchService;
 
-    public Pop3GatewayPassCmdHandler(PipelineService pipelineService) {
+    public Pop3GatewayPassCmdHandler(PipelineService pipelineService, Pop3MessagePrefetchService pop3MessagePrefetchService) {
         this.pipelineService = pipelineService;
+        this.pop3MessagePrefetchService = pop3MessagePrefetchService;
     }
 
     @Override
@@ -148,8 +156,25 @@ public class Pop3GatewayPassCmdHandler extends AbstractPOP3CommandHandler {
                 konfiguration.getGatewayTIMode().equals(EnumGatewayTIMode.FULLSTACK)
             );
 
+            CircuitBreaker circuitBreaker = CircuitBreakerRegistry.get(
+                konfiguration,
+                EnumCircuitBreakerEndpointType.MTA,
+                ((Pop3GatewaySession) session).getLogger().getDefaultLoggerContext().getMailServerHost() + ":" + ((Pop3GatewaySession) session).getLogger().getDefaultLoggerContext().getMailServerPort()
+            );
+            circuitBreaker.acquire();
+
             Store store = pop3ClientSession.getStore("pop3");
-            store.connect(((Pop3GatewaySession) session).getLogger().getDefaultLoggerContext().getMailServerUsername(), pass);
+            try {
+                store.connect(((Pop3GatewaySession) session).getLogger().getDefaultLoggerContext().getMailServerUsername(), pass);
+                circuitBreaker.onSuccess();
+            } catch (AuthenticationFailedException e) {
+                //the mta answered
+                circuitBreaker.onSuccess();
+                throw e;
+            } catch (Exception e) {
+                circuitBreaker.onFailure(e);
+                throw e;
+            }
             Folder inbox = store.getFolder("INBOX");
             inbox.open(Folder.READ_WRITE);
             ((Pop3GatewaySession) session).setPop3ClientFolder(inbox);
@@ -159,12 +184,17 @@ public class Pop3GatewayPassCmdHandler extends AbstractPOP3CommandHandler {
             ((Pop3GatewaySession) session).setGatewayState(EnumPop3GatewayState.PROXY);
             session.setHandlerState(POP3Session.TRANSACTION);
 
+            pop3MessagePrefetchService.start((Pop3GatewaySession) session);
+
             ((Pop3GatewaySession) session).log("pass ends");
 
             return new POP3Response(POP3Response.OK_RESPONSE, "Logged in.").immutable();
         } catch (Exception e) {
             log.error("error on authenticating the mta", e);
             ((Pop3GatewaySession) session).log("pass ends - error");
+            if (CircuitBreakerOpenException.isCause(e)) {
+                return new POP3Response(POP3Response.ERR_RESPONSE, "[SYS/TEMP] Mailserver temporarily not available").immutable();
+            }
             return new POP3Response(POP3Response.ERR_RESPONSE, "Authentication credentials invalid or Temporary authentication failure").immutable();
         }
     }
@@ -55,13 +55,7 @@ public class Pop3GatewayQuitCmdHandler extends AbstractPOP3CommandHandler {
     private Response quit(POP3Session session) {
         ((Pop3GatewaySession) session).log("quit begins");
         try {
-            if (((Pop3GatewaySession) session).getPop3ClientFolder() != null) {
-                ((Pop3GatewaySession) session).getPop3ClientFolder().close(true);
-                ((Pop3GatewaySession) session).getPop3ClientStore().close();
-                ((Pop3GatewaySession) session).setPop3ClientFolder(null);
-                ((Pop3GatewaySession) session).setPop3ClientStore(null);
-                ((Pop3GatewaySession) session).getDelMsgs().clear();
-            }
+            ((Pop3GatewaySession) session).closePop3Client();
             ((Pop3GatewaySession) session).log("quit ends");
             return SIGN_OFF;
         } catch (Exception e) {
@@ -19,6 +19,7 @@ package net.sberg.openkim.gateway.pop3.cmdhandler;
 import com.google.common.collect.ImmutableSet;
 import net.sberg.openkim.common.metrics.DefaultMetricFactory;
 import net.sberg.openkim.gateway.pop3.Pop3GatewaySession;
+import net.sberg.openkim.gateway.pop3.Pop3MessageTableEntry;
 import org.apache.james.protocols.api.Request;
 import org.apache.james.protocols.api.Response;
 import org.apache.james.protocols.pop3.POP3Response;
@@ -28,6 +29,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.Set;
 
 public class Pop3GatewayStatCmdHandler extends AbstractPOP3CommandHandler {
 
@@ -49,8 +52,16 @@ public class Pop3GatewayStatCmdHandler extends AbstractPOP3CommandHandler {
         ((Pop3GatewaySession) session).log("stat begins");
         if (session.getHandlerState() == POP3Session.TRANSACTION) {
             try {
-                int count = ((Pop3GatewaySession) session).getPop3ClientFolder().getMessageCount();
-                int size = ((Pop3GatewaySession) session).getPop3ClientFolder().getMessageCount();
+                Set<Integer> delMsgs = ((Pop3GatewaySession) session).getDelMsgs();
+                int count = 0;
+                long size = 0;
+                for (Iterator<Pop3MessageTableEntry> iterator = ((Pop3GatewaySession) session).getPop3MessageTable().getEntries().iterator(); iterator.hasNext(); ) {
+                    Pop3MessageTableEntry entry = iterator.next();
+                    if (!delMsgs.contains(entry.getNumber())) {
+                        count++;
+                        size += entry.getSize();
+                    }
+                }
                 ((Pop3GatewaySession) session).log("stat ends");
                 return new POP3Response(POP3Response.OK_RESPONSE, count + " " + size);
             } catch (Exception e) {
@@ -20,17 +20,23 @@ import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.sun.mail.pop3.POP3Message;
+import net.sberg.openkim.common.circuitbreaker.CircuitBreakerOpenException;
 import net.sberg.openkim.common.metrics.DefaultMetricFactory;
+import net.sberg.openkim.gateway.pop3.Pop3GatewayMessageService;
 import net.sberg.openkim.gateway.pop3.Pop3GatewaySession;
 import org.apache.james.protocols.api.Request;
 import org.apache.james.protocols.api.Response;
 import org.apache.james.protocols.pop3.POP3Response;
 import org.apache.james.protocols.pop3.POP3Session;
+import org.apache.james.protocols.pop3.POP3StreamResponse;
 import org.apache.james.protocols.pop3.core.AbstractPOP3CommandHandler;
+import org.apache.james.protocols.pop3.core.CRLFTerminatedInputStream;
 import org.apache.james.protocols.pop3.core.CapaCapability;
+import org.apache.james.protocols.pop3.core.ExtraDotInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.util.Collection;
 import java.util.List;
@@ -45,6 +51,12 @@ public class Pop3GatewayTopCmdHandler extends AbstractPOP3CommandHandler impleme
 
     private static final Response SYNTAX_ERROR = new POP3Response(POP3Response.ERR_RESPONSE, "Usage: TOP [mail number] [line count]").immutable();
 
+    private Pop3GatewayMessageService pop3GatewayMessageService;
+
+    public Pop3GatewayTopCmdHandler(Pop3GatewayMessageService pop3GatewayMessageService) {
+        this.pop3GatewayMessageService = pop3GatewayMessageService;
+    }
+
     private class Args {
         private final int messageNumber;
         private final Optional<Integer> lineCount;
@@ -98,15 +110,18 @@ public class Pop3GatewayTopCmdHandler extends AbstractPOP3CommandHandler impleme
                 }
                 Args args = optionalArgs.get();
                 POP3Message message = (POP3Message)((Pop3GatewaySession) session).getPop3ClientFolder().getMessage(args.messageNumber);
-                InputStream stream = message.top(optionalArgs.get().lineCount.get());
-                String msg = new String(stream.readAllBytes());
-                POP3Response response = new POP3Response(POP3Response.OK_RESPONSE, "");
-                response.appendLine(msg + ".");
+
+                byte[] msg = pop3GatewayMessageService.top((Pop3GatewaySession) session, message, args.lineCount.get());
+                InputStream in = new CRLFTerminatedInputStream(new ExtraDotInputStream(new ByteArrayInputStream(msg)));
+                POP3StreamResponse response = new POP3StreamResponse(POP3Response.OK_RESPONSE, "Message follows", in);
                 ((Pop3GatewaySession) session).log("top ends");
                 return response;
             } catch (Exception e) {
                 log.error("error on process top command", e);
                 ((Pop3GatewaySession) session).log("top ends - error");
+                if (CircuitBreakerOpenException.isCause(e)) {
+                    return new POP3Response(POP3Response.ERR_RESPONSE, "[SYS/TEMP] Service temporarily not available").immutable();
+                }
                 return new POP3Response(POP3Response.ERR_RESPONSE, "Technical error").immutable();
             }
         } else {
@@ -17,9 +17,10 @@
 package net.sberg.openkim.gateway.pop3.cmdhandler;
 
 import com.google.common.collect.ImmutableSet;
-import com.sun.mail.pop3.POP3Folder;
 import net.sberg.openkim.common.metrics.DefaultMetricFactory;
 import net.sberg.openkim.gateway.pop3.Pop3GatewaySession;
+import net.sberg.openkim.gateway.pop3.Pop3MessageTable;
+import net.sberg.openkim.gateway.pop3.Pop3MessageTableEntry;
 import org.apache.james.protocols.api.Request;
 import org.apache.james.protocols.api.Response;
 import org.apache.james.protocols.pop3.POP3Response;
@@ -29,8 +30,8 @@ import org.apache.james.protocols.pop3.core.CapaCapability;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.mail.Message;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.Set;
 
 public class Pop3GatewayUidlCmdHandler extends AbstractPOP3CommandHandler implements CapaCapability {
@@ -44,35 +45,44 @@ public class Pop3GatewayUidlCmdHandler extends AbstractPOP3CommandHandler implem
         return gatewayMetricFactory.decorateSupplierWithTimerMetric("pop3-uidl", () -> doUidl(session, request));
     }
 
-    private String getUid(int messageId, POP3Session session) throws Exception {
-        Message msg = ((Pop3GatewaySession) session).getPop3ClientFolder().getMessage(messageId);
-        POP3Folder uidFolder = (POP3Folder) ((Pop3GatewaySession) session).getPop3ClientFolder();
-        return uidFolder.getUID(msg);
-    }
-
     private Response doUidl(POP3Session session, Request request) {
         ((Pop3GatewaySession) session).log("uidl begins");
         if (session.getHandlerState() == POP3Session.TRANSACTION) {
             try {
+                Pop3MessageTable pop3MessageTable = ((Pop3GatewaySession) session).getPop3MessageTable();
+                Set<Integer> delMsgs = ((Pop3GatewaySession) session).getDelMsgs();
+                if (!pop3MessageTable.isUidlSupported()) {
+                    ((Pop3GatewaySession) session).log("uidl ends - not supported by the mail server");
+                    return new POP3Response(POP3Response.ERR_RESPONSE, "UIDL not supported").immutable();
+                }
                 if (request.getArgument() != null) {
                     int messageId = Integer.parseInt(request.getArgument());
-                    POP3Response response = new POP3Response(POP3Response.OK_RESPONSE, messageId + " " + getUid(messageId, session));
+                    Pop3MessageTableEntry entry = pop3MessageTable.get(messageId);
+                    if (entry == null || delMsgs.contains(messageId)) {
+                        ((Pop3GatewaySession) session).log("uidl ends - error");
+                        return new POP3Response(POP3Response.ERR_RESPONSE, "Message (" + messageId + ") does not exist.").immutable();
+                    }
+                    POP3Response response = new POP3Response(POP3Response.OK_RESPONSE, messageId + " " + entry.getUid());
                     ((Pop3GatewaySession) session).log("uidl ends");
                     return response;
                 } else {
-                    int length = ((Pop3GatewaySession) session).getPop3ClientFolder().getMessageCount();
-                    POP3Response response = new POP3Response(POP3Response.OK_RESPONSE, length == 0 ? "0 Messages" : "");
-                    if (length == 0) {
+                    StringBuilder contentBuilder = new StringBuilder();
+                    int count = 0;
+                    for (Iterator<Pop3MessageTableEntry> iterator = pop3MessageTable.getEntries().iterator(); iterator.hasNext(); ) {
+                        Pop3MessageTableEntry entry = iterator.next();
+                        if (delMsgs.contains(entry.getNumber())) {
+                            continue;
+                        }
+                        if (contentBuilder.length() > 0) {
+                            contentBuilder.append("\r\n");
+                        }
+                        contentBuilder.append(entry.getNumber()).append(" ").append(entry.getUid());
+                        count++;
+                    }
+                    POP3Response response = new POP3Response(POP3Response.OK_RESPONSE, count == 0 ? "0 Messages" : "");
+                    if (count == 0) {
                         response.appendLine(".");
                     } else {
-                        StringBuilder contentBuilder = new StringBuilder();
-                        for (int i = 0; i < length; i++) {
-                            if (contentBuilder.length() > 0) {
-                                contentBuilder.append("\r\n");
-                            }
-                            contentBuilder.append(i + 1).append(" ").append(getUid(i + 1, session));
-
-                        }
                         contentBuilder.append("\r\n.");
                         response.appendLine(contentBuilder.toString());
                     }
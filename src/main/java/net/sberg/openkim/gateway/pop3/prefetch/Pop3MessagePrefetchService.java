@@ -0,0 +1,188 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.gateway.pop3.prefetch;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import jakarta.annotation.PreDestroy;
+import net.sberg.openkim.gateway.pop3.Pop3GatewayMessageService;
+import net.sberg.openkim.gateway.pop3.Pop3GatewaySession;
+import net.sberg.openkim.gateway.pop3.Pop3MessageTableEntry;
+import net.sberg.openkim.konfiguration.EnumGatewayTIMode;
+import net.sberg.openkim.konfiguration.Konfiguration;
+import net.sberg.openkim.konnektor.Konnektor;
+import net.sberg.openkim.konnektor.admission.EnumKonnektorAdmissionPriority;
+import net.sberg.openkim.log.DefaultLogger;
+import net.sberg.openkim.log.LogService;
+import net.sberg.openkim.pipeline.operation.mail.MailUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.mail.internet.MimeMessage;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Decrypts and verifies the messages of a pop3 session in the background after login,
+ * so the following RETR commands are answered without waiting for the konnektor.
+ */
+@Service
+public class Pop3MessagePrefetchService {
+
+    private static final Logger log = LoggerFactory.getLogger(Pop3MessagePrefetchService.class);
+
+    private static final int WALKER_THREADS = 4;
+    private static final int PREFETCH_THREADS = 16;
+
+    //walkers download the messages of the sessions one after the other, the decryption runs on the prefetch threads
+    private final ExecutorService walkerExecutorService = Executors.newFixedThreadPool(
+        WALKER_THREADS,
+        new ThreadFactoryBuilder().setNameFormat("pop3-prefetch-walker-%d").setDaemon(true).build()
+    );
+    private final ExecutorService executorService = Executors.newFixedThreadPool(
+        PREFETCH_THREADS,
+        new ThreadFactoryBuilder().setNameFormat("pop3-prefetch-%d").setDaemon(true).build()
+    );
+    //shared by all sessions, the parallelism limit applies per konnektor
+    private final Map<String, Semaphore> konnektorPermits = new ConcurrentHashMap<>();
+
+    @Autowired
+    private Pop3GatewayMessageService pop3GatewayMessageService;
+    @Autowired
+    private LogService logService;
+
+    @PreDestroy
+    protected void destroy() {
+        walkerExecutorService.shutdownNow();
+        executorService.shutdownNow();
+    }
+
+    public void start(Pop3GatewaySession pop3GatewaySession) {
+        Konfiguration konfiguration = pop3GatewaySession.getLogger().getDefaultLoggerContext().getKonfiguration();
+        Konnektor konnektor = pop3GatewaySession.getLogger().getDefaultLoggerContext().getKonnektor();
+        if (!konfiguration.isPop3PrefetchEnabled()
+            || konfiguration.getGatewayTIMode().equals(EnumGatewayTIMode.NO_TI)
+            || konnektor == null
+        ) {
+            return;
+        }
+
+        Pop3MessagePrefetcher prefetcher = new Pop3MessagePrefetcher();
+        pop3GatewaySession.setPop3MessagePrefetcher(prefetcher);
+        prefetcher.setWalker(walkerExecutorService.submit(() -> walk(pop3GatewaySession, prefetcher, konfiguration, konnektor)));
+        pop3GatewaySession.log("prefetch started");
+    }
+
+    private void walk(Pop3GatewaySession pop3GatewaySession, Pop3MessagePrefetcher prefetcher, Konfiguration konfiguration, Konnektor konnektor) {
+        int parallelism = Math.max(1, konfiguration.getPop3PrefetchParallelismPerKonnektor());
+        Semaphore permits = konnektorPermits.computeIfAbsent(konnektor.getUuid() + "#" + parallelism, key -> new Semaphore(parallelism));
+        try {
+            if (!pop3GatewaySession.getPop3MessageTable().isUidlSupported()) {
+                log.info("pop3 prefetch not possible without uidl for the session: " + pop3GatewaySession.getSessionID());
+                return;
+            }
+            List<Pop3MessageTableEntry> entries = pop3GatewaySession.getPop3MessageTable().getEntries();
+
+            int scheduled = 0;
+            for (int i = 0; i < entries.size() && scheduled < konfiguration.getPop3PrefetchMaxMessages() && !prefetcher.isStopped(); i++) {
+                Pop3MessageTableEntry entry = entries.get(i);
+                String uid = entry.getUid();
+                if (pop3GatewayMessageService.isCached(pop3GatewaySession, uid)) {
+                    continue;
+                }
+
+                permits.acquire();
+                CompletableFuture<byte[]> result = new CompletableFuture<>();
+                if (!prefetcher.register(uid, result)) {
+                    permits.release();
+                    continue;
+                }
+                scheduled++;
+                MimeMessage message;
+                try {
+                    //the upstream folder is shared with the session, the client commands are not delayed by the prefetch downloads
+                    prefetcher.awaitIdle();
+                    if (prefetcher.isStopped()) {
+                        permits.release();
+                        result.complete(null);
+                        break;
+                    }
+                    message = pop3GatewayMessageService.download((MimeMessage) pop3GatewaySession.getPop3ClientFolder().getMessage(entry.getNumber()));
+                } catch (Exception e) {
+                    permits.release();
+                    result.complete(null);
+                    throw e;
+                }
+                try {
+                    executorService.execute(() -> {
+                        try {
+                            result.complete(prefetch(pop3GatewaySession, prefetcher, message, entry));
+                        } catch (Exception e) {
+                            if (!prefetcher.isStopped()) {
+                                log.warn("error on prefetching the pop3 message " + entry.getUid() + " for the session: " + pop3GatewaySession.getSessionID(), e);
+                            }
+                            result.complete(null);
+                        } finally {
+                            permits.release();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    permits.release();
+                    result.complete(null);
+                    throw e;
+                }
+            }
+            log.info("pop3 prefetch scheduled " + scheduled + " messages for the session: " + pop3GatewaySession.getSessionID());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            if (!prefetcher.isStopped()) {
+                log.error("error on prefetching pop3 messages for the session: " + pop3GatewaySession.getSessionID(), e);
+            }
+        }
+    }
+
+    private byte[] prefetch(Pop3GatewaySession pop3GatewaySession, Pop3MessagePrefetcher prefetcher, MimeMessage message, Pop3MessageTableEntry entry) throws Exception {
+        if (prefetcher.isStopped()) {
+            return null;
+        }
+        //own logger, the error contexts of the session logger belong to the message the client is retrieving
+        DefaultLogger logger = logService.createLogger(pop3GatewaySession.getLogger().getDefaultLoggerContext().copy().buildAdmissionPriority(EnumKonnektorAdmissionPriority.BULK));
+        try {
+            if (!MailUtils.checkAddressMapping(logger, message, false)) {
+                return null;
+            }
+            byte[] pop3msg = pop3GatewayMessageService.load(pop3GatewaySession, logger, message, entry);
+            //messages with errors are processed again by RETR to create the dsn or embedded message in the session log
+            if (!logger.getDefaultLoggerContext().getMailSignVerifyErrorContext().isEmpty()
+                || !logger.getDefaultLoggerContext().getMailDecryptErrorContext().isEmpty()
+            ) {
+                return null;
+            }
+            return pop3msg;
+        } finally {
+            logService.removeLogger(logger.getId());
+        }
+    }
+}
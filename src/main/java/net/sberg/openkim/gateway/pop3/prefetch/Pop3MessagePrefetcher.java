@@ -0,0 +1,102 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.gateway.pop3.prefetch;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+/**
+ * Prefetch state of one pop3 session. Holds the pending results by upstream UIDL until the RETR command claims them.
+ */
+public class Pop3MessagePrefetcher {
+
+    private final Map<String, CompletableFuture<byte[]>> results = new HashMap<>();
+    private final Set<String> claimed = new HashSet<>();
+    private Future<?> walker;
+    private int commandsInProgress;
+    private volatile boolean stopped;
+
+    public synchronized void setWalker(Future<?> walker) {
+        if (stopped) {
+            walker.cancel(true);
+        }
+        this.walker = walker;
+    }
+
+    /**
+     * @return false if the session has already stopped the prefetcher or retrieved the message itself
+     */
+    public synchronized boolean register(String uid, CompletableFuture<byte[]> result) {
+        if (stopped || claimed.contains(uid)) {
+            return false;
+        }
+        results.put(uid, result);
+        return true;
+    }
+
+    /**
+     * Marks the message as retrieved by the session.
+     * @return the pending or completed result, null if the message was not prefetched
+     */
+    public synchronized CompletableFuture<byte[]> claim(String uid) {
+        claimed.add(uid);
+        return results.remove(uid);
+    }
+
+    /**
+     * The session processes a client command, the prefetch does not download from the upstream folder meanwhile.
+     */
+    public synchronized void commandStarted() {
+        commandsInProgress++;
+    }
+
+    public synchronized void commandFinished() {
+        commandsInProgress--;
+        notifyAll();
+    }
+
+    /**
+     * Waits until the session does not process a client command. A command arriving during a download waits for this one message.
+     */
+    public synchronized void awaitIdle() throws InterruptedException {
+        while (commandsInProgress > 0 && !stopped) {
+            wait();
+        }
+    }
+
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    public synchronized void stop() {
+        stopped = true;
+        notifyAll();
+        if (walker != null) {
+            walker.cancel(true);
+        }
+        for (Iterator<CompletableFuture<byte[]>> iterator = results.values().iterator(); iterator.hasNext(); ) {
+            iterator.next().complete(null);
+        }
+        results.clear();
+        claimed.clear();
+    }
+}
@@ -20,6 +20,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.xml.bind.JAXBElement;
 import net.sberg.openkim.common.StringUtils;
 import net.sberg.openkim.common.metrics.DefaultMetricFactory;
+import net.sberg.openkim.common.x509.X509CertificateCache;
 import net.sberg.openkim.konnektor.Konnektor;
 import net.sberg.openkim.log.DefaultLogger;
 import net.sberg.openkim.log.error.EnumErrorCode;
@@ -35,9 +36,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
 import java.text.SimpleDateFormat;
 import java.util.*;
@@ -141,8 +140,7 @@ public class SignReportService {
                             verifyCertResult.setSignAlg(certificateValidityType.getSignatureOK().getSignatureAlgorithm().getAlgorithm());
                         }
 
-                        Certificate cert = new org.bouncycastle.jcajce.provider.asymmetric.x509.CertificateFactory().engineGenerateCertificate(new ByteArrayInputStream(certificateValidityType.getCertificateValue()));
-                        verifyCertResult.setCertificate((X509Certificate) cert);
+                        verifyCertResult.setCertificate(X509CertificateCache.get(certificateValidityType.getCertificateValue()).getCertificate());
 
                         //oscp result
                         if (certificateValidityType.getCertificateStatus() != null
@@ -174,8 +172,7 @@ public class SignReportService {
                                 if (certs != null && certs.length > 0 && basicOCSPResp.getSignature() != null && basicOCSPResp.getSignature().length > 0) {
                                     for (int i = 0; i < certs.length; ++i) {
                                         X509CertificateHolder x509CertificateHolder = certs[i];
-                                        cert = new org.bouncycastle.jcajce.provider.asymmetric.x509.CertificateFactory().engineGenerateCertificate(new ByteArrayInputStream(x509CertificateHolder.getEncoded()));
-                                        verifyOCSPResult.getCerts().add((X509Certificate) cert);
+                                        verifyOCSPResult.getCerts().add(X509CertificateCache.get(x509CertificateHolder.getEncoded()).getCertificate());
                                     }
                                 }
                             }
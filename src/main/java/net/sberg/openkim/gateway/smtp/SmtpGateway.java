@@ -20,13 +20,18 @@ import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import net.sberg.openkim.common.EnumMailConnectionSecurity;
 import net.sberg.openkim.common.ICommonConstants;
+import net.sberg.openkim.gateway.GatewayKeyManager;
 import net.sberg.openkim.gateway.GatewayNettyServer;
+import net.sberg.openkim.gateway.GatewayOpenSslContext;
 import net.sberg.openkim.gateway.smtp.hook.SmtpGatewayMailHook;
 import net.sberg.openkim.gateway.smtp.hook.SmtpGatewayQuitHook;
+import net.sberg.openkim.gateway.smtp.pool.SmtpClientPoolService;
+import net.sberg.openkim.gateway.smtp.spool.SmtpSpoolService;
 import net.sberg.openkim.konfiguration.Konfiguration;
 import net.sberg.openkim.konfiguration.KonfigurationService;
 import net.sberg.openkim.log.LogService;
 import net.sberg.openkim.pipeline.PipelineService;
+import net.sberg.openkim.pipeline.operation.konnektor.vzd.VzdCertsPrefetchService;
 import org.apache.james.protocols.api.ClientAuth;
 import org.apache.james.protocols.api.Protocol;
 import org.apache.james.protocols.api.handler.WiringException;
@@ -37,12 +42,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.KeyManager;
 import javax.net.ssl.SSLContext;
-import java.io.File;
-import java.io.FileInputStream;
 import java.net.InetSocketAddress;
-import java.security.KeyStore;
 import java.util.Arrays;
 
 @Service
@@ -51,12 +53,22 @@ public class SmtpGateway {
     private static final Logger log = LoggerFactory.getLogger(SmtpGateway.class);
 
     private GatewayNettyServer server;
+    private final GatewayKeyManager keyManager = new GatewayKeyManager();
+    private String keystoreFilename = ICommonConstants.BASE_DIR+ICommonConstants.OPENKIM_SERVER_KEYSTORE_FILENAME;
+    private boolean tlsActive = false;
+    private boolean openSslActive = false;
     @Autowired
     private KonfigurationService konfigurationService;
     @Autowired
     private LogService logService;
     @Autowired
     private PipelineService pipelineService;
+    @Autowired
+    private VzdCertsPrefetchService vzdCertsPrefetchService;
+    @Autowired
+    private SmtpClientPoolService smtpClientPoolService;
+    @Autowired
+    private SmtpSpoolService smtpSpoolService;
     @Value("${gatewaykeystore.password}")
     private String keyStorePwd;
 
@@ -77,6 +89,8 @@ public class SmtpGateway {
             if (server != null) {
                 server.unbind();
             }
+            //pooled connections may belong to changed credentials or client certificates
+            smtpClientPoolService.clear();
             startSucces = false;
             if (log.isInfoEnabled()) {
                 log.info("***SMTP Gateway is stopped***");
@@ -87,79 +101,125 @@ public class SmtpGateway {
     }
 
     private void start() throws Exception {
+        start(null);
+    }
+
+    /**
+     * @param formerServer stops accepting before or after binding the new listener, depending on the listen address
+     * @return false if the new listener is not bound, a former listener on the same address accepts again
+     */
+    private boolean start(GatewayNettyServer formerServer) throws Exception {
         try {
             Konfiguration konfiguration = konfigurationService.getKonfiguration();
             if (konfiguration == null) {
-                return;
+                return false;
             }
 
             if (log.isInfoEnabled()) {
                 log.info("***SMTP Gateway activated***");
             }
 
-            server = new GatewayNettyServer.Factory()
-                .protocol(createProtocol(konfiguration))
-                .secure(buildSSLContext(konfiguration))
+            InetSocketAddress listenAddress = new InetSocketAddress(konfiguration.getGatewayHost(), Integer.parseInt(konfiguration.getSmtpGatewayPort()));
+            SSLContext sslContext = buildSSLContext(konfiguration);
+            Encryption encryption = null;
+            if (sslContext != null) {
+                if (konfiguration.getSmtpGatewayConnectionSec().equals(EnumMailConnectionSecurity.STARTTLS)) {
+                    encryption = Encryption.createStartTls(sslContext, null, null, ClientAuth.NONE);
+                }
+                else {
+                    encryption = Encryption.createTls(sslContext, null, null, ClientAuth.NONE);
+                }
+            }
+            GatewayNettyServer nextServer = new GatewayNettyServer.Factory()
+                .protocol(createProtocol())
+                .secure(encryption)
+                .nativeTransport(konfiguration.isGatewayNativeTransportEnabled())
                 .build();
-            server.setTimeout(konfiguration.getSmtpGatewayIdleTimeoutInSeconds());
-            server.setListenAddresses(new InetSocketAddress(konfiguration.getGatewayHost(), Integer.parseInt(konfiguration.getSmtpGatewayPort())));
-            server.bind();
+            nextServer.setTimeout(konfiguration.getSmtpGatewayIdleTimeoutInSeconds());
+            nextServer.setListenAddresses(listenAddress);
+            nextServer.bindReplacing(formerServer);
+            server = nextServer;
+            tlsActive = encryption != null;
+            openSslActive = sslContext instanceof GatewayOpenSslContext;
             startSucces = true;
 
             if (log.isInfoEnabled()) {
                 log.info("***SMTP Gateway is started***");
             }
+            return true;
         } catch (Exception e) {
             log.error("error on starting the smtp gateway", e);
+            return false;
         }
     }
 
-    private Encryption buildSSLContext(Konfiguration konfiguration) throws Exception {
-        Encryption encryption = null;
+    private SSLContext buildSSLContext(Konfiguration konfiguration) throws Exception {
+        SSLContext context = null;
         if (!konfiguration.getSmtpGatewayConnectionSec().equals(EnumMailConnectionSecurity.NONE)) {
-            FileInputStream fis = null;
             try {
-                KeyStore ks = KeyStore.getInstance("PKCS12", "BC");
-                fis = new FileInputStream(new File(ICommonConstants.BASE_DIR+ICommonConstants.OPENKIM_SERVER_KEYSTORE_FILENAME));
-                ks.load(fis, keyStorePwd.toCharArray());
-
-                // Set up key manager factory to use our key store
-                KeyManagerFactory kmf = KeyManagerFactory.getInstance("PKIX", "BCJSSE");
-                kmf.init(ks, keyStorePwd.toCharArray());
+                keyManager.reload(keystoreFilename, keyStorePwd);
 
-                // Initialize the SSLContext to work with our key managers.
-                SSLContext context = SSLContext.getInstance("TLS", "BCJSSE");
-                context.init(kmf.getKeyManagers(), null, null);
-                if (konfiguration.getSmtpGatewayConnectionSec().equals(EnumMailConnectionSecurity.STARTTLS)) {
-                    encryption = Encryption.createStartTls(context, null, null, ClientAuth.NONE);
-                }
-                else {
-                    encryption = Encryption.createTls(context, null, null, ClientAuth.NONE);
+                // Initialize the SSLContext to work with our swappable key manager, OpenSSL if configured and available.
+                context = konfiguration.isGatewayOpenSslEnabled() ? GatewayOpenSslContext.create(keyManager) : null;
+                if (context == null) {
+                    context = SSLContext.getInstance("TLS", "BCJSSE");
+                    context.init(new KeyManager[]{keyManager}, null, null);
                 }
-
             }
             catch (Exception e) {
                 log.error("error on starting the smtp gateway - bulding ssl context", e);
-            }
-            finally {
-                if (fis != null) {
-                    fis.close();
-                }
-                return encryption;
+                context = null;
             }
         }
-        return encryption;
+        return context;
     }
 
-    protected Protocol createProtocol(Konfiguration konfiguration) throws WiringException {
-        SmtpGatewayProtocolHandlerChain chain = new SmtpGatewayProtocolHandlerChain(true, pipelineService);
-        chain.addAll(0, Arrays.asList(new SmtpGatewayMailHook(pipelineService), new SmtpGatewayQuitHook()));
+    protected Protocol createProtocol() throws WiringException {
+        SmtpGatewayProtocolHandlerChain chain = new SmtpGatewayProtocolHandlerChain(true, pipelineService, vzdCertsPrefetchService);
+        chain.addAll(0, Arrays.asList(new SmtpGatewayMailHook(pipelineService, smtpSpoolService), new SmtpGatewayQuitHook()));
         chain.wireExtensibleHandlers();
-        return new SmtpGatewayProtocol(chain, new SmtpGatewayConfiguration(konfiguration, logService));
+        return new SmtpGatewayProtocol(chain, new SmtpGatewayConfiguration(konfigurationService::getKonfiguration, logService, smtpClientPoolService));
     }
 
-    public void restart() throws Exception {
-        destroy();
-        start();
+    /**
+     * Binds the listener with the current konfiguration. The former listener stops accepting,
+     * its sessions are finished up to the drain timeout. If the new listener can not be bound, the former one stays.
+     */
+    public synchronized void reload() throws Exception {
+        GatewayNettyServer formerServer = server;
+        //pooled connections may belong to changed credentials or client certificates
+        smtpClientPoolService.clear();
+        startSucces = false;
+        if (start(formerServer)) {
+            if (formerServer != null) {
+                formerServer.drainAndUnbind(konfigurationService.getKonfiguration().getGatewayDrainTimeoutInSeconds(), "smtp gateway");
+            }
+        } else if (formerServer != null) {
+            //the sessions of the former listener are not drained
+            startSucces = formerServer.isAccepting();
+        }
+    }
+
+    /**
+     * New tls handshakes use the changed openkim keystore, the listener stays bound.
+     * A keystore not supported by the OpenSSL listener rebinds the listener with the java tls implementation.
+     */
+    public synchronized void reloadKeystore() throws Exception {
+        if (!startSucces || !tlsActive) {
+            reload();
+            return;
+        }
+        try {
+            keyManager.reload(keystoreFilename, keyStorePwd);
+            if (openSslActive && !GatewayOpenSslContext.isKeyMaterialSupported(keyManager)) {
+                //OpenSSL would only fail on the handshakes, the listener is rebuilt with the java tls implementation
+                reload();
+                return;
+            }
+            log.info("***SMTP Gateway keystore reloaded***");
+        } catch (Exception e) {
+            log.error("error on reloading the keystore of the smtp gateway", e);
+            reload();
+        }
     }
 }
@@ -16,18 +16,24 @@
  */
 package net.sberg.openkim.gateway.smtp;
 
+import net.sberg.openkim.gateway.smtp.pool.SmtpClientPoolService;
+import net.sberg.openkim.konfiguration.EnumGatewayTIMode;
 import net.sberg.openkim.konfiguration.Konfiguration;
 import net.sberg.openkim.log.LogService;
 import org.apache.james.protocols.smtp.SMTPConfigurationImpl;
 
+import java.util.function.Supplier;
+
 public class SmtpGatewayConfiguration extends SMTPConfigurationImpl {
 
-    private final Konfiguration konfiguration;
+    private final Supplier<Konfiguration> konfigurationSupplier;
     private final LogService logService;
+    private final SmtpClientPoolService smtpClientPoolService;
 
-    public SmtpGatewayConfiguration(Konfiguration konfiguration, LogService logService) {
-        this.konfiguration = konfiguration;
+    public SmtpGatewayConfiguration(Supplier<Konfiguration> konfigurationSupplier, LogService logService, SmtpClientPoolService smtpClientPoolService) {
+        this.konfigurationSupplier = konfigurationSupplier;
         this.logService = logService;
+        this.smtpClientPoolService = smtpClientPoolService;
     }
 
     @Override
@@ -35,11 +41,39 @@ public class SmtpGatewayConfiguration extends SMTPConfigurationImpl {
         return "KOM-LE Clientmodul ESMTP";
     }
 
+    /**
+     * Mails larger than mailSizeLimitInMB are sent via KAS, which is only available in the FULLSTACK mode.
+     * Read from the konfiguration this configuration is bound to, so EHLO SIZE and the DATA check of a session use the same version.
+     */
+    @Override
+    public long getMaxMessageSize() {
+        Konfiguration konfiguration = getKonfiguration();
+        int limitInMB = konfiguration.getGatewayTIMode().equals(EnumGatewayTIMode.FULLSTACK)
+            ? Math.max(konfiguration.getKasMailSizeLimitInMB(), konfiguration.getMailSizeLimitInMB())
+            : konfiguration.getMailSizeLimitInMB();
+        return limitInMB * 1024L * 1024L;
+    }
+
     public LogService getLogService() {
         return logService;
     }
 
+    public SmtpClientPoolService getSmtpClientPoolService() {
+        return smtpClientPoolService;
+    }
+
+    /**
+     * @return the current version of the konfiguration, or the pinned version for the configuration of a session
+     */
     public Konfiguration getKonfiguration() {
-        return konfiguration;
+        return konfigurationSupplier.get();
+    }
+
+    /**
+     * @return a configuration bound to the current version of the konfiguration, the session keeps it until it ends
+     */
+    public SmtpGatewayConfiguration pinKonfiguration() {
+        Konfiguration konfiguration = konfigurationSupplier.get();
+        return new SmtpGatewayConfiguration(() -> konfiguration, logService, smtpClientPoolService);
     }
 }
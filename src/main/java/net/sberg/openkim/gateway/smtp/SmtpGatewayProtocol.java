@@ -32,6 +32,6 @@ public class SmtpGatewayProtocol extends SMTPProtocol {
 
     @Override
     public ProtocolSession newSession(ProtocolTransport transport) {
-        return new SmtpGatewaySession(transport, (SMTPConfiguration) this.getConfiguration());
+        return new SmtpGatewaySession(transport, ((SmtpGatewayConfiguration) this.getConfiguration()).pinKonfiguration());
     }
 }
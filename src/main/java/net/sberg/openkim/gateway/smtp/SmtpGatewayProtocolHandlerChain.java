@@ -18,6 +18,7 @@ package net.sberg.openkim.gateway.smtp;
 
 import net.sberg.openkim.gateway.smtp.cmdhandler.*;
 import net.sberg.openkim.pipeline.PipelineService;
+import net.sberg.openkim.pipeline.operation.konnektor.vzd.VzdCertsPrefetchService;
 import org.apache.james.protocols.api.handler.CommandDispatcher;
 import org.apache.james.protocols.api.handler.CommandHandlerResultLogger;
 import org.apache.james.protocols.api.handler.ProtocolHandler;
@@ -32,13 +33,13 @@ import java.util.List;
 
 public class SmtpGatewayProtocolHandlerChain extends ProtocolHandlerChainImpl {
 
-    public SmtpGatewayProtocolHandlerChain(boolean addDefault, PipelineService pipelineService) {
+    public SmtpGatewayProtocolHandlerChain(boolean addDefault, PipelineService pipelineService, VzdCertsPrefetchService vzdCertsPrefetchService) {
         if (addDefault) {
-            addAll(initDefaultHandlers(pipelineService));
+            addAll(initDefaultHandlers(pipelineService, vzdCertsPrefetchService));
         }
     }
 
-    protected List<ProtocolHandler> initDefaultHandlers(PipelineService pipelineService) {
+    protected List<ProtocolHandler> initDefaultHandlers(PipelineService pipelineService, VzdCertsPrefetchService vzdCertsPrefetchService) {
         List<ProtocolHandler> defaultHandlers = new ArrayList<>();
         defaultHandlers.add(new CommandDispatcher<SMTPSession>());
         defaultHandlers.add(new ExpnCmdHandler());
@@ -48,7 +49,7 @@ public class SmtpGatewayProtocolHandlerChain extends ProtocolHandlerChainImpl {
         defaultHandlers.add(new SmtpGatewayMailCmdHandler());
         defaultHandlers.add(new SmtpGatewayNoopCmdHandler());
         defaultHandlers.add(new SmtpGatewayQuitCmdHandler());
-        defaultHandlers.add(new SmtpGatewayRcptCmdHandler(pipelineService));
+        defaultHandlers.add(new SmtpGatewayRcptCmdHandler(pipelineService, vzdCertsPrefetchService));
         defaultHandlers.add(new SmtpGatewayRsetCmdHandler());
         defaultHandlers.add(new VrfyCmdHandler());
         defaultHandlers.add(new SmtpGatewayDataCmdHandler());
@@ -17,12 +17,15 @@
 package net.sberg.openkim.gateway.smtp;
 
 import net.sberg.openkim.common.ICommonConstants;
+import net.sberg.openkim.gateway.smtp.pool.SmtpClientPoolEntry;
 import net.sberg.openkim.konfiguration.EnumGatewayTIMode;
 import net.sberg.openkim.konfiguration.Konfiguration;
 import net.sberg.openkim.konnektor.Konnektor;
+import net.sberg.openkim.konnektor.admission.EnumKonnektorAdmissionPriority;
 import net.sberg.openkim.log.DefaultLogger;
 import net.sberg.openkim.log.DefaultLoggerContext;
 import net.sberg.openkim.log.LogService;
+import net.sberg.openkim.pipeline.operation.konnektor.vzd.VzdCertsPrefetcher;
 import org.apache.commons.net.smtp.AuthenticatingSMTPClient;
 import org.apache.james.protocols.api.ProtocolTransport;
 import org.apache.james.protocols.smtp.SMTPConfiguration;
@@ -39,17 +42,21 @@ public class SmtpGatewaySession extends SMTPSessionImpl {
     private static final DateTimeFormatter dtFormatter = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
 
     private AuthenticatingSMTPClient smtpClient;
+    private SmtpClientPoolEntry smtpClientPoolEntry;
     private EnumSmtpGatewayState gatewayState = EnumSmtpGatewayState.UNKNOWN;
+    private VzdCertsPrefetcher vzdCertsPrefetcher;
 
     private final DefaultLogger logger;
+    private final Konfiguration konfiguration;
     private String id;
 
     public SmtpGatewaySession(ProtocolTransport transport, SMTPConfiguration config) {
         super(transport, config);
 
-        DefaultLoggerContext defaultLoggerContext = new DefaultLoggerContext();
+        DefaultLoggerContext defaultLoggerContext = new DefaultLoggerContext().buildAdmissionPriority(EnumKonnektorAdmissionPriority.BULK);
         LogService logService = ((SmtpGatewayConfiguration) getConfiguration()).getLogService();
-        Konfiguration konfiguration = ((SmtpGatewayConfiguration) getConfiguration()).getKonfiguration();
+        //the session keeps the version of the konfiguration it started with, the configuration is pinned to it
+        konfiguration = ((SmtpGatewayConfiguration) getConfiguration()).getKonfiguration();
 
         Konnektor konnektor = null;
         if (konfiguration.getKonnektoren().size() > 0) {
@@ -65,6 +72,7 @@ public class SmtpGatewaySession extends SMTPSessionImpl {
                 defaultLoggerContext.buildKonfiguration(konfiguration).buildHtmlMode(true).buildWriteInFile(konfiguration.isWriteSmtpCmdLogFile()).buildFileName(MessageFormat.format(ICommonConstants.SMTP_LOG_FILENAME, getSessionID()))
             );
         }
+        logger.logLine("konfiguration version " + konfiguration.getVersion());
 
         if (!new File(ICommonConstants.SMTP_LOG_DIR).exists()) {
             new File(ICommonConstants.SMTP_LOG_DIR).mkdirs();
@@ -82,11 +90,11 @@ public class SmtpGatewaySession extends SMTPSessionImpl {
     }
 
     public int getSmtpClientIdleTimeoutInSeconds() {
-        return ((SmtpGatewayConfiguration) getConfiguration()).getKonfiguration().getSmtpClientIdleTimeoutInSeconds();
+        return konfiguration.getSmtpClientIdleTimeoutInSeconds();
     }
 
     public EnumGatewayTIMode getGatewayTIMode() {
-        return ((SmtpGatewayConfiguration) getConfiguration()).getKonfiguration().getGatewayTIMode();
+        return konfiguration.getGatewayTIMode();
     }
 
     public AuthenticatingSMTPClient getSmtpClient() {
@@ -97,6 +105,14 @@ public class SmtpGatewaySession extends SMTPSessionImpl {
         this.smtpClient = smtpClient;
     }
 
+    public SmtpClientPoolEntry getSmtpClientPoolEntry() {
+        return smtpClientPoolEntry;
+    }
+
+    public void setSmtpClientPoolEntry(SmtpClientPoolEntry smtpClientPoolEntry) {
+        this.smtpClientPoolEntry = smtpClientPoolEntry;
+    }
+
     public EnumSmtpGatewayState getGatewayState() {
         return gatewayState;
     }
@@ -105,12 +121,56 @@ public class SmtpGatewaySession extends SMTPSessionImpl {
         this.gatewayState = gatewayState;
     }
 
+    public VzdCertsPrefetcher getVzdCertsPrefetcher() {
+        return vzdCertsPrefetcher;
+    }
+
+    public void setVzdCertsPrefetcher(VzdCertsPrefetcher vzdCertsPrefetcher) {
+        this.vzdCertsPrefetcher = vzdCertsPrefetcher;
+    }
+
     /* **********************+ getter, setter **********************************************/
 
+    /**
+     * Cancels the speculative vzd searches of the transaction.
+     */
+    public void closeVzdCertsPrefetcher() {
+        if (vzdCertsPrefetcher != null) {
+            vzdCertsPrefetcher.close();
+            vzdCertsPrefetcher = null;
+        }
+    }
+
+    /**
+     * Gives the smtp client back to the pool or logs out.
+     *
+     * @return false if the logout failed
+     */
+    public boolean releaseSmtpClient() throws Exception {
+        AuthenticatingSMTPClient client = smtpClient;
+        SmtpClientPoolEntry entry = smtpClientPoolEntry;
+        smtpClient = null;
+        smtpClientPoolEntry = null;
+        if (client == null) {
+            return true;
+        }
+        if (entry != null && entry.getClient() == client) {
+            ((SmtpGatewayConfiguration) getConfiguration()).getSmtpClientPoolService().release(konfiguration, entry);
+            return true;
+        }
+        return client.logout();
+    }
+
+    @Override
+    public void resetState() {
+        closeVzdCertsPrefetcher();
+        super.resetState();
+    }
+
     public void log(String content) {
         StringBuilder logContent = new StringBuilder();
         logContent.append(dtFormatter.format(LocalDateTime.now()));
-        if (((SmtpGatewayConfiguration) getConfiguration()).getKonfiguration().isLogPersonalInformations()
+        if (konfiguration.isLogPersonalInformations()
             && logger.getDefaultLoggerContext().getMailServerUsername() != null
         ) {
             logContent.append(" ");
@@ -19,10 +19,16 @@ package net.sberg.openkim.gateway.smtp.cmdhandler;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
-import net.sberg.openkim.common.ICommonConstants;
+import net.sberg.openkim.common.circuitbreaker.CircuitBreaker;
+import net.sberg.openkim.common.circuitbreaker.CircuitBreakerOpenException;
+import net.sberg.openkim.common.circuitbreaker.CircuitBreakerRegistry;
+import net.sberg.openkim.common.circuitbreaker.EnumCircuitBreakerEndpointType;
 import net.sberg.openkim.common.metrics.DefaultMetricFactory;
 import net.sberg.openkim.gateway.smtp.EnumSmtpGatewayState;
+import net.sberg.openkim.gateway.smtp.SmtpGatewayConfiguration;
 import net.sberg.openkim.gateway.smtp.SmtpGatewaySession;
+import net.sberg.openkim.gateway.smtp.pool.SmtpClientPoolEntry;
+import net.sberg.openkim.gateway.smtp.pool.SmtpClientPoolService;
 import net.sberg.openkim.konfiguration.EnumGatewayTIMode;
 import net.sberg.openkim.konfiguration.Konfiguration;
 import net.sberg.openkim.pipeline.PipelineService;
@@ -30,10 +36,9 @@ import net.sberg.openkim.pipeline.operation.DefaultPipelineOperationContext;
 import net.sberg.openkim.pipeline.operation.konnektor.dns.DnsRequestOperation;
 import net.sberg.openkim.pipeline.operation.konnektor.dns.DnsResult;
 import net.sberg.openkim.pipeline.operation.konnektor.dns.DnsResultContainer;
+import net.sberg.openkim.pipeline.operation.mail.MailUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.net.smtp.AuthenticatingSMTPClient;
-import org.apache.http.ssl.SSLContextBuilder;
-import org.apache.http.ssl.TrustStrategy;
 import org.apache.james.core.Username;
 import org.apache.james.metrics.api.TimeMetric;
 import org.apache.james.protocols.api.Request;
@@ -53,13 +58,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xbill.DNS.Type;
 
-import javax.net.ssl.SSLContext;
-import java.io.File;
-import java.io.FileInputStream;
 import java.nio.charset.StandardCharsets;
-import java.security.KeyStore;
-import java.security.cert.CertificateException;
-import java.security.cert.X509Certificate;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -394,27 +393,26 @@ public class SmtpGatewayAuthCmdHandler implements CommandHandler<SMTPSession>, E
 
         try {
             Konfiguration konfiguration = ((SmtpGatewaySession) session).getLogger().getDefaultLoggerContext().getKonfiguration();
+            SmtpClientPoolService smtpClientPoolService = ((SmtpGatewayConfiguration) session.getConfiguration()).getSmtpClientPoolService();
+            String smtpClientPoolKey = SmtpClientPoolService.createKey(((SmtpGatewaySession) session).getLogger().getDefaultLoggerContext());
+            String credentialHash = SmtpClientPoolService.createCredentialHash(((SmtpGatewaySession) session).getLogger().getDefaultLoggerContext().getMailServerUsername(), pass);
+
+            //reuse an idle connection authenticated with the same credentials
+            SmtpClientPoolEntry smtpClientPoolEntry = smtpClientPoolService.acquire(konfiguration, smtpClientPoolKey, credentialHash);
+            if (smtpClientPoolEntry != null) {
+                ((SmtpGatewaySession) session).setSmtpClient(smtpClientPoolEntry.getClient());
+                ((SmtpGatewaySession) session).setSmtpClientPoolEntry(smtpClientPoolEntry);
+                ((SmtpGatewaySession) session).getLogger().getDefaultLoggerContext().setMailServerPassword(pass);
+                ((SmtpGatewaySession) session).setGatewayState(EnumSmtpGatewayState.PROXY);
+                ((SmtpGatewaySession) session).log("auth ends - smtp client auth - pooled connection");
+                return calcDefaultSMTPResponse(HookResult.OK);
+            }
 
             AuthenticatingSMTPClient client = null;
 
             //instantiate client
             if (konfiguration.getGatewayTIMode().equals(EnumGatewayTIMode.FULLSTACK)) {
-                String certfileName = ICommonConstants.BASE_DIR + File.separator + konfiguration.getFachdienstCertFilename();
-                char[] passCharArray = konfiguration.getFachdienstCertAuthPwd().toCharArray();
-                KeyStore keyStore = KeyStore.getInstance("PKCS12");
-                keyStore.load(new FileInputStream(certfileName), passCharArray);
-
-                SSLContext sslContext = new SSLContextBuilder()
-                    .loadKeyMaterial(keyStore, passCharArray)
-                    .loadTrustMaterial(keyStore, new TrustStrategy() {
-                        @Override
-                        public boolean isTrusted(X509Certificate[] x509Certificates, String s) throws CertificateException {
-                            return true;
-                        }
-                    })
-                    .build();
-
-                client = new AuthenticatingSMTPClient(true, sslContext);
+                client = new AuthenticatingSMTPClient(true, MailUtils.createFachdienstSslContext(konfiguration));
                 client.setDefaultTimeout(((SmtpGatewaySession) session).getSmtpClientIdleTimeoutInSeconds() * 1000);
                 client.setConnectTimeout(((SmtpGatewaySession) session).getSmtpClientIdleTimeoutInSeconds() * 1000);
                 ((SmtpGatewaySession) session).setSmtpClient(client);
@@ -472,10 +470,25 @@ public class SmtpGatewayAuthCmdHandler implements CommandHandler<SMTPSession>, E
                 mailServerHost = ((SmtpGatewaySession) session).getLogger().getDefaultLoggerContext().getMailServerHost();
             }
 
+            CircuitBreaker circuitBreaker = CircuitBreakerRegistry.get(
+                konfiguration,
+                EnumCircuitBreakerEndpointType.MTA,
+                ((SmtpGatewaySession) session).getLogger().getDefaultLoggerContext().getMailServerHost() + ":" + ((SmtpGatewaySession) session).getLogger().getDefaultLoggerContext().getMailServerPort()
+            );
+            try {
+                circuitBreaker.acquire();
+            } catch (CircuitBreakerOpenException e) {
+                log.warn("mta not available - " + session.getSessionID() + " - " + e.getMessage());
+                ((SmtpGatewaySession) session).log("auth ends - smtp client auth - mta not available");
+                return new SMTPResponse(SMTPRetCode.AUTH_TEMPORARY_ERROR, DSNStatus.getStatus(DSNStatus.TRANSIENT, DSNStatus.NETWORK_CONNECTION) + " Mailserver temporarily not available").immutable();
+            }
+
             try {
                 ((SmtpGatewaySession) session).log("connect to " + mailServerHost);
                 client.connect(mailServerHost, Integer.parseInt(((SmtpGatewaySession) session).getLogger().getDefaultLoggerContext().getMailServerPort()));
+                circuitBreaker.onSuccess();
             } catch (Exception e) {
+                circuitBreaker.onFailure(e);
                 log.error("erron on connecting the mta - " + session.getSessionID(), e);
                 ((SmtpGatewaySession) session).log("auth ends - smtp client auth - connect error");
                 return new SMTPResponse(SMTPRetCode.AUTH_TEMPORARY_ERROR, DSNStatus.getStatus(DSNStatus.NETWORK, DSNStatus.SECURITY_OTHER) + " Temporary authentication failure").immutable();
@@ -487,6 +500,7 @@ public class SmtpGatewayAuthCmdHandler implements CommandHandler<SMTPSession>, E
                 ((SmtpGatewaySession) session).getLogger().getDefaultLoggerContext().setMailServerPassword(pass);
                 boolean res = client.auth(AuthenticatingSMTPClient.AUTH_METHOD.LOGIN, ((SmtpGatewaySession) session).getLogger().getDefaultLoggerContext().getMailServerUsername(), pass);
                 if (res) {
+                    ((SmtpGatewaySession) session).setSmtpClientPoolEntry(smtpClientPoolService.create(smtpClientPoolKey, credentialHash, client));
                     ((SmtpGatewaySession) session).setGatewayState(EnumSmtpGatewayState.PROXY);
                     ((SmtpGatewaySession) session).log("auth ends - smtp client auth - success");
                     return calcDefaultSMTPResponse(HookResult.OK);
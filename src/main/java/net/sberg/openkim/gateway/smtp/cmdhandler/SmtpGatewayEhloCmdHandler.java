@@ -40,7 +40,8 @@ public class SmtpGatewayEhloCmdHandler extends AbstractGatewayHookableCmdHandler
     private static final String COMMAND_NAME = "EHLO";
     private static final Collection<String> COMMANDS = ImmutableSet.of(COMMAND_NAME);
     // see http://issues.apache.org/jira/browse/JAMES-419
-    private static final List<String> ESMTP_FEATURES = ImmutableList.of("SIZE 35882577", "AUTH LOGIN PLAIN", "8BITMIME", "ENHANCEDSTATUSCODES");
+    // SIZE is advertised by the MailSizeEsmtpExtension with the limit of the SmtpGatewayConfiguration
+    private static final List<String> ESMTP_FEATURES = ImmutableList.of("PIPELINING", "AUTH LOGIN PLAIN", "8BITMIME", "ENHANCEDSTATUSCODES");
     private static final Response DOMAIN_ADDRESS_REQUIRED = new SMTPResponse(SMTPRetCode.SYNTAX_ERROR_ARGUMENTS, DSNStatus.getStatus(DSNStatus.PERMANENT, DSNStatus.DELIVERY_INVALID_ARG) + " Domain address required: " + COMMAND_NAME).immutable();
 
     private List<EhloExtension> ehloExtensions;
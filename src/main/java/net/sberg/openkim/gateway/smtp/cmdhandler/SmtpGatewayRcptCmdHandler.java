@@ -22,8 +22,10 @@ import com.google.common.collect.ImmutableSet;
 import net.sberg.openkim.gateway.smtp.AbstractGatewayHookableCmdHandler;
 import net.sberg.openkim.gateway.smtp.EnumSmtpGatewayState;
 import net.sberg.openkim.gateway.smtp.SmtpGatewaySession;
+import net.sberg.openkim.konfiguration.EnumGatewayTIMode;
 import net.sberg.openkim.log.DefaultLoggerContext;
 import net.sberg.openkim.pipeline.PipelineService;
+import net.sberg.openkim.pipeline.operation.konnektor.vzd.VzdCertsPrefetchService;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.james.core.MailAddress;
 import org.apache.james.core.MaybeSender;
@@ -68,12 +70,29 @@ public class SmtpGatewayRcptCmdHandler extends AbstractGatewayHookableCmdHandler
     ).immutable();
 
     private PipelineService pipelineService;
+    private VzdCertsPrefetchService vzdCertsPrefetchService;
 
     private SmtpGatewayRcptCmdHandler() {
     }
 
-    public SmtpGatewayRcptCmdHandler(PipelineService pipelineService) {
+    public SmtpGatewayRcptCmdHandler(PipelineService pipelineService, VzdCertsPrefetchService vzdCertsPrefetchService) {
         this.pipelineService = pipelineService;
+        this.vzdCertsPrefetchService = vzdCertsPrefetchService;
+    }
+
+    private void prefetchVzdCerts(SmtpGatewaySession smtpGatewaySession, String rcptAddress) {
+        DefaultLoggerContext loggerContext = smtpGatewaySession.getLogger().getDefaultLoggerContext();
+        if (!loggerContext.getKonfiguration().isSmtpVzdPrefetchEnabled()
+            || loggerContext.getKonfiguration().getGatewayTIMode().equals(EnumGatewayTIMode.NO_TI)
+            || loggerContext.getKonnektor() == null
+        ) {
+            return;
+        }
+        if (smtpGatewaySession.getVzdCertsPrefetcher() == null) {
+            smtpGatewaySession.setVzdCertsPrefetcher(vzdCertsPrefetchService.create(smtpGatewaySession.getLogger()));
+            smtpGatewaySession.getVzdCertsPrefetcher().prefetch(loggerContext.getSenderAddress(true));
+        }
+        smtpGatewaySession.getVzdCertsPrefetcher().prefetch(rcptAddress);
     }
 
     /**
@@ -102,6 +121,7 @@ public class SmtpGatewayRcptCmdHandler extends AbstractGatewayHookableCmdHandler
                     ((SmtpGatewaySession) session).log("rcpt to: "+recipientAddress.asString().toLowerCase());
                     loggerContext.getRecipientAddresses(true).add(recipientAddress.asString().toLowerCase());
                 }
+                prefetchVzdCerts((SmtpGatewaySession) session, recipientAddress.asString().toLowerCase());
             }
         } catch (Exception e) {
             log.error("error on doCoreCmd - set rcpt address in mta - " + session.getSessionID(), e);
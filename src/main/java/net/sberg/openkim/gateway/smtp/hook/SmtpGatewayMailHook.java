@@ -16,14 +16,15 @@
  */
 package net.sberg.openkim.gateway.smtp.hook;
 
-import net.sberg.openkim.common.FileUtils;
-import net.sberg.openkim.common.ICommonConstants;
+import net.sberg.openkim.common.circuitbreaker.CircuitBreakerOpenException;
 import net.sberg.openkim.common.x509.X509CertificateResult;
 import net.sberg.openkim.gateway.smtp.EnumSmtpGatewayState;
 import net.sberg.openkim.gateway.smtp.SmtpGatewaySession;
+import net.sberg.openkim.gateway.smtp.spool.SmtpSpoolService;
 import net.sberg.openkim.konfiguration.EnumGatewayTIMode;
 import net.sberg.openkim.konfiguration.Konfiguration;
 import net.sberg.openkim.konnektor.Konnektor;
+import net.sberg.openkim.konnektor.admission.KonnektorAdmissionException;
 import net.sberg.openkim.log.DefaultLogger;
 import net.sberg.openkim.log.error.EnumErrorCode;
 import net.sberg.openkim.log.error.IErrorContext;
@@ -37,8 +38,6 @@ import net.sberg.openkim.pipeline.operation.mail.SignEncryptMailOperation;
 import net.sberg.openkim.pipeline.operation.mail.kas.KasOutgoingMailOperation;
 import org.apache.commons.io.output.AbstractByteArrayOutputStream;
 import org.apache.commons.net.smtp.SMTPReply;
-import org.apache.http.ssl.SSLContextBuilder;
-import org.apache.http.ssl.TrustStrategy;
 import org.apache.james.protocols.smtp.MailEnvelope;
 import org.apache.james.protocols.smtp.SMTPSession;
 import org.apache.james.protocols.smtp.hook.HookResult;
@@ -46,17 +45,11 @@ import org.apache.james.protocols.smtp.hook.MessageHook;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.mail.Session;
 import javax.mail.internet.MimeMessage;
-import javax.net.ssl.SSLContext;
 import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
-import java.security.KeyStore;
-import java.security.cert.CertificateException;
-import java.security.cert.X509Certificate;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 public class SmtpGatewayMailHook implements MessageHook {
@@ -64,15 +57,17 @@ public class SmtpGatewayMailHook implements MessageHook {
     private static final Logger log = LoggerFactory.getLogger(SmtpGatewayMailHook.class);
 
     private PipelineService pipelineService;
+    private SmtpSpoolService smtpSpoolService;
 
     private SmtpGatewayMailHook() {
     }
 
-    public SmtpGatewayMailHook(PipelineService pipelineService) {
+    public SmtpGatewayMailHook(PipelineService pipelineService, SmtpSpoolService smtpSpoolService) {
         this.pipelineService = pipelineService;
+        this.smtpSpoolService = smtpSpoolService;
     }
 
-    private boolean checkMailAddresses(SmtpGatewaySession smtpGatewaySession, Map<String, X509CertificateResult> certMap, List<String> mailAddresses, boolean senderAddresses, boolean rcptAddresses) {
+    private boolean checkMailAddresses(SmtpGatewaySession smtpGatewaySession, Map<String, X509CertificateResult> certMap, List<String> mailAddresses, boolean senderAddresses, boolean rcptAddresses) throws CircuitBreakerOpenException {
         try {
             LoadVzdCertsOperation loadVzdCertsOperation = (LoadVzdCertsOperation) pipelineService.getOperation(LoadVzdCertsOperation.BUILTIN_VENDOR+"."+LoadVzdCertsOperation.NAME);
             DefaultPipelineOperationContext defaultPipelineOperationContext = new DefaultPipelineOperationContext(smtpGatewaySession.getLogger());
@@ -80,7 +75,11 @@ public class SmtpGatewayMailHook implements MessageHook {
             defaultPipelineOperationContext.setEnvironmentValue(LoadVzdCertsOperation.NAME, LoadVzdCertsOperation.ENV_VZD_SEARCH_BASE, smtpGatewaySession.getLogger().getDefaultLoggerContext().getKonnektor().getVzdSearchBase());
             defaultPipelineOperationContext.setEnvironmentValue(LoadVzdCertsOperation.NAME, LoadVzdCertsOperation.ENV_LOAD_SENDER_ADRESSES, senderAddresses);
             defaultPipelineOperationContext.setEnvironmentValue(LoadVzdCertsOperation.NAME, LoadVzdCertsOperation.ENV_LOAD_RCPT_ADRESSES, rcptAddresses);
+            if (smtpGatewaySession.getVzdCertsPrefetcher() != null) {
+                defaultPipelineOperationContext.setEnvironmentValue(LoadVzdCertsOperation.NAME, LoadVzdCertsOperation.ENV_VZD_PREFETCHER, smtpGatewaySession.getVzdCertsPrefetcher());
+            }
 
+            AtomicReference<Exception> failure = new AtomicReference<>();
             loadVzdCertsOperation.execute(
                 defaultPipelineOperationContext,
                 context -> {
@@ -88,13 +87,19 @@ public class SmtpGatewayMailHook implements MessageHook {
                 },
                 (context, e) -> {
                     log.error("error on loading certs for mailAddresses: "+mailAddresses.stream().collect(Collectors.joining(",")), e);
+                    failure.set(e);
                 }
             );
+            if (failure.get() instanceof CircuitBreakerOpenException) {
+                throw (CircuitBreakerOpenException) failure.get();
+            }
 
             List<X509CertificateResult> certs = (List)defaultPipelineOperationContext.getEnvironmentValue(LoadVzdCertsOperation.NAME, LoadVzdCertsOperation.ENV_VZD_CERTS);
             certs.stream().forEach(o -> certMap.put(o.getMailAddress(), o));
 
             return true;
+        } catch (CircuitBreakerOpenException e) {
+            throw e;
         } catch (Exception e) {
             log.error("error on loading certs for: " + smtpGatewaySession.getSessionID() + " - " + mailAddresses.stream().collect(Collectors.joining(",")), e);
             smtpGatewaySession.log("error on loading certs for: " + smtpGatewaySession.getSessionID() + " - " + mailAddresses.stream().collect(Collectors.joining(",")));
@@ -113,19 +118,7 @@ public class SmtpGatewayMailHook implements MessageHook {
             defaultPipelineOperationContext.setEnvironmentValue(SendDsnOperation.NAME, SendDsnOperation.ENV_SENDER_CTX, senderContext);
 
             if (konfiguration.getGatewayTIMode().equals(EnumGatewayTIMode.FULLSTACK)) {
-                String certfileName = ICommonConstants.BASE_DIR + File.separator + konfiguration.getFachdienstCertFilename();
-                char[] passCharArray = konfiguration.getFachdienstCertAuthPwd().toCharArray();
-                KeyStore keyStore = KeyStore.getInstance("PKCS12");
-                keyStore.load(new FileInputStream(certfileName), passCharArray);
-
-                SSLContext sslContext = new SSLContextBuilder().loadKeyMaterial(keyStore, passCharArray).loadTrustMaterial(new TrustStrategy() {
-                    @Override
-                    public boolean isTrusted(X509Certificate[] x509Certificates, String s) throws CertificateException {
-                        return true;
-                    }
-                }).build();
-
-                defaultPipelineOperationContext.setEnvironmentValue(SendDsnOperation.NAME, SendDsnOperation.ENV_SSL_CONTEXT, sslContext);
+                defaultPipelineOperationContext.setEnvironmentValue(SendDsnOperation.NAME, SendDsnOperation.ENV_SSL_CONTEXT, MailUtils.createFachdienstSslContext(konfiguration));
             }
 
             AtomicInteger failedCounter = new AtomicInteger();
@@ -159,6 +152,7 @@ public class SmtpGatewayMailHook implements MessageHook {
             defaultPipelineOperationContext.setEnvironmentValue(SignEncryptMailOperation.NAME, SignEncryptMailOperation.ENV_ORIGIN_MIMEMESSAGE, originMimeMessage);
 
             AtomicInteger failedCounter = new AtomicInteger();
+            AtomicReference<Exception> signEncryptException = new AtomicReference<>();
             signEncryptMailOperation.execute(
                 defaultPipelineOperationContext,
                 context -> {
@@ -167,6 +161,7 @@ public class SmtpGatewayMailHook implements MessageHook {
                 (context, e) -> {
                     log.error("error on mail signing and encrypting", e);
                     failedCounter.incrementAndGet();
+                    signEncryptException.set(e);
                 }
             );
 
@@ -174,7 +169,7 @@ public class SmtpGatewayMailHook implements MessageHook {
                 return (byte[])defaultPipelineOperationContext.getEnvironmentValue(SignEncryptMailOperation.NAME, SignEncryptMailOperation.ENV_RESULT_MSG_BYTES);
             }
             else {
-                throw new IllegalStateException("error on mail signing and encrypting");
+                throw new IllegalStateException("error on mail signing and encrypting", signEncryptException.get());
             }
         } catch (Exception e) {
             log.error("error on mail signing and encrypting for the konnektor: " + konnektor.getIp(), e);
@@ -182,6 +177,15 @@ public class SmtpGatewayMailHook implements MessageHook {
         }
     }
 
+    private HookResult spool(SmtpGatewaySession smtpGatewaySession, MimeMessage message, List<String> rcptAddresses) throws Exception {
+        //the mta checked the recipients, the spool worker sends the mail in its own transaction
+        smtpGatewaySession.getSmtpClient().rset();
+        smtpSpoolService.spool(smtpGatewaySession.getLogger(), message, rcptAddresses);
+        smtpGatewaySession.setGatewayState(EnumSmtpGatewayState.PROXY);
+        smtpGatewaySession.log("mail hook ends - spooled");
+        return HookResult.OK;
+    }
+
     @Override
     public HookResult onMessage(SMTPSession session, MailEnvelope mailEnvelope) {
 
@@ -191,12 +195,12 @@ public class SmtpGatewayMailHook implements MessageHook {
         try {
             smtpGatewaySession.log("mail hook begins");
 
-            File tempMailFile = FileUtils.writeToFileDirectory(((AbstractByteArrayOutputStream) mailEnvelope.getMessageOutputStream()).toByteArray(), "openkim", System.getProperty("java.io.tmpdir"));
-            MimeMessage message = new MimeMessage(Session.getInstance(new Properties()), new FileInputStream(tempMailFile));
+            //parsed once, the parts of the message are views on the received bytes
+            byte[] receivedMsg = ((AbstractByteArrayOutputStream) mailEnvelope.getMessageOutputStream()).toByteArray();
+            MimeMessage message = MailUtils.parseMimeMessage(receivedMsg, 0, receivedMsg.length);
             if (!MailUtils.checkAddressMapping(logger, message, true)) {
                 throw new IllegalStateException("error on checking of address mapping");
             }
-            tempMailFile.delete();
 
             String msgContent = null;
             List<IErrorContext> errorContexts = new ArrayList();
@@ -244,6 +248,7 @@ public class SmtpGatewayMailHook implements MessageHook {
 
                 //send rcpt to
                 boolean successfulRcptTo = false;
+                List<String> successfulRcptAddresses = new ArrayList<>();
                 for (Iterator<String> iterator = logger.getDefaultLoggerContext().getRecipientCerts().keySet().iterator(); iterator.hasNext(); ) {
                     String rcptAddress = iterator.next();
                     if (logger.getDefaultLoggerContext().getMailaddressCertErrorContext().isError(rcptAddress)) {
@@ -258,6 +263,7 @@ public class SmtpGatewayMailHook implements MessageHook {
                     }
                     else {
                         successfulRcptTo = true;
+                        successfulRcptAddresses.add(rcptAddress);
                     }
                 }
 
@@ -278,6 +284,7 @@ public class SmtpGatewayMailHook implements MessageHook {
                     defaultPipelineOperationContext.setEnvironmentValue(KasOutgoingMailOperation.NAME, KasOutgoingMailOperation.ENV_MSG, message);
                     defaultPipelineOperationContext.setEnvironmentValue(KasOutgoingMailOperation.NAME, KasOutgoingMailOperation.ENV_SMTP_GATEWAY_SESSION, smtpGatewaySession);
 
+                    AtomicReference<Exception> kasFailure = new AtomicReference<>();
                     kasOutgoingMailOperation.execute(
                         defaultPipelineOperationContext,
                         context -> {
@@ -285,6 +292,7 @@ public class SmtpGatewayMailHook implements MessageHook {
                         },
                         (context, e) -> {
                             log.error("error on handling of kas", e);
+                            kasFailure.set(e);
                         }
                     );
                     if (logger.getDefaultLoggerContext().extractNoFailureKimVersionRcpts().isEmpty() && !logger.getDefaultLoggerContext().extractFailureKimVersionRcpts().isEmpty()) {
@@ -298,7 +306,7 @@ public class SmtpGatewayMailHook implements MessageHook {
                     boolean valid = (boolean)defaultPipelineOperationContext.getEnvironmentValue(KasOutgoingMailOperation.NAME, KasOutgoingMailOperation.ENV_VALID_RESULT);
                     if (!valid) {
                         smtpGatewaySession.getSmtpClient().rset();
-                        throw new IllegalStateException("error on handling of kas: "+smtpGatewaySession.getSessionID());
+                        throw new IllegalStateException("error on handling of kas: "+smtpGatewaySession.getSessionID(), kasFailure.get());
                     }
                     message = (MimeMessage) defaultPipelineOperationContext.getEnvironmentValue(KasOutgoingMailOperation.NAME, KasOutgoingMailOperation.ENV_RESULT_MSG);
                 }
@@ -333,6 +341,11 @@ public class SmtpGatewayMailHook implements MessageHook {
                 }
                 message = (MimeMessage) defaultPipelineOperationContext.getEnvironmentValue(CheckSendingMailOperation.NAME, CheckSendingMailOperation.ENV_RESULT_MSG);
 
+                if (smtpSpoolService.isEnabled(logger.getDefaultLoggerContext().getKonfiguration())) {
+                    successfulRcptAddresses.removeIf(rcptAddress -> logger.getDefaultLoggerContext().getMailaddressKimVersionErrorContext().isError(rcptAddress));
+                    return spool(smtpGatewaySession, message, successfulRcptAddresses);
+                }
+
                 //sign and encrpyt
                 byte[] msgBytes = signEncrypt(
                     logger,
@@ -348,6 +361,7 @@ public class SmtpGatewayMailHook implements MessageHook {
             else {
                 //send rcpt to
                 boolean successfulRcptTo = false;
+                List<String> successfulRcptAddresses = new ArrayList<>();
                 for (Iterator<String> iterator = logger.getDefaultLoggerContext().getRecipientAddresses(true).iterator(); iterator.hasNext(); ) {
                     String rcptAddress = iterator.next();
                     int res = ((SmtpGatewaySession) session).getSmtpClient().rcpt("<" + rcptAddress + ">");
@@ -356,6 +370,7 @@ public class SmtpGatewayMailHook implements MessageHook {
                     }
                     else {
                         successfulRcptTo = true;
+                        successfulRcptAddresses.add(rcptAddress);
                     }
                 }
 
@@ -377,6 +392,10 @@ public class SmtpGatewayMailHook implements MessageHook {
                     }
                 }
 
+                if (smtpSpoolService.isEnabled(logger.getDefaultLoggerContext().getKonfiguration())) {
+                    return spool(smtpGatewaySession, message, successfulRcptAddresses);
+                }
+
                 ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
                 message.writeTo(byteArrayOutputStream);
                 byteArrayOutputStream.close();
@@ -393,8 +412,20 @@ public class SmtpGatewayMailHook implements MessageHook {
             }
         } catch (Exception e) {
             log.error("error on onMessage smtp gateway mail hook - " + session.getSessionID(), e);
+            if (KonnektorAdmissionException.isCause(e) || CircuitBreakerOpenException.isCause(e)) {
+                //konnektor busy or remote endpoint not available, the client may try again later
+                try {
+                    smtpGatewaySession.getSmtpClient().rset();
+                } catch (Exception ex) {
+                    log.error("error on rset after temporary error - " + session.getSessionID(), ex);
+                }
+                smtpGatewaySession.log("mail hook ends - temporary error");
+                return HookResult.DENYSOFT;
+            }
             smtpGatewaySession.log("mail hook ends - error");
             return HookResult.DENY;
+        } finally {
+            smtpGatewaySession.closeVzdCertsPrefetcher();
         }
     }
 }
@@ -31,8 +31,7 @@ public class SmtpGatewayQuitHook implements QuitHook {
     public HookResult doQuit(SMTPSession smtpSession) {
         try {
             ((SmtpGatewaySession) smtpSession).log("quit hook begins");
-            if (((SmtpGatewaySession) smtpSession).getSmtpClient() == null || ((SmtpGatewaySession) smtpSession).getSmtpClient().logout()) {
-                ((SmtpGatewaySession) smtpSession).setSmtpClient(null);
+            if (((SmtpGatewaySession) smtpSession).releaseSmtpClient()) {
                 ((SmtpGatewaySession) smtpSession).log("quit hook ends");
                 return HookResult.OK;
             }
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.gateway.smtp.pool;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import net.sberg.openkim.konfiguration.Konfiguration;
+import net.sberg.openkim.log.DefaultLoggerContext;
+import org.apache.commons.net.smtp.AuthenticatingSMTPClient;
+import org.bouncycastle.util.encoders.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Idle, authenticated connections to the mta, keyed by account and mta endpoint.
+ * A smtp gateway session takes a connection at AUTH and gives it back at QUIT, so the following session of the same account
+ * skips dns lookup, connect, tls handshake, EHLO and AUTH.
+ * The mta rejects a second AUTH on a connection, so a pooled connection is only matched against the hash of the credentials
+ * it was authenticated with: a password changed at the mta is not checked again until the connection is older than
+ * smtpClientPoolMaxAgeInSeconds, which is why that age is kept short.
+ */
+@Service
+public class SmtpClientPoolService {
+
+    private static final Logger log = LoggerFactory.getLogger(SmtpClientPoolService.class);
+
+    private static final int MAX_IDLE_TOTAL = 50;
+    private static final int EVICT_INTERVAL_IN_SECONDS = 15;
+
+    private final Map<String, Deque<SmtpClientPoolEntry>> idleEntries = new HashMap<>();
+    private int idleCount;
+
+    private final ScheduledExecutorService evictExecutor = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("smtp-client-pool-%d").setDaemon(true).build()
+    );
+
+    @PostConstruct
+    protected void init() {
+        evictExecutor.scheduleWithFixedDelay(this::evict, EVICT_INTERVAL_IN_SECONDS, EVICT_INTERVAL_IN_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    protected void destroy() {
+        evictExecutor.shutdownNow();
+        clear();
+    }
+
+    public static String createKey(DefaultLoggerContext defaultLoggerContext) {
+        return defaultLoggerContext.getMailServerUsername() + "@" + defaultLoggerContext.getMailServerHost() + ":" + defaultLoggerContext.getMailServerPort();
+    }
+
+    public static String createCredentialHash(String username, String password) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(username.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(password.getBytes(StandardCharsets.UTF_8));
+            return Hex.toHexString(digest.digest());
+        } catch (Exception e) {
+            throw new IllegalStateException("error on creating the credential hash", e);
+        }
+    }
+
+    public SmtpClientPoolEntry create(String key, String credentialHash, AuthenticatingSMTPClient client) {
+        SmtpClientPoolEntry entry = new SmtpClientPoolEntry();
+        entry.setKey(key);
+        entry.setCredentialHash(credentialHash);
+        entry.setClient(client);
+        return entry;
+    }
+
+    /**
+     * @return an idle connection authenticated with the given credentials and answering NOOP, or null
+     */
+    public SmtpClientPoolEntry acquire(Konfiguration konfiguration, String key, String credentialHash) {
+        if (!konfiguration.isSmtpClientPoolEnabled()) {
+            return null;
+        }
+        while (true) {
+            SmtpClientPoolEntry entry = null;
+            List<SmtpClientPoolEntry> invalidEntries = new ArrayList<>();
+            synchronized (idleEntries) {
+                Deque<SmtpClientPoolEntry> entries = idleEntries.get(key);
+                if (entries != null) {
+                    entry = entries.pollFirst();
+                    if (entry != null) {
+                        idleCount--;
+                        if (!entry.getCredentialHash().equals(credentialHash)) {
+                            //credentials changed, the other connections of the account are invalid too
+                            invalidEntries.add(entry);
+                            invalidEntries.addAll(entries);
+                            idleCount -= entries.size();
+                            entries.clear();
+                            entry = null;
+                        }
+                    }
+                    if (entries.isEmpty()) {
+                        idleEntries.remove(key);
+                    }
+                }
+            }
+            invalidEntries.forEach(this::close);
+            if (entry == null) {
+                return null;
+            }
+            if (isExpired(konfiguration, entry)) {
+                close(entry);
+                continue;
+            }
+            try {
+                if (entry.getClient().isConnected() && entry.getClient().sendNoOp()) {
+                    return entry;
+                }
+            } catch (Exception e) {
+                log.info("pooled smtp client not usable: " + key + " - " + e.getMessage());
+            }
+            close(entry);
+        }
+    }
+
+    /**
+     * Resets the connection with RSET and puts it back into the pool, or closes it if it is not reusable or the pool is full.
+     */
+    public void release(Konfiguration konfiguration, SmtpClientPoolEntry entry) {
+        if (!konfiguration.isSmtpClientPoolEnabled() || isExpired(konfiguration, entry)) {
+            close(entry);
+            return;
+        }
+        try {
+            if (!entry.getClient().isConnected() || !entry.getClient().reset()) {
+                close(entry);
+                return;
+            }
+        } catch (Exception e) {
+            log.info("smtp client not reusable: " + entry.getKey() + " - " + e.getMessage());
+            close(entry);
+            return;
+        }
+
+        entry.setIdleUntil(System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(konfiguration.getSmtpClientPoolIdleTimeoutInSeconds()));
+        List<SmtpClientPoolEntry> closeEntries = new ArrayList<>();
+        synchronized (idleEntries) {
+            Deque<SmtpClientPoolEntry> entries = idleEntries.computeIfAbsent(entry.getKey(), k -> new ArrayDeque<>());
+            for (Iterator<SmtpClientPoolEntry> iterator = entries.iterator(); iterator.hasNext(); ) {
+                SmtpClientPoolEntry idleEntry = iterator.next();
+                if (!idleEntry.getCredentialHash().equals(entry.getCredentialHash())) {
+                    iterator.remove();
+                    idleCount--;
+                    closeEntries.add(idleEntry);
+                }
+            }
+            if (entries.size() >= konfiguration.getSmtpClientPoolMaxIdlePerAccount() || idleCount >= MAX_IDLE_TOTAL) {
+                closeEntries.add(entry);
+            } else {
+                entries.addFirst(entry);
+                idleCount++;
+            }
+            if (entries.isEmpty()) {
+                idleEntries.remove(entry.getKey());
+            }
+        }
+        closeEntries.forEach(this::close);
+    }
+
+    public void clear() {
+        List<SmtpClientPoolEntry> closeEntries = new ArrayList<>();
+        synchronized (idleEntries) {
+            idleEntries.values().forEach(closeEntries::addAll);
+            idleEntries.clear();
+            idleCount = 0;
+        }
+        closeEntries.forEach(this::close);
+    }
+
+    public int getIdleCount() {
+        synchronized (idleEntries) {
+            return idleCount;
+        }
+    }
+
+    private boolean isExpired(Konfiguration konfiguration, SmtpClientPoolEntry entry) {
+        return System.currentTimeMillis() - entry.getCreated() > TimeUnit.SECONDS.toMillis(konfiguration.getSmtpClientPoolMaxAgeInSeconds());
+    }
+
+    private void evict() {
+        long now = System.currentTimeMillis();
+        List<SmtpClientPoolEntry> closeEntries = new ArrayList<>();
+        synchronized (idleEntries) {
+            for (Iterator<Deque<SmtpClientPoolEntry>> iterator = idleEntries.values().iterator(); iterator.hasNext(); ) {
+                Deque<SmtpClientPoolEntry> entries = iterator.next();
+                for (Iterator<SmtpClientPoolEntry> entryIterator = entries.iterator(); entryIterator.hasNext(); ) {
+                    SmtpClientPoolEntry entry = entryIterator.next();
+                    if (entry.getIdleUntil() < now) {
+                        entryIterator.remove();
+                        idleCount--;
+                        closeEntries.add(entry);
+                    }
+                }
+                if (entries.isEmpty()) {
+                    iterator.remove();
+                }
+            }
+        }
+        closeEntries.forEach(this::close);
+    }
+
+    private void close(SmtpClientPoolEntry entry) {
+        try {
+            if (entry.getClient().isConnected()) {
+                entry.getClient().logout();
+            }
+        } catch (Exception e) {
+            log.debug("error on logout the pooled smtp client: " + entry.getKey(), e);
+        }
+        try {
+            entry.getClient().disconnect();
+        } catch (Exception e) {
+            log.debug("error on disconnecting the pooled smtp client: " + entry.getKey(), e);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.gateway.smtp.spool;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Metadata of a spooled mail. The mail itself is stored beside it and only loaded by the worker.
+ */
+@Data
+public class SmtpSpoolEntry {
+    private String id;
+    private long created;
+    private int attempts;
+    private long nextAttempt;
+
+    private String konnektorId;
+    private String mandantId;
+    private String clientSystemId;
+    private String workplaceId;
+    private String userId;
+
+    private String mailServerHost;
+    private String mailServerPort;
+    private String mailServerUsername;
+    private String mailServerPassword;
+
+    private String envelopeSender;
+    private String senderAddress;
+    private List<String> recipients = new ArrayList<>();
+}
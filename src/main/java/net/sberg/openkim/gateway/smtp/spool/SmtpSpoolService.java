@@ -0,0 +1,705 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.gateway.smtp.spool;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import net.sberg.openkim.common.ICommonConstants;
+import net.sberg.openkim.common.circuitbreaker.CircuitBreaker;
+import net.sberg.openkim.common.circuitbreaker.CircuitBreakerRegistry;
+import net.sberg.openkim.common.circuitbreaker.EnumCircuitBreakerEndpointType;
+import net.sberg.openkim.common.x509.X509CertificateResult;
+import net.sberg.openkim.konfiguration.EnumGatewayTIMode;
+import net.sberg.openkim.konfiguration.Konfiguration;
+import net.sberg.openkim.konfiguration.KonfigurationService;
+import net.sberg.openkim.konnektor.Konnektor;
+import net.sberg.openkim.konnektor.admission.EnumKonnektorAdmissionPriority;
+import net.sberg.openkim.log.DefaultLogger;
+import net.sberg.openkim.log.DefaultLoggerContext;
+import net.sberg.openkim.log.LogService;
+import net.sberg.openkim.log.error.EnumErrorCode;
+import net.sberg.openkim.log.error.IErrorContext;
+import net.sberg.openkim.pipeline.PipelineService;
+import net.sberg.openkim.pipeline.operation.DefaultPipelineOperationContext;
+import net.sberg.openkim.pipeline.operation.konnektor.dns.DnsRequestOperation;
+import net.sberg.openkim.pipeline.operation.konnektor.dns.DnsResultContainer;
+import net.sberg.openkim.pipeline.operation.konnektor.vzd.LoadVzdCertsOperation;
+import net.sberg.openkim.pipeline.operation.mail.SendDsnOperation;
+import net.sberg.openkim.pipeline.operation.mail.MailUtils;
+import net.sberg.openkim.pipeline.operation.mail.SignEncryptMailOperation;
+import net.sberg.openkim.pipeline.operation.mail.kas.AesGcmHelper;
+import org.apache.commons.net.smtp.AuthenticatingSMTPClient;
+import org.apache.commons.net.smtp.SMTPReply;
+import org.bouncycastle.util.IPAddress;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.xbill.DNS.Type;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import javax.mail.internet.MimeMessage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Durable store-and-forward queue for outgoing mails.
+ * The smtp gateway checks sender and recipients, spools the mail and answers at once. Workers sign, encrypt and relay
+ * the spooled mails with retries and report permanent failures via DSN. Spool files are encrypted, as they contain the
+ * mail and the credentials of the mail account, and are recovered on startup.
+ */
+@Service
+public class SmtpSpoolService {
+
+    private static final Logger log = LoggerFactory.getLogger(SmtpSpoolService.class);
+
+    private static final String META_FILE_SUFFIX = ".meta";
+    private static final String MSG_FILE_SUFFIX = ".msg";
+    private static final String CORRUPT_FILE_SUFFIX = ".corrupt";
+    private static final int DISPATCH_INTERVAL_IN_SECONDS = 5;
+    private static final long MAX_RETRY_INTERVAL_IN_SECONDS = 3600;
+
+    private final Map<String, SmtpSpoolEntry> entries = new ConcurrentHashMap<>();
+    private final Set<String> inProgress = ConcurrentHashMap.newKeySet();
+    private final ObjectMapper objectMapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private SecretKey secretKey;
+    private File spoolDir = new File(ICommonConstants.SMTP_SPOOL_DIR);
+
+    private final ScheduledExecutorService dispatchExecutor = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("smtp-spool-dispatch-%d").setDaemon(true).build()
+    );
+    private final ExecutorService workerExecutor = Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder().setNameFormat("smtp-spool-worker-%d").setDaemon(true).build()
+    );
+
+    @Autowired
+    private KonfigurationService konfigurationService;
+    @Autowired
+    private LogService logService;
+    @Autowired
+    private PipelineService pipelineService;
+
+    @Value("${konfiguration.encryptionKeys}")
+    private String encryptionKeys;
+
+    @PostConstruct
+    protected void init() throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(encryptionKeys.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        secretKey = new SecretKeySpec(mac.doFinal("smtpspool".getBytes(StandardCharsets.UTF_8)), "AES");
+
+        if (!spoolDir.exists()) {
+            spoolDir.mkdirs();
+        }
+        File[] files = spoolDir.listFiles((d, name) -> name.endsWith(META_FILE_SUFFIX));
+        if (files != null) {
+            for (int i = 0; i < files.length; i++) {
+                String id = files[i].getName().substring(0, files[i].getName().length() - META_FILE_SUFFIX.length());
+                try {
+                    SmtpSpoolEntry entry = objectMapper.readValue(decrypt(id, Files.readAllBytes(files[i].toPath())), SmtpSpoolEntry.class);
+                    if (!getMsgFile(id).exists()) {
+                        throw new IllegalStateException("message file not available");
+                    }
+                    entries.put(id, entry);
+                } catch (Exception e) {
+                    //e.g. encrypted with other keys, kept for a manual inspection
+                    log.error("smtp spool entry not readable and put aside: " + id, e);
+                    putAside(id);
+                }
+            }
+        }
+        //message files without metadata are remains of an interrupted spooling, the client did not get an answer for them
+        File[] msgFiles = spoolDir.listFiles((d, name) -> name.endsWith(MSG_FILE_SUFFIX));
+        if (msgFiles != null) {
+            for (int i = 0; i < msgFiles.length; i++) {
+                String id = msgFiles[i].getName().substring(0, msgFiles[i].getName().length() - MSG_FILE_SUFFIX.length());
+                if (!entries.containsKey(id)) {
+                    msgFiles[i].delete();
+                }
+            }
+        }
+        log.info("smtp spool initialized with " + entries.size() + " entries");
+
+        dispatchExecutor.scheduleWithFixedDelay(this::dispatch, DISPATCH_INTERVAL_IN_SECONDS, DISPATCH_INTERVAL_IN_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    protected void destroy() {
+        dispatchExecutor.shutdownNow();
+        workerExecutor.shutdownNow();
+    }
+
+    public boolean isEnabled(Konfiguration konfiguration) {
+        return konfiguration.isSmtpSpoolEnabled();
+    }
+
+    /**
+     * Writes the checked mail with everything needed for signing, encrypting and relaying to the spool.
+     * The mail is durable when this method returns.
+     *
+     * @param recipients the recipients accepted by the mta
+     */
+    public void spool(DefaultLogger logger, MimeMessage message, List<String> recipients) throws Exception {
+        DefaultLoggerContext defaultLoggerContext = logger.getDefaultLoggerContext();
+
+        SmtpSpoolEntry entry = new SmtpSpoolEntry();
+        entry.setId(UUID.randomUUID().toString());
+        entry.setCreated(System.currentTimeMillis());
+        entry.setNextAttempt(entry.getCreated());
+        if (defaultLoggerContext.getKonnektor() != null) {
+            entry.setKonnektorId(defaultLoggerContext.getKonnektor().getUuid());
+        }
+        entry.setMandantId(defaultLoggerContext.getMandantId());
+        entry.setClientSystemId(defaultLoggerContext.getClientSystemId());
+        entry.setWorkplaceId(defaultLoggerContext.getWorkplaceId());
+        entry.setUserId(defaultLoggerContext.getUserId());
+        entry.setMailServerHost(defaultLoggerContext.getMailServerHost());
+        entry.setMailServerPort(defaultLoggerContext.getMailServerPort());
+        entry.setMailServerUsername(defaultLoggerContext.getMailServerUsername());
+        entry.setMailServerPassword(defaultLoggerContext.getMailServerPassword());
+        entry.setEnvelopeSender(defaultLoggerContext.getSenderAddress(true));
+        entry.setSenderAddress(defaultLoggerContext.getSenderAddress(false));
+        entry.getRecipients().addAll(recipients);
+
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        message.writeTo(byteArrayOutputStream);
+        byteArrayOutputStream.close();
+
+        //the metadata is written last, only then the entry exists
+        write(getMsgFile(entry.getId()), encrypt(entry.getId(), byteArrayOutputStream.toByteArray()));
+        try {
+            writeMeta(entry);
+        } catch (Exception e) {
+            getMsgFile(entry.getId()).delete();
+            throw e;
+        }
+        entries.put(entry.getId(), entry);
+        logger.logLine("mail spooled: " + entry.getId());
+
+        dispatchExecutor.execute(this::dispatch);
+    }
+
+    public int getQueueDepth() {
+        return entries.size();
+    }
+
+    public int getInProgressCount() {
+        return inProgress.size();
+    }
+
+    public long getOldestEntryAgeInSeconds() {
+        long oldest = entries.values().stream().mapToLong(SmtpSpoolEntry::getCreated).min().orElse(0);
+        if (oldest == 0) {
+            return 0;
+        }
+        return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - oldest);
+    }
+
+    private void dispatch() {
+        try {
+            Konfiguration konfiguration = konfigurationService.getKonfiguration();
+            long now = System.currentTimeMillis();
+            List<SmtpSpoolEntry> dueEntries = entries.values().stream()
+                .filter(entry -> entry.getNextAttempt() <= now && !inProgress.contains(entry.getId()))
+                .sorted(Comparator.comparingLong(SmtpSpoolEntry::getNextAttempt))
+                .collect(Collectors.toList());
+            for (Iterator<SmtpSpoolEntry> iterator = dueEntries.iterator(); iterator.hasNext(); ) {
+                SmtpSpoolEntry entry = iterator.next();
+                if (inProgress.size() >= Math.max(1, konfiguration.getSmtpSpoolWorkerCount())) {
+                    return;
+                }
+                if (!inProgress.add(entry.getId())) {
+                    continue;
+                }
+                workerExecutor.execute(() -> {
+                    try {
+                        process(konfiguration, entry);
+                    } finally {
+                        inProgress.remove(entry.getId());
+                        if (!dispatchExecutor.isShutdown()) {
+                            dispatchExecutor.execute(this::dispatch);
+                        }
+                    }
+                });
+            }
+        } catch (Exception e) {
+            log.error("error on dispatching the smtp spool", e);
+        }
+    }
+
+    private void process(Konfiguration konfiguration, SmtpSpoolEntry entry) {
+        MimeMessage message = null;
+        try {
+            byte[] msg = decrypt(entry.getId(), Files.readAllBytes(getMsgFile(entry.getId()).toPath()));
+            message = MailUtils.parseMimeMessage(msg, 0, msg.length);
+        } catch (Exception e) {
+            log.error("smtp spool entry not readable and put aside: " + entry.getId(), e);
+            putAside(entry.getId());
+            return;
+        }
+
+        DefaultLogger logger = null;
+        boolean signedAndEncrypted = false;
+        try {
+            logger = logService.createLogger(createLoggerContext(konfiguration, entry));
+            DefaultLoggerContext defaultLoggerContext = logger.getDefaultLoggerContext();
+            List<IErrorContext> errorContexts = new ArrayList<>();
+            List<String> recipients = new ArrayList<>(entry.getRecipients());
+
+            String msgContent = null;
+            if (!konfiguration.getGatewayTIMode().equals(EnumGatewayTIMode.NO_TI)) {
+                loadCerts(logger, defaultLoggerContext.getSenderCerts(), List.of(entry.getSenderAddress()), true, false);
+                if (defaultLoggerContext.getMailaddressCertErrorContext().isError(entry.getSenderAddress())) {
+                    sendDsn(logger, List.of(defaultLoggerContext.getMailaddressCertErrorContext()), message, true);
+                    remove(entry.getId());
+                    return;
+                }
+                if (defaultLoggerContext.getMailaddressKimVersionErrorContext().isError(entry.getSenderAddress())) {
+                    sendDsn(logger, List.of(defaultLoggerContext.getMailaddressKimVersionErrorContext()), message, true);
+                    remove(entry.getId());
+                    return;
+                }
+
+                loadCerts(logger, defaultLoggerContext.getRecipientCerts(), recipients, false, true);
+                recipients.removeIf(rcptAddress -> defaultLoggerContext.getMailaddressCertErrorContext().isError(rcptAddress)
+                    || defaultLoggerContext.getMailaddressKimVersionErrorContext().isError(rcptAddress)
+                );
+                if (!defaultLoggerContext.getMailaddressCertErrorContext().isEmpty()) {
+                    errorContexts.add(defaultLoggerContext.getMailaddressCertErrorContext());
+                }
+                if (!defaultLoggerContext.getMailaddressKimVersionErrorContext().isEmpty()) {
+                    errorContexts.add(defaultLoggerContext.getMailaddressKimVersionErrorContext());
+                }
+                if (recipients.isEmpty()) {
+                    sendDsn(logger, errorContexts, message, false);
+                    remove(entry.getId());
+                    return;
+                }
+
+                msgContent = new String(signEncrypt(logger, message));
+            }
+            else {
+                ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+                message.writeTo(byteArrayOutputStream);
+                byteArrayOutputStream.close();
+                msgContent = byteArrayOutputStream.toString();
+            }
+            signedAndEncrypted = true;
+
+            List<String> deferredRecipients = relay(konfiguration, logger, entry, recipients, msgContent);
+            if (!defaultLoggerContext.getMailaddressRcptToErrorContext().isEmpty()) {
+                errorContexts.add(defaultLoggerContext.getMailaddressRcptToErrorContext());
+            }
+            if (!errorContexts.isEmpty()) {
+                sendDsn(logger, errorContexts, message, false);
+            }
+
+            if (deferredRecipients.isEmpty()) {
+                logger.logLine("spooled mail sent: " + entry.getId());
+                remove(entry.getId());
+            }
+            else {
+                //recipients already served or reported are not tried again
+                entry.setRecipients(deferredRecipients);
+                retry(konfiguration, logger, entry, message, true);
+            }
+        } catch (Exception e) {
+            log.error("error on processing the spooled mail: " + entry.getId(), e);
+            if (logger != null && !logger.getDefaultLoggerContext().getMailSignEncryptErrorContext().isEmpty()) {
+                sendDsn(logger, List.of(logger.getDefaultLoggerContext().getMailSignEncryptErrorContext()), message, false);
+                remove(entry.getId());
+                return;
+            }
+            retry(konfiguration, logger, entry, message, signedAndEncrypted);
+        } finally {
+            if (logger != null) {
+                logService.removeLogger(logger.getId());
+            }
+        }
+    }
+
+    /**
+     * @param logger null if the logger could not be created, the attempt counts nevertheless
+     */
+    private void retry(Konfiguration konfiguration, DefaultLogger logger, SmtpSpoolEntry entry, MimeMessage message, boolean signedAndEncrypted) {
+        entry.setAttempts(entry.getAttempts() + 1);
+        if (entry.getAttempts() >= konfiguration.getSmtpSpoolMaxAttempts()) {
+            log.error("spooled mail not deliverable after " + entry.getAttempts() + " attempts: " + entry.getId());
+            if (logger == null) {
+                //without the account context no dsn can be sent, kept for a manual inspection
+                putAside(entry.getId());
+                return;
+            }
+            if (signedAndEncrypted) {
+                for (Iterator<String> iterator = entry.getRecipients().iterator(); iterator.hasNext(); ) {
+                    logger.getDefaultLoggerContext().getMailaddressRcptToErrorContext().add(iterator.next(), EnumErrorCode.CODE_X024);
+                }
+                sendDsn(logger, List.of(logger.getDefaultLoggerContext().getMailaddressRcptToErrorContext()), message, false);
+            }
+            else {
+                logger.getDefaultLoggerContext().getMailSignEncryptErrorContext().getErrorCodes().add(EnumErrorCode.CODE_X012);
+                sendDsn(logger, List.of(logger.getDefaultLoggerContext().getMailSignEncryptErrorContext()), message, false);
+            }
+            remove(entry.getId());
+            return;
+        }
+
+        entry.setNextAttempt(System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(calcRetryIntervalInSeconds(konfiguration.getSmtpSpoolRetryIntervalInSeconds(), entry.getAttempts())));
+        try {
+            writeMeta(entry);
+        } catch (Exception e) {
+            log.error("error on writing the smtp spool entry: " + entry.getId(), e);
+        }
+        entries.put(entry.getId(), entry);
+    }
+
+    /**
+     * Doubles the interval with every attempt, up to one hour.
+     */
+    static long calcRetryIntervalInSeconds(int retryIntervalInSeconds, int attempts) {
+        return Math.min(
+            (long) Math.max(1, retryIntervalInSeconds) << Math.min(Math.max(attempts - 1, 0), 20),
+            MAX_RETRY_INTERVAL_IN_SECONDS
+        );
+    }
+
+    private DefaultLoggerContext createLoggerContext(Konfiguration konfiguration, SmtpSpoolEntry entry) throws Exception {
+        Konnektor konnektor = null;
+        if (entry.getKonnektorId() != null) {
+            konnektor = konfiguration.extractKonnektor(entry.getKonnektorId(), false);
+        }
+        if (konnektor == null && konfiguration.getKonnektoren().size() > 0) {
+            konnektor = konfiguration.getKonnektoren().get(0);
+        }
+
+        DefaultLoggerContext defaultLoggerContext = new DefaultLoggerContext()
+            .buildAdmissionPriority(EnumKonnektorAdmissionPriority.BULK)
+            .buildKonfiguration(konfiguration)
+            .buildKonnektor(konnektor)
+            .buildMandantId(entry.getMandantId())
+            .buildClientSystemId(entry.getClientSystemId())
+            .buildWorkplaceId(entry.getWorkplaceId())
+            .buildUserId(entry.getUserId());
+        defaultLoggerContext.setKonnektorId(entry.getKonnektorId());
+        defaultLoggerContext.setMailServerHost(entry.getMailServerHost());
+        defaultLoggerContext.setMailServerPort(entry.getMailServerPort());
+        defaultLoggerContext.setMailServerUsername(entry.getMailServerUsername());
+        defaultLoggerContext.setMailServerPassword(entry.getMailServerPassword());
+        defaultLoggerContext.setSenderAddress(entry.getEnvelopeSender());
+        if (!entry.getEnvelopeSender().equals(entry.getSenderAddress())) {
+            defaultLoggerContext.getSenderAddressMapping().put(entry.getEnvelopeSender(), entry.getSenderAddress());
+        }
+        return defaultLoggerContext;
+    }
+
+    private void loadCerts(DefaultLogger logger, Map<String, X509CertificateResult> certMap, List<String> mailAddresses, boolean senderAddresses, boolean rcptAddresses) throws Exception {
+        LoadVzdCertsOperation loadVzdCertsOperation = (LoadVzdCertsOperation) pipelineService.getOperation(LoadVzdCertsOperation.BUILTIN_VENDOR+"."+LoadVzdCertsOperation.NAME);
+        DefaultPipelineOperationContext defaultPipelineOperationContext = new DefaultPipelineOperationContext(logger);
+        defaultPipelineOperationContext.setEnvironmentValue(LoadVzdCertsOperation.NAME, LoadVzdCertsOperation.ENV_ADDRESSES, mailAddresses);
+        defaultPipelineOperationContext.setEnvironmentValue(LoadVzdCertsOperation.NAME, LoadVzdCertsOperation.ENV_VZD_SEARCH_BASE, logger.getDefaultLoggerContext().getKonnektor().getVzdSearchBase());
+        defaultPipelineOperationContext.setEnvironmentValue(LoadVzdCertsOperation.NAME, LoadVzdCertsOperation.ENV_LOAD_SENDER_ADRESSES, senderAddresses);
+        defaultPipelineOperationContext.setEnvironmentValue(LoadVzdCertsOperation.NAME, LoadVzdCertsOperation.ENV_LOAD_RCPT_ADRESSES, rcptAddresses);
+
+        AtomicInteger failedCounter = new AtomicInteger();
+        loadVzdCertsOperation.execute(
+            defaultPipelineOperationContext,
+            context -> {
+                log.info("loading certs for spooled mail finished: "+mailAddresses.stream().collect(Collectors.joining(",")));
+            },
+            (context, e) -> {
+                log.error("error on loading certs for spooled mail: "+mailAddresses.stream().collect(Collectors.joining(",")), e);
+                failedCounter.incrementAndGet();
+            }
+        );
+        if (failedCounter.get() > 0) {
+            throw new IllegalStateException("error on loading certs for: " + mailAddresses.stream().collect(Collectors.joining(",")));
+        }
+
+        List<X509CertificateResult> certs = (List)defaultPipelineOperationContext.getEnvironmentValue(LoadVzdCertsOperation.NAME, LoadVzdCertsOperation.ENV_VZD_CERTS);
+        certs.stream().forEach(o -> certMap.put(o.getMailAddress(), o));
+    }
+
+    private byte[] signEncrypt(DefaultLogger logger, MimeMessage originMimeMessage) throws Exception {
+        SignEncryptMailOperation signEncryptMailOperation = (SignEncryptMailOperation) pipelineService.getOperation(SignEncryptMailOperation.BUILTIN_VENDOR+"."+SignEncryptMailOperation.NAME);
+
+        DefaultPipelineOperationContext defaultPipelineOperationContext = new DefaultPipelineOperationContext(logger);
+        defaultPipelineOperationContext.setEnvironmentValue(SignEncryptMailOperation.NAME, SignEncryptMailOperation.ENV_ORIGIN_MIMEMESSAGE, originMimeMessage);
+
+        AtomicInteger failedCounter = new AtomicInteger();
+        signEncryptMailOperation.execute(
+            defaultPipelineOperationContext,
+            context -> {
+                log.info("sign and encrypt spooled mail finished");
+            },
+            (context, e) -> {
+                log.error("error on spooled mail signing and encrypting", e);
+                failedCounter.incrementAndGet();
+            }
+        );
+
+        if (failedCounter.get() > 0 || !logger.getDefaultLoggerContext().getMailSignEncryptErrorContext().isEmpty()) {
+            throw new IllegalStateException("error on spooled mail signing and encrypting");
+        }
+        return (byte[])defaultPipelineOperationContext.getEnvironmentValue(SignEncryptMailOperation.NAME, SignEncryptMailOperation.ENV_RESULT_MSG_BYTES);
+    }
+
+    /**
+     * @return the recipients with a temporary failure, recipients with a permanent failure are added to the rcpt to error context
+     */
+    List<String> relay(Konfiguration konfiguration, DefaultLogger logger, SmtpSpoolEntry entry, List<String> recipients, String msgContent) throws Exception {
+        DefaultLoggerContext defaultLoggerContext = logger.getDefaultLoggerContext();
+
+        AuthenticatingSMTPClient client = null;
+        if (konfiguration.getGatewayTIMode().equals(EnumGatewayTIMode.FULLSTACK)) {
+            client = new AuthenticatingSMTPClient(true, MailUtils.createFachdienstSslContext(konfiguration));
+        }
+        else {
+            client = new AuthenticatingSMTPClient("TLS", true);
+        }
+        client.setDefaultTimeout(konfiguration.getSmtpClientIdleTimeoutInSeconds() * 1000);
+        client.setConnectTimeout(konfiguration.getSmtpClientIdleTimeoutInSeconds() * 1000);
+
+        CircuitBreaker circuitBreaker = CircuitBreakerRegistry.get(konfiguration, EnumCircuitBreakerEndpointType.MTA, entry.getMailServerHost() + ":" + entry.getMailServerPort());
+        circuitBreaker.acquire();
+
+        try {
+            try {
+                client.connect(resolveMailServerHost(konfiguration, logger), Integer.parseInt(entry.getMailServerPort()));
+                circuitBreaker.onSuccess();
+            } catch (Exception e) {
+                circuitBreaker.onFailure(e);
+                throw e;
+            }
+            client.login();
+            if (!client.auth(AuthenticatingSMTPClient.AUTH_METHOD.LOGIN, entry.getMailServerUsername(), entry.getMailServerPassword())) {
+                throw new IllegalStateException("smtp auth failed for the spooled mail: " + entry.getId());
+            }
+
+            int res = client.mail("<" + entry.getEnvelopeSender() + ">");
+            if (SMTPReply.isNegativePermanent(res)) {
+                recipients.stream().forEach(rcptAddress -> defaultLoggerContext.getMailaddressRcptToErrorContext().add(rcptAddress, EnumErrorCode.CODE_X024));
+                return new ArrayList<>();
+            }
+            if (!SMTPReply.isPositiveCompletion(res)) {
+                throw new IllegalStateException("smtp mail from failed for the spooled mail: " + entry.getId() + " - " + client.getReplyString());
+            }
+
+            List<String> acceptedRecipients = new ArrayList<>();
+            List<String> deferredRecipients = new ArrayList<>();
+            for (Iterator<String> iterator = recipients.iterator(); iterator.hasNext(); ) {
+                String rcptAddress = iterator.next();
+                res = client.rcpt("<" + rcptAddress + ">");
+                if (SMTPReply.isPositiveCompletion(res)) {
+                    acceptedRecipients.add(rcptAddress);
+                }
+                else if (SMTPReply.isNegativePermanent(res)) {
+                    defaultLoggerContext.getMailaddressRcptToErrorContext().add(rcptAddress, EnumErrorCode.CODE_X024);
+                }
+                else {
+                    deferredRecipients.add(rcptAddress);
+                }
+            }
+            if (acceptedRecipients.isEmpty()) {
+                client.rset();
+                return deferredRecipients;
+            }
+
+            if (!client.sendShortMessageData(msgContent)) {
+                if (SMTPReply.isNegativePermanent(client.getReplyCode())) {
+                    acceptedRecipients.stream().forEach(rcptAddress -> defaultLoggerContext.getMailaddressRcptToErrorContext().add(rcptAddress, EnumErrorCode.CODE_X024));
+                    return deferredRecipients;
+                }
+                throw new IllegalStateException("smtp data failed for the spooled mail: " + entry.getId() + " - " + client.getReplyString());
+            }
+            return deferredRecipients;
+        } finally {
+            try {
+                if (client.isConnected()) {
+                    client.quit();
+                    client.disconnect();
+                }
+            } catch (Exception e) {
+                log.warn("error on closing the smtp connection for the spooled mail: " + entry.getId(), e);
+            }
+        }
+    }
+
+    private String resolveMailServerHost(Konfiguration konfiguration, DefaultLogger logger) throws Exception {
+        String mailServerHost = logger.getDefaultLoggerContext().getMailServerHost();
+        if (!konfiguration.getGatewayTIMode().equals(EnumGatewayTIMode.FULLSTACK) || IPAddress.isValid(mailServerHost)) {
+            return mailServerHost;
+        }
+
+        AtomicInteger failedCounter = new AtomicInteger();
+        DnsRequestOperation dnsRequestOperation = (DnsRequestOperation) pipelineService.getOperation(DnsRequestOperation.BUILTIN_VENDOR+"."+DnsRequestOperation.NAME);
+        DefaultPipelineOperationContext defaultPipelineOperationContext = new DefaultPipelineOperationContext(logger);
+        defaultPipelineOperationContext.setEnvironmentValue(DnsRequestOperation.NAME, DnsRequestOperation.ENV_DOMAIN, mailServerHost);
+        defaultPipelineOperationContext.setEnvironmentValue(DnsRequestOperation.NAME, DnsRequestOperation.ENV_RECORD_TYPE, Type.string(Type.A));
+
+        dnsRequestOperation.execute(
+            defaultPipelineOperationContext,
+            context -> {
+                log.info("dns request finished for: " + mailServerHost);
+            },
+            (context, e) -> {
+                log.error("dns request failed for: " + mailServerHost, e);
+                failedCounter.incrementAndGet();
+            }
+        );
+        DnsResultContainer dnsResultContainer = (DnsResultContainer) defaultPipelineOperationContext.getEnvironmentValue(DnsRequestOperation.NAME, DnsRequestOperation.ENV_DNS_RESULT);
+        if (failedCounter.get() > 0 || dnsResultContainer == null || dnsResultContainer.isError() || dnsResultContainer.getResult().isEmpty()) {
+            throw new IllegalStateException("ip-address for domain " + mailServerHost + " not found");
+        }
+        return dnsResultContainer.getResult().get(0).getAddress();
+    }
+
+    private boolean sendDsn(DefaultLogger logger, List<IErrorContext> errorContexts, MimeMessage originMessage, boolean senderContext) {
+        try {
+            Konfiguration konfiguration = logger.getDefaultLoggerContext().getKonfiguration();
+            SendDsnOperation sendDsnOperation = (SendDsnOperation) pipelineService.getOperation(SendDsnOperation.BUILTIN_VENDOR+"."+SendDsnOperation.NAME);
+
+            DefaultPipelineOperationContext defaultPipelineOperationContext = new DefaultPipelineOperationContext(logger);
+            defaultPipelineOperationContext.setEnvironmentValue(SendDsnOperation.NAME, SendDsnOperation.ENV_ERROR_CONTEXTS, errorContexts);
+            defaultPipelineOperationContext.setEnvironmentValue(SendDsnOperation.NAME, SendDsnOperation.ENV_ORIGIN_MSG, originMessage);
+            defaultPipelineOperationContext.setEnvironmentValue(SendDsnOperation.NAME, SendDsnOperation.ENV_SENDER_CTX, senderContext);
+            if (konfiguration.getGatewayTIMode().equals(EnumGatewayTIMode.FULLSTACK)) {
+                defaultPipelineOperationContext.setEnvironmentValue(SendDsnOperation.NAME, SendDsnOperation.ENV_SSL_CONTEXT, MailUtils.createFachdienstSslContext(konfiguration));
+            }
+
+            AtomicInteger failedCounter = new AtomicInteger();
+            sendDsnOperation.execute(
+                defaultPipelineOperationContext,
+                defaultPipelineOperationContext1 -> {
+                    log.info("dsn message for spooled mail sended");
+                },
+                (defaultPipelineOperationContext1, e) -> {
+                    log.error("error on sending dsn for spooled mail", e);
+                    failedCounter.incrementAndGet();
+                }
+            );
+            return failedCounter.get() == 0;
+        }
+        catch (Exception e) {
+            log.error("error on sending dsn for spooled mail", e);
+            return false;
+        }
+    }
+
+    private void remove(String id) {
+        entries.remove(id);
+        getMetaFile(id).delete();
+        getMsgFile(id).delete();
+    }
+
+    private void putAside(String id) {
+        entries.remove(id);
+        getMetaFile(id).renameTo(new File(spoolDir, id + META_FILE_SUFFIX + CORRUPT_FILE_SUFFIX));
+        getMsgFile(id).renameTo(new File(spoolDir, id + MSG_FILE_SUFFIX + CORRUPT_FILE_SUFFIX));
+    }
+
+    private File getMetaFile(String id) {
+        return new File(spoolDir, id + META_FILE_SUFFIX);
+    }
+
+    private File getMsgFile(String id) {
+        return new File(spoolDir, id + MSG_FILE_SUFFIX);
+    }
+
+    private void writeMeta(SmtpSpoolEntry entry) throws Exception {
+        write(getMetaFile(entry.getId()), encrypt(entry.getId(), objectMapper.writeValueAsBytes(entry)));
+    }
+
+    //the content and the rename are on the disk when the method returns, the gateway confirms the mail after spooling
+    private void write(File file, byte[] content) throws Exception {
+        File dir = file.getParentFile();
+        dir.mkdirs();
+        File tmpFile = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            try (FileChannel channel = FileChannel.open(tmpFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.wrap(content);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            syncDir(dir);
+        } finally {
+            tmpFile.delete();
+        }
+    }
+
+    private void syncDir(File dir) {
+        try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            //directories can not be opened on every platform (e.g. windows), the rename is durable there without it
+            log.debug("smtp spool directory not synced: " + dir.getAbsolutePath(), e);
+        }
+    }
+
+    private byte[] encrypt(String id, byte[] content) throws Exception {
+        byte[] iv = AesGcmHelper.getRandomNonce(AesGcmHelper.IV_LENGTH_BYTE);
+        Cipher cipher = AesGcmHelper.createCipher();
+        cipher.init(Cipher.ENCRYPT_MODE, secretKey, new GCMParameterSpec(AesGcmHelper.TAG_LENGTH_BIT, iv));
+        cipher.updateAAD(id.getBytes(StandardCharsets.UTF_8));
+        byte[] cipherText = cipher.doFinal(content);
+        return ByteBuffer.allocate(iv.length + cipherText.length).put(iv).put(cipherText).array();
+    }
+
+    private byte[] decrypt(String id, byte[] content) throws Exception {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(content);
+        byte[] iv = new byte[AesGcmHelper.IV_LENGTH_BYTE];
+        byteBuffer.get(iv);
+        byte[] cipherText = new byte[byteBuffer.remaining()];
+        byteBuffer.get(cipherText);
+
+        Cipher cipher = AesGcmHelper.createCipher();
+        cipher.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(AesGcmHelper.TAG_LENGTH_BIT, iv));
+        cipher.updateAAD(id.getBytes(StandardCharsets.UTF_8));
+        return cipher.doFinal(cipherText);
+    }
+}
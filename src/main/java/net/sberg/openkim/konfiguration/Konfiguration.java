@@ -44,6 +44,9 @@ public class Konfiguration {
     private int pop3GatewayIdleTimeoutInSeconds = 300;
     private int smtpClientIdleTimeoutInSeconds = 300;
     private int pop3ClientIdleTimeoutInSeconds = 300;
+    private int gatewayDrainTimeoutInSeconds = 120;
+    private boolean gatewayNativeTransportEnabled = false;
+    private boolean gatewayOpenSslEnabled = false;
 
     private boolean writeSmtpCmdLogFile = true;
     private boolean writePop3CmdLogFile = true;
@@ -52,7 +55,40 @@ public class Konfiguration {
     private int ttlEmailIccsnInDays = 30;
     private int ttlProtsInDays = 30;
 
+    private boolean pop3MessageCacheEnabled = false;
+    private int pop3MessageCacheTtlInHours = 24;
+    private int pop3MessageCacheMaxSizeInMB = 500;
+    private boolean pop3DecryptTopEnabled = false;
+    private boolean pop3PrefetchEnabled = false;
+    private int pop3PrefetchParallelismPerKonnektor = 2;
+    private int pop3PrefetchMaxMessages = 50;
+    private boolean smtpVzdPrefetchEnabled = false;
+    private int smtpVzdPrefetchParallelismPerKonnektor = 4;
+    private int signBatchWindowInMillis = 0;
+    private int signBatchMaxSize = 10;
+    private boolean smtpClientPoolEnabled = false;
+    private int smtpClientPoolIdleTimeoutInSeconds = 60;
+    private int smtpClientPoolMaxAgeInSeconds = 60;
+    private int smtpClientPoolMaxIdlePerAccount = 2;
+    private boolean smtpSpoolEnabled = false;
+    private int smtpSpoolWorkerCount = 2;
+    private int smtpSpoolMaxAttempts = 10;
+    private int smtpSpoolRetryIntervalInSeconds = 60;
+    private int konnektorMaxParallelCryptoOperations = 0;
+    private int konnektorAdmissionTimeoutInSeconds = 30;
+    private boolean circuitBreakerEnabled = false;
+    private int circuitBreakerWindowSize = 20;
+    private int circuitBreakerMinimumCalls = 5;
+    private int circuitBreakerFailureRateThreshold = 50;
+    private int circuitBreakerProbeIntervalInSeconds = 30;
+    private boolean dnsCacheEnabled = true;
+    private int dnsCacheMinTtlInSeconds = 30;
+    private int dnsCacheMaxTtlInSeconds = 3600;
+    private int dnsCacheNegativeTtlInSeconds = 60;
+    private int soapLogMaxTextLength = 256;
+
     private int mailSizeLimitInMB = 15;
+    private int kasMailSizeLimitInMB = 500;
     private boolean logPersonalInformations = false;
     private boolean logKonnektorExecute = false;
 
@@ -76,6 +112,10 @@ public class Konfiguration {
 
     private List<Konnektor> konnektoren = new ArrayList<>();
 
+    //version of the published snapshot, set by the KonfigurationService
+    @JsonIgnore
+    private long version;
+
     public Konnektor extractKonnektor(String konnId, boolean throwException) throws Exception {
         for (Iterator<Konnektor> iterator = getKonnektoren().iterator(); iterator.hasNext(); ) {
             Konnektor konnektor = iterator.next();
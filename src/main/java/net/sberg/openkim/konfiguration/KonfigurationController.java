@@ -20,6 +20,7 @@ import net.sberg.openkim.common.AbstractWebController;
 import net.sberg.openkim.gateway.GatewayKeystoreService;
 import net.sberg.openkim.gateway.pop3.Pop3Gateway;
 import net.sberg.openkim.gateway.smtp.SmtpGateway;
+import net.sberg.openkim.gateway.smtp.pool.SmtpClientPoolService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -41,6 +42,8 @@ public class KonfigurationController extends AbstractWebController {
     @Autowired
     private Pop3Gateway pop3Gateway;
     @Autowired
+    private SmtpClientPoolService smtpClientPoolService;
+    @Autowired
     private KonfigurationService konfigurationService;
     @Autowired
     private ServerStateService serverStateService;
@@ -58,10 +61,10 @@ public class KonfigurationController extends AbstractWebController {
         String res = konfigurationService.init();
 
         try {
-            smtpGateway.restart();
-            pop3Gateway.restart();
+            smtpGateway.reload();
+            pop3Gateway.reload();
         } catch (Exception e) {
-            log.error("error on restarting the smtp,pop3 gateway", e);
+            log.error("error on reloading the smtp,pop3 gateway", e);
         }
 
         return res;
@@ -101,13 +104,25 @@ public class KonfigurationController extends AbstractWebController {
     ) throws Exception {
 
         konfiguration.setFachdienstCertFile(fachdienstCertFile);
-        konfigurationService.speichern(konfiguration);
+        KonfigurationDiff diff = konfigurationService.speichern(konfiguration);
 
+        //only changed listeners are bound again, a failed gateway is tried again
+        try {
+            if (diff.isSmtpGatewayChanged() || !smtpGateway.isStartSucces()) {
+                smtpGateway.reload();
+            } else if (diff.isFachdienstCertChanged()) {
+                //pooled connections are authenticated with the former client certificate
+                smtpClientPoolService.clear();
+            }
+        } catch (Exception e) {
+            log.error("error on reloading the smtp gateway", e);
+        }
         try {
-            smtpGateway.restart();
-            pop3Gateway.restart();
+            if (diff.isPop3GatewayChanged() || !pop3Gateway.isStartSucces()) {
+                pop3Gateway.reload();
+            }
         } catch (Exception e) {
-            log.error("error on restarting the smtp,pop3 gateway", e);
+            log.error("error on reloading the pop3 gateway", e);
         }
 
         return "ok";
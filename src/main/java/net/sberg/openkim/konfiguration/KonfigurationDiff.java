@@ -0,0 +1,89 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.konfiguration;
+
+import lombok.Data;
+import net.sberg.openkim.konnektor.Konnektor;
+
+import java.util.Objects;
+
+/**
+ * Structural difference between two versions of the konfiguration.
+ * Decides which konnektors are probed again and which gateway listeners are bound again on saving.
+ */
+@Data
+public class KonfigurationDiff {
+
+    private boolean smtpGatewayChanged;
+    private boolean pop3GatewayChanged;
+    //values used on bootstrapping the konnektors: context of the card and webservice calls, kas client
+    private boolean konnektorContextChanged;
+    private boolean fachdienstCertChanged;
+
+    public static KonfigurationDiff create(Konfiguration current, Konfiguration next) {
+        KonfigurationDiff diff = new KonfigurationDiff();
+
+        diff.setSmtpGatewayChanged(
+            !Objects.equals(current.getGatewayHost(), next.getGatewayHost())
+            || !Objects.equals(current.getSmtpGatewayPort(), next.getSmtpGatewayPort())
+            || !Objects.equals(current.getSmtpGatewayConnectionSec(), next.getSmtpGatewayConnectionSec())
+            || current.getSmtpGatewayIdleTimeoutInSeconds() != next.getSmtpGatewayIdleTimeoutInSeconds()
+            || current.isGatewayNativeTransportEnabled() != next.isGatewayNativeTransportEnabled()
+            || current.isGatewayOpenSslEnabled() != next.isGatewayOpenSslEnabled()
+        );
+        diff.setPop3GatewayChanged(
+            !Objects.equals(current.getGatewayHost(), next.getGatewayHost())
+            || !Objects.equals(current.getPop3GatewayPort(), next.getPop3GatewayPort())
+            || !Objects.equals(current.getPop3GatewayConnectionSec(), next.getPop3GatewayConnectionSec())
+            || current.getPop3GatewayIdleTimeoutInSeconds() != next.getPop3GatewayIdleTimeoutInSeconds()
+            || current.isGatewayNativeTransportEnabled() != next.isGatewayNativeTransportEnabled()
+            || current.isGatewayOpenSslEnabled() != next.isGatewayOpenSslEnabled()
+        );
+        diff.setKonnektorContextChanged(
+            !Objects.equals(current.getMandantId(), next.getMandantId())
+            || !Objects.equals(current.getClientSystemId(), next.getClientSystemId())
+            || !Objects.equals(current.getWorkplaceId(), next.getWorkplaceId())
+            || current.getFachdienstKasTimeOutInSeconds() != next.getFachdienstKasTimeOutInSeconds()
+        );
+        diff.setFachdienstCertChanged(
+            next.getFachdienstCertFile() != null
+            || !Objects.equals(current.getFachdienstCertFilename(), next.getFachdienstCertFilename())
+            || !Objects.equals(current.getFachdienstCertAuthPwd(), next.getFachdienstCertAuthPwd())
+        );
+
+        return diff;
+    }
+
+    /**
+     * @return true, if the saved konnektor has to be probed again (sds, tls, vzd, ntp, cards, connectivity, fachdienste)
+     */
+    public static boolean isKonnektorChanged(Konnektor current, Konnektor next) {
+        return current == null
+            || !Objects.equals(current.getIp(), next.getIp())
+            || !Objects.equals(current.getSdsUrl(), next.getSdsUrl())
+            || !Objects.equals(current.getTiEnvironment(), next.getTiEnvironment())
+            || current.isActivated() != next.isActivated()
+            || current.getTimeoutInSeconds() != next.getTimeoutInSeconds()
+            || !Objects.equals(current.getKonnektorAuthMethod(), next.getKonnektorAuthMethod())
+            || !Objects.equals(current.getBasicAuthUser(), next.getBasicAuthUser())
+            || !Objects.equals(current.getBasicAuthPwd(), next.getBasicAuthPwd())
+            || !Objects.equals(current.getClientCertAuthPwd(), next.getClientCertAuthPwd())
+            || !Objects.equals(current.getClientCertFilename(), next.getClientCertFilename())
+            || next.getClientCertFile() != null
+            || next.getServerCertFile() != null;
+    }
+}
@@ -30,6 +30,7 @@ import net.sberg.openkim.konnektor.KonnektorServiceBean;
 import net.sberg.openkim.log.DefaultLogger;
 import net.sberg.openkim.log.DefaultLoggerContext;
 import net.sberg.openkim.log.LogService;
+import net.sberg.openkim.pipeline.operation.konnektor.dns.DnsCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -46,15 +47,21 @@ import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Iterator;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Service
 public class KonfigurationService {
 
     private static final Logger log = LoggerFactory.getLogger(KonfigurationService.class);
 
-    private Konfiguration konfiguration;
+    //immutable snapshot: changes are prepared on a copy and published as a new version, readers never lock.
+    //Exception: the runtime state of the konnektors (cards, connection states, fachdienste, mtomRejected, ...) is still
+    //set on the published konnektor objects, these are shared between versions and their runtime fields are volatile
+    private final AtomicReference<Konfiguration> konfiguration = new AtomicReference<>();
+    private final AtomicLong version = new AtomicLong();
 
+    //serializes the writers
     private static final Object mutex = new Object();
 
     public static final String FACHDIENST_CERT_FILENAME = "fachdienst.p12";
@@ -87,13 +94,18 @@ public class KonfigurationService {
                 new File(ICommonConstants.BASE_DIR).mkdirs();
             }
             if (new File(ICommonConstants.CONFIG_FILENAME).exists()) {
-                read();
-                executeKonnektoren();
+                Konfiguration next = read(null);
+                executeKonnektoren(next);
+                publish(next);
             }
         }
     }
 
     public Konnektor executeKonnektor(Konnektor konnektor) throws Exception {
+        return executeKonnektor(getKonfiguration(), konnektor);
+    }
+
+    private Konnektor executeKonnektor(Konfiguration konfiguration, Konnektor konnektor) throws Exception {
         DefaultLoggerContext defaultLoggerContext = new DefaultLoggerContext();
         DefaultLogger logger = logService.createLogger(
             defaultLoggerContext
@@ -121,10 +133,26 @@ public class KonfigurationService {
         return konnektor;
     }
 
+    /**
+     * Reloads the konnektors into a new version. Sessions keep the version and the konnektors they started with.
+     */
     public void executeKonnektoren() throws Exception {
+        synchronized (mutex) {
+            if (!new File(ICommonConstants.CONFIG_FILENAME).exists()) {
+                return;
+            }
+            Konfiguration next = read(null);
+            executeKonnektoren(next);
+            publish(next);
+        }
+    }
+
+    private void executeKonnektoren(Konfiguration konfiguration) throws Exception {
+        //fachdienst addresses are resolved again on reloading the konnektors
+        DnsCache.clear();
         for (Iterator<Konnektor> iterator = konfiguration.getKonnektoren().iterator(); iterator.hasNext(); ) {
             Konnektor konnektor = iterator.next();
-            executeKonnektor(konnektor);
+            executeKonnektor(konfiguration, konnektor);
         }
     }
 
@@ -151,17 +179,47 @@ public class KonfigurationService {
         return konfiguration;
     }
 
-    public Konfiguration getKonfiguration() throws Exception {
-        synchronized (mutex) {
-            konfiguration = checkDefaultValues(konfiguration);
-            return konfiguration;
+    /**
+     * @return the current version, its settings must not be modified, only the runtime state of the konnektors is updated in place
+     */
+    public Konfiguration getKonfiguration() {
+        Konfiguration current = konfiguration.get();
+        if (current == null) {
+            Konfiguration defaultKonfiguration = checkDefaultValues(null);
+            defaultKonfiguration.setVersion(version.incrementAndGet());
+            konfiguration.compareAndSet(null, defaultKonfiguration);
+            current = konfiguration.get();
         }
+        return current;
+    }
+
+    private void publish(Konfiguration next) {
+        next.setVersion(version.incrementAndGet());
+        konfiguration.set(next);
+        log.info("konfiguration version " + next.getVersion() + " published");
+    }
+
+    //copy of the persisted values, the konnektors are shared with the given version
+    private Konfiguration copy(Konfiguration konfiguration) throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        Konfiguration copy = objectMapper.readValue(objectMapper.writeValueAsString(konfiguration), Konfiguration.class);
+        copy.setKonnektoren(new ArrayList<>(konfiguration.getKonnektoren()));
+        return copy;
+    }
+
+    //copy of the persisted values and the runtime state of a published konnektor
+    private Konnektor copy(Konnektor konnektor) throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        Konnektor copy = objectMapper.readValue(objectMapper.writeValueAsString(konnektor), Konnektor.class);
+        copy.takeOverRuntimeState(konnektor);
+        return copy;
     }
 
     public String init() throws Exception {
         synchronized (mutex) {
+            Konfiguration konfiguration = null;
             if (new File(ICommonConstants.CONFIG_FILENAME).exists()) {
-                read();
+                konfiguration = read(this.konfiguration.get());
             }
             if (konfiguration == null) {
                 konfiguration = new Konfiguration();
@@ -175,20 +233,27 @@ public class KonfigurationService {
             konfiguration.setWriteSmtpCmdLogFile(true);
 
             konfiguration = checkDefaultValues(konfiguration);
-            write();
+            write(konfiguration);
+            publish(konfiguration);
             return "ok";
         }
     }
 
-    private void write() throws Exception {
+    private void write(Konfiguration konfiguration) throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        //the passwords are encrypted on a copy, the published version keeps them readable
+        Konfiguration persisted = objectMapper.readValue(objectMapper.writeValueAsString(konfiguration), Konfiguration.class);
         if (encryptPasswords) {
-            konfiguration.encryptPwds(encryptionKeys);
+            persisted.encryptPwds(encryptionKeys);
         }
-        String content = new ObjectMapper().writerWithDefaultPrettyPrinter().writeValueAsString(konfiguration);
+        String content = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(persisted);
         FileUtils.writeToFile(content, ICommonConstants.CONFIG_FILENAME);
     }
 
-    private void read() throws Exception {
+    /**
+     * @param current if not null, the konnektors of the current version are kept
+     */
+    private Konfiguration read(Konfiguration current) throws Exception {
         String str = FileUtils.readFileContent(ICommonConstants.CONFIG_FILENAME);
         try {
             str = new String(Base64.getDecoder().decode(str.getBytes()));
@@ -197,27 +262,27 @@ public class KonfigurationService {
         catch (Exception e) {}
 
         Konfiguration konfiguration = new ObjectMapper().readValue(str, Konfiguration.class);
-        List<Konnektor> konnektorList = new ArrayList<>();
-        if (this.konfiguration != null) {
-            konnektorList.addAll(this.konfiguration.getKonnektoren());
-        }
-        this.konfiguration = konfiguration;
-        if (konnektorList.size() > 0) {
-            this.konfiguration.setKonnektoren(konnektorList);
-        }
         if (encryptPasswords) {
             konfiguration.decryptPwds(encryptionKeys);
         }
+        if (current != null && current.getKonnektoren().size() > 0) {
+            konfiguration.setKonnektoren(new ArrayList<>(current.getKonnektoren()));
+        }
+        return konfiguration;
     }
 
-    public String speichern(Konfiguration konfiguration) throws Exception {
+    /**
+     * @return the difference to the former version, the caller binds the changed gateway listeners again
+     */
+    public KonfigurationDiff speichern(Konfiguration konfiguration) throws Exception {
         synchronized (mutex) {
+            Konfiguration current = getKonfiguration();
             konfiguration = checkDefaultValues(konfiguration);
-            konfiguration.synchronize(this.konfiguration);
+            konfiguration.synchronize(current);
 
             //check fachdienst cert file
-            if (this.konfiguration.getFachdienstCertFilename() != null) {
-                konfiguration.setFachdienstCertFilename(this.konfiguration.getFachdienstCertFilename());
+            if (current.getFachdienstCertFilename() != null) {
+                konfiguration.setFachdienstCertFilename(current.getFachdienstCertFilename());
             }
             if (konfiguration.getFachdienstCertFile() != null) {
                 File dir = new File(ICommonConstants.BASE_DIR);
@@ -227,17 +292,29 @@ public class KonfigurationService {
                 konfiguration.getFachdienstCertFile().transferTo(file);
             }
 
-            this.konfiguration = konfiguration;
-            write();
-            read();
-            executeKonnektoren();
-            return "ok";
+            write(konfiguration);
+
+            KonfigurationDiff diff = KonfigurationDiff.create(current, konfiguration);
+            log.info("konfiguration saved with changes: " + diff);
+
+            Konfiguration next;
+            if (diff.isKonnektorContextChanged()) {
+                //the konnektors are loaded again before the new version is published
+                next = read(null);
+                executeKonnektoren(next);
+            } else {
+                //the konnektors keep their cards, service endpoints and fachdienste
+                next = read(current);
+            }
+            publish(next);
+            return diff;
         }
     }
 
     public String speichern(MinimalKonfiguration minimalKonfiguration) throws Exception {
         synchronized (mutex) {
-
+            Konfiguration current = getKonfiguration();
+            Konfiguration konfiguration = copy(current);
             konfiguration.setMandantId(minimalKonfiguration.getMandantId());
             konfiguration.setClientSystemId(minimalKonfiguration.getClientSystemId());
             konfiguration.setWorkplaceId(minimalKonfiguration.getWorkplaceId());
@@ -253,18 +330,19 @@ public class KonfigurationService {
             konnektor.setClientCertAuthPwd(minimalKonfiguration.getKonnektorClientCertAuthPwd());
             konnektor.setClientCertFile(minimalKonfiguration.getKonnektorClientCertFile());
 
-            speichernKonnektor(konnektor);
+            speichernKonnektor(konfiguration, konnektor, KonfigurationDiff.create(current, konfiguration).isKonnektorContextChanged());
             return "ok";
         }
     }
 
     public String loeschenKonnektor(String uuid) throws Exception {
         synchronized (mutex) {
+            Konfiguration konfiguration = copy(getKonfiguration());
             Konnektor konnektor = konfiguration.extractKonnektor(uuid, false);
             if (konnektor != null) {
                 konfiguration.getKonnektoren().remove(konnektor);
-                write();
-                read();
+                write(konfiguration);
+                publish(konfiguration);
             } else {
                 throw new IllegalStateException("Die Konnektor-Konfiguration konnte nicht geladen werden mit der id: " + uuid);
             }
@@ -274,111 +352,129 @@ public class KonfigurationService {
 
     public String speichernKonnektor(Konnektor konnektor) throws Exception {
         synchronized (mutex) {
-            Konnektor dbKonnektor = konfiguration.extractKonnektor(konnektor.getUuid(), false);
-
-            //delete old client cert file
-            if (!konnektor.getKonnektorAuthMethod().equals(EnumKonnektorAuthMethod.CERT)
-                && dbKonnektor != null
-                && dbKonnektor.getKonnektorAuthMethod().equals(EnumKonnektorAuthMethod.CERT)
-            ) {
-                File dir = new File(MessageFormat.format(ICommonConstants.KONNEKTOR_DIR, konnektor.getUuid()));
-                if (dir.exists()) {
-                    new File(dir.getAbsolutePath() + File.separator + dbKonnektor.getClientCertFilename()).delete();
-                }
-            }
+            return speichernKonnektor(copy(getKonfiguration()), konnektor, false);
+        }
+    }
 
-            if (konnektor.getKonnektorAuthMethod().equals(EnumKonnektorAuthMethod.CERT)
-                && konnektor.getClientCertFilename() == null
-                && dbKonnektor != null
-                && dbKonnektor.getKonnektorAuthMethod().equals(EnumKonnektorAuthMethod.CERT)
-            ) {
-                konnektor.setClientCertFilename(dbKonnektor.getClientCertFilename());
+    /**
+     * @param konnektorContextChanged the konnektor is probed again, even if its own settings are unchanged
+     */
+    private String speichernKonnektor(Konfiguration konfiguration, Konnektor konnektor, boolean konnektorContextChanged) throws Exception {
+        Konnektor dbKonnektor = konfiguration.extractKonnektor(konnektor.getUuid(), false);
+
+        //delete old client cert file
+        if (!konnektor.getKonnektorAuthMethod().equals(EnumKonnektorAuthMethod.CERT)
+            && dbKonnektor != null
+            && dbKonnektor.getKonnektorAuthMethod().equals(EnumKonnektorAuthMethod.CERT)
+        ) {
+            File dir = new File(MessageFormat.format(ICommonConstants.KONNEKTOR_DIR, konnektor.getUuid()));
+            if (dir.exists()) {
+                new File(dir.getAbsolutePath() + File.separator + dbKonnektor.getClientCertFilename()).delete();
             }
+        }
+
+        if (konnektor.getKonnektorAuthMethod().equals(EnumKonnektorAuthMethod.CERT)
+            && konnektor.getClientCertFilename() == null
+            && dbKonnektor != null
+            && dbKonnektor.getKonnektorAuthMethod().equals(EnumKonnektorAuthMethod.CERT)
+        ) {
+            konnektor.setClientCertFilename(dbKonnektor.getClientCertFilename());
+        }
 
-            //save new client cert file
-            if (konnektor.getClientCertFile() != null) {
+        if (!konnektorContextChanged && !KonfigurationDiff.isKonnektorChanged(dbKonnektor, konnektor)) {
+            //only settings without influence on the probing are changed
+            konnektor.takeOverRuntimeState(dbKonnektor);
+            int foundIdx = konfiguration.getKonnektoren().indexOf(dbKonnektor);
+            konfiguration.getKonnektoren().set(foundIdx, konnektor);
+            write(konfiguration);
+            publish(konfiguration);
+            return "ok";
+        }
 
-                File dir = new File(MessageFormat.format(ICommonConstants.KONNEKTOR_DIR, konnektor.getUuid()));
+        //save new client cert file
+        if (konnektor.getClientCertFile() != null) {
 
-                if (dbKonnektor != null) {
-                    new File(dir.getAbsolutePath() + File.separator + dbKonnektor.getClientCertFilename()).delete();
-                }
+            File dir = new File(MessageFormat.format(ICommonConstants.KONNEKTOR_DIR, konnektor.getUuid()));
 
-                konnektor.setClientCertFilename(konnektor.getClientCertFile().getOriginalFilename());
-                dir.mkdirs();
-                konnektor.getClientCertFile().transferTo(new File(dir.getAbsolutePath() + File.separator + konnektor.getClientCertFile().getOriginalFilename()));
+            if (dbKonnektor != null) {
+                new File(dir.getAbsolutePath() + File.separator + dbKonnektor.getClientCertFilename()).delete();
             }
 
-            //save new server cert file into jks
-            if (konnektor.getServerCertFile() != null) {
+            konnektor.setClientCertFilename(konnektor.getClientCertFile().getOriginalFilename());
+            dir.mkdirs();
+            konnektor.getClientCertFile().transferTo(new File(dir.getAbsolutePath() + File.separator + konnektor.getClientCertFile().getOriginalFilename()));
+        }
 
-                File dir = new File(MessageFormat.format(ICommonConstants.KONNEKTOR_DIR, konnektor.getUuid()));
-                dir.mkdirs();
+        //save new server cert file into jks
+        if (konnektor.getServerCertFile() != null) {
 
-                //save into jks
-                File truststoreFile = new File(MessageFormat.format(ICommonConstants.KONNEKTOR_TRUSTORE_JKS, konnektor.getUuid()));
-                KeyStore keyStore = KeyStore.getInstance("JKS");
-                if (truststoreFile.exists()) {
-                    keyStore.load(new FileInputStream(truststoreFile), ICommonConstants.KONNEKTOR_TRUSTORE_JKS_PWD.toCharArray());
-                } else {
-                    keyStore.load(null, ICommonConstants.KONNEKTOR_TRUSTORE_JKS_PWD.toCharArray());
-                }
+            File dir = new File(MessageFormat.format(ICommonConstants.KONNEKTOR_DIR, konnektor.getUuid()));
+            dir.mkdirs();
 
-                CertificateFactory cf = CertificateFactory.getInstance("X.509");
-                X509Certificate cert = (X509Certificate) cf.generateCertificate(konnektor.getServerCertFile().getInputStream());
+            //save into jks
+            File truststoreFile = new File(MessageFormat.format(ICommonConstants.KONNEKTOR_TRUSTORE_JKS, konnektor.getUuid()));
+            KeyStore keyStore = KeyStore.getInstance("JKS");
+            if (truststoreFile.exists()) {
+                keyStore.load(new FileInputStream(truststoreFile), ICommonConstants.KONNEKTOR_TRUSTORE_JKS_PWD.toCharArray());
+            } else {
+                keyStore.load(null, ICommonConstants.KONNEKTOR_TRUSTORE_JKS_PWD.toCharArray());
+            }
 
-                keyStore.deleteEntry(ICommonConstants.KONNEKTOR_TRUSTORE_JKS_CERT_ALIAS);
-                keyStore.setCertificateEntry(ICommonConstants.KONNEKTOR_TRUSTORE_JKS_CERT_ALIAS, cert);
+            CertificateFactory cf = CertificateFactory.getInstance("X.509");
+            X509Certificate cert = (X509Certificate) cf.generateCertificate(konnektor.getServerCertFile().getInputStream());
 
-                FileOutputStream outputStream = new FileOutputStream(truststoreFile);
-                keyStore.store(outputStream, ICommonConstants.KONNEKTOR_TRUSTORE_JKS_PWD.toCharArray());
-            }
+            keyStore.deleteEntry(ICommonConstants.KONNEKTOR_TRUSTORE_JKS_CERT_ALIAS);
+            keyStore.setCertificateEntry(ICommonConstants.KONNEKTOR_TRUSTORE_JKS_CERT_ALIAS, cert);
 
-            //executing konnektor services
-            DefaultLoggerContext defaultLoggerContext = new DefaultLoggerContext();
-            DefaultLogger logger = logService.createLogger(
-                defaultLoggerContext
-                    .buildHtmlMode(false)
-                    .buildKonfiguration(konfiguration)
-                    .buildLogKonnektorExecute(konfiguration.isLogKonnektorExecute())
-                    .buildLogSoap(konfiguration.isLogKonnektorExecute())
-                    .buildKonnektor(konnektor)
-                    .buildMandantId(konfiguration.getMandantId())
-                    .buildClientSystemId(konfiguration.getClientSystemId())
-                    .buildWorkplaceId(konfiguration.getWorkplaceId())
-            );
-
-            try {
-                konnektor = konnektorService.execute(logger);
-            } catch (Exception e) {
-                log.error("erron on executing konnector services for the konnektor: " + konnektor.getIp(), e);
-            } finally {
-                if (log.isInfoEnabled() && konfiguration.isLogKonnektorExecute()) {
-                    log.info(logger.getLogContentAsStr());
-                }
-                logService.removeLogger(logger.getId());
-            }
+            FileOutputStream outputStream = new FileOutputStream(truststoreFile);
+            keyStore.store(outputStream, ICommonConstants.KONNEKTOR_TRUSTORE_JKS_PWD.toCharArray());
+        }
 
-            if (dbKonnektor != null) {
-                if (dbKonnektor.isActivated() && !konnektor.isActivated()) {
-                    konnektor = dbKonnektor;
-                    konnektor.setActivated(false);
-                }
-                int foundIdx = konfiguration.getKonnektoren().indexOf(dbKonnektor);
-                konfiguration.getKonnektoren().remove(foundIdx);
-                konfiguration.getKonnektoren().add(foundIdx, konnektor);
-            } else {
-                konfiguration.getKonnektoren().add(konnektor);
+        //executing konnektor services
+        DefaultLoggerContext defaultLoggerContext = new DefaultLoggerContext();
+        DefaultLogger logger = logService.createLogger(
+            defaultLoggerContext
+                .buildHtmlMode(false)
+                .buildKonfiguration(konfiguration)
+                .buildLogKonnektorExecute(konfiguration.isLogKonnektorExecute())
+                .buildLogSoap(konfiguration.isLogKonnektorExecute())
+                .buildKonnektor(konnektor)
+                .buildMandantId(konfiguration.getMandantId())
+                .buildClientSystemId(konfiguration.getClientSystemId())
+                .buildWorkplaceId(konfiguration.getWorkplaceId())
+        );
+
+        try {
+            konnektor = konnektorService.execute(logger);
+        } catch (Exception e) {
+            log.error("erron on executing konnector services for the konnektor: " + konnektor.getIp(), e);
+        } finally {
+            if (log.isInfoEnabled() && konfiguration.isLogKonnektorExecute()) {
+                log.info(logger.getLogContentAsStr());
             }
+            logService.removeLogger(logger.getId());
+        }
 
-            write();
-            read();
-            return "ok";
+        if (dbKonnektor != null) {
+            if (dbKonnektor.isActivated() && !konnektor.isActivated()) {
+                //the published konnektor is shared with running sessions, it is deactivated in the new version only
+                konnektor = copy(dbKonnektor);
+                konnektor.setActivated(false);
+            }
+            int foundIdx = konfiguration.getKonnektoren().indexOf(dbKonnektor);
+            konfiguration.getKonnektoren().remove(foundIdx);
+            konfiguration.getKonnektoren().add(foundIdx, konnektor);
+        } else {
+            konfiguration.getKonnektoren().add(konnektor);
         }
+
+        write(konfiguration);
+        publish(konfiguration);
+        return "ok";
     }
 
     public KonnektorServiceBean getKonnektorServiceBean(String konnId, String wsId, boolean throwException) throws Exception {
-        for (Iterator<Konnektor> iterator = this.konfiguration.getKonnektoren().iterator(); iterator.hasNext(); ) {
+        for (Iterator<Konnektor> iterator = getKonfiguration().getKonnektoren().iterator(); iterator.hasNext(); ) {
             Konnektor konnektor = iterator.next();
             if (konnektor.getUuid().equals(konnId)) {
                 for (Iterator<KonnektorServiceBean> iterator1 = konnektor.getKonnektorServiceBeans().iterator(); iterator1.hasNext(); ) {
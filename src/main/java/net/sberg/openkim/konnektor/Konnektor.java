@@ -43,30 +43,35 @@ public class Konnektor {
     private String productType;
     private boolean activated = true;
     private int timeoutInSeconds = 60;
+    private boolean localEncryptionEnabled = false;
+    private boolean mtomEnabled = false;
     private EnumKonnektorAuthMethod konnektorAuthMethod = EnumKonnektorAuthMethod.UNKNOWN;
     private String basicAuthUser;
     private String basicAuthPwd;
     private String clientCertAuthPwd;
     private String clientCertFilename;
 
-    private boolean konnektorServiceBeansLoaded = false;
+    private volatile boolean konnektorServiceBeansLoaded = false;
 
+    //runtime state, read by concurrent gateway sessions: the lists are immutable snapshots and only replaced as a whole.
+    //Unlike the settings, these fields are set on konnektors of already published konfiguration versions
+    //(card refresh, monitoring, mtom fallback), a running session sees the changes
     @JsonIgnore
-    private List<Fachdienst> fachdienste = new ArrayList<>();
+    private volatile List<Fachdienst> fachdienste = Collections.emptyList();
     @JsonIgnore
-    private boolean connectedWithTI;
+    private volatile boolean connectedWithTI;
     @JsonIgnore
-    private boolean connectedWithSIS;
+    private volatile boolean connectedWithSIS;
     @JsonIgnore
-    private boolean eccEncryptionAvailable;
+    private volatile boolean eccEncryptionAvailable;
     @JsonIgnore
-    private List<KonnektorCard> cards = new ArrayList<>();
+    private volatile List<KonnektorCard> cards = Collections.emptyList();
     @JsonIgnore
-    private List<KonnektorServiceBean> konnektorServiceBeans = new ArrayList<>();
+    private volatile List<KonnektorServiceBean> konnektorServiceBeans = Collections.emptyList();
     @JsonIgnore
-    private ServerState vzdLdapServerState;
+    private volatile ServerState vzdLdapServerState;
     @JsonIgnore
-    private ServerState tlsPortServerState;
+    private volatile ServerState tlsPortServerState;
     @JsonIgnore
     private MultipartFile clientCertFile;
     @JsonIgnore
@@ -81,6 +86,47 @@ public class Konnektor {
     private KonnektorMonitoringResult konnektorMonitoringResult;
     @JsonIgnore
     private String vzdSearchBase;
+    @JsonIgnore
+    private volatile boolean mtomRejected;
+
+    public void setFachdienste(List<Fachdienst> fachdienste) {
+        this.fachdienste = Collections.unmodifiableList(new ArrayList<>(fachdienste));
+    }
+
+    public void setCards(List<KonnektorCard> cards) {
+        this.cards = Collections.unmodifiableList(new ArrayList<>(cards));
+    }
+
+    public void setKonnektorServiceBeans(List<KonnektorServiceBean> konnektorServiceBeans) {
+        this.konnektorServiceBeans = Collections.unmodifiableList(new ArrayList<>(konnektorServiceBeans));
+    }
+
+    /**
+     * Takes over the values determined on probing the given konnektor, used if the konnektor is saved without changes of its connection settings.
+     */
+    public void takeOverRuntimeState(Konnektor konnektor) {
+        productTypeVersion = konnektor.getProductTypeVersion();
+        hwVersion = konnektor.getHwVersion();
+        fwVersion = konnektor.getFwVersion();
+        productName = konnektor.getProductName();
+        productType = konnektor.getProductType();
+        konnektorServiceBeansLoaded = konnektor.isKonnektorServiceBeansLoaded();
+        fachdienste = konnektor.getFachdienste();
+        connectedWithTI = konnektor.isConnectedWithTI();
+        connectedWithSIS = konnektor.isConnectedWithSIS();
+        eccEncryptionAvailable = konnektor.isEccEncryptionAvailable();
+        cards = konnektor.getCards();
+        konnektorServiceBeans = konnektor.getKonnektorServiceBeans();
+        vzdLdapServerState = konnektor.getVzdLdapServerState();
+        tlsPortServerState = konnektor.getTlsPortServerState();
+        konnektorTime = konnektor.getKonnektorTime();
+        systemTime = konnektor.getSystemTime();
+        diffSystemKonnektorTime = konnektor.getDiffSystemKonnektorTime();
+        konnektorMonitoringResult = konnektor.getKonnektorMonitoringResult();
+        vzdSearchBase = konnektor.getVzdSearchBase();
+        //a switched on mtom is tried again
+        mtomRejected = mtomEnabled == konnektor.isMtomEnabled() && konnektor.isMtomRejected();
+    }
 
     public KonnektorServiceBean extractKonnektorServiceBean(EnumKonnektorServiceBeanType webServiceBeanType, boolean throwException) throws Exception {
         for (Iterator<KonnektorServiceBean> iterator = getKonnektorServiceBeans().iterator(); iterator.hasNext(); ) {
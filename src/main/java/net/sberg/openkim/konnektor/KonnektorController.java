@@ -94,6 +94,8 @@ public class KonnektorController {
         @RequestParam(name = "tiEnvironment") EnumTIEnvironment tiEnvironment,
         @RequestParam(name = "activated") boolean activated,
         @RequestParam(name = "timeout") int timeout,
+        @RequestParam(name = "localEncryptionEnabled", defaultValue = "false") boolean localEncryptionEnabled,
+        @RequestParam(name = "mtomEnabled", defaultValue = "false") boolean mtomEnabled,
         @RequestParam(name = "konnektorAuthMethod") EnumKonnektorAuthMethod konnektorAuthMethod,
         @RequestParam(name = "basicAuthUser", required = false) String basicAuthUser,
         @RequestParam(name = "basicAuthPwd", required = false) String basicAuthPwd,
@@ -108,6 +110,8 @@ public class KonnektorController {
         konnektor.setActivated(activated);
         konnektor.setTiEnvironment(tiEnvironment);
         konnektor.setTimeoutInSeconds(timeout);
+        konnektor.setLocalEncryptionEnabled(localEncryptionEnabled);
+        konnektor.setMtomEnabled(mtomEnabled);
         konnektor.setSdsUrl(sdsUrl);
         konnektor.setKonnektorAuthMethod(konnektorAuthMethod);
         konnektor.setBasicAuthPwd(basicAuthPwd);
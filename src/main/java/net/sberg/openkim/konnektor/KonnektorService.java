@@ -46,6 +46,7 @@ import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathFactory;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.UUID;
 
 @Service
@@ -98,16 +99,17 @@ public class KonnektorService {
             node = (Node) xpath.evaluate("//*[local-name()='FWVersion']", doc, XPathConstants.NODE);
             konnektor.setFwVersion(node.getTextContent());
 
-            konnektor.setKonnektorServiceBeans(new ArrayList<>());
-            encryptionServiceBean = parseServiceBean(xpath, konnektor, doc, EnumKonnektorServiceBeanType.EncryptionService, null);
-            signatureServiceBean = parseServiceBean(xpath, konnektor, doc, EnumKonnektorServiceBeanType.SignatureService, null);
-            parseServiceBean(xpath, konnektor, doc, EnumKonnektorServiceBeanType.CardService, null);
-            parseServiceBean(xpath, konnektor, doc, EnumKonnektorServiceBeanType.CardTerminalService, null);
-            parseServiceBean(xpath, konnektor, doc, EnumKonnektorServiceBeanType.AuthSignatureService, null);
-            parseServiceBean(xpath, konnektor, doc, EnumKonnektorServiceBeanType.CertificateService, null);
-            parseServiceBean(xpath, konnektor, doc, EnumKonnektorServiceBeanType.EventService, null);
-
-            konnektor.setKonnektorServiceBeansLoaded(konnektor.getKonnektorServiceBeans().size() > 0);
+            List<KonnektorServiceBean> konnektorServiceBeans = new ArrayList<>();
+            encryptionServiceBean = parseServiceBean(xpath, konnektor, konnektorServiceBeans, doc, EnumKonnektorServiceBeanType.EncryptionService, null);
+            signatureServiceBean = parseServiceBean(xpath, konnektor, konnektorServiceBeans, doc, EnumKonnektorServiceBeanType.SignatureService, null);
+            parseServiceBean(xpath, konnektor, konnektorServiceBeans, doc, EnumKonnektorServiceBeanType.CardService, null);
+            parseServiceBean(xpath, konnektor, konnektorServiceBeans, doc, EnumKonnektorServiceBeanType.CardTerminalService, null);
+            parseServiceBean(xpath, konnektor, konnektorServiceBeans, doc, EnumKonnektorServiceBeanType.AuthSignatureService, null);
+            parseServiceBean(xpath, konnektor, konnektorServiceBeans, doc, EnumKonnektorServiceBeanType.CertificateService, null);
+            parseServiceBean(xpath, konnektor, konnektorServiceBeans, doc, EnumKonnektorServiceBeanType.EventService, null);
+            konnektor.setKonnektorServiceBeans(konnektorServiceBeans);
+
+            konnektor.setKonnektorServiceBeansLoaded(konnektorServiceBeans.size() > 0);
             logger.logLine("konnektor service beans loaded: " + konnektor.getIp());
         } catch (Exception e) {
             log.error("error on loading the service beans for the konnektor: " + konnektor.getIp(), e);
@@ -286,14 +288,13 @@ public class KonnektorService {
         try {
             log.info("create all fachdienste for the konnektor: " + konnektor.getIp());
             logger.logLine("create all fachdienste for the konnektor: " + konnektor.getIp());
-            konnektor.getFachdienste().clear();
-            konnektor.getFachdienste().addAll(fachdienstService.create(logger));
+            konnektor.setFachdienste(fachdienstService.create(logger));
         } catch (Exception e) {
             log.error("error on creating all fachdienste for the konnektor: " + konnektor.getIp(), e);
         }
     }
 
-    private KonnektorServiceBean parseServiceBean(XPath xpath, Konnektor konnektor, Document doc, EnumKonnektorServiceBeanType enumKonnektorServiceBeanType, String maxVersion) throws Exception {
+    private KonnektorServiceBean parseServiceBean(XPath xpath, Konnektor konnektor, List<KonnektorServiceBean> konnektorServiceBeans, Document doc, EnumKonnektorServiceBeanType enumKonnektorServiceBeanType, String maxVersion) throws Exception {
         NodeList list = (NodeList) xpath.evaluate("//*[local-name()='Service'][@Name='" + enumKonnektorServiceBeanType.name() + "']//*[local-name()='Version']", doc, XPathConstants.NODESET);
 
         KonnektorServiceBean currentKonnektorServiceBean = null;
@@ -324,7 +325,7 @@ public class KonnektorService {
         }
 
         if (currentKonnektorServiceBean != null) {
-            konnektor.getKonnektorServiceBeans().add(currentKonnektorServiceBean);
+            konnektorServiceBeans.add(currentKonnektorServiceBean);
         }
 
         log.info("service bean " + enumKonnektorServiceBeanType.name() + " for the konnektor: " + konnektor.getIp() + " is initialized");
@@ -28,19 +28,13 @@ import org.springframework.ws.soap.SoapEnvelope;
 import org.springframework.ws.soap.SoapFault;
 import org.springframework.ws.soap.SoapMessage;
 
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import java.io.StringWriter;
-
 public class KonnektorWebserviceInterceptor extends ClientInterceptorAdapter {
 
     private static final Logger log = LoggerFactory.getLogger(KonnektorWebserviceInterceptor.class);
 
     private final String soapAction;
-    private DefaultLogger logger;
+    //kept after the completion, a connector may send the request a second time (mtom fallback)
+    private final DefaultLogger logger;
 
     public KonnektorWebserviceInterceptor(String soapAction, DefaultLogger logger) {
         this.soapAction = soapAction;
@@ -57,18 +51,15 @@ public class KonnektorWebserviceInterceptor extends ClientInterceptorAdapter {
 
     private void transformSoap(SoapMessage soapMessage) {
         try {
-            if (logger.getDefaultLoggerContext().isLogSoap() || log.isInfoEnabled()) {
-                TransformerFactory tf = TransformerFactory.newInstance();
-                Transformer transformer = tf.newTransformer();
-                transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
-                StringWriter writer = new StringWriter();
-                transformer.transform(new DOMSource(soapMessage.getDocument()), new StreamResult(writer));
-                String soap = writer.getBuffer().toString().replaceAll("\n|\r", "");
-                if (logger.getDefaultLoggerContext().isLogSoap()) {
-                    logger.logLine(soapAction + " - " + (logger.getDefaultLoggerContext().isHtmlMode() ? StringEscapeUtils.escapeHtml4(soap) : soap));
-                } else if (log.isInfoEnabled()) {
-                    log.info(soapAction + " - " + soap);
-                }
+            boolean logSoap = logger.getDefaultLoggerContext().isLogSoap();
+            if (!logSoap && !log.isInfoEnabled()) {
+                return;
+            }
+            String soap = SoapLogWriter.render(soapMessage.getDocument(), logger.getDefaultLoggerContext().getKonfiguration().getSoapLogMaxTextLength());
+            if (logSoap) {
+                logger.logLine(soapAction + " - " + (logger.getDefaultLoggerContext().isHtmlMode() ? StringEscapeUtils.escapeHtml4(soap) : soap));
+            } else {
+                SoapLogWriter.writeAsync(log, soapAction + " - " + soap);
             }
         } catch (Exception e) {
             log.error("error on transforming ws document to string", e);
@@ -92,9 +83,4 @@ public class KonnektorWebserviceInterceptor extends ClientInterceptorAdapter {
         logger.logLine(soapFault.getFaultStringOrReason());
         return true;
     }
-
-    @Override
-    public void afterCompletion(MessageContext messageContext, Exception ex) throws WebServiceClientException {
-        this.logger = null;
-    }
 }
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.konnektor;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.w3c.dom.Attr;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Renders soap documents for logging without a transformer.
+ * Text content is truncated to the configured length, pins and key material are redacted.
+ * Lines for the application log are written by a background thread with a bounded queue, lines are dropped if the queue is full.
+ */
+public class SoapLogWriter {
+
+    private static final int MAX_LENGTH = 1024 * 1024;
+    private static final int QUEUE_SIZE = 1000;
+    private static final String REDACTED = "***";
+    private static final Set<String> REDACTED_ELEMENTS = Set.of(
+        "Pin", "OldPin", "NewPin", "Puk", "Password", "PrivateKey", "SecretKey", "SymmetricKey", "KeyValue"
+    );
+
+    private static final AtomicLong dropped = new AtomicLong();
+    private static final ThreadPoolExecutor writeExecutor = new ThreadPoolExecutor(
+        1,
+        1,
+        0,
+        TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(QUEUE_SIZE),
+        new ThreadFactoryBuilder().setNameFormat("soap-log-writer-%d").setDaemon(true).build(),
+        (runnable, executor) -> dropped.incrementAndGet()
+    );
+
+    /**
+     * @param maxTextLength maximum length of the text content of an element, longer content is truncated
+     */
+    public static String render(Node node, int maxTextLength) {
+        StringBuilder sb = new StringBuilder();
+        render(node, Math.max(maxTextLength, 0), sb);
+        if (sb.length() >= MAX_LENGTH) {
+            sb.setLength(MAX_LENGTH);
+            sb.append("...[truncated]");
+        }
+        return sb.toString();
+    }
+
+    public static void writeAsync(Logger target, String line) {
+        writeExecutor.execute(() -> target.info(line));
+    }
+
+    public static long getDropped() {
+        return dropped.get();
+    }
+
+    private static void render(Node node, int maxTextLength, StringBuilder sb) {
+        if (sb.length() >= MAX_LENGTH) {
+            return;
+        }
+        short nodeType = node.getNodeType();
+        if (nodeType == Node.DOCUMENT_NODE || nodeType == Node.DOCUMENT_FRAGMENT_NODE) {
+            renderChildren(node, maxTextLength, sb);
+        } else if (nodeType == Node.ELEMENT_NODE) {
+            boolean redacted = REDACTED_ELEMENTS.contains(node.getLocalName() != null ? node.getLocalName() : node.getNodeName());
+            sb.append('<').append(node.getNodeName());
+            NamedNodeMap attributes = node.getAttributes();
+            for (int i = 0; i < attributes.getLength(); i++) {
+                Attr attr = (Attr) attributes.item(i);
+                sb.append(' ').append(attr.getName()).append("=\"");
+                appendEscaped(attr.getValue(), maxTextLength, sb);
+                sb.append('"');
+            }
+            if (!node.hasChildNodes()) {
+                sb.append("/>");
+                return;
+            }
+            sb.append('>');
+            if (redacted) {
+                sb.append(REDACTED);
+            } else {
+                renderChildren(node, maxTextLength, sb);
+            }
+            sb.append("</").append(node.getNodeName()).append('>');
+        } else if (nodeType == Node.TEXT_NODE || nodeType == Node.CDATA_SECTION_NODE) {
+            String text = node.getNodeValue();
+            if (text != null && !text.isBlank()) {
+                appendEscaped(text, maxTextLength, sb);
+            }
+        }
+    }
+
+    private static void renderChildren(Node node, int maxTextLength, StringBuilder sb) {
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            render(child, maxTextLength, sb);
+        }
+    }
+
+    private static void appendEscaped(String text, int maxTextLength, StringBuilder sb) {
+        int length = Math.min(text.length(), maxTextLength);
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<':
+                    sb.append("&lt;");
+                    break;
+                case '>':
+                    sb.append("&gt;");
+                    break;
+                case '&':
+                    sb.append("&amp;");
+                    break;
+                case '"':
+                    sb.append("&quot;");
+                    break;
+                case '\r':
+                case '\n':
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+        if (text.length() > maxTextLength) {
+            sb.append("...[").append(text.length()).append(" chars]");
+        }
+    }
+}
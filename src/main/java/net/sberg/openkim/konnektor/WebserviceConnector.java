@@ -16,15 +16,115 @@
  */
 package net.sberg.openkim.konnektor;
 
+import net.sberg.openkim.common.circuitbreaker.CircuitBreaker;
+import net.sberg.openkim.common.circuitbreaker.CircuitBreakerOpenException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.oxm.jaxb.Jaxb2Marshaller;
+import org.springframework.ws.client.WebServiceTransportException;
 import org.springframework.ws.client.core.support.WebServiceGatewaySupport;
+import org.springframework.ws.soap.client.SoapFaultClientException;
 import org.springframework.ws.transport.http.HttpComponentsMessageSender;
 
+import java.util.Iterator;
+import java.util.List;
+
 public class WebserviceConnector extends WebServiceGatewaySupport {
+
+    private static final Logger log = LoggerFactory.getLogger(WebserviceConnector.class);
+
+    private static final int HTTP_UNSUPPORTED_MEDIA_TYPE = 415;
+    private static final List<String> MTOM_FAULT_TERMS = List.of("content-type", "content type", "contenttype", "multipart", "mtom", "xop");
+
+    private CircuitBreaker circuitBreaker;
+    private Konnektor konnektor;
+    private boolean mtom;
+
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * @param mtom send the base64 data of the request as mtom/xop attachments, falls back to inline base64
+     *             and remembers it on the konnektor if the konnektor rejects the format of the request
+     */
+    public void setMtom(Konnektor konnektor, boolean mtom) {
+        this.konnektor = konnektor;
+        this.mtom = mtom;
+    }
+
     public Object getSoapResponse(Object requestPayload) throws Exception {
-        Object response = getWebServiceTemplate().marshalSendAndReceive(requestPayload);
-        for (int i = 0; i < getMessageSenders().length; i++) {
-            ((HttpComponentsMessageSender) getMessageSenders()[i]).destroy();
+        try {
+            if (circuitBreaker != null) {
+                circuitBreaker.acquire();
+            }
+            Object response;
+            if (mtom && !konnektor.isMtomRejected()) {
+                try {
+                    response = marshalSendAndReceive(requestPayload, true);
+                } catch (WebServiceTransportException | SoapFaultClientException e) {
+                    //other errors are not retried, the konnektor may have processed the request (e.g. a signature)
+                    if (!isMtomRejected(e)) {
+                        throw e;
+                    }
+                    log.warn("konnektor rejects mtom, using inline base64: " + konnektor.getIp() + " - " + e.getMessage());
+                    //runtime flag, set on the konnektor of the published konfiguration version and seen by all sessions
+                    konnektor.setMtomRejected(true);
+                    response = marshalSendAndReceive(requestPayload, false);
+                }
+            } else {
+                response = marshalSendAndReceive(requestPayload, false);
+            }
+            if (circuitBreaker != null) {
+                circuitBreaker.onSuccess();
+            }
+            return response;
+        } catch (CircuitBreakerOpenException e) {
+            throw e;
+        } catch (SoapFaultClientException e) {
+            //the konnektor answered
+            if (circuitBreaker != null) {
+                circuitBreaker.onSuccess();
+            }
+            throw e;
+        } catch (Exception e) {
+            if (circuitBreaker != null) {
+                circuitBreaker.onFailure(e);
+            }
+            throw e;
+        } finally {
+            for (int i = 0; i < getMessageSenders().length; i++) {
+                ((HttpComponentsMessageSender) getMessageSenders()[i]).destroy();
+            }
+        }
+    }
+
+    /**
+     * A http 415 or a soap fault about the content type: the konnektor rejected the request before processing it.
+     */
+    static boolean isMtomRejected(Exception e) {
+        if (e instanceof WebServiceTransportException) {
+            //spring-ws reports http errors as "<reason phrase> [<status code>]"
+            return e.getMessage() != null
+                && (e.getMessage().trim().endsWith("[" + HTTP_UNSUPPORTED_MEDIA_TYPE + "]") || e.getMessage().toLowerCase().contains("unsupported media type"));
         }
-        return response;
+        if (e instanceof SoapFaultClientException) {
+            String fault = ((SoapFaultClientException) e).getFaultStringOrReason();
+            if (fault == null) {
+                return false;
+            }
+            fault = fault.toLowerCase();
+            for (Iterator<String> iterator = MTOM_FAULT_TERMS.iterator(); iterator.hasNext(); ) {
+                if (fault.contains(iterator.next())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private Object marshalSendAndReceive(Object requestPayload, boolean mtomEnabled) {
+        ((Jaxb2Marshaller) getMarshaller()).setMtomEnabled(mtomEnabled);
+        return getWebServiceTemplate().marshalSendAndReceive(requestPayload);
     }
 }
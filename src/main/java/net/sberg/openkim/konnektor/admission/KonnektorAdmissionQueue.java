@@ -0,0 +1,234 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.konnektor.admission;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admission queue of one konnektor. Waiting requests are served by priority and, within a priority, round robin per
+ * account, so a single account sending many mails does not starve the others.
+ */
+public class KonnektorAdmissionQueue {
+
+    public static final long[] WAIT_TIME_BUCKETS_IN_MILLIS = new long[]{10, 50, 100, 500, 1000, 5000, 10000, 30000};
+
+    private static class Waiter {
+        private final Condition condition;
+        private boolean admitted;
+
+        private Waiter(Condition condition) {
+            this.condition = condition;
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<EnumKonnektorAdmissionPriority, LinkedHashMap<String, Deque<Waiter>>> waiters = new EnumMap<>(EnumKonnektorAdmissionPriority.class);
+    private final Map<EnumKonnektorAdmissionPriority, Integer> waitingCounts = new EnumMap<>(EnumKonnektorAdmissionPriority.class);
+
+    private int limit;
+    private int inFlight;
+    private int maxWaiting;
+    private long admitted;
+    private long rejected;
+    //last bucket: longer than the last bucket limit
+    private final long[] waitTimeHistogram = new long[WAIT_TIME_BUCKETS_IN_MILLIS.length + 1];
+
+    public KonnektorAdmissionQueue() {
+        for (EnumKonnektorAdmissionPriority priority : EnumKonnektorAdmissionPriority.values()) {
+            waiters.put(priority, new LinkedHashMap<>());
+            waitingCounts.put(priority, 0);
+        }
+    }
+
+    public KonnektorAdmission acquire(int limit, long timeoutInMillis, EnumKonnektorAdmissionPriority priority, String account) throws KonnektorAdmissionException, InterruptedException {
+        long start = System.nanoTime();
+        lock.lock();
+        try {
+            this.limit = limit;
+            admitNext();
+            if (inFlight < limit && getWaiting() == 0) {
+                inFlight++;
+                record(start);
+                return new KonnektorAdmission(this);
+            }
+
+            Waiter waiter = new Waiter(lock.newCondition());
+            waiters.get(priority).computeIfAbsent(account, key -> new ArrayDeque<>()).add(waiter);
+            waitingCounts.put(priority, waitingCounts.get(priority) + 1);
+            maxWaiting = Math.max(maxWaiting, getWaiting());
+
+            long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutInMillis);
+            try {
+                while (!waiter.admitted) {
+                    if (nanos <= 0) {
+                        remove(priority, account, waiter);
+                        rejected++;
+                        throw new KonnektorAdmissionException("konnektor busy, no admission within " + timeoutInMillis + " ms");
+                    }
+                    nanos = waiter.condition.awaitNanos(nanos);
+                }
+            } catch (InterruptedException e) {
+                if (waiter.admitted) {
+                    release();
+                } else {
+                    remove(priority, account, waiter);
+                }
+                throw e;
+            }
+            record(start);
+            return new KonnektorAdmission(this);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            admitNext();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getWaiting(EnumKonnektorAdmissionPriority priority) {
+        lock.lock();
+        try {
+            return waitingCounts.get(priority);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxWaiting() {
+        lock.lock();
+        try {
+            return maxWaiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getAdmitted() {
+        lock.lock();
+        try {
+            return admitted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getRejected() {
+        lock.lock();
+        try {
+            return rejected;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long[] getWaitTimeHistogram() {
+        lock.lock();
+        try {
+            return waitTimeHistogram.clone();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int getWaiting() {
+        int waiting = 0;
+        for (Integer count : waitingCounts.values()) {
+            waiting += count;
+        }
+        return waiting;
+    }
+
+    private void admitNext() {
+        while (inFlight < limit) {
+            Waiter waiter = pollNext();
+            if (waiter == null) {
+                return;
+            }
+            waiter.admitted = true;
+            inFlight++;
+            waiter.condition.signal();
+        }
+    }
+
+    private Waiter pollNext() {
+        for (EnumKonnektorAdmissionPriority priority : EnumKonnektorAdmissionPriority.values()) {
+            LinkedHashMap<String, Deque<Waiter>> accountWaiters = waiters.get(priority);
+            Iterator<Map.Entry<String, Deque<Waiter>>> iterator = accountWaiters.entrySet().iterator();
+            if (!iterator.hasNext()) {
+                continue;
+            }
+            Map.Entry<String, Deque<Waiter>> entry = iterator.next();
+            iterator.remove();
+            Waiter waiter = entry.getValue().poll();
+            //the account moves to the end of the round
+            if (!entry.getValue().isEmpty()) {
+                accountWaiters.put(entry.getKey(), entry.getValue());
+            }
+            waitingCounts.put(priority, waitingCounts.get(priority) - 1);
+            return waiter;
+        }
+        return null;
+    }
+
+    private void remove(EnumKonnektorAdmissionPriority priority, String account, Waiter waiter) {
+        Deque<Waiter> accountWaiters = waiters.get(priority).get(account);
+        if (accountWaiters != null && accountWaiters.remove(waiter)) {
+            if (accountWaiters.isEmpty()) {
+                waiters.get(priority).remove(account);
+            }
+            waitingCounts.put(priority, waitingCounts.get(priority) - 1);
+        }
+    }
+
+    private void record(long start) {
+        admitted++;
+        long waitTimeInMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        int idx = 0;
+        while (idx < WAIT_TIME_BUCKETS_IN_MILLIS.length && waitTimeInMillis > WAIT_TIME_BUCKETS_IN_MILLIS[idx]) {
+            idx++;
+        }
+        waitTimeHistogram[idx]++;
+    }
+}
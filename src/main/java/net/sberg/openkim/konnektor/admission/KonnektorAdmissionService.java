@@ -0,0 +1,76 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.konnektor.admission;
+
+import net.sberg.openkim.konfiguration.Konfiguration;
+import net.sberg.openkim.konnektor.Konnektor;
+import net.sberg.openkim.log.DefaultLogger;
+import net.sberg.openkim.log.DefaultLoggerContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Limits the parallel crypto calls (SignDocument, EncryptDocument, DecryptDocument, VerifyDocument) per konnektor.
+ * Requests of interactive sessions (pop3) are admitted before bulk requests (smtp, spool, prefetch).
+ */
+@Service
+public class KonnektorAdmissionService {
+
+    private static final Logger log = LoggerFactory.getLogger(KonnektorAdmissionService.class);
+
+    private final Map<String, KonnektorAdmissionQueue> queues = new ConcurrentHashMap<>();
+
+    /**
+     * Waits for a free slot of the konnektor of the logger context. Use with try-with-resources around the soap call.
+     *
+     * @throws KonnektorAdmissionException no free slot within the admission timeout
+     */
+    public KonnektorAdmission acquire(DefaultLogger logger) throws KonnektorAdmissionException, InterruptedException {
+        DefaultLoggerContext defaultLoggerContext = logger.getDefaultLoggerContext();
+        Konfiguration konfiguration = defaultLoggerContext.getKonfiguration();
+        Konnektor konnektor = defaultLoggerContext.getKonnektor();
+        if (konfiguration == null || konnektor == null || konfiguration.getKonnektorMaxParallelCryptoOperations() <= 0) {
+            return new KonnektorAdmission(null);
+        }
+
+        KonnektorAdmissionQueue queue = queues.computeIfAbsent(konnektor.getUuid(), uuid -> new KonnektorAdmissionQueue());
+        String account = defaultLoggerContext.getMailServerUsername() == null ? "" : defaultLoggerContext.getMailServerUsername();
+        try {
+            return queue.acquire(
+                konfiguration.getKonnektorMaxParallelCryptoOperations(),
+                konfiguration.getKonnektorAdmissionTimeoutInSeconds() * 1000L,
+                defaultLoggerContext.getAdmissionPriority(),
+                account
+            );
+        } catch (KonnektorAdmissionException e) {
+            log.warn("no admission for the konnektor: " + konnektor.getIp() + " - " + defaultLoggerContext.getAdmissionPriority());
+            logger.logLine("konnektor busy - no admission within " + konfiguration.getKonnektorAdmissionTimeoutInSeconds() + " seconds");
+            throw e;
+        }
+    }
+
+    /**
+     * @return the queue of the konnektor or null, if no crypto call was limited yet
+     */
+    public KonnektorAdmissionQueue getQueue(String konnektorUuid) {
+        return queues.get(konnektorUuid);
+    }
+}
@@ -21,6 +21,7 @@ import net.sberg.openkim.fachdienst.Fachdienst;
 import net.sberg.openkim.konfiguration.EnumGatewayTIMode;
 import net.sberg.openkim.konfiguration.Konfiguration;
 import net.sberg.openkim.konnektor.Konnektor;
+import net.sberg.openkim.konnektor.admission.EnumKonnektorAdmissionPriority;
 import net.sberg.openkim.log.error.*;
 
 import java.util.*;
@@ -33,6 +34,7 @@ public class DefaultLoggerContext {
     private boolean writeInFile;
     private String fileName;
     private boolean htmlMode;
+    private EnumKonnektorAdmissionPriority admissionPriority = EnumKonnektorAdmissionPriority.INTERACTIVE;
     private Konfiguration konfiguration;
     private Konnektor konnektor;
     private Fachdienst fachdienst;
@@ -72,6 +74,32 @@ public class DefaultLoggerContext {
         konfiguration = null;
     }
 
+    /**
+     * Copy of the connection and account data without logs and error contexts,
+     * used for mail processing beside the session (e.g. pop3 prefetch).
+     */
+    public DefaultLoggerContext copy() {
+        DefaultLoggerContext copy = new DefaultLoggerContext();
+        copy.logSoap = logSoap;
+        copy.logKonnektorExecute = logKonnektorExecute;
+        copy.htmlMode = htmlMode;
+        copy.admissionPriority = admissionPriority;
+        copy.konfiguration = konfiguration;
+        copy.konnektor = konnektor;
+        copy.fachdienst = fachdienst;
+        copy.mandantId = mandantId;
+        copy.clientSystemId = clientSystemId;
+        copy.workplaceId = workplaceId;
+        copy.userId = userId;
+        copy.konnektorId = konnektorId;
+        copy.mailServerHost = mailServerHost;
+        copy.mailServerPort = mailServerPort;
+        copy.mailServerUsername = mailServerUsername;
+        copy.mailServerPassword = mailServerPassword;
+        copy.senderAddressMapping.putAll(senderAddressMapping);
+        return copy;
+    }
+
     //setter
     //********************************************************
     public void setMandantId(String mandantId) {
@@ -143,6 +171,11 @@ public class DefaultLoggerContext {
         return this;
     }
 
+    public DefaultLoggerContext buildAdmissionPriority(EnumKonnektorAdmissionPriority admissionPriority) {
+        this.admissionPriority = admissionPriority;
+        return this;
+    }
+
     public DefaultLoggerContext buildWriteInFile(boolean writeInFile) {
         this.writeInFile = writeInFile;
         return this;
@@ -198,6 +231,10 @@ public class DefaultLoggerContext {
         return htmlMode;
     }
 
+    public EnumKonnektorAdmissionPriority getAdmissionPriority() {
+        return admissionPriority;
+    }
+
     public boolean isLogKonnektorExecute() {
         return logKonnektorExecute;
     }
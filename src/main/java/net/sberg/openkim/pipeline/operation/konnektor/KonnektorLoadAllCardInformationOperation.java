@@ -191,8 +191,7 @@ public class KonnektorLoadAllCardInformationOperation implements IPipelineOperat
                                 cards.add(konnektorCard);
                             }
 
-                            konnektor.getCards().clear();
-                            konnektor.getCards().addAll(cards);
+                            konnektor.setCards(cards);
                         }
                     } catch (Exception e) {
                         defaultPipelineOperationContext.setEnvironmentValue(getCardsOperation.getName(), ENV_EXCEPTION, e);
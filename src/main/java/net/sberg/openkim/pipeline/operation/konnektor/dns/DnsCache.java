@@ -0,0 +1,179 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.pipeline.operation.konnektor.dns;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import net.sberg.openkim.konfiguration.Konfiguration;
+import net.sberg.openkim.konnektor.Konnektor;
+import net.sberg.openkim.log.DefaultLogger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide cache of the dns answers, keyed by konnektor, domain and record type.
+ * Answers are kept for the smallest record ttl, bounded by the configured minimum and maximum,
+ * NXDOMAIN and NODATA answers for the configured negative ttl. Failed requests are not cached.
+ * Identical requests running at the same time are sent only once, entries near expiry are refreshed in the background.
+ */
+public class DnsCache {
+
+    private static final Logger log = LoggerFactory.getLogger(DnsCache.class);
+
+    private static final int MAX_ENTRIES = 10000;
+    private static final int PREFETCH_THRESHOLD_PERCENT = 10;
+
+    private static final Cache<String, DnsCacheEntry> cache = CacheBuilder.newBuilder()
+        .maximumSize(MAX_ENTRIES)
+        .build();
+    private static final Map<String, CompletableFuture<DnsResultContainer>> inFlight = new ConcurrentHashMap<>();
+    private static final ExecutorService prefetchExecutor = Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder().setNameFormat("dns-cache-prefetch-%d").setDaemon(true).build()
+    );
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong coalesced = new AtomicLong();
+    private static final AtomicLong prefetches = new AtomicLong();
+
+    public static final DnsResultContainer get(DefaultLogger logger, Konfiguration konfiguration, Konnektor konnektor, String domain, String recordType) throws Exception {
+        String key = createKey(konnektor, domain, recordType);
+        DnsCacheEntry entry = cache.getIfPresent(key);
+        long now = System.currentTimeMillis();
+        if (entry != null && entry.getExpires() > now) {
+            hits.incrementAndGet();
+            logger.logLine("dns cache hit for: " + konnektor.getIp() + " - " + domain + " - " + recordType);
+            if ((entry.getExpires() - now) * 100 < (entry.getExpires() - entry.getCreated()) * PREFETCH_THRESHOLD_PERCENT) {
+                prefetch(konfiguration, konnektor, domain, recordType, key);
+            }
+            return copy(entry.getResult());
+        }
+        misses.incrementAndGet();
+        return load(logger, konfiguration, konnektor, domain, recordType, key);
+    }
+
+    public static final long getEntryCount() {
+        return cache.size();
+    }
+
+    public static final long getHits() {
+        return hits.get();
+    }
+
+    public static final long getMisses() {
+        return misses.get();
+    }
+
+    public static final long getCoalesced() {
+        return coalesced.get();
+    }
+
+    public static final long getPrefetches() {
+        return prefetches.get();
+    }
+
+    public static final void clear() {
+        cache.invalidateAll();
+    }
+
+    private static DnsResultContainer load(DefaultLogger logger, Konfiguration konfiguration, Konnektor konnektor, String domain, String recordType, String key) throws Exception {
+        CompletableFuture<DnsResultContainer> future = new CompletableFuture<>();
+        CompletableFuture<DnsResultContainer> running = inFlight.putIfAbsent(key, future);
+        if (running != null) {
+            coalesced.incrementAndGet();
+            if (logger != null) {
+                logger.logLine("dns request already running for: " + konnektor.getIp() + " - " + domain + " - " + recordType);
+            }
+            return copy(running.get());
+        }
+        try {
+            DnsResultContainer result = DnsUtils.lookup(logger, konnektor, domain, recordType);
+            put(konfiguration, key, result);
+            future.complete(result);
+            return copy(result);
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    private static void prefetch(Konfiguration konfiguration, Konnektor konnektor, String domain, String recordType, String key) {
+        if (inFlight.containsKey(key)) {
+            return;
+        }
+        prefetches.incrementAndGet();
+        prefetchExecutor.execute(() -> {
+            try {
+                load(null, konfiguration, konnektor, domain, recordType, key);
+            } catch (Exception e) {
+                log.warn("error on prefetching dns: " + key, e);
+            }
+        });
+    }
+
+    private static void put(Konfiguration konfiguration, String key, DnsResultContainer result) {
+        long ttl;
+        if (result.getResult().isEmpty()) {
+            if (result.isError() && !result.isNegative()) {
+                return;
+            }
+            ttl = konfiguration.getDnsCacheNegativeTtlInSeconds();
+        } else if (result.isError()) {
+            return;
+        } else {
+            ttl = Long.MAX_VALUE;
+            for (DnsResult dnsResult : result.getResult()) {
+                ttl = Math.min(ttl, dnsResult.getTtl());
+            }
+            ttl = Math.max(ttl, konfiguration.getDnsCacheMinTtlInSeconds());
+            ttl = Math.min(ttl, konfiguration.getDnsCacheMaxTtlInSeconds());
+        }
+        if (ttl <= 0) {
+            cache.invalidate(key);
+            return;
+        }
+        DnsCacheEntry entry = new DnsCacheEntry();
+        entry.setResult(result);
+        entry.setCreated(System.currentTimeMillis());
+        entry.setExpires(entry.getCreated() + ttl * 1000);
+        cache.put(key, entry);
+    }
+
+    //callers get their own container, the cached one is shared
+    private static DnsResultContainer copy(DnsResultContainer result) {
+        DnsResultContainer dnsResultContainer = new DnsResultContainer();
+        dnsResultContainer.setError(result.isError());
+        dnsResultContainer.setNegative(result.isNegative());
+        dnsResultContainer.setResult(new ArrayList<>(result.getResult()));
+        return dnsResultContainer;
+    }
+
+    private static String createKey(Konnektor konnektor, String domain, String recordType) {
+        return konnektor.getIp() + "|" + domain.toLowerCase() + "|" + recordType.toUpperCase();
+    }
+}
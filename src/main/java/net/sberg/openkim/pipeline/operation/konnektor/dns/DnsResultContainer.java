@@ -24,5 +24,7 @@ import java.util.List;
 @Data
 public class DnsResultContainer {
     private boolean error;
+    //name or record type does not exist
+    private boolean negative;
     private List<DnsResult> result = new ArrayList<>();
 }
@@ -17,6 +17,7 @@
 package net.sberg.openkim.pipeline.operation.konnektor.dns;
 
 import net.sberg.openkim.common.metrics.DefaultMetricFactory;
+import net.sberg.openkim.konfiguration.Konfiguration;
 import net.sberg.openkim.konnektor.Konnektor;
 import net.sberg.openkim.log.DefaultLogger;
 import org.apache.james.metrics.api.TimeMetric;
@@ -28,29 +29,45 @@ import org.xbill.DNS.*;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class DnsUtils {
 
     private static final Logger log = LoggerFactory.getLogger(DnsUtils.class);
 
-    protected static final DnsResultContainer request(DefaultLogger logger, String domain, String recordType) throws Exception {
-        TimeMetric timeMetric = null;
+    private static final Map<String, Resolver> resolvers = new ConcurrentHashMap<>();
 
+    protected static final DnsResultContainer request(DefaultLogger logger, String domain, String recordType) throws Exception {
         Konnektor konnektor = logger.getDefaultLoggerContext().getKonnektor();
+        Konfiguration konfiguration = logger.getDefaultLoggerContext().getKonfiguration();
+        if (konfiguration == null || !konfiguration.isDnsCacheEnabled()) {
+            return lookup(logger, konnektor, domain, recordType);
+        }
+        return DnsCache.get(logger, konfiguration, konnektor, domain, recordType);
+    }
+
+    /**
+     * @param logger may be null for background requests of the dns cache
+     */
+    protected static final DnsResultContainer lookup(DefaultLogger logger, Konnektor konnektor, String domain, String recordType) throws Exception {
+        TimeMetric timeMetric = null;
 
         DnsResultContainer dnsResultContainer = new DnsResultContainer();
 
         try {
 
-            DefaultMetricFactory metricFactory = new DefaultMetricFactory(logger);
-            timeMetric = metricFactory.timer("Dns:request");
-            logger.logLine("request for: " + konnektor.getIp() + " - " + domain + " - " + recordType);
+            if (logger != null) {
+                DefaultMetricFactory metricFactory = new DefaultMetricFactory(logger);
+                timeMetric = metricFactory.timer("Dns:request");
+                logger.logLine("request for: " + konnektor.getIp() + " - " + domain + " - " + recordType);
+            }
 
             Name name = new Name(domain);
             Lookup lookup = new Lookup(name, Type.value(recordType), DClass.IN);
-            Resolver resolver = new ExtendedResolver(new String[]{konnektor.getIp()});
-            resolver.setTimeout(Duration.ofSeconds(konnektor.getTimeoutInSeconds()));
-            lookup.setResolver(resolver);
+            lookup.setResolver(getResolver(konnektor));
+            //the default cache of dnsjava is shared by all konnektors, caching is done by DnsCache per konnektor
+            lookup.setCache(null);
             Record[] records = lookup.run();
 
             dnsResultContainer.setError(
@@ -58,11 +75,14 @@ public class DnsUtils {
                             && !lookup.getErrorString().equals("successful")
                             && !lookup.getErrorString().trim().isEmpty()
             );
+            dnsResultContainer.setNegative(lookup.getResult() == Lookup.HOST_NOT_FOUND || lookup.getResult() == Lookup.TYPE_NOT_FOUND);
 
             List<DnsResult> result = new ArrayList<>();
 
             if (records == null || records.length == 0) {
-                logger.logLine("no results");
+                if (logger != null) {
+                    logger.logLine("no results");
+                }
             } else {
                 for (int i = 0; i < records.length; i++) {
                     DnsResult dnsResult = new DnsResult();
@@ -79,13 +99,17 @@ public class DnsUtils {
                     dnsResult.setName(records[i].getName().toString());
                     dnsResult.setType(records[i].getType());
 
-                    logger.logLine(dnsResult.toString());
+                    if (logger != null) {
+                        logger.logLine(dnsResult.toString());
+                    }
 
                     result.add(dnsResult);
                 }
             }
 
-            timeMetric.stopAndPublish();
+            if (timeMetric != null) {
+                timeMetric.stopAndPublish();
+            }
 
             dnsResultContainer.setResult(result);
             return dnsResultContainer;
@@ -98,4 +122,16 @@ public class DnsUtils {
             return dnsResultContainer;
         }
     }
+
+    private static Resolver getResolver(Konnektor konnektor) {
+        return resolvers.computeIfAbsent(konnektor.getIp() + ":" + konnektor.getTimeoutInSeconds(), k -> {
+            try {
+                Resolver resolver = new ExtendedResolver(new String[]{konnektor.getIp()});
+                resolver.setTimeout(Duration.ofSeconds(konnektor.getTimeoutInSeconds()));
+                return resolver;
+            } catch (Exception e) {
+                throw new IllegalStateException("error on creating the dns resolver for the konnektor: " + konnektor.getIp(), e);
+            }
+        });
+    }
 }
@@ -17,6 +17,7 @@
 package net.sberg.openkim.pipeline.operation.konnektor.vzd;
 
 import net.sberg.openkim.common.StringUtils;
+import net.sberg.openkim.common.circuitbreaker.CircuitBreakerOpenException;
 import net.sberg.openkim.common.metrics.DefaultMetricFactory;
 import net.sberg.openkim.common.x509.*;
 import net.sberg.openkim.konfiguration.Konfiguration;
@@ -52,6 +53,7 @@ public class LoadVzdCertsOperation implements IPipelineOperation  {
     public static final String ENV_VZD_SEARCH_BASE = "vzdSearchBase";
     public static final String ENV_LOAD_SENDER_ADRESSES = "loadSenderAddresses";
     public static final String ENV_LOAD_RCPT_ADRESSES = "loadRcptAddresses";
+    public static final String ENV_VZD_PREFETCHER = "vzdPrefetcher";
 
     @Override
     public String getName() {
@@ -78,6 +80,9 @@ public class LoadVzdCertsOperation implements IPipelineOperation  {
             String searchBase = (String) defaultPipelineOperationContext.getEnvironmentValue(NAME, ENV_VZD_SEARCH_BASE);
             boolean loadSenderAddresses = (boolean) defaultPipelineOperationContext.getEnvironmentValue(NAME, ENV_LOAD_SENDER_ADRESSES);
             boolean loadRcptAddresses = (boolean) defaultPipelineOperationContext.getEnvironmentValue(NAME, ENV_LOAD_RCPT_ADRESSES);
+            VzdCertsPrefetcher vzdCertsPrefetcher = defaultPipelineOperationContext.hasEnvironmentValue(NAME, ENV_VZD_PREFETCHER)
+                ? (VzdCertsPrefetcher) defaultPipelineOperationContext.getEnvironmentValue(NAME, ENV_VZD_PREFETCHER)
+                : null;
 
             if (!loadSenderAddresses && !loadRcptAddresses) {
                 failConsumer.accept(defaultPipelineOperationContext, new IllegalStateException("please choose senderAddresses = true or rcptAddresses = true"));
@@ -96,7 +101,10 @@ public class LoadVzdCertsOperation implements IPipelineOperation  {
                     X509CertificateResult x509CertificateResult = new X509CertificateResult();
                     x509CertificateResult.setMailAddress(address.toLowerCase());
                     try {
-                        List<VzdResult> vzdResults = VzdUtils.search(logger, searchBase, address, true, true);
+                        List<VzdResult> vzdResults = vzdCertsPrefetcher != null ? vzdCertsPrefetcher.get(searchBase, address) : null;
+                        if (vzdResults == null) {
+                            vzdResults = VzdUtils.search(logger, searchBase, address, true, true);
+                        }
                         x509CertificateResult.setVzdResults(vzdResults);
 
                         if (vzdResults.size() == 1 && vzdResults.get(0).getErrorCode().equals(EnumVzdErrorCode.NOT_FOUND)) {
@@ -148,6 +156,9 @@ public class LoadVzdCertsOperation implements IPipelineOperation  {
                                 }
                             }
                         }
+                    } catch (CircuitBreakerOpenException e) {
+                        //vzd not available, a temporary error for all addresses
+                        throw e;
                     } catch (Exception e) {
                         log.error("error on vzd searching for: " + address + " - konnektor: " + konnektor.getIp(), e);
                         x509CertificateResult.setErrorCode(EnumX509ErrorCode.OTHER);
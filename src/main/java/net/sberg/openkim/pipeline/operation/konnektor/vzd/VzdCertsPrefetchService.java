@@ -0,0 +1,70 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.pipeline.operation.konnektor.vzd;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import jakarta.annotation.PreDestroy;
+import net.sberg.openkim.konfiguration.Konfiguration;
+import net.sberg.openkim.konnektor.Konnektor;
+import net.sberg.openkim.log.DefaultLogger;
+import net.sberg.openkim.log.LogService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+@Service
+public class VzdCertsPrefetchService {
+
+    private static final int PREFETCH_THREADS = 16;
+
+    private final ExecutorService executorService = Executors.newFixedThreadPool(
+        PREFETCH_THREADS,
+        new ThreadFactoryBuilder().setNameFormat("vzd-prefetch-%d").setDaemon(true).build()
+    );
+    //shared by all sessions, the parallelism limit applies per konnektor
+    private final Map<String, Semaphore> konnektorPermits = new ConcurrentHashMap<>();
+
+    @Autowired
+    private LogService logService;
+
+    @PreDestroy
+    protected void destroy() {
+        executorService.shutdownNow();
+    }
+
+    /**
+     * @param sessionLogger logger of the smtp session, the searches run with own loggers based on a copy of its context
+     */
+    public VzdCertsPrefetcher create(DefaultLogger sessionLogger) {
+        Konfiguration konfiguration = sessionLogger.getDefaultLoggerContext().getKonfiguration();
+        Konnektor konnektor = sessionLogger.getDefaultLoggerContext().getKonnektor();
+        int parallelism = Math.max(1, konfiguration.getSmtpVzdPrefetchParallelismPerKonnektor());
+        Semaphore permits = konnektorPermits.computeIfAbsent(konnektor.getUuid() + "#" + parallelism, key -> new Semaphore(parallelism));
+        return new VzdCertsPrefetcher(
+            executorService,
+            permits,
+            logService,
+            sessionLogger.getDefaultLoggerContext().copy(),
+            sessionLogger.getDefaultLoggerContext().getKonnektor().getVzdSearchBase()
+        );
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.pipeline.operation.konnektor.vzd;
+
+import net.sberg.openkim.log.DefaultLogger;
+import net.sberg.openkim.log.DefaultLoggerContext;
+import net.sberg.openkim.log.LogService;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Speculative vzd searches of one smtp transaction, started when the addresses are known (MAIL FROM, RCPT TO)
+ * and consumed by {@link LoadVzdCertsOperation} after DATA.
+ */
+public class VzdCertsPrefetcher {
+
+    private final ExecutorService executorService;
+    private final Semaphore permits;
+    private final LogService logService;
+    private final DefaultLoggerContext loggerContext;
+    private final String searchBase;
+    private final Map<String, Future<List<VzdResult>>> results = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    protected VzdCertsPrefetcher(ExecutorService executorService, Semaphore permits, LogService logService, DefaultLoggerContext loggerContext, String searchBase) {
+        this.executorService = executorService;
+        this.permits = permits;
+        this.logService = logService;
+        this.loggerContext = loggerContext;
+        this.searchBase = searchBase;
+    }
+
+    public void prefetch(String address) {
+        if (closed || address == null || results.containsKey(address)) {
+            return;
+        }
+        //all permits of the konnektor in use: the session is not blocked, the address is searched after DATA
+        if (!permits.tryAcquire()) {
+            return;
+        }
+        FutureTask<List<VzdResult>> result = new FutureTask<>(() -> search(address)) {
+            @Override
+            protected void done() {
+                //finished, failed or cancelled, also if cancelled before running
+                permits.release();
+            }
+        };
+        if (results.putIfAbsent(address, result) != null) {
+            permits.release();
+            return;
+        }
+        try {
+            executorService.execute(result);
+        } catch (RejectedExecutionException e) {
+            //shutdown, the address is searched after DATA
+            result.cancel(false);
+        }
+    }
+
+    private List<VzdResult> search(String address) throws Exception {
+        //own logger per search, the loggers are not thread safe
+        DefaultLogger logger = logService.createLogger(loggerContext.copy());
+        try {
+            return VzdUtils.search(logger, searchBase, address, true, true);
+        } finally {
+            logService.removeLogger(logger.getId());
+        }
+    }
+
+    /**
+     * Waits for the search of the address.
+     * @return the vzd results or null if the address was not prefetched or the search was cancelled
+     */
+    public List<VzdResult> get(String searchBase, String address) throws Exception {
+        if (closed || !Objects.equals(this.searchBase, searchBase)) {
+            return null;
+        }
+        Future<List<VzdResult>> result = results.get(address);
+        if (result == null) {
+            return null;
+        }
+        try {
+            return result.get();
+        } catch (CancellationException e) {
+            return null;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public void close() {
+        closed = true;
+        for (Iterator<Future<List<VzdResult>>> iterator = results.values().iterator(); iterator.hasNext(); ) {
+            iterator.next().cancel(true);
+        }
+        results.clear();
+    }
+}
@@ -18,7 +18,12 @@ package net.sberg.openkim.pipeline.operation.konnektor.vzd;
 
 import net.sberg.openkim.common.CommonBuilderFactory;
 import net.sberg.openkim.common.ICommonConstants;
+import net.sberg.openkim.common.circuitbreaker.CircuitBreaker;
+import net.sberg.openkim.common.circuitbreaker.CircuitBreakerOpenException;
+import net.sberg.openkim.common.circuitbreaker.CircuitBreakerRegistry;
+import net.sberg.openkim.common.circuitbreaker.EnumCircuitBreakerEndpointType;
 import net.sberg.openkim.common.metrics.DefaultMetricFactory;
+import net.sberg.openkim.common.x509.X509CertificateCache;
 import net.sberg.openkim.konnektor.EnumKonnektorAuthMethod;
 import net.sberg.openkim.konnektor.Konnektor;
 import net.sberg.openkim.log.DefaultLogger;
@@ -37,11 +42,9 @@ import org.slf4j.LoggerFactory;
 
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.security.KeyStore;
-import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.sql.Timestamp;
 import java.text.MessageFormat;
@@ -83,7 +86,7 @@ public class VzdUtils {
     private static final String SEARCH_TEMPLATE = "(|(" + LDAP_CN_ATTR + "=*{0}*)(" + LDAP_SN_ATTR + "=*{1}*)(" + LDAP_DISPLAYNAME_ATTR + "=*{2}*)(" + LDAP_MAIL_ATTR + "=*{3}*)(" + LDAP_GIVENNAME_ATTR + "=*{4}*)(" + LDAP_TELEMATIKID_ATTR + "=*{5}*))";
     private static final String SEARCH_MAIL_TEMPLATE = "(" + LDAP_MAIL_ATTR + "={0})";
 
-    private static final VzdResult set(VzdResult vzdResult, String property, Entry entry, CertificateFactory factory) throws Exception {
+    private static final VzdResult set(VzdResult vzdResult, String property, Entry entry) throws Exception {
         if (entry.get(property) != null) {
             DefaultAttribute attribute = (DefaultAttribute) entry.get(property);
             if (property.equals(LDAP_KOMLEDATA_ATTR)) {
@@ -104,7 +107,7 @@ public class VzdUtils {
                 for (Iterator<Value> iterator = attribute.iterator(); iterator.hasNext(); ) {
                     org.apache.directory.api.ldap.model.entry.Value val = iterator.next();
                     byte[] certBytes = val.getBytes();
-                    X509Certificate cert = (X509Certificate) factory.generateCertificate(new ByteArrayInputStream(certBytes));
+                    X509Certificate cert = X509CertificateCache.get(certBytes).getCertificate();
                     contentBuilder.append("*****************************<br/>");
                     contentBuilder.append("Aussteller = ").append(cert.getIssuerDN().getName()).append("<br/>");
                     contentBuilder.append("Inhaber = ").append(cert.getSubjectDN().getName()).append("<br/>");
@@ -170,14 +173,15 @@ public class VzdUtils {
         Konnektor konnektor = logger.getDefaultLoggerContext().getKonnektor();
 
         LdapConnection ldapConnection = null;
+        CircuitBreaker circuitBreaker = CircuitBreakerRegistry.get(logger.getDefaultLoggerContext().getKonfiguration(), EnumCircuitBreakerEndpointType.VZD, konnektor.getIp());
 
         try {
+            circuitBreaker.acquire();
 
             DefaultMetricFactory metricFactory = new DefaultMetricFactory(logger);
             timeMetric = metricFactory.timer("Vzd:search");
 
             List<VzdResult> vzdResults = new ArrayList<>();
-            CertificateFactory factory = CertificateFactory.getInstance("X.509");
 
             DefaultLdapConnectionFactory ldapConnectionFactory = new DefaultLdapConnectionFactory(createConfig(konnektor));
             ldapConnection = ldapConnectionFactory.newLdapConnection();
@@ -192,30 +196,30 @@ public class VzdUtils {
                 Entry entry = cursor.get();
                 VzdResult vzdResult = new VzdResult();
                 try {
-                    vzdResult = set(vzdResult, LDAP_CN_ATTR, entry, factory);
-                    vzdResult = set(vzdResult, LDAP_CHANGEDATETIME_ATTR, entry, factory);
-                    vzdResult = set(vzdResult, LDAP_COUNTRYCODE_ATTR, entry, factory);
-                    vzdResult = set(vzdResult, LDAP_DISPLAYNAME_ATTR, entry, factory);
-                    vzdResult = set(vzdResult, LDAP_DATEFROMAUTHORITY_ATTR, entry, factory);
-                    vzdResult = set(vzdResult, LDAP_DOMAINID_ATTR, entry, factory);
-                    vzdResult = set(vzdResult, LDAP_ENTRYTYPE_ATTR, entry, factory);
-                    vzdResult = set(vzdResult, LDAP_GIVENNAME_ATTR, entry, factory);
-                    vzdResult = set(vzdResult, LDAP_KOMLEDATA_ATTR, entry, factory);
-                    vzdResult = set(vzdResult, LDAP_l_ATTR, entry, factory);
-                    vzdResult = set(vzdResult, LDAP_ORGANIZATION_ATTR, entry, factory);
-                    vzdResult = set(vzdResult, LDAP_OTHERNAME_ATTR, entry, factory);
-                    vzdResult = set(vzdResult, LDAP_PERSONALENTRY_ATTR, entry, factory);
-                    vzdResult = set(vzdResult, LDAP_POSTALCODE_ATTR, entry, factory);
-                    vzdResult = set(vzdResult, LDAP_PROFESSIONOID_ATTR, entry, factory);
-                    vzdResult = set(vzdResult, LDAP_SN_ATTR, entry, factory);
-                    vzdResult = set(vzdResult, LDAP_SPECIALIZATION_ATTR, entry, factory);
-                    vzdResult = set(vzdResult, LDAP_ST_ATTR, entry, factory);
-                    vzdResult = set(vzdResult, LDAP_STREET_ATTR, entry, factory);
-                    vzdResult = set(vzdResult, LDAP_TELEMATIKID_ATTR, entry, factory);
-                    vzdResult = set(vzdResult, LDAP_TITLE_ATTR, entry, factory);
-                    vzdResult = set(vzdResult, LDAP_UID_ATTR, entry, factory);
+                    vzdResult = set(vzdResult, LDAP_CN_ATTR, entry);
+                    vzdResult = set(vzdResult, LDAP_CHANGEDATETIME_ATTR, entry);
+                    vzdResult = set(vzdResult, LDAP_COUNTRYCODE_ATTR, entry);
+                    vzdResult = set(vzdResult, LDAP_DISPLAYNAME_ATTR, entry);
+                    vzdResult = set(vzdResult, LDAP_DATEFROMAUTHORITY_ATTR, entry);
+                    vzdResult = set(vzdResult, LDAP_DOMAINID_ATTR, entry);
+                    vzdResult = set(vzdResult, LDAP_ENTRYTYPE_ATTR, entry);
+                    vzdResult = set(vzdResult, LDAP_GIVENNAME_ATTR, entry);
+                    vzdResult = set(vzdResult, LDAP_KOMLEDATA_ATTR, entry);
+                    vzdResult = set(vzdResult, LDAP_l_ATTR, entry);
+                    vzdResult = set(vzdResult, LDAP_ORGANIZATION_ATTR, entry);
+                    vzdResult = set(vzdResult, LDAP_OTHERNAME_ATTR, entry);
+                    vzdResult = set(vzdResult, LDAP_PERSONALENTRY_ATTR, entry);
+                    vzdResult = set(vzdResult, LDAP_POSTALCODE_ATTR, entry);
+                    vzdResult = set(vzdResult, LDAP_PROFESSIONOID_ATTR, entry);
+                    vzdResult = set(vzdResult, LDAP_SN_ATTR, entry);
+                    vzdResult = set(vzdResult, LDAP_SPECIALIZATION_ATTR, entry);
+                    vzdResult = set(vzdResult, LDAP_ST_ATTR, entry);
+                    vzdResult = set(vzdResult, LDAP_STREET_ATTR, entry);
+                    vzdResult = set(vzdResult, LDAP_TELEMATIKID_ATTR, entry);
+                    vzdResult = set(vzdResult, LDAP_TITLE_ATTR, entry);
+                    vzdResult = set(vzdResult, LDAP_UID_ATTR, entry);
                     if (resultWithCertificates) {
-                        vzdResult = set(vzdResult, LDAP_CERT_ATTR, entry, factory);
+                        vzdResult = set(vzdResult, LDAP_CERT_ATTR, entry);
                     }
                 } catch (Exception e) {
                     log.error("error on search ldap vzd - handle one entry: " + searchValue, e);
@@ -230,10 +234,15 @@ public class VzdUtils {
                 vzdResults.add(vzdResult);
             }
 
+            circuitBreaker.onSuccess();
             timeMetric.stopAndPublish();
             return vzdResults;
+        } catch (CircuitBreakerOpenException e) {
+            logger.logLine("vzd search not executed: " + e.getMessage());
+            throw e;
         } catch (Exception e) {
             log.error("error on search ldap vzd: " + searchValue, e);
+            circuitBreaker.onFailure(e);
             if (timeMetric != null) {
                 timeMetric.stopAndPublish();
             }
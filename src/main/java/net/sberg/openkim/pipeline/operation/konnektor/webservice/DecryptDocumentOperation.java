@@ -23,6 +23,8 @@ import de.gematik.ws.conn.encryptionservice.v6.DecryptDocumentResponse;
 import de.gematik.ws.conn.encryptionservice.v6.KeyOnCardType;
 import net.sberg.openkim.common.metrics.DefaultMetricFactory;
 import net.sberg.openkim.konnektor.*;
+import net.sberg.openkim.konnektor.admission.KonnektorAdmission;
+import net.sberg.openkim.konnektor.admission.KonnektorAdmissionService;
 import net.sberg.openkim.log.DefaultLogger;
 import net.sberg.openkim.pipeline.PipelineOperation;
 import net.sberg.openkim.pipeline.operation.DefaultPipelineOperationContext;
@@ -32,6 +34,7 @@ import org.apache.commons.codec.binary.Base64;
 import org.apache.james.metrics.api.TimeMetric;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.util.function.BiConsumer;
@@ -49,6 +52,9 @@ public class DecryptDocumentOperation implements IPipelineOperation  {
     public static final String ENV_CARDHANDLE = "cardHandle";
     public static final String ENV_DECRYPT_DOCUMENT_RESPONSE = "decryptDocumentResponse";
 
+    @Autowired
+    private KonnektorAdmissionService konnektorAdmissionService;
+
     @Override
     public String getName() {
         return NAME;
@@ -124,7 +130,10 @@ public class DecryptDocumentOperation implements IPipelineOperation  {
                 decryptDocument.setDocument(documentType);
 
                 timeMetric = metricFactory.timer(NAME);
-                DecryptDocumentResponse decryptDocumentResponse = (DecryptDocumentResponse) webserviceConnector.getSoapResponse(decryptDocument);
+                DecryptDocumentResponse decryptDocumentResponse;
+                try (KonnektorAdmission konnektorAdmission = konnektorAdmissionService.acquire(logger)) {
+                    decryptDocumentResponse = (DecryptDocumentResponse) webserviceConnector.getSoapResponse(decryptDocument);
+                }
                 defaultPipelineOperationContext.setEnvironmentValue(NAME, ENV_DECRYPT_DOCUMENT_RESPONSE, decryptDocumentResponse);
                 timeMetric.stopAndPublish();
 
@@ -23,6 +23,8 @@ import de.gematik.ws.conn.encryptionservice.v6.EncryptDocumentResponse;
 import de.gematik.ws.conn.encryptionservice.v6.KeyOnCardType;
 import net.sberg.openkim.common.metrics.DefaultMetricFactory;
 import net.sberg.openkim.konnektor.*;
+import net.sberg.openkim.konnektor.admission.KonnektorAdmission;
+import net.sberg.openkim.konnektor.admission.KonnektorAdmissionService;
 import net.sberg.openkim.log.DefaultLogger;
 import net.sberg.openkim.pipeline.PipelineOperation;
 import net.sberg.openkim.pipeline.operation.DefaultPipelineOperationContext;
@@ -32,6 +34,7 @@ import org.apache.commons.codec.binary.Base64;
 import org.apache.james.metrics.api.TimeMetric;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.util.function.BiConsumer;
@@ -48,6 +51,9 @@ public class EncryptDocumentOperation implements IPipelineOperation  {
     public static final String ENV_DOCUMENT = "document";
     public static final String ENV_ENCRYPT_DOCUMENT_RESPONSE = "encryptDocumentResponse";
 
+    @Autowired
+    private KonnektorAdmissionService konnektorAdmissionService;
+
     @Override
     public String getName() {
         return NAME;
@@ -122,7 +128,10 @@ public class EncryptDocumentOperation implements IPipelineOperation  {
                 encryptDocument.setOptionalInputs(optionalInputs);
 
                 timeMetric = metricFactory.timer(NAME);
-                EncryptDocumentResponse encryptDocumentResponse = (EncryptDocumentResponse) webserviceConnector.getSoapResponse(encryptDocument);
+                EncryptDocumentResponse encryptDocumentResponse;
+                try (KonnektorAdmission konnektorAdmission = konnektorAdmissionService.acquire(logger)) {
+                    encryptDocumentResponse = (EncryptDocumentResponse) webserviceConnector.getSoapResponse(encryptDocument);
+                }
                 defaultPipelineOperationContext.setEnvironmentValue(NAME, ENV_ENCRYPT_DOCUMENT_RESPONSE, encryptDocumentResponse);
                 timeMetric.stopAndPublish();
 
@@ -21,6 +21,8 @@ import de.gematik.ws.conn.signatureservice.v7.VerifyDocument;
 import de.gematik.ws.conn.signatureservice.v7.VerifyDocumentResponse;
 import net.sberg.openkim.common.metrics.DefaultMetricFactory;
 import net.sberg.openkim.konnektor.*;
+import net.sberg.openkim.konnektor.admission.KonnektorAdmission;
+import net.sberg.openkim.konnektor.admission.KonnektorAdmissionService;
 import net.sberg.openkim.log.DefaultLogger;
 import net.sberg.openkim.pipeline.PipelineOperation;
 import net.sberg.openkim.pipeline.operation.DefaultPipelineOperationContext;
@@ -32,6 +34,7 @@ import org.apache.commons.codec.binary.Base64;
 import org.apache.james.metrics.api.TimeMetric;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.util.function.BiConsumer;
@@ -48,6 +51,9 @@ public class VerifySignedDocumentOperation implements IPipelineOperation  {
     public static final String ENV_SIGNED_DATA_AS_BASE64 = "signedDataAsBase64";
     public static final String ENV_VERIFY_DOCUMENT_RESPONSE = "verifyDocumentResponse";
 
+    @Autowired
+    private KonnektorAdmissionService konnektorAdmissionService;
+
     @Override
     public String getName() {
         return NAME;
@@ -127,7 +133,10 @@ public class VerifySignedDocumentOperation implements IPipelineOperation  {
                 verifyDocument.setIncludeRevocationInfo(false);
 
                 timeMetric = metricFactory.timer(NAME);
-                VerifyDocumentResponse verifyDocumentResponse = (VerifyDocumentResponse) webserviceConnector.getSoapResponse(verifyDocument);
+                VerifyDocumentResponse verifyDocumentResponse;
+                try (KonnektorAdmission konnektorAdmission = konnektorAdmissionService.acquire(logger)) {
+                    verifyDocumentResponse = (VerifyDocumentResponse) webserviceConnector.getSoapResponse(verifyDocument);
+                }
                 defaultPipelineOperationContext.setEnvironmentValue(NAME, ENV_VERIFY_DOCUMENT_RESPONSE, verifyDocumentResponse);
                 timeMetric.stopAndPublish();
 
@@ -34,7 +34,6 @@ import org.springframework.stereotype.Component;
 import javax.mail.Address;
 import javax.mail.Header;
 import javax.mail.Message;
-import javax.mail.Session;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeMessage;
 import java.io.ByteArrayOutputStream;
@@ -42,7 +41,6 @@ import java.text.MessageFormat;
 import java.time.ZonedDateTime;
 import java.util.Enumeration;
 import java.util.List;
-import java.util.Properties;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
@@ -111,7 +109,7 @@ public class ComposeEncryptedMailOperation implements IPipelineOperation  {
                     ? originMimeMessage.getHeader(MailUtils.X_KIM_DIENSTKENNUNG)[0]
                     : MailUtils.X_KIM_DIENSTKENNUNG_KIM_MAIL;
 
-            MimeMessage resultMsg = new MimeMessage(Session.getInstance(new Properties()));
+            MimeMessage resultMsg = new MimeMessage(MailUtils.getDefaultSession());
             resultMsg.setContent(encryptedMsg, CMSUtils.SMIME_CONTENT_AUTH_ENVELOPED_TYPE);
             resultMsg.setDisposition(CMSUtils.SMIME_DISPOSITION);
             resultMsg.setHeader(MailUtils.DATE, date);
@@ -32,7 +32,6 @@ import org.springframework.stereotype.Component;
 
 import javax.mail.Address;
 import javax.mail.Message;
-import javax.mail.Session;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
@@ -40,7 +39,6 @@ import javax.mail.internet.MimeMultipart;
 import java.io.ByteArrayOutputStream;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Properties;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
@@ -86,7 +84,7 @@ public class CreateEmbeddedMessageRfc822Operation implements IPipelineOperation
 
                 List<EnumErrorCode> codes = ((MailDecryptErrorContext) errorContext).getErrorCodes();
 
-                mimeMessage = new MimeMessage(Session.getInstance(new Properties()));
+                mimeMessage = new MimeMessage(MailUtils.getDefaultSession());
                 mimeMessage.setSubject("Beim Entschlüsseln ist ein Fehler aufgetreten. Die Gründe werden aufgeführt.");
 
                 MimeMultipart mixedMultiPart = new MimeMultipart();
@@ -42,7 +42,6 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import javax.mail.Session;
 import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
 import javax.mail.internet.MimePart;
@@ -51,8 +50,6 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
-import java.util.Properties;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
@@ -326,8 +323,7 @@ public class DecryptVerifyMailOperation implements IPipelineOperation  {
                 //extracted decrypted and verified message
                 byte[] preHeader = "Content-Type: message/rfc822\r\n\r\n".getBytes(StandardCharsets.UTF_8);
                 int preHeaderLength = preHeader.length;
-                byte[] signedContentPayload = Arrays.copyOfRange(signedContent, preHeaderLength, signedContent.length);
-                MimeMessage decryptedAndVerifiedMessage = new MimeMessage(Session.getInstance(new Properties()), new ByteArrayInputStream(signedContentPayload));
+                MimeMessage decryptedAndVerifiedMessage = MailUtils.parseMimeMessage(signedContent, preHeaderLength, signedContent.length - preHeaderLength);
 
                 MailUtils.checkHeader(logger, konnektor, encryptedMsg, decryptedAndVerifiedMessage, MailUtils.FROM);
                 MailUtils.checkHeader(logger, konnektor, encryptedMsg, decryptedAndVerifiedMessage, MailUtils.SENDER);
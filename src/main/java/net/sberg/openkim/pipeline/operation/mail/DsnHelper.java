@@ -22,14 +22,12 @@ import com.sun.mail.dsn.MultipartReport;
 import javax.mail.Address;
 import javax.mail.Message;
 import javax.mail.MessagingException;
-import javax.mail.Session;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.InternetHeaders;
 import javax.mail.internet.MimeMessage;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.Date;
-import java.util.Properties;
 
 public class DsnHelper {
 
@@ -50,7 +48,7 @@ public class DsnHelper {
         deliveryStatus.setMessageDSN(create(originalMail, statusCode, diagnosticCode, action, reportingMTA, receivedFromMTA));
 
         MultipartReport multipartReport = new MultipartReport(errorMsg, deliveryStatus, internetHeaders);
-        MimeMessage mimeMessage = new MimeMessage(Session.getInstance(new Properties()));
+        MimeMessage mimeMessage = new MimeMessage(MailUtils.getDefaultSession());
         mimeMessage.setSubject(subject);
         mimeMessage.setFrom(sender);
         mimeMessage.setRecipient(Message.RecipientType.TO, new InternetAddress(sender));
@@ -24,6 +24,8 @@ import net.sberg.openkim.common.metrics.DefaultMetricFactory;
 import net.sberg.openkim.common.x509.CMSUtils;
 import net.sberg.openkim.common.x509.X509CertificateResult;
 import net.sberg.openkim.konnektor.*;
+import net.sberg.openkim.konnektor.admission.KonnektorAdmission;
+import net.sberg.openkim.konnektor.admission.KonnektorAdmissionService;
 import net.sberg.openkim.log.DefaultLogger;
 import net.sberg.openkim.pipeline.PipelineOperation;
 import net.sberg.openkim.pipeline.operation.DefaultPipelineOperationContext;
@@ -36,6 +38,7 @@ import org.apache.commons.codec.binary.Base64;
 import org.apache.james.metrics.api.TimeMetric;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.util.Iterator;
@@ -53,6 +56,11 @@ public class EncryptMailOperation implements IPipelineOperation  {
     public static final String ENV_SIGNED_MAIL = "signedMail";
     public static final String ENV_VZD_CERTS = "vzdCerts";
     public static final String ENV_ENCRYPT_DOCUMENT_RESPONSE = "encryptDocumentResponse";
+    //set instead of the encrypt document response if the konnektor uses the local encryption
+    public static final String ENV_ENCRYPTED_MSG = "encryptedMsg";
+
+    @Autowired
+    private KonnektorAdmissionService konnektorAdmissionService;
 
     @Override
     public String getName() {
@@ -62,6 +70,10 @@ public class EncryptMailOperation implements IPipelineOperation  {
     @Override
     public Consumer<DefaultPipelineOperationContext> getDefaultOkConsumer() {
         return context -> {
+            if (context.hasEnvironmentValue(NAME, ENV_ENCRYPTED_MSG)) {
+                context.getLogger().logLine("Dokument lokal Verschlüsselt Base64 = " + Base64.encodeBase64String((byte[]) context.getEnvironmentValue(NAME, ENV_ENCRYPTED_MSG)));
+                return;
+            }
             EncryptDocumentResponse encryptDocumentResponse = (EncryptDocumentResponse) context.getEnvironmentValue(NAME, ENV_ENCRYPT_DOCUMENT_RESPONSE);
             context.getLogger().logLine("Status = " + encryptDocumentResponse.getStatus().getResult());
             context.getLogger().logLine("Dokument Verschlüsselt Plain = " + new String(encryptDocumentResponse.getDocument().getBase64Data().getValue()));
@@ -78,6 +90,18 @@ public class EncryptMailOperation implements IPipelineOperation  {
 
         try {
 
+            if (konnektor.isLocalEncryptionEnabled()) {
+                DefaultMetricFactory metricFactory = new DefaultMetricFactory(logger);
+                timeMetric = metricFactory.timer(NAME + ":local");
+                List<X509CertificateResult> x509CertificateResults = (List<X509CertificateResult>) defaultPipelineOperationContext.getEnvironmentValue(NAME, ENV_VZD_CERTS);
+                byte[] encryptedMsg = CMSUtils.encryptAuthEnveloped((byte[]) defaultPipelineOperationContext.getEnvironmentValue(NAME, ENV_SIGNED_MAIL), x509CertificateResults, konnektor);
+                defaultPipelineOperationContext.setEnvironmentValue(NAME, ENV_ENCRYPTED_MSG, encryptedMsg);
+                timeMetric.stopAndPublish();
+
+                okConsumer.accept(defaultPipelineOperationContext);
+                return;
+            }
+
             KonnektorServiceBean konnektorServiceBean = konnektor.extractKonnektorServiceBean(EnumKonnektorServiceBeanType.EncryptionService, true);
             String packageName = konnektorServiceBean.createClassPackageName();
 
@@ -155,7 +179,10 @@ public class EncryptMailOperation implements IPipelineOperation  {
                 encryptDocument.setRecipientKeys(recipientKeys);
 
                 timeMetric = metricFactory.timer(NAME);
-                EncryptDocumentResponse encryptDocumentResponse = (EncryptDocumentResponse) webserviceConnector.getSoapResponse(encryptDocument);
+                EncryptDocumentResponse encryptDocumentResponse;
+                try (KonnektorAdmission konnektorAdmission = konnektorAdmissionService.acquire(logger)) {
+                    encryptDocumentResponse = (EncryptDocumentResponse) webserviceConnector.getSoapResponse(encryptDocument);
+                }
                 defaultPipelineOperationContext.setEnvironmentValue(NAME, ENV_ENCRYPT_DOCUMENT_RESPONSE, encryptDocumentResponse);
                 timeMetric.stopAndPublish();
 
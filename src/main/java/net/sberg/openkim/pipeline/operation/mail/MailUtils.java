@@ -19,13 +19,17 @@ package net.sberg.openkim.pipeline.operation.mail;
 import com.sun.mail.util.MailSSLSocketFactory;
 import net.sberg.openkim.common.EnumMailAuthMethod;
 import net.sberg.openkim.common.EnumMailConnectionSecurity;
+import net.sberg.openkim.common.ICommonConstants;
 import net.sberg.openkim.common.x509.X509CertificateResult;
+import net.sberg.openkim.konfiguration.Konfiguration;
 import net.sberg.openkim.konnektor.Konnektor;
 import net.sberg.openkim.log.DefaultLogger;
 import net.sberg.openkim.log.error.EnumErrorCode;
 import net.sberg.openkim.log.error.MailaddressCertErrorContext;
 import net.sberg.openkim.log.error.MailaddressKimVersionErrorContext;
 import net.sberg.openkim.log.error.MailaddressRcptToErrorContext;
+import org.apache.http.ssl.SSLContextBuilder;
+import org.apache.http.ssl.TrustStrategy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,9 +38,13 @@ import javax.mail.Message;
 import javax.mail.Session;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeMessage;
+import javax.mail.util.SharedByteArrayInputStream;
 import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
 import java.io.*;
 import java.security.KeyStore;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 
@@ -71,6 +79,23 @@ public class MailUtils {
 
     public static final DateTimeFormatter RFC822_DATE_FORMAT = DateTimeFormatter.ofPattern("EEE, d MMM yyyy HH:mm:ss Z", Locale.GERMAN);
 
+    private static final Session DEFAULT_SESSION = Session.getInstance(new Properties());
+
+    /**
+     * Session without properties, shared to avoid loading the providers for every message.
+     */
+    public static final Session getDefaultSession() {
+        return DEFAULT_SESSION;
+    }
+
+    /**
+     * Parses the message without copying the bytes. The parts are views on the given bytes and are decoded on access,
+     * parts that are not modified are written by writeTo as their original bytes.
+     */
+    public static final MimeMessage parseMimeMessage(byte[] msg, int offset, int length) throws Exception {
+        return new MimeMessage(DEFAULT_SESSION, new SharedByteArrayInputStream(msg, offset, length));
+    }
+
     public static final MimeMessage createMimeMessage(Session session, InputStream inputStream, boolean updateMessageID) throws Exception {
         if (updateMessageID) {
             return new MimeMessage(session, inputStream);
@@ -337,6 +362,26 @@ public class MailUtils {
         return result;
     }
 
+    /**
+     * SSL context for the smtp connections to the fachdienst in the fullstack mode:
+     * authenticates with the client certificate of the fachdienst and trusts every server certificate.
+     */
+    public static final SSLContext createFachdienstSslContext(Konfiguration konfiguration) throws Exception {
+        String certfileName = ICommonConstants.BASE_DIR + File.separator + konfiguration.getFachdienstCertFilename();
+        char[] passCharArray = konfiguration.getFachdienstCertAuthPwd().toCharArray();
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (FileInputStream fileInputStream = new FileInputStream(certfileName)) {
+            keyStore.load(fileInputStream, passCharArray);
+        }
+
+        return new SSLContextBuilder().loadKeyMaterial(keyStore, passCharArray).loadTrustMaterial(new TrustStrategy() {
+            @Override
+            public boolean isTrusted(X509Certificate[] x509Certificates, String s) throws CertificateException {
+                return true;
+            }
+        }).build();
+    }
+
     public static final Session createPop3ClientSession(
         Properties props,
         EnumMailConnectionSecurity connectionSecurity,
@@ -45,6 +45,7 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
@@ -183,6 +184,7 @@ public class SignEncryptMailOperation implements IPipelineOperation  {
                 defaultPipelineOperationContext.setEnvironmentValue(SignMailOperation.NAME, SignMailOperation.ENV_VZD_CERTS, recipientSenderCerts);
 
                 AtomicInteger failedCounter = new AtomicInteger();
+                AtomicReference<Exception> signException = new AtomicReference<>();
                 signMailOperation.execute(
                     defaultPipelineOperationContext,
                     context -> {
@@ -191,6 +193,7 @@ public class SignEncryptMailOperation implements IPipelineOperation  {
                     (context, e) -> {
                         log.error("error on signing mail", e);
                         failedCounter.incrementAndGet();
+                        signException.set(e);
                     }
                 );
 
@@ -227,7 +230,7 @@ public class SignEncryptMailOperation implements IPipelineOperation  {
                         throw new IllegalStateException("error on signing mail");
                     }
                 } else {
-                    throw new IllegalStateException("error on signing mail");
+                    throw new IllegalStateException("error on signing mail", signException.get());
                 }
 
                 //encrypting mail
@@ -235,6 +238,7 @@ public class SignEncryptMailOperation implements IPipelineOperation  {
                 defaultPipelineOperationContext.setEnvironmentValue(EncryptMailOperation.NAME, EncryptMailOperation.ENV_VZD_CERTS, recipientSenderCerts);
 
                 AtomicInteger encryptFailedCounter = new AtomicInteger();
+                AtomicReference<Exception> encryptException = new AtomicReference<>();
                 encryptMailOperation.execute(
                     defaultPipelineOperationContext,
                     context -> {
@@ -243,11 +247,14 @@ public class SignEncryptMailOperation implements IPipelineOperation  {
                     (context, e) -> {
                         log.error("error on encrypting mail", e);
                         encryptFailedCounter.incrementAndGet();
+                        encryptException.set(e);
                     }
                 );
 
                 byte[] encryptedMsg = null;
-                if (encryptFailedCounter.get() == 0) {
+                if (encryptFailedCounter.get() == 0 && defaultPipelineOperationContext.hasEnvironmentValue(EncryptMailOperation.NAME, EncryptMailOperation.ENV_ENCRYPTED_MSG)) {
+                    encryptedMsg = (byte[]) defaultPipelineOperationContext.getEnvironmentValue(EncryptMailOperation.NAME, EncryptMailOperation.ENV_ENCRYPTED_MSG);
+                } else if (encryptFailedCounter.get() == 0) {
                     EncryptDocumentResponse encryptDocumentResponse = (EncryptDocumentResponse) defaultPipelineOperationContext.getEnvironmentValue(EncryptMailOperation.NAME, EncryptMailOperation.ENV_ENCRYPT_DOCUMENT_RESPONSE);
                     if (!encryptDocumentResponse.getStatus().getResult().equals("OK")) {
                         throw new IllegalStateException("encrypt response not ok for the konnektor: " + konnektor.getIp() + " - " + encryptDocumentResponse.getStatus().getError().getTrace().get(0).getErrorText() + " - " + encryptDocumentResponse.getStatus().getError().getTrace().get(0).getDetail().getValue());
@@ -265,7 +272,7 @@ public class SignEncryptMailOperation implements IPipelineOperation  {
                         throw new IllegalStateException("error on encrypting mail");
                     }
                 } else {
-                    throw new IllegalStateException("error on encrypting mail");
+                    throw new IllegalStateException("error on encrypting mail", encryptException.get());
                 }
 
                 //compose encrypting mail
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.pipeline.operation.mail;
+
+import de.gematik.ws.conn.signatureservice.v7.SignRequest;
+import de.gematik.ws.conn.signatureservice.v7.SignResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sign requests of concurrent sessions for the same konnektor, context and card handle, sent in one SignDocument call.
+ */
+public class SignMailBatch {
+
+    private final List<SignRequest> signRequests = new ArrayList<>();
+    private final List<CompletableFuture<SignResponse>> futures = new ArrayList<>();
+    private final CountDownLatch closedLatch = new CountDownLatch(1);
+
+    public synchronized CompletableFuture<SignResponse> add(SignRequest signRequest) {
+        CompletableFuture<SignResponse> future = new CompletableFuture<>();
+        signRequests.add(signRequest);
+        futures.add(future);
+        return future;
+    }
+
+    public synchronized int size() {
+        return signRequests.size();
+    }
+
+    public void close() {
+        closedLatch.countDown();
+    }
+
+    /**
+     * Waits until the batch is closed, it is full or the sign calls of the key are finished, or the window elapsed.
+     */
+    public void await(int windowInMillis) throws InterruptedException {
+        closedLatch.await(windowInMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized List<SignRequest> getSignRequests() {
+        return new ArrayList<>(signRequests);
+    }
+
+    public synchronized List<CompletableFuture<SignResponse>> getFutures() {
+        return new ArrayList<>(futures);
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.pipeline.operation.mail;
+
+import de.gematik.ws.conn.signatureservice.v7.SignDocumentResponse;
+import de.gematik.ws.conn.signatureservice.v7.SignRequest;
+import de.gematik.ws.conn.signatureservice.v7.SignResponse;
+import net.sberg.openkim.konnektor.admission.KonnektorAdmissionException;
+import net.sberg.openkim.log.DefaultLogger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Coalesces the sign requests of concurrent sessions into one GetJobNumber and SignDocument call.
+ * A request is sent at once if no SignDocument call of its key is running. Requests arriving while a call is running
+ * are collected and sent together as soon as the running calls are finished, the batch is full or the window elapsed.
+ * The first session of a batch sends it and hands the sign responses back to the other sessions.
+ */
+@Service
+public class SignMailBatchService {
+
+    private static final Logger log = LoggerFactory.getLogger(SignMailBatchService.class);
+
+    public static final String REQUEST_ID = "KimSignRequest";
+
+    public interface ISignDocumentExecutor {
+        /**
+         * @param signRequests the requests of one session, or of several sessions if more than one.
+         *                     Requests of several sessions must not be logged in the log of one session.
+         */
+        SignDocumentResponse execute(List<SignRequest> signRequests) throws Exception;
+    }
+
+    private static class SignMailBatchFailedException extends Exception {
+        public SignMailBatchFailedException(Throwable cause) {
+            super(cause);
+        }
+    }
+
+    private final Map<String, SignMailBatch> openBatches = new HashMap<>();
+    private final Map<String, Integer> runningCalls = new HashMap<>();
+
+    /**
+     * @param key      konnektor, signature service, context and card handle, all requests of a batch must be sendable in one call
+     * @param executor sends a SignDocument call with the connector of the calling session
+     * @param logger   log of the calling session, gets a summary of its own request
+     */
+    public SignResponse sign(String key, SignRequest signRequest, int windowInMillis, int maxSize, DefaultLogger logger, ISignDocumentExecutor executor) throws Exception {
+        SignMailBatch batch;
+        CompletableFuture<SignResponse> future;
+        boolean leader = false;
+        boolean idle = false;
+        synchronized (openBatches) {
+            batch = openBatches.get(key);
+            if (batch == null) {
+                batch = new SignMailBatch();
+                leader = true;
+                idle = !runningCalls.containsKey(key);
+                if (idle) {
+                    //nothing to wait for, the call is counted at once so that the next requests are collected
+                    runningCalls.put(key, 1);
+                    batch.close();
+                } else {
+                    openBatches.put(key, batch);
+                }
+            }
+            future = batch.add(signRequest);
+            if (batch.size() >= maxSize) {
+                openBatches.remove(key, batch);
+                batch.close();
+            }
+        }
+
+        if (leader) {
+            try {
+                if (!idle) {
+                    try {
+                        batch.await(windowInMillis);
+                    } catch (InterruptedException e) {
+                        //the batch is sent anyway, the other sessions wait for it
+                        Thread.currentThread().interrupt();
+                    }
+                    synchronized (openBatches) {
+                        openBatches.remove(key, batch);
+                        runningCalls.merge(key, 1, Integer::sum);
+                    }
+                }
+                execute(batch, executor);
+            } finally {
+                synchronized (openBatches) {
+                    if (runningCalls.merge(key, -1, Integer::sum) == 0) {
+                        runningCalls.remove(key);
+                        //the collected batch is sent at once
+                        SignMailBatch openBatch = openBatches.remove(key);
+                        if (openBatch != null) {
+                            openBatch.close();
+                        }
+                    }
+                }
+            }
+        }
+
+        SignResponse signResponse;
+        try {
+            signResponse = future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SignMailBatchFailedException) {
+                //the whole call failed, sign alone so that one broken request does not fail the others
+                log.warn("sign batch failed, signing alone: " + key, e.getCause().getCause());
+                logger.logLine("SignDocument - Sammelaufruf fehlgeschlagen, Einzelaufruf: " + e.getCause().getCause().getMessage());
+                signRequest.setRequestID(REQUEST_ID);
+                return extract(executor.execute(List.of(signRequest)), REQUEST_ID, 0);
+            }
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+        int batchSize = batch.size();
+        if (batchSize > 1) {
+            logger.logLine("SignDocument - Sammelaufruf mit " + batchSize + " Anfragen - RequestID = " + signRequest.getRequestID()
+                + " - Status = " + (signResponse.getStatus() != null ? signResponse.getStatus().getResult() : "unbekannt"));
+        }
+        return signResponse;
+    }
+
+    private void execute(SignMailBatch batch, ISignDocumentExecutor executor) {
+        List<SignRequest> signRequests = batch.getSignRequests();
+        List<CompletableFuture<SignResponse>> futures = batch.getFutures();
+        for (int i = 0; i < signRequests.size(); i++) {
+            signRequests.get(i).setRequestID(signRequests.size() == 1 ? REQUEST_ID : REQUEST_ID + (i + 1));
+        }
+
+        SignDocumentResponse signDocumentResponse;
+        try {
+            signDocumentResponse = executor.execute(signRequests);
+            log.info("sign batch with " + signRequests.size() + " requests executed");
+        } catch (Exception e) {
+            //a busy konnektor is not relieved by signing alone
+            boolean signAlone = signRequests.size() > 1 && !KonnektorAdmissionException.isCause(e);
+            for (CompletableFuture<SignResponse> future : futures) {
+                future.completeExceptionally(signAlone ? new SignMailBatchFailedException(e) : e);
+            }
+            return;
+        }
+
+        for (int i = 0; i < signRequests.size(); i++) {
+            try {
+                futures.get(i).complete(extract(signDocumentResponse, signRequests.get(i).getRequestID(), i));
+            } catch (Exception e) {
+                futures.get(i).completeExceptionally(e);
+            }
+        }
+    }
+
+    private SignResponse extract(SignDocumentResponse signDocumentResponse, String requestId, int idx) {
+        for (SignResponse signResponse : signDocumentResponse.getSignResponse()) {
+            if (requestId.equals(signResponse.getRequestID())) {
+                return signResponse;
+            }
+        }
+        //konnektoren without request ids answer in the order of the requests
+        if (idx < signDocumentResponse.getSignResponse().size() && signDocumentResponse.getSignResponse().get(idx).getRequestID() == null) {
+            return signDocumentResponse.getSignResponse().get(idx);
+        }
+        throw new IllegalStateException("no sign response for the request: " + requestId);
+    }
+}
@@ -23,7 +23,10 @@ import de.gematik.ws.conn.signatureservice.v7.*;
 import net.sberg.openkim.common.metrics.DefaultMetricFactory;
 import net.sberg.openkim.common.x509.CMSUtils;
 import net.sberg.openkim.common.x509.X509CertificateResult;
+import net.sberg.openkim.konfiguration.Konfiguration;
 import net.sberg.openkim.konnektor.*;
+import net.sberg.openkim.konnektor.admission.KonnektorAdmission;
+import net.sberg.openkim.konnektor.admission.KonnektorAdmissionService;
 import net.sberg.openkim.log.DefaultLogger;
 import net.sberg.openkim.pipeline.PipelineOperation;
 import net.sberg.openkim.pipeline.operation.DefaultPipelineOperationContext;
@@ -41,6 +44,7 @@ import javax.mail.internet.MimeMessage;
 import java.io.ByteArrayOutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
@@ -58,6 +62,10 @@ public class SignMailOperation implements IPipelineOperation  {
 
     @Autowired
     private GetJobNumberOperation getJobNumberOperation;
+    @Autowired
+    private SignMailBatchService signMailBatchService;
+    @Autowired
+    private KonnektorAdmissionService konnektorAdmissionService;
 
     @Override
     public String getName() {
@@ -92,14 +100,6 @@ public class SignMailOperation implements IPipelineOperation  {
 
             DefaultMetricFactory metricFactory = new DefaultMetricFactory(logger);
 
-            WebserviceConnector webserviceConnector = KonnektorWebserviceUtils.createConnector(
-                    konnektor,
-                    packageName,
-                    konnektorServiceBean,
-                    konnektorServiceBean.createSoapAction("SignDocument"),
-                    logger
-            );
-
             String cardHandle = (String)defaultPipelineOperationContext.getEnvironmentValue(NAME, ENV_CARDHANDLE);
             MimeMessage mimeMessage = (MimeMessage)defaultPipelineOperationContext.getEnvironmentValue(NAME, ENV_MIMEMESSAGE);
             List<X509CertificateResult> x509CertificateResults = (List<X509CertificateResult>) defaultPipelineOperationContext.getEnvironmentValue(NAME, ENV_VZD_CERTS);
@@ -161,39 +161,51 @@ public class SignMailOperation implements IPipelineOperation  {
                 SignRequest signRequest = new SignRequest();
                 signRequest.setOptionalInputs(optionalInputs);
                 signRequest.setDocument(documentType);
-                signRequest.setRequestID("KimSignRequest");
+                signRequest.setRequestID(SignMailBatchService.REQUEST_ID);
                 signRequest.setIncludeRevocationInfo(false);
 
                 timeMetric = metricFactory.timer(NAME);
 
-                //job number
-                getJobNumberOperation.execute(
-                    defaultPipelineOperationContext,
-                    context -> {
-                        try {
-                            GetJobNumberResponse getJobNumberResponse = (GetJobNumberResponse) defaultPipelineOperationContext.getEnvironmentValue(GetJobNumberOperation.NAME, GetJobNumberOperation.ENV_GET_JOB_NUMBER_RESPONSE);
-                            String jobNumber = getJobNumberResponse.getJobNumber();
-                            signDocument.setJobNumber(jobNumber);
-                            signDocument.getSignRequest().add(signRequest);
-                            signDocument.setContext(contextType);
-                            signDocument.setCardHandle(cardHandle);
-                            signDocument.setTvMode("NONE");
-
-                            SignDocumentResponse signDocumentResponse = (SignDocumentResponse) webserviceConnector.getSoapResponse(signDocument);
-                            defaultPipelineOperationContext.setEnvironmentValue(NAME, ENV_SIGN_DOCUMENT_RESPONSE, signDocumentResponse);
-                        }
-                        catch (Exception e) {
-                            defaultPipelineOperationContext.setEnvironmentValue(getJobNumberOperation.getName(), ENV_EXCEPTION, e);
-                        }
-                    },
-                    (context, e) -> {
-                        defaultPipelineOperationContext.setEnvironmentValue(getJobNumberOperation.getName(), ENV_EXCEPTION, e);
+                SignMailBatchService.ISignDocumentExecutor signDocumentExecutor = signRequests -> {
+                    if (signRequests.size() == 1) {
+                        return signDocument(defaultPipelineOperationContext, konnektorServiceBean, contextType, cardHandle, signRequests);
+                    }
+                    //the requests of other sessions are not written to the log of this session, each session logs a summary of its own request
+                    DefaultLogger batchLogger = new DefaultLogger();
+                    batchLogger.setDefaultLoggerContext(logger.getDefaultLoggerContext().copy().buildLogSoap(false));
+                    return signDocument(new DefaultPipelineOperationContext(batchLogger), konnektorServiceBean, contextType, cardHandle, signRequests);
+                };
+                Konfiguration konfiguration = logger.getDefaultLoggerContext().getKonfiguration();
+                try {
+                    SignDocumentResponse signDocumentResponse;
+                    if (konfiguration.getSignBatchWindowInMillis() > 0 && konfiguration.getSignBatchMaxSize() > 1) {
+                        String batchKey = konnektor.getUuid()
+                            + "#" + konnektorServiceBean.getEndpointTls()
+                            + "#" + contextType.getMandantId() + "#" + contextType.getClientSystemId() + "#" + contextType.getWorkplaceId()
+                            + "#" + cardHandle;
+                        SignResponse signResponse = signMailBatchService.sign(
+                            batchKey,
+                            signRequest,
+                            konfiguration.getSignBatchWindowInMillis(),
+                            konfiguration.getSignBatchMaxSize(),
+                            logger,
+                            signDocumentExecutor
+                        );
+                        signDocumentResponse = new SignDocumentResponse();
+                        signDocumentResponse.getSignResponse().add(signResponse);
                     }
-                );
+                    else {
+                        signDocumentResponse = signDocumentExecutor.execute(List.of(signRequest));
+                    }
+                    defaultPipelineOperationContext.setEnvironmentValue(NAME, ENV_SIGN_DOCUMENT_RESPONSE, signDocumentResponse);
+                }
+                catch (Exception e) {
+                    defaultPipelineOperationContext.setEnvironmentValue(NAME, ENV_EXCEPTION, e);
+                }
 
                 timeMetric.stopAndPublish();
                 if (hasError(defaultPipelineOperationContext, new String[] {NAME,getJobNumberOperation.getName()})) {
-                    failConsumer.accept(defaultPipelineOperationContext, new IllegalStateException("failed state"));
+                    failConsumer.accept(defaultPipelineOperationContext, new IllegalStateException("failed state", (Exception) defaultPipelineOperationContext.getEnvironmentValue(NAME, ENV_EXCEPTION)));
                 }
                 else {
                     okConsumer.accept(defaultPipelineOperationContext);
@@ -207,4 +219,45 @@ public class SignMailOperation implements IPipelineOperation  {
             failConsumer.accept(defaultPipelineOperationContext, e);
         }
     }
+
+    private SignDocumentResponse signDocument(DefaultPipelineOperationContext defaultPipelineOperationContext, KonnektorServiceBean konnektorServiceBean, ContextType contextType, String cardHandle, List<SignRequest> signRequests) throws Exception {
+        DefaultLogger logger = defaultPipelineOperationContext.getLogger();
+        WebserviceConnector webserviceConnector = KonnektorWebserviceUtils.createConnector(
+                logger.getDefaultLoggerContext().getKonnektor(),
+                konnektorServiceBean.createClassPackageName(),
+                konnektorServiceBean,
+                konnektorServiceBean.createSoapAction("SignDocument"),
+                logger
+        );
+        AtomicReference<SignDocumentResponse> result = new AtomicReference<>();
+        AtomicReference<Exception> exception = new AtomicReference<>();
+        getJobNumberOperation.execute(
+            defaultPipelineOperationContext,
+            context -> {
+                try {
+                    GetJobNumberResponse getJobNumberResponse = (GetJobNumberResponse) defaultPipelineOperationContext.getEnvironmentValue(GetJobNumberOperation.NAME, GetJobNumberOperation.ENV_GET_JOB_NUMBER_RESPONSE);
+                    SignDocument signDocument = new SignDocument();
+                    signDocument.setJobNumber(getJobNumberResponse.getJobNumber());
+                    signDocument.getSignRequest().addAll(signRequests);
+                    signDocument.setContext(contextType);
+                    signDocument.setCardHandle(cardHandle);
+                    signDocument.setTvMode("NONE");
+
+                    try (KonnektorAdmission konnektorAdmission = konnektorAdmissionService.acquire(logger)) {
+                        result.set((SignDocumentResponse) webserviceConnector.getSoapResponse(signDocument));
+                    }
+                }
+                catch (Exception e) {
+                    exception.set(e);
+                }
+            },
+            (context, e) -> {
+                exception.set(e);
+            }
+        );
+        if (exception.get() != null) {
+            throw exception.get();
+        }
+        return result.get();
+    }
 }
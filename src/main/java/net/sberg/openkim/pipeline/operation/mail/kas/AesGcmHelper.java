@@ -18,7 +18,6 @@ package net.sberg.openkim.pipeline.operation.mail.kas;
 
 import org.bouncycastle.crypto.engines.AESEngine;
 import org.bouncycastle.crypto.io.CipherInputStream;
-import org.bouncycastle.crypto.io.CipherOutputStream;
 import org.bouncycastle.crypto.modes.GCMBlockCipher;
 import org.bouncycastle.crypto.params.AEADParameters;
 import org.bouncycastle.crypto.params.KeyParameter;
@@ -27,6 +26,7 @@ import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
@@ -41,8 +41,24 @@ public class AesGcmHelper {
     public static final int IV_LENGTH_BYTE = 12;
     public static final int AES_KEY_BIT = 256;
 
+    //bouncycastle is inserted as first provider (AppConfig), the jce cipher is requested explicitly
+    private static final String JCE_PROVIDER = "SunJCE";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    //the jce cipher returns the plain text of a decryption not before the tag is verified and holds the whole cipher text in memory until then,
+    //larger contents are decrypted by the bouncycastle cipher with constant memory (the output is written before the tag is verified
+    //and the caller discards it on the exception thrown at the end)
+    private static final long JCE_DECRYPT_MAX_SIZE = 64L * 1024 * 1024;
+
     public static final Charset UTF_8 = StandardCharsets.UTF_8;
 
+    /**
+     * @return the aes-gcm cipher of the jce, which uses the aes and clmul intrinsics of the jvm
+     */
+    public static Cipher createCipher() throws Exception {
+        return Cipher.getInstance(ENCRYPT_ALGO, JCE_PROVIDER);
+    }
+
     public static byte[] getRandomNonce(int numBytes) {
         byte[] nonce = new byte[numBytes];
         new SecureRandom().nextBytes(nonce);
@@ -58,33 +74,26 @@ public class AesGcmHelper {
     }
 
     public static void encryptWithStream(File output, File input, SecretKey secret, byte[] iv, boolean withPrefix) throws Exception {
-        FileOutputStream outputStream = new FileOutputStream(output);
-        if (withPrefix) {
-            outputStream.write(iv);
-        }
-
-        final GCMBlockCipher cipher = new GCMBlockCipher(new AESEngine());
-        cipher.init(true, new AEADParameters(new KeyParameter(secret.getEncoded()), TAG_LENGTH_BIT, iv));
-
-        try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(input))) {
-            try (BufferedOutputStream out = new BufferedOutputStream(new CipherOutputStream(outputStream, cipher))) {
-                int length = 0;
-                byte[] bytes = new byte[16 * 1024];
+        encryptWithStreamJce(output, input, secret, iv, withPrefix);
+    }
 
-                while ((length = in.read(bytes)) != -1) {
-                    out.write(bytes, 0, length);
-                }
+    //jce cipher: uses the aes and clmul intrinsics of the jvm, same wire format as the bouncycastle cipher
+    static void encryptWithStreamJce(File output, File input, SecretKey secret, byte[] iv, boolean withPrefix) throws Exception {
+        Cipher cipher = createCipher();
+        cipher.init(Cipher.ENCRYPT_MODE, toAesKey(secret), new GCMParameterSpec(TAG_LENGTH_BIT, iv));
 
-                in.close();
-                out.close();
+        try (InputStream in = new FileInputStream(input); OutputStream out = new FileOutputStream(output)) {
+            if (withPrefix) {
+                out.write(iv);
             }
+            transform(cipher, in, out);
         }
     }
 
     // AES-GCM needs GCMParameterSpec
     public static byte[] encrypt(byte[] pText, SecretKey secret, byte[] iv) throws Exception {
-        Cipher cipher = Cipher.getInstance(ENCRYPT_ALGO);
-        cipher.init(Cipher.ENCRYPT_MODE, secret, new GCMParameterSpec(TAG_LENGTH_BIT, iv));
+        Cipher cipher = createCipher();
+        cipher.init(Cipher.ENCRYPT_MODE, toAesKey(secret), new GCMParameterSpec(TAG_LENGTH_BIT, iv));
         byte[] encryptedText = cipher.doFinal(pText);
         return encryptedText;
     }
@@ -105,10 +114,34 @@ public class AesGcmHelper {
         FileInputStream fileInputStream = new FileInputStream(input);
         byte[] iv = new byte[IV_LENGTH_BYTE];
         fileInputStream.read(iv);
-        decryptWithStream(output, fileInputStream, secret, iv);
+        if (input.length() <= JCE_DECRYPT_MAX_SIZE) {
+            decryptWithStreamJce(output, fileInputStream, secret, iv);
+        }
+        else {
+            decryptWithStreamBc(output, fileInputStream, secret, iv);
+        }
     }
 
     public static void decryptWithStream(File output, FileInputStream fileInputStream, SecretKey secret, byte[] iv) throws Exception {
+        if (fileInputStream.getChannel().size() <= JCE_DECRYPT_MAX_SIZE) {
+            decryptWithStreamJce(output, fileInputStream, secret, iv);
+        }
+        else {
+            decryptWithStreamBc(output, fileInputStream, secret, iv);
+        }
+    }
+
+    //the jce cipher buffers the cipher text until the tag is verified
+    static void decryptWithStreamJce(File output, FileInputStream fileInputStream, SecretKey secret, byte[] iv) throws Exception {
+        Cipher cipher = createCipher();
+        cipher.init(Cipher.DECRYPT_MODE, toAesKey(secret), new GCMParameterSpec(TAG_LENGTH_BIT, iv));
+
+        try (InputStream in = fileInputStream; OutputStream out = new FileOutputStream(output)) {
+            transform(cipher, in, out);
+        }
+    }
+
+    static void decryptWithStreamBc(File output, FileInputStream fileInputStream, SecretKey secret, byte[] iv) throws Exception {
         final GCMBlockCipher cipher = new GCMBlockCipher(new AESEngine());
         cipher.init(false, new AEADParameters(new KeyParameter(secret.getEncoded()), TAG_LENGTH_BIT, iv));
 
@@ -127,9 +160,25 @@ public class AesGcmHelper {
         }
     }
 
+    private static void transform(Cipher cipher, InputStream in, OutputStream out) throws Exception {
+        byte[] bytes = new byte[BUFFER_SIZE];
+        byte[] result = new byte[cipher.getOutputSize(BUFFER_SIZE)];
+        int length = 0;
+        while ((length = in.read(bytes)) != -1) {
+            int resultLength = cipher.update(bytes, 0, length, result);
+            out.write(result, 0, resultLength);
+        }
+        out.write(cipher.doFinal());
+    }
+
+    private static SecretKey toAesKey(SecretKey secret) {
+        //the kas keys are created with the algorithm name of the cipher
+        return "AES".equals(secret.getAlgorithm()) ? secret : new SecretKeySpec(secret.getEncoded(), "AES");
+    }
+
     public static String decrypt(byte[] cText, SecretKey secret, byte[] iv) throws Exception {
-        Cipher cipher = Cipher.getInstance(ENCRYPT_ALGO);
-        cipher.init(Cipher.DECRYPT_MODE, secret, new GCMParameterSpec(TAG_LENGTH_BIT, iv));
+        Cipher cipher = createCipher();
+        cipher.init(Cipher.DECRYPT_MODE, toAesKey(secret), new GCMParameterSpec(TAG_LENGTH_BIT, iv));
         byte[] plainText = cipher.doFinal(cText);
         return new String(plainText, UTF_8);
     }
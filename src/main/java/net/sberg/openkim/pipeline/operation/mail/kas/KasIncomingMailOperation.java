@@ -18,6 +18,9 @@ package net.sberg.openkim.pipeline.operation.mail.kas;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import net.sberg.openkim.common.FileUtils;
+import net.sberg.openkim.common.circuitbreaker.CircuitBreaker;
+import net.sberg.openkim.common.circuitbreaker.CircuitBreakerRegistry;
+import net.sberg.openkim.common.circuitbreaker.EnumCircuitBreakerEndpointType;
 import net.sberg.openkim.common.metrics.DefaultMetricFactory;
 import net.sberg.openkim.gateway.pop3.Pop3GatewaySession;
 import net.sberg.openkim.konnektor.Konnektor;
@@ -34,6 +37,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.stereotype.Component;
 
 import javax.crypto.SecretKey;
@@ -113,7 +117,28 @@ public class KasIncomingMailOperation implements IPipelineOperation {
                 String content = (String)mailPartContent.getContentPart();
                 KasMetaObj kasMetaObj = new ObjectMapper().readValue(content, KasMetaObj.class);
 
-                ResponseEntity<File> apiResult = logger.getDefaultLoggerContext().getFachdienst().getAttachmentsApi().readAttachmentWithHttpInfo(kasMetaObj.getLink(), pop3GatewaySession.getLogger().getDefaultLoggerContext().getMailServerUsername());
+                CircuitBreaker circuitBreaker = CircuitBreakerRegistry.get(
+                    logger.getDefaultLoggerContext().getKonfiguration(),
+                    EnumCircuitBreakerEndpointType.KAS,
+                    logger.getDefaultLoggerContext().getFachdienst().getKasIpAddress() + ":" + logger.getDefaultLoggerContext().getFachdienst().getKasPort()
+                );
+                circuitBreaker.acquire();
+                ResponseEntity<File> apiResult = null;
+                try {
+                    apiResult = logger.getDefaultLoggerContext().getFachdienst().getAttachmentsApi().readAttachmentWithHttpInfo(kasMetaObj.getLink(), pop3GatewaySession.getLogger().getDefaultLoggerContext().getMailServerUsername());
+                } catch (Exception e) {
+                    if (e instanceof HttpClientErrorException) {
+                        circuitBreaker.onSuccess();
+                    } else {
+                        circuitBreaker.onFailure(e);
+                    }
+                    throw e;
+                }
+                if (apiResult.getStatusCode().is5xxServerError()) {
+                    circuitBreaker.onFailure(new IllegalStateException("kas-service http status " + apiResult.getStatusCode()));
+                } else {
+                    circuitBreaker.onSuccess();
+                }
                 if (apiResult.getStatusCode().equals(HttpStatus.OK)) {
                     logger.logLine("read attachment from kas-service: " + kasMetaObj.getLink() + " ends");
                 }
@@ -19,6 +19,9 @@ package net.sberg.openkim.pipeline.operation.mail.kas;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import net.sberg.openkim.common.FileUtils;
 import net.sberg.openkim.common.StringUtils;
+import net.sberg.openkim.common.circuitbreaker.CircuitBreaker;
+import net.sberg.openkim.common.circuitbreaker.CircuitBreakerRegistry;
+import net.sberg.openkim.common.circuitbreaker.EnumCircuitBreakerEndpointType;
 import net.sberg.openkim.common.metrics.DefaultMetricFactory;
 import net.sberg.openkim.common.x509.X509CertificateResult;
 import net.sberg.openkim.gateway.smtp.SmtpGatewaySession;
@@ -35,15 +38,15 @@ import net.sberg.openkim.pipeline.operation.IPipelineOperation;
 import net.sberg.openkim.pipeline.operation.konnektor.vzd.EnumKomLeVersion;
 import net.sberg.openkim.pipeline.operation.konnektor.vzd.VzdResult;
 import net.sberg.openkim.pipeline.operation.mail.MailUtils;
-import net.sberg.openkim.pipeline.operation.mail.part.AnalyzeMailPartsOperation;
 import net.sberg.openkim.pipeline.operation.mail.part.EnumMailPartDispositionType;
-import net.sberg.openkim.pipeline.operation.mail.part.MailPartContent;
+import net.sberg.openkim.pipeline.operation.mail.part.MimeStructurePart;
+import net.sberg.openkim.pipeline.operation.mail.part.MimeStructureScanner;
 import org.apache.james.metrics.api.TimeMetric;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.stereotype.Component;
 
 import javax.crypto.SecretKey;
@@ -58,7 +61,6 @@ import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
@@ -74,9 +76,6 @@ public class KasOutgoingMailOperation implements IPipelineOperation {
     public static final String ENV_VALID_RESULT = "validResult";
     public static final String ENV_RESULT_MSG = "resultMsg";
 
-    @Autowired
-    private AnalyzeMailPartsOperation analyzeMailPartsOperation;
-
     @Override
     public String getName() {
         return NAME;
@@ -107,28 +106,17 @@ public class KasOutgoingMailOperation implements IPipelineOperation {
             MimeMessage mimeMessage = (MimeMessage)defaultPipelineOperationContext.getEnvironmentValue(NAME, ENV_MSG);
             SmtpGatewaySession smtpGatewaySession = (SmtpGatewaySession) defaultPipelineOperationContext.getEnvironmentValue(NAME, ENV_SMTP_GATEWAY_SESSION);
 
-            AtomicInteger errorCounter = new AtomicInteger();
-            defaultPipelineOperationContext.setEnvironmentValue(AnalyzeMailPartsOperation.NAME, AnalyzeMailPartsOperation.ENV_MSG, mimeMessage);
-            analyzeMailPartsOperation.execute(
-                defaultPipelineOperationContext,
-                context -> {
-                    logger.logLine("analyzing finished");
-                },
-                (context, e) -> {
-                    log.error("error on analyzing finished", e);
-                    errorCounter.incrementAndGet();
-                }
-            );
-
-            if (errorCounter.get() > 0) {
-                throw new IllegalStateException("error on analyzing mail");
-            }
-            MailPartContent mailPartContent = (MailPartContent) defaultPipelineOperationContext.getEnvironmentValue(AnalyzeMailPartsOperation.NAME, AnalyzeMailPartsOperation.ENV_RESULT);
+            //single pass over the message bytes, attachments are not decoded
+            MimeStructureScanner mimeStructureScanner = new MimeStructureScanner();
+            mimeMessage.writeTo(mimeStructureScanner);
+            mimeStructureScanner.close();
+            MimeStructurePart mimeStructure = mimeStructureScanner.getResult();
+            logger.logLine("analyzing finished");
 
-            double totalSize = mailPartContent.sumTotalSize();
+            long totalSize = mimeStructure.getDecodedLength();
             logger.logLine("total mailsize " + totalSize + " in Bytes");
 
-            if (totalSize > konfiguration.getMailSizeLimitInMB() * 1024 * 1024) {
+            if (totalSize > konfiguration.getMailSizeLimitInMB() * 1024L * 1024L) {
                 logger.logLine("kas used, mailsize > 15mb");
 
                 //check rcpts kim version >= 1.5+
@@ -181,8 +169,8 @@ public class KasOutgoingMailOperation implements IPipelineOperation {
                 }
 
                 //check attachments -> content-type text/plain; charset=utf-8 and content-disposition: x-kas
-                List<MailPartContent> xKasContent = new ArrayList<>();
-                mailPartContent.collectAllXKasParts(xKasContent);
+                List<MimeStructurePart> xKasContent = new ArrayList<>();
+                mimeStructure.collectAllXKasParts(xKasContent);
                 if (!xKasContent.isEmpty()) {
                     logger.logLine("mail contains x-kas attachments");
                     throw new KasServiceException(
@@ -245,8 +233,19 @@ public class KasOutgoingMailOperation implements IPipelineOperation {
 
                 //add attachment
                 ResponseEntity<de.gematik.kim.kas.model.AddAttachment201Response> apiResult = null;
+                CircuitBreaker circuitBreaker = CircuitBreakerRegistry.get(
+                    konfiguration,
+                    EnumCircuitBreakerEndpointType.KAS,
+                    logger.getDefaultLoggerContext().getFachdienst().getKasIpAddress() + ":" + logger.getDefaultLoggerContext().getFachdienst().getKasPort()
+                );
+                circuitBreaker.acquire();
                 try {
                     apiResult = logger.getDefaultLoggerContext().getFachdienst().getAttachmentsApi().addAttachmentWithHttpInfo(mimeMessage.getMessageID(), recipients, expires, messageFileInput);
+                    if (apiResult.getStatusCode().is5xxServerError()) {
+                        circuitBreaker.onFailure(new IllegalStateException("kas-service http status " + apiResult.getStatusCode()));
+                    } else {
+                        circuitBreaker.onSuccess();
+                    }
                     if (apiResult.getStatusCode().equals(HttpStatus.CREATED)) {
                         logger.logLine("send attachment to kas-service: " + messageFileInput.getAbsolutePath() + " ends");
                     } else if (apiResult.getStatusCode().equals(HttpStatus.BAD_REQUEST)) {
@@ -285,6 +284,11 @@ public class KasOutgoingMailOperation implements IPipelineOperation {
                     throw e;
                 }
                 catch (Exception e) {
+                    if (e instanceof HttpClientErrorException) {
+                        circuitBreaker.onSuccess();
+                    } else {
+                        circuitBreaker.onFailure(e);
+                    }
                     log.error("error on sending the attachment from the message: " + smtpGatewaySession.getSessionID() + " - " + messageFileInput.getAbsolutePath(), e);
                     logger.logLine("send attachment ends " + messageFileInput.getAbsolutePath() + " - error");
                     throw new KasServiceException(
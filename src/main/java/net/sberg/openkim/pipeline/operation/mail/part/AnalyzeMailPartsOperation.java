@@ -24,20 +24,17 @@ import net.sberg.openkim.log.DefaultLogger;
 import net.sberg.openkim.pipeline.PipelineOperation;
 import net.sberg.openkim.pipeline.operation.DefaultPipelineOperationContext;
 import net.sberg.openkim.pipeline.operation.IPipelineOperation;
+import net.sberg.openkim.pipeline.operation.mail.MailUtils;
 import org.apache.james.metrics.api.TimeMetric;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 import javax.mail.Multipart;
-import javax.mail.Session;
 import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.util.Enumeration;
-import java.util.Properties;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
@@ -136,15 +133,12 @@ public class AnalyzeMailPartsOperation implements IPipelineOperation  {
 
                 //try to get a message
                 try {
-                    MimeMessage mimeMessage = new MimeMessage(Session.getInstance(new Properties()), (InputStream) content);
-                    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                    MimeMessage mimeMessage = new MimeMessage(MailUtils.getDefaultSession(), (InputStream) content);
+                    final byte[] msg;
                     try (final InputStream is = mimeMessage.getInputStream()) {
-                        for (int c = is.read(); c != -1; c = is.read()) {
-                            bos.write(c);
-                        }
+                        msg = is.readAllBytes();
                     }
-                    final byte[] msg = bos.toByteArray();
-                    mimeMessage = new MimeMessage(Session.getInstance(new Properties()), new ByteArrayInputStream(msg));
+                    mimeMessage = MailUtils.parseMimeMessage(msg, 0, msg.length);
                     mimePartContent.getChildren().add(create(mimeMessage, null, 0, EnumMailPartContentType.MimeMessage));
                 } catch (Exception e) {
                 }
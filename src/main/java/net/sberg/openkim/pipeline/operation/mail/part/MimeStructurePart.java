@@ -0,0 +1,68 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.pipeline.operation.mail.part;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Structure of a mime part found by the {@link MimeStructureScanner}.
+ * Offsets are positions in the scanned message bytes, the content itself is not kept.
+ */
+@Data
+public class MimeStructurePart {
+    private List<String> header = new ArrayList<>();
+    private String contentType = "text/plain";
+    private String contentDisposition;
+    private String contentTransferEncoding = "7bit";
+    @JsonIgnore
+    private String boundary;
+
+    private long headerOffset;
+    private long bodyOffset;
+    private long endOffset;
+    private long decodedLength;
+
+    private List<MimeStructurePart> children = new ArrayList<>();
+
+    public long getEncodedLength() {
+        return endOffset - bodyOffset;
+    }
+
+    public boolean isMultipart() {
+        return contentType.startsWith("multipart/");
+    }
+
+    public boolean isXKasText() {
+        return contentType.startsWith("text/") && EnumMailPartDispositionType.Xkas.getName().equals(contentDisposition);
+    }
+
+    public List<MimeStructurePart> collectAllXKasParts(List<MimeStructurePart> result) {
+        if (isXKasText()) {
+            result.add(this);
+        }
+        for (Iterator<MimeStructurePart> iterator = children.iterator(); iterator.hasNext(); ) {
+            MimeStructurePart child = iterator.next();
+            result = child.collectAllXKasParts(result);
+        }
+        return result;
+    }
+}
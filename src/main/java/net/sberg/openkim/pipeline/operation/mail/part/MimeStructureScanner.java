@@ -0,0 +1,449 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.pipeline.operation.mail.part;
+
+import javax.mail.internet.ContentDisposition;
+import javax.mail.internet.ContentType;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Locale;
+
+/**
+ * Single pass scanner of the mime structure of a message, e.g. <code>message.writeTo(scanner)</code>.
+ * Reports headers, offsets, encoded and decoded length of every part. The decoded length is counted while streaming,
+ * the content is neither buffered nor decoded.
+ */
+public class MimeStructureScanner extends OutputStream {
+
+    //a boundary line is "--" + boundary (max. 70 chars) + "--" and transport padding
+    private static final int LINE_PREFIX_LENGTH = 256;
+    private static final int MAX_HEADER_LENGTH = 64 * 1024;
+
+    private static final int DECODE_NONE = 0;
+    private static final int DECODE_IDENTITY = 1;
+    private static final int DECODE_BASE64 = 2;
+    private static final int DECODE_QUOTED_PRINTABLE = 3;
+
+    private final MimeStructurePart result = new MimeStructurePart();
+    private final Deque<MimeStructurePart> openParts = new ArrayDeque<>();
+
+    private boolean inHeader = true;
+    private long position;
+    private long lineStart;
+
+    private final ByteArrayOutputStream headerLine = new ByteArrayOutputStream();
+    private final byte[] line = new byte[LINE_PREFIX_LENGTH];
+    private int lineLength;
+    private boolean lineSpilled;
+    private boolean spilledCR;
+    private int heldTerminatorLength;
+
+    private int decodeMode = DECODE_NONE;
+    private int decodeState;
+    private long decodedLength;
+
+    private boolean closed;
+
+    public MimeStructureScanner() {
+        result.setHeaderOffset(0);
+        openParts.push(result);
+    }
+
+    public MimeStructurePart getResult() {
+        return result;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        for (int i = off; i < off + len; i++) {
+            write(b[i]);
+        }
+    }
+
+    @Override
+    public void write(int b) {
+        b = b & 0xFF;
+        if (inHeader) {
+            if (headerLine.size() < MAX_HEADER_LENGTH) {
+                headerLine.write(b);
+            }
+            position++;
+            if (b == '\n') {
+                byte[] content = headerLine.toByteArray();
+                headerLine.reset();
+                processHeaderLine(content, content.length - terminatorLength(content, content.length));
+                lineStart = position;
+            }
+            return;
+        }
+
+        if (lineSpilled) {
+            position++;
+            if (spilledCR) {
+                spilledCR = false;
+                if (b == '\n') {
+                    heldTerminatorLength = 2;
+                    endLine();
+                    return;
+                }
+                decode('\r');
+            }
+            if (b == '\r') {
+                spilledCR = true;
+            } else if (b == '\n') {
+                heldTerminatorLength = 1;
+                endLine();
+            } else {
+                decode(b);
+            }
+            return;
+        }
+
+        position++;
+        if (b == '\n') {
+            int terminatorLength = lineLength > 0 && line[lineLength - 1] == '\r' ? 2 : 1;
+            processBodyLine(lineLength - (terminatorLength - 1), terminatorLength);
+            lineLength = 0;
+            lineStart = position;
+            return;
+        }
+        if (lineLength == LINE_PREFIX_LENGTH) {
+            //too long for a boundary line
+            commitHeldTerminator();
+            for (int i = 0; i < lineLength; i++) {
+                decode(line[i] & 0xFF);
+            }
+            lineLength = 0;
+            lineSpilled = true;
+            position--;
+            write(b);
+            return;
+        }
+        line[lineLength++] = (byte) b;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (inHeader) {
+            if (headerLine.size() > 0) {
+                byte[] content = headerLine.toByteArray();
+                processHeaderLine(content, content.length);
+            }
+            if (inHeader) {
+                endHeader(position);
+            }
+        } else if (lineSpilled) {
+            if (spilledCR) {
+                decode('\r');
+            }
+        } else if (lineLength > 0) {
+            processBodyLine(lineLength, 0);
+        }
+        commitHeldTerminator();
+        closeParts(null, position);
+        sumDecodedLength(result);
+    }
+
+    private void endLine() {
+        lineSpilled = false;
+        lineLength = 0;
+        lineStart = position;
+    }
+
+    private void processHeaderLine(byte[] content, int length) {
+        MimeStructurePart boundaryPart = findBoundaryPart(content, length);
+        if (boundaryPart != null) {
+            //part without header end
+            endHeader(lineStart);
+            handleBoundary(boundaryPart, isCloseDelimiter(content, length, boundaryPart), content.length - length);
+            return;
+        }
+        MimeStructurePart part = openParts.peek();
+        if (length == 0) {
+            endHeader(position);
+            return;
+        }
+        String header = new String(content, 0, length, StandardCharsets.ISO_8859_1);
+        if ((header.startsWith(" ") || header.startsWith("\t")) && !part.getHeader().isEmpty()) {
+            int last = part.getHeader().size() - 1;
+            part.getHeader().set(last, part.getHeader().get(last) + header);
+        } else {
+            part.getHeader().add(header);
+        }
+    }
+
+    private void endHeader(long bodyOffset) {
+        MimeStructurePart part = openParts.peek();
+        parseHeader(part);
+        part.setBodyOffset(bodyOffset);
+        inHeader = false;
+        heldTerminatorLength = 0;
+
+        if (part.isMultipart() && part.getBoundary() != null) {
+            decodeMode = DECODE_NONE;
+        } else if (part.getContentType().equals("message/rfc822") && isIdentityEncoding(part.getContentTransferEncoding())) {
+            decodeMode = DECODE_NONE;
+            MimeStructurePart child = new MimeStructurePart();
+            child.setHeaderOffset(bodyOffset);
+            child.setBodyOffset(-1);
+            part.getChildren().add(child);
+            openParts.push(child);
+            inHeader = true;
+        } else if (part.getContentTransferEncoding().equals("base64")) {
+            startDecoding(DECODE_BASE64);
+        } else if (part.getContentTransferEncoding().equals("quoted-printable")) {
+            startDecoding(DECODE_QUOTED_PRINTABLE);
+        } else {
+            startDecoding(DECODE_IDENTITY);
+        }
+    }
+
+    private void parseHeader(MimeStructurePart part) {
+        for (Iterator<String> iterator = part.getHeader().iterator(); iterator.hasNext(); ) {
+            String header = iterator.next();
+            int idx = header.indexOf(':');
+            if (idx < 0) {
+                continue;
+            }
+            String name = header.substring(0, idx).trim().toLowerCase(Locale.ROOT);
+            String value = header.substring(idx + 1).trim();
+            try {
+                if (name.equals("content-type")) {
+                    ContentType contentType = new ContentType(value);
+                    part.setContentType(contentType.getBaseType().toLowerCase(Locale.ROOT));
+                    part.setBoundary(contentType.getParameter("boundary"));
+                } else if (name.equals("content-disposition")) {
+                    part.setContentDisposition(new ContentDisposition(value).getDisposition().toLowerCase(Locale.ROOT));
+                } else if (name.equals("content-transfer-encoding")) {
+                    part.setContentTransferEncoding(value.toLowerCase(Locale.ROOT));
+                }
+            } catch (Exception e) {
+                //malformed header, defaults are used
+            }
+        }
+    }
+
+    private void processBodyLine(int length, int terminatorLength) {
+        MimeStructurePart boundaryPart = findBoundaryPart(line, length);
+        if (boundaryPart != null) {
+            handleBoundary(boundaryPart, isCloseDelimiter(line, length, boundaryPart), terminatorLength);
+            return;
+        }
+        commitHeldTerminator();
+        for (int i = 0; i < length; i++) {
+            decode(line[i] & 0xFF);
+        }
+        heldTerminatorLength = terminatorLength;
+    }
+
+    //the line break before a boundary belongs to the boundary
+    private void handleBoundary(MimeStructurePart multipart, boolean closeDelimiter, int terminatorLength) {
+        closeParts(multipart, lineStart - heldTerminatorLength);
+        heldTerminatorLength = 0;
+        if (closeDelimiter) {
+            //epilogue, the line break of the close delimiter belongs to a following boundary of the surrounding multipart
+            multipart.setBoundary(null);
+            inHeader = false;
+            heldTerminatorLength = terminatorLength;
+        } else {
+            MimeStructurePart child = new MimeStructurePart();
+            child.setHeaderOffset(position);
+            if (multipart.getContentType().equals("multipart/digest")) {
+                child.setContentType("message/rfc822");
+            }
+            multipart.getChildren().add(child);
+            openParts.push(child);
+            inHeader = true;
+        }
+    }
+
+    private void closeParts(MimeStructurePart until, long endOffset) {
+        while (!openParts.isEmpty() && openParts.peek() != until) {
+            MimeStructurePart part = openParts.pop();
+            if (part.getBodyOffset() < 0) {
+                //header of an embedded message without end
+                parseHeader(part);
+                part.setBodyOffset(endOffset);
+            }
+            part.setEndOffset(endOffset);
+            if (decodeMode != DECODE_NONE && part.getChildren().isEmpty()) {
+                part.setDecodedLength(finishDecoding());
+            }
+        }
+        decodeMode = DECODE_NONE;
+    }
+
+    private MimeStructurePart findBoundaryPart(byte[] content, int length) {
+        if (length < 3 || content[0] != '-' || content[1] != '-') {
+            return null;
+        }
+        for (Iterator<MimeStructurePart> iterator = openParts.iterator(); iterator.hasNext(); ) {
+            MimeStructurePart part = iterator.next();
+            if (part.getBoundary() != null && isDelimiter(content, length, part.getBoundary())) {
+                return part;
+            }
+        }
+        return null;
+    }
+
+    private boolean isDelimiter(byte[] content, int length, String boundary) {
+        int boundaryLength = boundary.length();
+        if (length < boundaryLength + 2) {
+            return false;
+        }
+        for (int i = 0; i < boundaryLength; i++) {
+            if (content[i + 2] != (byte) boundary.charAt(i)) {
+                return false;
+            }
+        }
+        int rest = boundaryLength + 2;
+        if (length >= rest + 2 && content[rest] == '-' && content[rest + 1] == '-') {
+            rest = rest + 2;
+        }
+        for (int i = rest; i < length; i++) {
+            if (content[i] != ' ' && content[i] != '\t') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isCloseDelimiter(byte[] content, int length, MimeStructurePart part) {
+        int rest = part.getBoundary().length() + 2;
+        return length >= rest + 2 && content[rest] == '-' && content[rest + 1] == '-';
+    }
+
+    private boolean isIdentityEncoding(String contentTransferEncoding) {
+        return contentTransferEncoding.equals("7bit") || contentTransferEncoding.equals("8bit") || contentTransferEncoding.equals("binary");
+    }
+
+    private int terminatorLength(byte[] content, int length) {
+        if (length > 0 && content[length - 1] == '\n') {
+            return length > 1 && content[length - 2] == '\r' ? 2 : 1;
+        }
+        return 0;
+    }
+
+    private void commitHeldTerminator() {
+        if (heldTerminatorLength == 2) {
+            decode('\r');
+        }
+        if (heldTerminatorLength > 0) {
+            decode('\n');
+        }
+        heldTerminatorLength = 0;
+    }
+
+    private void startDecoding(int mode) {
+        decodeMode = mode;
+        decodeState = 0;
+        decodedLength = 0;
+    }
+
+    private long finishDecoding() {
+        if (decodeMode == DECODE_BASE64) {
+            return decodedLength * 3 / 4;
+        }
+        if (decodeMode == DECODE_QUOTED_PRINTABLE && (decodeState == 1 || decodeState == 2)) {
+            //incomplete escape sequence at the end, kept as it is
+            return decodedLength + decodeState;
+        }
+        return decodedLength;
+    }
+
+    private void decode(int b) {
+        switch (decodeMode) {
+            case DECODE_IDENTITY:
+                decodedLength++;
+                break;
+            case DECODE_BASE64:
+                //counts the characters of the base64 alphabet, every 4 characters are 3 decoded bytes
+                if ((b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z') || (b >= '0' && b <= '9') || b == '+' || b == '/') {
+                    decodedLength++;
+                }
+                break;
+            case DECODE_QUOTED_PRINTABLE:
+                decodeQuotedPrintable(b);
+                break;
+            default:
+        }
+    }
+
+    //decodeState: 0 = text, 1 = after '=', 2 = after '=' and a hex digit, 3 = soft line break after '=' and CR
+    private void decodeQuotedPrintable(int b) {
+        switch (decodeState) {
+            case 0:
+                if (b == '=') {
+                    decodeState = 1;
+                } else {
+                    decodedLength++;
+                }
+                break;
+            case 1:
+                if (b == '\r') {
+                    decodeState = 3;
+                } else if (b == '\n') {
+                    decodeState = 0;
+                } else if (isHexDigit(b)) {
+                    decodeState = 2;
+                } else if (b != ' ' && b != '\t') {
+                    //invalid escape sequence, kept as it is
+                    decodedLength = decodedLength + 2;
+                    decodeState = 0;
+                }
+                break;
+            case 2:
+                decodedLength++;
+                decodeState = 0;
+                if (!isHexDigit(b)) {
+                    decode(b);
+                }
+                break;
+            case 3:
+                decodeState = 0;
+                if (b != '\n') {
+                    decode(b);
+                }
+                break;
+            default:
+        }
+    }
+
+    private boolean isHexDigit(int b) {
+        return (b >= '0' && b <= '9') || (b >= 'A' && b <= 'F') || (b >= 'a' && b <= 'f');
+    }
+
+    private long sumDecodedLength(MimeStructurePart part) {
+        if (part.getChildren().isEmpty()) {
+            return part.getDecodedLength();
+        }
+        long sum = 0;
+        for (Iterator<MimeStructurePart> iterator = part.getChildren().iterator(); iterator.hasNext(); ) {
+            sum = sum + sumDecodedLength(iterator.next());
+        }
+        part.setDecodedLength(sum);
+        return sum;
+    }
+}
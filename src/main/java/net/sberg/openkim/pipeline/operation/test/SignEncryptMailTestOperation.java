@@ -23,6 +23,7 @@ import net.sberg.openkim.pipeline.PipelineOperation;
 import net.sberg.openkim.pipeline.operation.DefaultPipelineOperationContext;
 import net.sberg.openkim.pipeline.operation.IPipelineOperation;
 import net.sberg.openkim.pipeline.operation.konnektor.vzd.LoadVzdCertsOperation;
+import net.sberg.openkim.pipeline.operation.mail.MailUtils;
 import net.sberg.openkim.pipeline.operation.mail.SignEncryptMailOperation;
 import org.apache.james.metrics.api.TimeMetric;
 import org.slf4j.Logger;
@@ -31,12 +32,10 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import javax.mail.Message;
-import javax.mail.Session;
 import javax.mail.internet.MimeMessage;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-import java.util.Properties;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
@@ -122,7 +121,7 @@ public class SignEncryptMailTestOperation implements IPipelineOperation  {
             DefaultMetricFactory metricFactory = new DefaultMetricFactory(logger);
             timeMetric = metricFactory.timer(NAME);
 
-            MimeMessage mimeMessage = new MimeMessage(Session.getInstance(new Properties()));
+            MimeMessage mimeMessage = new MimeMessage(MailUtils.getDefaultSession());
             mimeMessage.setText((String)defaultPipelineOperationContext.getEnvironmentValue(NAME, ENV_BODY));
             mimeMessage.setSubject((String)defaultPipelineOperationContext.getEnvironmentValue(NAME, ENV_SUBJECT));
             mimeMessage.setFrom((String)defaultPipelineOperationContext.getEnvironmentValue(NAME, ENV_FROM));
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.simulator;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import net.sberg.openkim.common.ICommonConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Local smtp and pop3 mail server replacing the KIM Fachdienst.
+ * Every authenticated user may send and every recipient address gets an in-memory mailbox,
+ * which is read over pop3 with the recipient address as username.
+ */
+@Service
+@Profile("simulator")
+public class FachdienstSimulator {
+
+    private static final Logger log = LoggerFactory.getLogger(FachdienstSimulator.class);
+
+    private final Map<String, List<FachdienstSimulatorMessage>> mailboxes = new ConcurrentHashMap<>();
+    private final AtomicLong uidCounter = new AtomicLong();
+    private final ExecutorService executorService = Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder().setNameFormat("fachdienst-simulator-%d").setDaemon(true).build()
+    );
+    private final List<ServerSocket> serverSockets = new ArrayList<>();
+
+    @Autowired
+    private SimulatorFaultInjector simulatorFaultInjector;
+
+    @Value("${simulator.fachdienst.host:127.0.0.1}")
+    private String host;
+    @Value("${simulator.fachdienst.smtpPort:10465}")
+    private int smtpPort;
+    @Value("${simulator.fachdienst.pop3Port:10995}")
+    private int pop3Port;
+    @Value("${simulator.fachdienst.tls:false}")
+    private boolean tls;
+    @Value("${gatewaykeystore.password}")
+    private String keyStorePwd;
+
+    @PostConstruct
+    protected void init() throws Exception {
+        start(smtpPort, socket -> new FachdienstSimulatorSmtpSession(this, socket));
+        start(pop3Port, socket -> new FachdienstSimulatorPop3Session(this, socket));
+        log.info("***Fachdienst Simulator is started*** smtp: " + host + ":" + smtpPort + " - pop3: " + host + ":" + pop3Port + " - tls: " + tls);
+    }
+
+    @PreDestroy
+    protected void destroy() {
+        for (ServerSocket serverSocket : serverSockets) {
+            try {
+                serverSocket.close();
+            } catch (IOException e) {
+                log.warn("error on closing the fachdienst simulator socket", e);
+            }
+        }
+        executorService.shutdownNow();
+        log.info("***Fachdienst Simulator is stopped***");
+    }
+
+    private void start(int port, Function<Socket, Runnable> sessionFactory) throws Exception {
+        ServerSocket serverSocket = tls
+            ? buildSSLContext().getServerSocketFactory().createServerSocket(port, 50, InetAddress.getByName(host))
+            : new ServerSocket(port, 50, InetAddress.getByName(host));
+        serverSockets.add(serverSocket);
+        executorService.execute(() -> {
+            while (!serverSocket.isClosed()) {
+                try {
+                    executorService.execute(sessionFactory.apply(serverSocket.accept()));
+                } catch (IOException e) {
+                    if (!serverSocket.isClosed()) {
+                        log.error("error on accepting a fachdienst simulator connection on port " + port, e);
+                    }
+                }
+            }
+        });
+    }
+
+    private SSLContext buildSSLContext() throws Exception {
+        try (FileInputStream fis = new FileInputStream(new File(ICommonConstants.BASE_DIR + ICommonConstants.OPENKIM_SERVER_KEYSTORE_FILENAME))) {
+            KeyStore ks = KeyStore.getInstance("PKCS12", "BC");
+            ks.load(fis, keyStorePwd.toCharArray());
+
+            KeyManagerFactory kmf = KeyManagerFactory.getInstance("PKIX", "BCJSSE");
+            kmf.init(ks, keyStorePwd.toCharArray());
+
+            SSLContext context = SSLContext.getInstance("TLS", "BCJSSE");
+            context.init(kmf.getKeyManagers(), null, null);
+            return context;
+        }
+    }
+
+    protected SimulatorFaultInjector getSimulatorFaultInjector() {
+        return simulatorFaultInjector;
+    }
+
+    protected void deliver(Collection<String> recipients, byte[] content) {
+        for (String recipient : recipients) {
+            FachdienstSimulatorMessage message = new FachdienstSimulatorMessage();
+            message.setUid("sim-" + uidCounter.incrementAndGet());
+            message.setContent(content);
+            List<FachdienstSimulatorMessage> mailbox = getMailbox(recipient);
+            synchronized (mailbox) {
+                mailbox.add(message);
+            }
+        }
+    }
+
+    protected List<FachdienstSimulatorMessage> getMailbox(String username) {
+        return mailboxes.computeIfAbsent(username.toLowerCase(), k -> new ArrayList<>());
+    }
+}
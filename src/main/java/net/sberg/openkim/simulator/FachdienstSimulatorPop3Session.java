@@ -0,0 +1,221 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.simulator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Minimal pop3 dialog of the fachdienst simulator: CAPA, USER/PASS (every password is accepted), STAT, LIST, UIDL,
+ * RETR, TOP, DELE, RSET, NOOP and QUIT. The mailbox is read once at login, deleted messages are removed at QUIT.
+ */
+public class FachdienstSimulatorPop3Session implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(FachdienstSimulatorPop3Session.class);
+
+    private final FachdienstSimulator fachdienstSimulator;
+    private final Socket socket;
+
+    private BufferedReader reader;
+    private Writer writer;
+    private String username;
+    private List<FachdienstSimulatorMessage> messages;
+    private final Set<Integer> deleted = new HashSet<>();
+
+    public FachdienstSimulatorPop3Session(FachdienstSimulator fachdienstSimulator, Socket socket) {
+        this.fachdienstSimulator = fachdienstSimulator;
+        this.socket = socket;
+    }
+
+    @Override
+    public void run() {
+        try (Socket s = socket) {
+            reader = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.ISO_8859_1));
+            writer = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.ISO_8859_1);
+            reply("+OK openkim fachdienst simulator POP3 server ready");
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.trim().split(" ");
+                String cmd = parts[0].toUpperCase();
+                if (cmd.equals("QUIT")) {
+                    quit();
+                    return;
+                }
+                if (messages == null && !cmd.equals("CAPA") && !cmd.equals("USER") && !cmd.equals("PASS") && !cmd.equals("NOOP")) {
+                    reply("-ERR not authenticated");
+                    continue;
+                }
+                switch (cmd) {
+                    case "CAPA":
+                        reply("+OK\r\nUSER\r\nUIDL\r\nTOP\r\n.");
+                        break;
+                    case "USER":
+                        username = parts.length > 1 ? parts[1] : null;
+                        reply("+OK");
+                        break;
+                    case "PASS":
+                        pass();
+                        break;
+                    case "STAT":
+                        long size = 0;
+                        int count = 0;
+                        for (int i = 0; i < messages.size(); i++) {
+                            if (!deleted.contains(i)) {
+                                size += messages.get(i).getContent().length;
+                                count++;
+                            }
+                        }
+                        reply("+OK " + count + " " + size);
+                        break;
+                    case "LIST":
+                    case "UIDL":
+                        list(cmd.equals("UIDL"), parts);
+                        break;
+                    case "RETR":
+                        retr(parts, -1);
+                        break;
+                    case "TOP":
+                        retr(parts, parts.length > 2 ? Integer.parseInt(parts[2]) : 0);
+                        break;
+                    case "DELE":
+                        Integer idx = extractIdx(parts);
+                        if (idx != null) {
+                            deleted.add(idx);
+                            reply("+OK message deleted");
+                        }
+                        break;
+                    case "RSET":
+                        deleted.clear();
+                        reply("+OK");
+                        break;
+                    case "NOOP":
+                        reply("+OK");
+                        break;
+                    default:
+                        reply("-ERR unknown command");
+                }
+            }
+        } catch (Exception e) {
+            log.warn("error on the fachdienst simulator pop3 session", e);
+        }
+    }
+
+    private void pass() throws Exception {
+        if (username == null) {
+            reply("-ERR USER first");
+            return;
+        }
+        if (fachdienstSimulator.getSimulatorFaultInjector().inject()) {
+            reply("-ERR [SYS/TEMP] Simulated error");
+            return;
+        }
+        List<FachdienstSimulatorMessage> mailbox = fachdienstSimulator.getMailbox(username);
+        synchronized (mailbox) {
+            messages = new ArrayList<>(mailbox);
+        }
+        reply("+OK " + messages.size() + " messages");
+    }
+
+    private void list(boolean uidl, String[] parts) throws Exception {
+        if (parts.length > 1) {
+            Integer idx = extractIdx(parts);
+            if (idx != null) {
+                reply("+OK " + (idx + 1) + " " + (uidl ? messages.get(idx).getUid() : messages.get(idx).getContent().length));
+            }
+            return;
+        }
+        StringBuilder response = new StringBuilder("+OK");
+        for (int i = 0; i < messages.size(); i++) {
+            if (!deleted.contains(i)) {
+                response.append("\r\n").append(i + 1).append(" ").append(uidl ? messages.get(i).getUid() : String.valueOf(messages.get(i).getContent().length));
+            }
+        }
+        reply(response.append("\r\n.").toString());
+    }
+
+    /**
+     * @param bodyLines number of body lines for TOP, -1 for the whole message
+     */
+    private void retr(String[] parts, int bodyLines) throws Exception {
+        Integer idx = extractIdx(parts);
+        if (idx == null) {
+            return;
+        }
+        if (bodyLines < 0 && fachdienstSimulator.getSimulatorFaultInjector().inject()) {
+            reply("-ERR [SYS/TEMP] Simulated error");
+            return;
+        }
+        String[] lines = new String(messages.get(idx).getContent(), StandardCharsets.ISO_8859_1).split("\r\n", -1);
+        StringBuilder response = new StringBuilder("+OK\r\n");
+        boolean body = false;
+        int writtenBodyLines = 0;
+        //the content ends with CRLF, the last split element is empty
+        for (int i = 0; i < lines.length - 1; i++) {
+            if (body && bodyLines >= 0 && writtenBodyLines++ >= bodyLines) {
+                break;
+            }
+            if (!body && lines[i].isEmpty()) {
+                body = true;
+            }
+            response.append(lines[i].startsWith(".") ? "." : "").append(lines[i]).append("\r\n");
+        }
+        reply(response.append(".").toString());
+    }
+
+    private void quit() throws Exception {
+        if (messages != null && !deleted.isEmpty()) {
+            List<FachdienstSimulatorMessage> mailbox = fachdienstSimulator.getMailbox(username);
+            synchronized (mailbox) {
+                for (Integer idx : deleted) {
+                    FachdienstSimulatorMessage message = messages.get(idx);
+                    mailbox.removeIf(m -> m == message);
+                }
+            }
+        }
+        reply("+OK Bye");
+    }
+
+    private Integer extractIdx(String[] parts) throws Exception {
+        try {
+            int idx = Integer.parseInt(parts[1]) - 1;
+            if (idx >= 0 && idx < messages.size() && !deleted.contains(idx)) {
+                return idx;
+            }
+        } catch (Exception e) {
+            //invalid message number
+        }
+        reply("-ERR no such message");
+        return null;
+    }
+
+    private void reply(String response) throws Exception {
+        writer.write(response + "\r\n");
+        writer.flush();
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.simulator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Minimal smtp dialog of the fachdienst simulator: HELO/EHLO, AUTH LOGIN/PLAIN (every password is accepted),
+ * MAIL, RCPT, DATA, RSET, NOOP and QUIT. Lines are read as ISO-8859-1 so the message bytes are kept unchanged.
+ */
+public class FachdienstSimulatorSmtpSession implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(FachdienstSimulatorSmtpSession.class);
+
+    private final FachdienstSimulator fachdienstSimulator;
+    private final Socket socket;
+
+    private BufferedReader reader;
+    private Writer writer;
+    private boolean authenticated;
+    private String sender;
+    private final List<String> recipients = new ArrayList<>();
+
+    public FachdienstSimulatorSmtpSession(FachdienstSimulator fachdienstSimulator, Socket socket) {
+        this.fachdienstSimulator = fachdienstSimulator;
+        this.socket = socket;
+    }
+
+    @Override
+    public void run() {
+        try (Socket s = socket) {
+            reader = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.ISO_8859_1));
+            writer = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.ISO_8859_1);
+            reply("220 openkim fachdienst simulator ESMTP");
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String cmd = line.contains(" ") ? line.substring(0, line.indexOf(' ')).toUpperCase() : line.toUpperCase();
+                String arg = line.contains(" ") ? line.substring(line.indexOf(' ') + 1).trim() : "";
+                switch (cmd) {
+                    case "HELO":
+                        reply("250 openkim fachdienst simulator");
+                        break;
+                    case "EHLO":
+                        reply("250-openkim fachdienst simulator\r\n250-AUTH LOGIN PLAIN\r\n250-8BITMIME\r\n250 OK");
+                        break;
+                    case "AUTH":
+                        auth(arg);
+                        break;
+                    case "MAIL":
+                        if (!authenticated) {
+                            reply("530 5.7.0 Authentication required");
+                            break;
+                        }
+                        sender = extractAddress(arg);
+                        recipients.clear();
+                        reply("250 2.1.0 Ok");
+                        break;
+                    case "RCPT":
+                        if (sender == null) {
+                            reply("503 5.5.1 Bad sequence of commands");
+                            break;
+                        }
+                        recipients.add(extractAddress(arg));
+                        reply("250 2.1.5 Ok");
+                        break;
+                    case "DATA":
+                        data();
+                        break;
+                    case "RSET":
+                        sender = null;
+                        recipients.clear();
+                        reply("250 2.0.0 Ok");
+                        break;
+                    case "NOOP":
+                        reply("250 2.0.0 Ok");
+                        break;
+                    case "QUIT":
+                        reply("221 2.0.0 Bye");
+                        return;
+                    default:
+                        reply("502 5.5.2 Command not recognized");
+                }
+            }
+        } catch (Exception e) {
+            log.warn("error on the fachdienst simulator smtp session", e);
+        }
+    }
+
+    private void auth(String arg) throws Exception {
+        String[] parts = arg.split(" ");
+        String username;
+        if (parts[0].equalsIgnoreCase("LOGIN")) {
+            if (parts.length > 1) {
+                username = decode(parts[1]);
+            } else {
+                reply("334 VXNlcm5hbWU6");
+                username = decode(reader.readLine());
+            }
+            reply("334 UGFzc3dvcmQ6");
+            reader.readLine();
+        } else if (parts[0].equalsIgnoreCase("PLAIN")) {
+            String response;
+            if (parts.length > 1) {
+                response = parts[1];
+            } else {
+                reply("334 ");
+                response = reader.readLine();
+            }
+            //authzid \0 authcid \0 password
+            String[] credentials = decode(response).split("\0");
+            username = credentials.length > 1 ? credentials[1] : "";
+        } else {
+            reply("504 5.5.4 Unrecognized authentication type");
+            return;
+        }
+        if (fachdienstSimulator.getSimulatorFaultInjector().inject()) {
+            reply("454 4.7.0 Temporary authentication failure");
+            return;
+        }
+        authenticated = true;
+        log.debug("fachdienst simulator smtp - authenticated: " + username);
+        reply("235 2.7.0 Authentication successful");
+    }
+
+    private void data() throws Exception {
+        if (recipients.isEmpty()) {
+            reply("503 5.5.1 No valid recipients");
+            return;
+        }
+        reply("354 End data with <CR><LF>.<CR><LF>");
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        String line;
+        while ((line = reader.readLine()) != null && !line.equals(".")) {
+            if (line.startsWith(".")) {
+                line = line.substring(1);
+            }
+            content.write((line + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        }
+        if (fachdienstSimulator.getSimulatorFaultInjector().inject()) {
+            reply("451 4.3.0 Simulated error");
+        } else {
+            fachdienstSimulator.deliver(recipients, content.toByteArray());
+            reply("250 2.0.0 Ok: queued");
+        }
+        sender = null;
+        recipients.clear();
+    }
+
+    private String extractAddress(String arg) {
+        int start = arg.indexOf('<');
+        int end = arg.indexOf('>');
+        if (start >= 0 && end > start) {
+            return arg.substring(start + 1, end).toLowerCase();
+        }
+        return arg.substring(arg.indexOf(':') + 1).trim().toLowerCase();
+    }
+
+    private String decode(String value) {
+        return new String(Base64.getDecoder().decode(value.trim()), StandardCharsets.UTF_8);
+    }
+
+    private void reply(String response) throws Exception {
+        writer.write(response + "\r\n");
+        writer.flush();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.simulator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory KAS (I_Attachment_Service, see api/AttachmentService.yaml).
+ * The shared link is the attachment id itself, so the link read from the mail can be passed to read_Attachment unchanged.
+ */
+@RestController
+@Profile("simulator")
+@RequestMapping("/dev/simulator/kas/attachments/v2.2/attachment")
+public class KasSimulatorController {
+
+    private static final Logger log = LoggerFactory.getLogger(KasSimulatorController.class);
+
+    private final Map<String, byte[]> attachments = new ConcurrentHashMap<>();
+
+    @Autowired
+    private SimulatorFaultInjector simulatorFaultInjector;
+
+    @PostMapping(value = "/", consumes = MediaType.MULTIPART_FORM_DATA_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Map<String, String>> addAttachment(
+        @RequestParam(value = "messageID", required = false) String messageID,
+        @RequestParam(value = "recipients", required = false) List<String> recipients,
+        @RequestParam(value = "expires", required = false) String expires,
+        @RequestParam(value = "attachment") MultipartFile attachment
+    ) throws Exception {
+        if (simulatorFaultInjector.inject()) {
+            return createError(HttpStatus.INTERNAL_SERVER_ERROR, "simulated error");
+        }
+        String attachmentId = UUID.randomUUID().toString();
+        attachments.put(attachmentId, attachment.getBytes());
+        log.info("kas simulator - attachment added: " + attachmentId + " - " + messageID + " - " + attachment.getSize() + " bytes");
+        return ResponseEntity.status(HttpStatus.CREATED).body(Collections.singletonMap("sharedLink", attachmentId));
+    }
+
+    @GetMapping(value = "/{attachmentId}")
+    public ResponseEntity<?> readAttachment(@PathVariable String attachmentId, @RequestHeader(value = "recipient", required = false) String recipient) {
+        if (simulatorFaultInjector.inject()) {
+            return createError(HttpStatus.INTERNAL_SERVER_ERROR, "simulated error");
+        }
+        byte[] attachment = attachments.get(attachmentId);
+        if (attachment == null) {
+            return createError(HttpStatus.NOT_FOUND, "attachment not found");
+        }
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_OCTET_STREAM).body(attachment);
+    }
+
+    @DeleteMapping(value = "/{attachmentId}")
+    public ResponseEntity<?> deleteMaildata(@PathVariable String attachmentId) {
+        if (simulatorFaultInjector.inject()) {
+            return createError(HttpStatus.INTERNAL_SERVER_ERROR, "simulated error");
+        }
+        if (attachments.remove(attachmentId) == null) {
+            return createError(HttpStatus.NOT_FOUND, "attachment not found");
+        }
+        return ResponseEntity.ok().build();
+    }
+
+    private ResponseEntity<Map<String, String>> createError(HttpStatus httpStatus, String message) {
+        return ResponseEntity.status(httpStatus).contentType(MediaType.APPLICATION_JSON).body(Collections.singletonMap("message", message));
+    }
+}
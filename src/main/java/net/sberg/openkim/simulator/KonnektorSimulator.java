@@ -0,0 +1,322 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.simulator;
+
+import jakarta.annotation.PostConstruct;
+import lombok.Data;
+import net.sberg.openkim.konnektor.KonnektorWebserviceUtils;
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.cms.Attribute;
+import org.bouncycastle.asn1.cms.AttributeTable;
+import org.bouncycastle.asn1.cms.CMSAttributes;
+import org.bouncycastle.asn1.cms.CMSObjectIdentifiers;
+import org.bouncycastle.asn1.cms.ContentInfo;
+import org.bouncycastle.asn1.cms.Time;
+import org.bouncycastle.asn1.isismtt.ISISMTTObjectIdentifiers;
+import org.bouncycastle.asn1.isismtt.x509.AdmissionSyntax;
+import org.bouncycastle.asn1.isismtt.x509.Admissions;
+import org.bouncycastle.asn1.isismtt.x509.ProfessionInfo;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.x500.DirectoryString;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.cms.*;
+import org.bouncycastle.cms.jcajce.*;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.OutputAEADEncryptor;
+import org.bouncycastle.operator.jcajce.JcaAlgorithmParametersConverter;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.spec.OAEPParameterSpec;
+import javax.crypto.spec.PSource;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.security.spec.MGF1ParameterSpec;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SMC-B of the konnektor simulator with a test pki generated on startup: a ca, the C.ENC and the C.SIG certificate
+ * of the card (rsa, admission with the configured telematik id) and the pin in the state VERIFIED.
+ * Signing, en- and decryption and the verification are done with BouncyCastle CMS, like the konnektor does with the card.
+ */
+@Component
+@Profile("simulator")
+public class KonnektorSimulator {
+
+    private static final Logger log = LoggerFactory.getLogger(KonnektorSimulator.class);
+
+    //profession oid of the "Betriebsstätte Arzt"
+    private static final String PROFESSION_OID = "1.2.276.0.76.4.50";
+
+    @Value("${simulator.konnektor.telematikId:1-SMC-B-Testkarte-883110000000001}")
+    private String telematikId;
+    @Value("${simulator.konnektor.cardHandle:SMC-B-1}")
+    private String cardHandle;
+    @Value("${simulator.konnektor.iccsn:80276883110000000001}")
+    private String iccsn;
+    @Value("${simulator.konnektor.ctId:CT-1}")
+    private String ctId;
+    @Value("${simulator.konnektor.slotId:1}")
+    private int slotId;
+
+    private final AtomicLong jobNumberCounter = new AtomicLong();
+
+    private KeyPair caKeyPair;
+    private X509Certificate caCert;
+    private KeyPair encKeyPair;
+    private X509Certificate encCert;
+    private KeyPair sigKeyPair;
+    private X509Certificate sigCert;
+
+    @PostConstruct
+    protected void init() throws Exception {
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+        caKeyPair = createKeyPair();
+        caCert = createCertificate(new X500Name("CN=OpenKIM Simulator CA,O=OpenKIM Simulator,C=DE"), caKeyPair, 1, true, KeyUsage.keyCertSign | KeyUsage.cRLSign);
+        encKeyPair = createKeyPair();
+        encCert = createCertificate(createCardSubject(), encKeyPair, 2, false, KeyUsage.keyEncipherment | KeyUsage.dataEncipherment);
+        sigKeyPair = createKeyPair();
+        sigCert = createCertificate(createCardSubject(), sigKeyPair, 3, false, KeyUsage.digitalSignature | KeyUsage.nonRepudiation);
+        log.info("***Konnektor Simulator is started*** card: " + cardHandle + " - telematik id: " + telematikId);
+    }
+
+    private X500Name createCardSubject() {
+        return new X500Name("CN=Praxis Simulator,O=" + iccsn + ",C=DE");
+    }
+
+    private KeyPair createKeyPair() throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA", BouncyCastleProvider.PROVIDER_NAME);
+        keyPairGenerator.initialize(2048);
+        return keyPairGenerator.generateKeyPair();
+    }
+
+    private X509Certificate createCertificate(X500Name subject, KeyPair keyPair, long serialNumber, boolean ca, int keyUsage) throws Exception {
+        Instant now = Instant.now();
+        JcaX509v3CertificateBuilder certificateBuilder = new JcaX509v3CertificateBuilder(
+            ca ? subject : X500Name.getInstance(caCert.getSubjectX500Principal().getEncoded()),
+            BigInteger.valueOf(serialNumber),
+            Date.from(now.minus(Duration.ofDays(1))),
+            Date.from(now.plus(Duration.ofDays(365))),
+            subject,
+            keyPair.getPublic()
+        );
+        certificateBuilder.addExtension(Extension.basicConstraints, true, new BasicConstraints(ca));
+        certificateBuilder.addExtension(Extension.keyUsage, true, new KeyUsage(keyUsage));
+        if (!ca) {
+            ProfessionInfo professionInfo = new ProfessionInfo(
+                null,
+                new DirectoryString[]{new DirectoryString("Betriebsstätte Arzt")},
+                new ASN1ObjectIdentifier[]{new ASN1ObjectIdentifier(PROFESSION_OID)},
+                telematikId,
+                null
+            );
+            Admissions admissions = new Admissions(null, null, new ProfessionInfo[]{professionInfo});
+            certificateBuilder.addExtension(ISISMTTObjectIdentifiers.id_isismtt_at_admission, false, new AdmissionSyntax(null, new DERSequence(admissions)));
+        }
+        return new JcaX509CertificateConverter().setProvider(BouncyCastleProvider.PROVIDER_NAME)
+            .getCertificate(certificateBuilder.build(new JcaContentSignerBuilder("SHA256withRSA").setProvider(BouncyCastleProvider.PROVIDER_NAME).build(caKeyPair.getPrivate())));
+    }
+
+    public boolean isCardHandle(String cardHandle) {
+        return this.cardHandle.equals(cardHandle);
+    }
+
+    public String getCardHandle() {
+        return cardHandle;
+    }
+
+    public String getIccsn() {
+        return iccsn;
+    }
+
+    public String getCtId() {
+        return ctId;
+    }
+
+    public int getSlotId() {
+        return slotId;
+    }
+
+    public String getTelematikId() {
+        return telematikId;
+    }
+
+    public X509Certificate getCaCertificate() {
+        return caCert;
+    }
+
+    /**
+     * @return the certificate of the card for the cert ref, null for C.QES and unknown cert refs
+     */
+    public X509Certificate getCertificate(String certRef) {
+        if (KonnektorWebserviceUtils.CERT_REF_ENC.equals(certRef)) {
+            return encCert;
+        }
+        if (KonnektorWebserviceUtils.CERT_REF_SIG.equals(certRef) || KonnektorWebserviceUtils.CERT_REF_AUT.equals(certRef)) {
+            return sigCert;
+        }
+        return null;
+    }
+
+    public String nextJobNumber() {
+        //format of the konnektor job numbers: three letters and three digits
+        return String.format("SIM-%03d", jobNumberCounter.incrementAndGet() % 1000);
+    }
+
+    /**
+     * Signs the document with the C.SIG key (RSASSA-PSS) and returns the der encoded SignedData with the
+     * encapsulated document. The attributes are added to the signed attributes, like the properties of a SignRequest.
+     */
+    public byte[] sign(byte[] document, List<Attribute> signedAttributes) throws Exception {
+        ASN1EncodableVector signedAttributeVector = new ASN1EncodableVector();
+        for (Iterator<Attribute> iterator = signedAttributes.iterator(); iterator.hasNext(); ) {
+            signedAttributeVector.add(iterator.next());
+        }
+        CMSSignedDataGenerator generator = new CMSSignedDataGenerator();
+        generator.addSignerInfoGenerator(
+            new JcaSignerInfoGeneratorBuilder(new JcaDigestCalculatorProviderBuilder().setProvider(BouncyCastleProvider.PROVIDER_NAME).build())
+                .setSignedAttributeGenerator(new DefaultSignedAttributeTableGenerator(new AttributeTable(signedAttributeVector)))
+                .build(new JcaContentSignerBuilder("SHA256withRSAandMGF1").setProvider(BouncyCastleProvider.PROVIDER_NAME).build(sigKeyPair.getPrivate()), sigCert)
+        );
+        generator.addCertificate(new JcaX509CertificateHolder(sigCert));
+        return generator.generate(new CMSProcessableByteArray(document), true).getEncoded();
+    }
+
+    /**
+     * Encrypts the document for the C.ENC certificate of the card: AuthEnvelopedData with AES-256-GCM and RSA-OAEP.
+     */
+    public byte[] encrypt(byte[] document) throws Exception {
+        AlgorithmIdentifier rsaOaep = new JcaAlgorithmParametersConverter().getAlgorithmIdentifier(
+            PKCSObjectIdentifiers.id_RSAES_OAEP,
+            new OAEPParameterSpec("SHA-256", "MGF1", MGF1ParameterSpec.SHA256, PSource.PSpecified.DEFAULT)
+        );
+        CMSAuthEnvelopedDataGenerator generator = new CMSAuthEnvelopedDataGenerator();
+        generator.addRecipientInfoGenerator(new JceKeyTransRecipientInfoGenerator(encCert, rsaOaep).setProvider(BouncyCastleProvider.PROVIDER_NAME));
+        return generator.generate(
+            new CMSProcessableByteArray(document),
+            (OutputAEADEncryptor) new JceCMSContentEncryptorBuilder(CMSAlgorithm.AES256_GCM).setProvider(BouncyCastleProvider.PROVIDER_NAME).build()
+        ).getEncoded();
+    }
+
+    /**
+     * Decrypts the der encoded (Auth)EnvelopedData with the C.ENC key of the card.
+     */
+    public byte[] decrypt(byte[] encryptedDocument) throws Exception {
+        ContentInfo contentInfo = ContentInfo.getInstance(encryptedDocument);
+        boolean authEnveloped = CMSObjectIdentifiers.authEnvelopedData.equals(contentInfo.getContentType());
+        RecipientInformationStore recipientInformationStore = authEnveloped
+            ? new CMSAuthEnvelopedData(contentInfo).getRecipientInfos()
+            : new CMSEnvelopedData(contentInfo).getRecipientInfos();
+        RecipientInformation recipientInformation = recipientInformationStore.get(new JceKeyTransRecipientId(encCert));
+        if (recipientInformation == null) {
+            throw new IllegalStateException("the document is not encrypted for the card: " + cardHandle);
+        }
+        Recipient recipient = authEnveloped
+            ? new JceKeyTransAuthEnvelopedRecipient(encKeyPair.getPrivate()).setProvider(BouncyCastleProvider.PROVIDER_NAME)
+            : new JceKeyTransEnvelopedRecipient(encKeyPair.getPrivate()).setProvider(BouncyCastleProvider.PROVIDER_NAME);
+        return recipientInformation.getContent(recipient);
+    }
+
+    /**
+     * Verifies the der encoded SignedData: the signature of the first signer and its certificate, which has to be
+     * issued by the simulator ca and valid now.
+     */
+    public Verification verify(byte[] signedData) {
+        Verification verification = new Verification();
+        try {
+            CMSSignedData cmsSignedData = new CMSSignedData(signedData);
+            Collection<SignerInformation> signers = cmsSignedData.getSignerInfos().getSigners();
+            if (signers.isEmpty()) {
+                return verification;
+            }
+            SignerInformation signerInformation = signers.iterator().next();
+            Collection<X509CertificateHolder> certificateHolders = cmsSignedData.getCertificates().getMatches(signerInformation.getSID());
+            if (certificateHolders.isEmpty()) {
+                return verification;
+            }
+            verification.setFormatOk(true);
+
+            X509CertificateHolder certificateHolder = certificateHolders.iterator().next();
+            verification.setSignerCertificate(new JcaX509CertificateConverter().setProvider(BouncyCastleProvider.PROVIDER_NAME).getCertificate(certificateHolder));
+            verification.setSignatureAlgorithm(signerInformation.getEncryptionAlgOID());
+
+            AttributeTable attributeTable = signerInformation.getSignedAttributes();
+            Attribute signingTime = attributeTable == null ? null : attributeTable.get(CMSAttributes.signingTime);
+            if (signingTime != null) {
+                verification.setSigningTime(Time.getInstance(signingTime.getAttrValues().getObjectAt(0)).getDate());
+            }
+
+            try {
+                verification.setSignatureOk(signerInformation.verify(new JcaSimpleSignerInfoVerifierBuilder().setProvider(BouncyCastleProvider.PROVIDER_NAME).build(certificateHolder)));
+            } catch (CMSException e) {
+                log.warn("konnektor simulator - signature not valid", e);
+            }
+            try {
+                verification.setCertificateOk(
+                    certificateHolder.isValidOn(new Date())
+                    && certificateHolder.isSignatureValid(new JcaContentVerifierProviderBuilder().setProvider(BouncyCastleProvider.PROVIDER_NAME).build(caCert))
+                );
+            } catch (Exception e) {
+                log.warn("konnektor simulator - certificate not issued by the simulator ca", e);
+            }
+        } catch (Exception e) {
+            log.warn("konnektor simulator - signed data not parsable", e);
+        }
+        return verification;
+    }
+
+    @Data
+    public static class Verification {
+        private boolean formatOk;
+        private boolean signatureOk;
+        private boolean certificateOk;
+        private String signatureAlgorithm;
+        private Date signingTime;
+        private X509Certificate signerCertificate;
+
+        public boolean isValid() {
+            return formatOk && signatureOk && certificateOk;
+        }
+    }
+}
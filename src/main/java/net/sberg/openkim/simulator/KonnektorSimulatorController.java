@@ -0,0 +1,95 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.simulator;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+/**
+ * Service directory (connector.sds) of the konnektor simulator. The endpoints point to the {@link KonnektorSimulatorEndpoint}
+ * under spring.webservices.path of this server, as seen by the caller, for Endpoint and EndpointTLS.
+ */
+@RestController
+@Profile("simulator")
+@RequestMapping("/dev/simulator/konnektor")
+public class KonnektorSimulatorController {
+
+    //service name of the EnumKonnektorServiceBeanType, version
+    private static final String[][] SERVICES = {
+        {"EventService", "7.2.0"},
+        {"CardService", "8.1.2"},
+        {"CertificateService", "6.0.1"},
+        {"SignatureService", "7.5.5"},
+        {"EncryptionService", "6.1.1"}
+    };
+
+    @Value("${spring.webservices.path:/services}")
+    private String webServicesPath;
+
+    @GetMapping(value = "/connector.sds", produces = MediaType.APPLICATION_XML_VALUE)
+    public String getServiceDirectory() {
+        String location = ServletUriComponentsBuilder.fromCurrentContextPath().path(webServicesPath).toUriString();
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<ns2:ConnectorServices xmlns=\"http://ws.gematik.de/int/version/ProductInformation/v1.1\"")
+            .append(" xmlns:ns2=\"http://ws.gematik.de/conn/ServiceDirectory/v3.1\"")
+            .append(" xmlns:ns3=\"http://ws.gematik.de/conn/ServiceInformation/v2.0\">\n");
+        sb.append("    <ProductInformation>\n");
+        sb.append("        <ProductTypeInformation>\n");
+        sb.append("            <ProductType>Konnektor</ProductType>\n");
+        sb.append("            <ProductTypeVersion>5.0.0</ProductTypeVersion>\n");
+        sb.append("        </ProductTypeInformation>\n");
+        sb.append("        <ProductIdentification>\n");
+        sb.append("            <ProductVendorID>OPENKIM</ProductVendorID>\n");
+        sb.append("            <ProductCode>simulator</ProductCode>\n");
+        sb.append("            <ProductVersion>\n");
+        sb.append("                <Local>\n");
+        sb.append("                    <HWVersion>1.0.0</HWVersion>\n");
+        sb.append("                    <FWVersion>1.0.0</FWVersion>\n");
+        sb.append("                </Local>\n");
+        sb.append("            </ProductVersion>\n");
+        sb.append("        </ProductIdentification>\n");
+        sb.append("        <ProductMiscellaneous>\n");
+        sb.append("            <ProductVendorName>OpenKIM</ProductVendorName>\n");
+        sb.append("            <ProductName>OpenKIM Konnektor Simulator</ProductName>\n");
+        sb.append("        </ProductMiscellaneous>\n");
+        sb.append("    </ProductInformation>\n");
+        sb.append("    <ns2:TLSMandatory>false</ns2:TLSMandatory>\n");
+        sb.append("    <ns2:ClientAutMandatory>false</ns2:ClientAutMandatory>\n");
+        sb.append("    <ns3:ServiceInformation>\n");
+        for (int i = 0; i < SERVICES.length; i++) {
+            String serviceLocation = location + "/" + SERVICES[i][0].toLowerCase();
+            sb.append("        <ns3:Service Name=\"").append(SERVICES[i][0]).append("\">\n");
+            sb.append("            <ns3:Versions>\n");
+            sb.append("                <ns3:Version Version=\"").append(SERVICES[i][1]).append("\">\n");
+            sb.append("                    <ns3:Endpoint Location=\"").append(serviceLocation).append("\"/>\n");
+            sb.append("                    <ns3:EndpointTLS Location=\"").append(serviceLocation).append("\"/>\n");
+            sb.append("                </ns3:Version>\n");
+            sb.append("            </ns3:Versions>\n");
+            sb.append("        </ns3:Service>\n");
+        }
+        sb.append("    </ns3:ServiceInformation>\n");
+        sb.append("</ns2:ConnectorServices>\n");
+        return sb.toString();
+    }
+}
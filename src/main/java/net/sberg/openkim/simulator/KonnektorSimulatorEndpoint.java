@@ -0,0 +1,423 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.simulator;
+
+import de.gematik.ws.conn.cardservice.v8.CardInfoType;
+import de.gematik.ws.conn.cardservice.v8.Cards;
+import de.gematik.ws.conn.cardservice.v8.GetPinStatus;
+import de.gematik.ws.conn.cardservice.v8.GetPinStatusResponse;
+import de.gematik.ws.conn.cardservice.v8.PinStatusEnum;
+import de.gematik.ws.conn.cardservicecommon.v2.CardTypeType;
+import de.gematik.ws.conn.certificateservice.v6.ReadCardCertificate;
+import de.gematik.ws.conn.certificateservice.v6.ReadCardCertificateResponse;
+import de.gematik.ws.conn.certificateservicecommon.v2.CertRefEnum;
+import de.gematik.ws.conn.certificateservicecommon.v2.X509DataInfoListType;
+import de.gematik.ws.conn.connectorcommon.v5.Connector;
+import de.gematik.ws.conn.connectorcommon.v5.DocumentType;
+import de.gematik.ws.conn.connectorcommon.v5.Status;
+import de.gematik.ws.conn.encryptionservice.v6.DecryptDocument;
+import de.gematik.ws.conn.encryptionservice.v6.DecryptDocumentResponse;
+import de.gematik.ws.conn.encryptionservice.v6.EncryptDocument;
+import de.gematik.ws.conn.encryptionservice.v6.EncryptDocumentResponse;
+import de.gematik.ws.conn.eventservice.v7.GetCards;
+import de.gematik.ws.conn.eventservice.v7.GetCardsResponse;
+import de.gematik.ws.conn.eventservice.v7.GetResourceInformation;
+import de.gematik.ws.conn.eventservice.v7.GetResourceInformationResponse;
+import de.gematik.ws.conn.signatureservice.v7.GetJobNumber;
+import de.gematik.ws.conn.signatureservice.v7.GetJobNumberResponse;
+import de.gematik.ws.conn.signatureservice.v7.SignDocument;
+import de.gematik.ws.conn.signatureservice.v7.SignDocumentResponse;
+import de.gematik.ws.conn.signatureservice.v7.SignRequest;
+import de.gematik.ws.conn.signatureservice.v7.SignResponse;
+import de.gematik.ws.conn.signatureservice.v7.VerifyDocument;
+import de.gematik.ws.conn.signatureservice.v7.VerifyDocumentResponse;
+import net.sberg.openkim.common.x509.IssuerAndSerial;
+import net.sberg.openkim.common.x509.X509CertificateCache;
+import net.sberg.openkim.konnektor.CMSAttribute;
+import net.sberg.openkim.konnektor.KonnektorWebserviceUtils;
+import oasis.names.tc.dss._1_0.core.schema.AnyType;
+import oasis.names.tc.dss._1_0.core.schema.Base64Data;
+import oasis.names.tc.dss._1_0.core.schema.Base64Signature;
+import oasis.names.tc.dss._1_0.core.schema.Property;
+import oasis.names.tc.dss._1_0.core.schema.Result;
+import oasis.names.tc.dss._1_0.core.schema.SignatureObject;
+import oasis.names.tc.dss_x._1_0.profiles.verificationreport.schema_.*;
+import org.apache.commons.codec.binary.Base64;
+import org.bouncycastle.asn1.cms.Attribute;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.ws.server.endpoint.annotation.Endpoint;
+import org.springframework.ws.server.endpoint.annotation.PayloadRoot;
+import org.springframework.ws.server.endpoint.annotation.RequestPayload;
+import org.springframework.ws.server.endpoint.annotation.ResponsePayload;
+import org.w3._2000._09.xmldsig_.X509IssuerSerialType;
+import org.w3c.dom.Element;
+
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.datatype.XMLGregorianCalendar;
+import java.math.BigInteger;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * SOAP endpoints of the konnektor simulator for the operations of the mail pipeline, served by the spring-ws
+ * MessageDispatcherServlet under spring.webservices.path. The service versions are the ones of the generated
+ * gematik classes and are announced in the connector.sds of the {@link KonnektorSimulatorController}.
+ * Documents are exchanged as base64 in the SOAP body, MTOM/XOP is not supported.
+ */
+@Endpoint
+@Profile("simulator")
+public class KonnektorSimulatorEndpoint {
+
+    public static final String EVENT_SERVICE_NAMESPACE = "http://ws.gematik.de/conn/EventService/v7.2";
+    public static final String CARD_SERVICE_NAMESPACE = "http://ws.gematik.de/conn/CardService/v8.1";
+    public static final String CERTIFICATE_SERVICE_NAMESPACE = "http://ws.gematik.de/conn/CertificateService/v6.0";
+    public static final String SIGNATURE_SERVICE_NAMESPACE = "http://ws.gematik.de/conn/SignatureService/v7.5";
+    public static final String ENCRYPTION_SERVICE_NAMESPACE = "http://ws.gematik.de/conn/EncryptionService/v6.1";
+
+    public static final String SIGNATURE_TYPE_CMS = "urn:ietf:rfc:5652";
+    private static final String RESULT_MAJOR_SUCCESS = "urn:oasis:names:tc:dss:1.0:resultmajor:Success";
+    private static final String RESULT_VALID = "urn:oasis:names:tc:dss:1.0:detail:valid";
+    private static final String RESULT_INVALID = "urn:oasis:names:tc:dss:1.0:detail:invalid";
+
+    @Autowired
+    private KonnektorSimulator konnektorSimulator;
+    @Autowired
+    private SimulatorFaultInjector simulatorFaultInjector;
+
+    @PayloadRoot(namespace = EVENT_SERVICE_NAMESPACE, localPart = "GetCards")
+    @ResponsePayload
+    public GetCardsResponse getCards(@RequestPayload GetCards request) throws Exception {
+        injectFault();
+        Cards cards = new Cards();
+        if ((request.getCardType() == null || request.getCardType().value().equals(KonnektorWebserviceUtils.CARD_TYPE_SMCB))
+            && (request.getCtId() == null || request.getCtId().equals(konnektorSimulator.getCtId()))
+            && (request.getSlotId() == null || request.getSlotId().intValue() == konnektorSimulator.getSlotId())
+        ) {
+            cards.getCard().add(createCardInfo());
+        }
+        GetCardsResponse response = new GetCardsResponse();
+        response.setStatus(createStatusOk());
+        response.setCards(cards);
+        return response;
+    }
+
+    @PayloadRoot(namespace = EVENT_SERVICE_NAMESPACE, localPart = "GetResourceInformation")
+    @ResponsePayload
+    public GetResourceInformationResponse getResourceInformation(@RequestPayload GetResourceInformation request) throws Exception {
+        injectFault();
+        Connector.VPNTIStatus vpnTiStatus = new Connector.VPNTIStatus();
+        vpnTiStatus.setConnectionStatus("Online");
+        vpnTiStatus.setTimestamp(toXmlDate(new Date()));
+        Connector.VPNSISStatus vpnSisStatus = new Connector.VPNSISStatus();
+        vpnSisStatus.setConnectionStatus("Online");
+        vpnSisStatus.setTimestamp(toXmlDate(new Date()));
+        Connector connector = new Connector();
+        connector.setVPNTIStatus(vpnTiStatus);
+        connector.setVPNSISStatus(vpnSisStatus);
+        connector.setOperatingState(new Connector.OperatingState());
+
+        GetResourceInformationResponse response = new GetResourceInformationResponse();
+        response.setStatus(createStatusOk());
+        response.setConnector(connector);
+        if (konnektorSimulator.isCardHandle(request.getCardHandle())) {
+            response.setCard(createCardInfo());
+        }
+        return response;
+    }
+
+    @PayloadRoot(namespace = CARD_SERVICE_NAMESPACE, localPart = "GetPinStatus")
+    @ResponsePayload
+    public GetPinStatusResponse getPinStatus(@RequestPayload GetPinStatus request) throws Exception {
+        injectFault();
+        checkCardHandle(request.getCardHandle());
+        GetPinStatusResponse response = new GetPinStatusResponse();
+        response.setStatus(createStatusOk());
+        response.setPinStatus(PinStatusEnum.VERIFIED);
+        response.setLeftTries(BigInteger.valueOf(3));
+        return response;
+    }
+
+    @PayloadRoot(namespace = CERTIFICATE_SERVICE_NAMESPACE, localPart = "ReadCardCertificate")
+    @ResponsePayload
+    public ReadCardCertificateResponse readCardCertificate(@RequestPayload ReadCardCertificate request) throws Exception {
+        injectFault();
+        checkCardHandle(request.getCardHandle());
+        X509DataInfoListType x509DataInfoList = new X509DataInfoListType();
+        for (Iterator<CertRefEnum> iterator = request.getCertRefList().getCertRef().iterator(); iterator.hasNext(); ) {
+            CertRefEnum certRef = iterator.next();
+            X509Certificate certificate = konnektorSimulator.getCertificate(certRef.value());
+            if (certificate == null) {
+                throw new IllegalStateException("the simulated card has no certificate: " + certRef.value());
+            }
+            //issuer and serial in the format of the certificate matching of the mail pipeline
+            IssuerAndSerial issuerAndSerial = X509CertificateCache.get(certificate.getEncoded()).getIssuerAndSerial();
+            X509DataInfoListType.X509DataInfo.X509Data.X509IssuerSerial x509IssuerSerial = new X509DataInfoListType.X509DataInfo.X509Data.X509IssuerSerial();
+            x509IssuerSerial.setX509IssuerName(issuerAndSerial.getIssuer());
+            x509IssuerSerial.setX509SerialNumber(issuerAndSerial.getSerialNumber());
+
+            X509DataInfoListType.X509DataInfo.X509Data x509Data = new X509DataInfoListType.X509DataInfo.X509Data();
+            x509Data.setX509IssuerSerial(x509IssuerSerial);
+            x509Data.setX509SubjectName(certificate.getSubjectX500Principal().getName());
+            x509Data.setX509Certificate(certificate.getEncoded());
+
+            X509DataInfoListType.X509DataInfo x509DataInfo = new X509DataInfoListType.X509DataInfo();
+            x509DataInfo.setCertRef(certRef);
+            x509DataInfo.setX509Data(x509Data);
+            x509DataInfoList.getX509DataInfo().add(x509DataInfo);
+        }
+        ReadCardCertificateResponse response = new ReadCardCertificateResponse();
+        response.setStatus(createStatusOk());
+        response.setX509DataInfoList(x509DataInfoList);
+        return response;
+    }
+
+    @PayloadRoot(namespace = SIGNATURE_SERVICE_NAMESPACE, localPart = "GetJobNumber")
+    @ResponsePayload
+    public GetJobNumberResponse getJobNumber(@RequestPayload GetJobNumber request) throws Exception {
+        injectFault();
+        GetJobNumberResponse response = new GetJobNumberResponse();
+        response.setJobNumber(konnektorSimulator.nextJobNumber());
+        return response;
+    }
+
+    @PayloadRoot(namespace = SIGNATURE_SERVICE_NAMESPACE, localPart = "SignDocument")
+    @ResponsePayload
+    public SignDocumentResponse signDocument(@RequestPayload SignDocument request) throws Exception {
+        injectFault();
+        checkCardHandle(request.getCardHandle());
+        SignDocumentResponse response = new SignDocumentResponse();
+        for (Iterator<SignRequest> iterator = request.getSignRequest().iterator(); iterator.hasNext(); ) {
+            SignRequest signRequest = iterator.next();
+            byte[] signedData = konnektorSimulator.sign(signRequest.getDocument().getBase64Data().getValue(), extractSignedAttributes(signRequest));
+
+            Base64Signature base64Signature = new Base64Signature();
+            base64Signature.setType(SIGNATURE_TYPE_CMS);
+            base64Signature.setValue(signedData);
+            SignatureObject signatureObject = new SignatureObject();
+            signatureObject.setBase64Signature(base64Signature);
+
+            SignResponse signResponse = new SignResponse();
+            signResponse.setRequestID(signRequest.getRequestID());
+            signResponse.setStatus(createStatusOk());
+            signResponse.setSignatureObject(signatureObject);
+            response.getSignResponse().add(signResponse);
+        }
+        return response;
+    }
+
+    /**
+     * The signed properties of the sign request (e.g. the RecipientEmailsAttribute) carry a CMSAttribute with the
+     * base64 encoded cms attribute. Without the openkim classes in the jaxb context the content arrives as dom element.
+     */
+    private List<Attribute> extractSignedAttributes(SignRequest signRequest) {
+        List<Attribute> attributes = new ArrayList<>();
+        if (signRequest.getOptionalInputs() == null
+            || signRequest.getOptionalInputs().getProperties() == null
+            || signRequest.getOptionalInputs().getProperties().getSignedProperties() == null) {
+            return attributes;
+        }
+        for (Iterator<Property> iterator = signRequest.getOptionalInputs().getProperties().getSignedProperties().getProperty().iterator(); iterator.hasNext(); ) {
+            Property property = iterator.next();
+            if (property.getValue() == null) {
+                continue;
+            }
+            for (Iterator<Object> valueIterator = property.getValue().getAny().iterator(); valueIterator.hasNext(); ) {
+                Object value = valueIterator.next();
+                String content = null;
+                if (value instanceof CMSAttribute) {
+                    content = ((CMSAttribute) value).getContent();
+                } else if (value instanceof Element) {
+                    content = ((Element) value).getTextContent();
+                }
+                if (content != null && !content.trim().isEmpty()) {
+                    attributes.add(Attribute.getInstance(Base64.decodeBase64(content.trim())));
+                }
+            }
+        }
+        return attributes;
+    }
+
+    @PayloadRoot(namespace = SIGNATURE_SERVICE_NAMESPACE, localPart = "VerifyDocument")
+    @ResponsePayload
+    public VerifyDocumentResponse verifyDocument(@RequestPayload VerifyDocument request) throws Exception {
+        injectFault();
+        KonnektorSimulator.Verification verification = konnektorSimulator.verify(request.getSignatureObject().getBase64Signature().getValue());
+
+        de.gematik.ws.conn.signatureservice.v7.VerificationResultType verificationResult = new de.gematik.ws.conn.signatureservice.v7.VerificationResultType();
+        verificationResult.setHighLevelResult(verification.isValid() ? "VALID" : "INVALID");
+
+        VerifyDocumentResponse.OptionalOutputs optionalOutputs = new VerifyDocumentResponse.OptionalOutputs();
+        optionalOutputs.setVerificationReport(createVerificationReport(verification));
+
+        VerifyDocumentResponse response = new VerifyDocumentResponse();
+        response.setStatus(createStatusOk());
+        response.setVerificationResult(verificationResult);
+        response.setOptionalOutputs(optionalOutputs);
+        return response;
+    }
+
+    /**
+     * Verification report with the parts read by the SignReportService: time info, signing time and the detailed
+     * signature report with format, signature and certificate path of the signer certificate.
+     */
+    private VerificationReportType createVerificationReport(KonnektorSimulator.Verification verification) throws Exception {
+        DetailedSignatureReportType detailedSignatureReport = new DetailedSignatureReportType();
+        detailedSignatureReport.setFormatOK(createVerificationResult(verification.isFormatOk()));
+        detailedSignatureReport.setSignatureOK(createSignatureValidity(verification.isSignatureOk(), verification.getSignatureAlgorithm()));
+
+        if (verification.getSignerCertificate() != null) {
+            X509Certificate signerCertificate = verification.getSignerCertificate();
+            IssuerAndSerial issuerAndSerial = X509CertificateCache.get(signerCertificate.getEncoded()).getIssuerAndSerial();
+            X509IssuerSerialType certificateIdentifier = new X509IssuerSerialType();
+            certificateIdentifier.setX509IssuerName(issuerAndSerial.getIssuer());
+            certificateIdentifier.setX509SerialNumber(new BigInteger(issuerAndSerial.getSerialNumber()));
+
+            CertificateValidityType certificateValidity = new CertificateValidityType();
+            certificateValidity.setCertificateIdentifier(certificateIdentifier);
+            certificateValidity.setSubject(signerCertificate.getSubjectX500Principal().getName());
+            certificateValidity.setChainingOK(createVerificationResult(verification.isCertificateOk()));
+            certificateValidity.setValidityPeriodOK(createVerificationResult(verification.isCertificateOk()));
+            certificateValidity.setExtensionsOK(createVerificationResult(true));
+            certificateValidity.setSignatureOK(createSignatureValidity(verification.isCertificateOk(), signerCertificate.getSigAlgOID()));
+            certificateValidity.setCertificateValue(signerCertificate.getEncoded());
+
+            CertificatePathValidityVerificationDetailType pathValidityDetail = new CertificatePathValidityVerificationDetailType();
+            pathValidityDetail.getCertificateValidity().add(certificateValidity);
+
+            CertificatePathValidityType certificatePathValidity = new CertificatePathValidityType();
+            certificatePathValidity.setPathValiditySummary(createVerificationResult(verification.isCertificateOk()));
+            certificatePathValidity.setCertificateIdentifier(certificateIdentifier);
+            certificatePathValidity.setPathValidityDetail(pathValidityDetail);
+            detailedSignatureReport.setCertificatePathValidity(certificatePathValidity);
+        }
+
+        AnyType details = new AnyType();
+        details.getAny().add(new ObjectFactory().createDetailedSignatureReport(detailedSignatureReport));
+
+        SignedSignaturePropertiesType signedSignatureProperties = new SignedSignaturePropertiesType();
+        signedSignatureProperties.setSigningTime(toXmlDate(verification.getSigningTime() != null ? verification.getSigningTime() : new Date()));
+        SignedPropertiesType signedProperties = new SignedPropertiesType();
+        signedProperties.setSignedSignatureProperties(signedSignatureProperties);
+        SignedObjectIdentifierType signedObjectIdentifier = new SignedObjectIdentifierType();
+        signedObjectIdentifier.setSignedProperties(signedProperties);
+
+        Result result = new Result();
+        result.setResultMajor(RESULT_MAJOR_SUCCESS);
+
+        IndividualReportType individualReport = new IndividualReportType();
+        individualReport.setSignedObjectIdentifier(signedObjectIdentifier);
+        individualReport.setResult(result);
+        individualReport.setDetails(details);
+
+        VerificationTimeInfoType verificationTimeInfo = new VerificationTimeInfoType();
+        verificationTimeInfo.setVerificationTime(toXmlDate(new Date()));
+
+        VerificationReportType verificationReport = new VerificationReportType();
+        verificationReport.setVerificationTimeInfo(verificationTimeInfo);
+        verificationReport.getIndividualReport().add(individualReport);
+        return verificationReport;
+    }
+
+    private VerificationResultType createVerificationResult(boolean valid) {
+        VerificationResultType verificationResult = new VerificationResultType();
+        verificationResult.setResultMajor(valid ? RESULT_VALID : RESULT_INVALID);
+        return verificationResult;
+    }
+
+    private SignatureValidityType createSignatureValidity(boolean valid, String algorithmOid) {
+        AlgorithmValidityType algorithmValidity = new AlgorithmValidityType();
+        algorithmValidity.setAlgorithm("urn:oid:" + algorithmOid);
+        SignatureValidityType signatureValidity = new SignatureValidityType();
+        signatureValidity.setSigMathOK(createVerificationResult(valid));
+        signatureValidity.setSignatureAlgorithm(algorithmValidity);
+        return signatureValidity;
+    }
+
+    @PayloadRoot(namespace = ENCRYPTION_SERVICE_NAMESPACE, localPart = "EncryptDocument")
+    @ResponsePayload
+    public EncryptDocumentResponse encryptDocument(@RequestPayload EncryptDocument request) throws Exception {
+        injectFault();
+        checkCardHandle(request.getRecipientKeys().getCertificateOnCard().getCardHandle());
+        EncryptDocumentResponse response = new EncryptDocumentResponse();
+        response.setStatus(createStatusOk());
+        response.setDocument(createDocument(konnektorSimulator.encrypt(request.getDocument().getBase64Data().getValue())));
+        return response;
+    }
+
+    @PayloadRoot(namespace = ENCRYPTION_SERVICE_NAMESPACE, localPart = "DecryptDocument")
+    @ResponsePayload
+    public DecryptDocumentResponse decryptDocument(@RequestPayload DecryptDocument request) throws Exception {
+        injectFault();
+        checkCardHandle(request.getPrivateKeyOnCard().getCardHandle());
+        DecryptDocumentResponse response = new DecryptDocumentResponse();
+        response.setStatus(createStatusOk());
+        response.setDocument(createDocument(konnektorSimulator.decrypt(request.getDocument().getBase64Data().getValue())));
+        return response;
+    }
+
+    private CardInfoType createCardInfo() throws Exception {
+        CardInfoType cardInfo = new CardInfoType();
+        cardInfo.setCardHandle(konnektorSimulator.getCardHandle());
+        cardInfo.setCardType(CardTypeType.fromValue(KonnektorWebserviceUtils.CARD_TYPE_SMCB));
+        cardInfo.setIccsn(konnektorSimulator.getIccsn());
+        cardInfo.setCtId(konnektorSimulator.getCtId());
+        cardInfo.setSlotId(BigInteger.valueOf(konnektorSimulator.getSlotId()));
+        cardInfo.setInsertTime(toXmlDate(new Date()));
+        cardInfo.setCertificateExpirationDate(toXmlDate(konnektorSimulator.getCertificate(KonnektorWebserviceUtils.CERT_REF_ENC).getNotAfter()));
+        return cardInfo;
+    }
+
+    private DocumentType createDocument(byte[] value) {
+        Base64Data base64Data = new Base64Data();
+        base64Data.setValue(value);
+        DocumentType document = new DocumentType();
+        document.setBase64Data(base64Data);
+        return document;
+    }
+
+    private Status createStatusOk() {
+        Status status = new Status();
+        status.setResult(KonnektorWebserviceUtils.STATUS_OK);
+        return status;
+    }
+
+    private XMLGregorianCalendar toXmlDate(Date date) throws Exception {
+        GregorianCalendar calendar = new GregorianCalendar();
+        calendar.setTime(date);
+        return DatatypeFactory.newInstance().newXMLGregorianCalendar(calendar);
+    }
+
+    private void checkCardHandle(String cardHandle) {
+        if (!konnektorSimulator.isCardHandle(cardHandle)) {
+            throw new IllegalStateException("unknown card handle: " + cardHandle);
+        }
+    }
+
+    /**
+     * A simulated error is answered with a SOAP fault, like a konnektor rejecting the call.
+     */
+    private void injectFault() {
+        if (simulatorFaultInjector.inject()) {
+            throw new IllegalStateException("simulated error");
+        }
+    }
+}
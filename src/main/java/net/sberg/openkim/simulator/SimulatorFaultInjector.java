@@ -0,0 +1,58 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.simulator;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Artificial latency and error rate of the simulated services, configured in the simulator section of the application.yml.
+ */
+@Component
+@Profile("simulator")
+public class SimulatorFaultInjector {
+
+    @Value("${simulator.latencyInMs:0}")
+    private int latencyInMs;
+    @Value("${simulator.latencyJitterInMs:0}")
+    private int latencyJitterInMs;
+    @Value("${simulator.errorRatePercent:0}")
+    private int errorRatePercent;
+
+    /**
+     * Delays the calling thread by the configured latency.
+     *
+     * @return true if the call should fail
+     */
+    public boolean inject() {
+        long delay = latencyInMs;
+        if (latencyJitterInMs > 0) {
+            delay += ThreadLocalRandom.current().nextInt(latencyJitterInMs + 1);
+        }
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return errorRatePercent > 0 && ThreadLocalRandom.current().nextInt(100) < errorRatePercent;
+    }
+}
@@ -337,9 +337,19 @@ function konfigSpeichern() {
     $(".spinner-border").attr("style", "");
     const fData = $("#konfigForm").serializeFiles();
     fData.append('logPersonalInformations', $("#logPersonalInformations").is(':checked'));
+    fData.append('gatewayNativeTransportEnabled', $("#gatewayNativeTransportEnabled").is(':checked'));
+    fData.append('gatewayOpenSslEnabled', $("#gatewayOpenSslEnabled").is(':checked'));
     fData.append('logKonnektorExecute', $("#logKonnektorExecute").is(':checked'));
     fData.append('writeSmtpCmdLogFile', $("#writeSmtpCmdLogFile").is(':checked'));
     fData.append('writePop3CmdLogFile', $("#writePop3CmdLogFile").is(':checked'));
+    fData.append('smtpVzdPrefetchEnabled', $("#smtpVzdPrefetchEnabled").is(':checked'));
+    fData.append('smtpClientPoolEnabled', $("#smtpClientPoolEnabled").is(':checked'));
+    fData.append('smtpSpoolEnabled', $("#smtpSpoolEnabled").is(':checked'));
+    fData.append('circuitBreakerEnabled', $("#circuitBreakerEnabled").is(':checked'));
+    fData.append('dnsCacheEnabled', $("#dnsCacheEnabled").is(':checked'));
+    fData.append('pop3MessageCacheEnabled', $("#pop3MessageCacheEnabled").is(':checked'));
+    fData.append('pop3DecryptTopEnabled', $("#pop3DecryptTopEnabled").is(':checked'));
+    fData.append('pop3PrefetchEnabled', $("#pop3PrefetchEnabled").is(':checked'));
 
     $.ajax({
         type: "POST",
@@ -438,6 +448,8 @@ function konnektorSpeichern() {
     $(".spinner-border").attr("style", "");
     const fData = $("#konnektorForm").serializeFiles();
     fData.append('activated', $("#activated").is(':checked'));
+    fData.append('localEncryptionEnabled', $("#localEncryptionEnabled").is(':checked'));
+    fData.append('mtomEnabled', $("#mtomEnabled").is(':checked'));
 
     $.ajax({
         type: "POST",
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.common.x509;
+
+import net.sberg.openkim.konnektor.Konnektor;
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.DERIA5String;
+import org.bouncycastle.asn1.cms.Attribute;
+import org.bouncycastle.asn1.cms.AuthEnvelopedData;
+import org.bouncycastle.asn1.cms.CMSObjectIdentifiers;
+import org.bouncycastle.asn1.cms.ContentInfo;
+import org.bouncycastle.asn1.cms.EnvelopedData;
+import org.bouncycastle.asn1.cms.IssuerAndSerialNumber;
+import org.bouncycastle.asn1.nist.NISTObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.RSAESOAEPparams;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.cms.CMSAlgorithm;
+import org.bouncycastle.cms.CMSAuthEnvelopedData;
+import org.bouncycastle.cms.CMSEnvelopedData;
+import org.bouncycastle.cms.KeyAgreeRecipientInformation;
+import org.bouncycastle.cms.KeyTransRecipientInformation;
+import org.bouncycastle.cms.RecipientInformation;
+import org.bouncycastle.cms.jcajce.JceKeyAgreeAuthEnvelopedRecipient;
+import org.bouncycastle.cms.jcajce.JceKeyAgreeRecipientId;
+import org.bouncycastle.cms.jcajce.JceKeyTransAuthEnvelopedRecipient;
+import org.bouncycastle.cms.jcajce.JceKeyTransRecipientId;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Round trip of the local encryption with a rsa and a brainpoolP256r1 certificate of a test ca, decrypted with bouncycastle
+ * and checked like the receiving side does (CheckEncryptedMailFormatOperation, GetDecryptCardHandleOperation).
+ */
+public class CMSUtilsTest {
+
+    private static final String RECIPIENT_EMAILS_OID = "1.2.276.0.76.4.173";
+    private static final String RSA_MAIL_ADDRESS = "praxis-rsa@kim.telematik-test";
+    private static final String ECC_MAIL_ADDRESS = "praxis-ecc@kim.telematik-test";
+    private static final byte[] SIGNED_MSG = "signed mail\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static KeyPair caKeyPair;
+    private static KeyPair rsaKeyPair;
+    private static KeyPair eccKeyPair;
+    private static X509Certificate rsaCert;
+    private static X509Certificate eccCert;
+
+    private Konnektor konnektor;
+
+    @BeforeAll
+    public static void setUpPki() throws Exception {
+        //as in AppConfig
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+            Security.insertProviderAt(new BouncyCastleProvider(), 1);
+        }
+        caKeyPair = createKeyPair(false);
+        rsaKeyPair = createKeyPair(false);
+        eccKeyPair = createKeyPair(true);
+        rsaCert = createCertificate("CN=praxis rsa", rsaKeyPair, 2);
+        eccCert = createCertificate("CN=praxis ecc", eccKeyPair, 3);
+    }
+
+    @BeforeEach
+    public void setUp() {
+        konnektor = new Konnektor();
+        konnektor.setEccEncryptionAvailable(true);
+    }
+
+    private static KeyPair createKeyPair(boolean brainpool) throws Exception {
+        if (brainpool) {
+            KeyPairGenerator kg = KeyPairGenerator.getInstance("EC", "BC");
+            kg.initialize(new ECGenParameterSpec("brainpoolP256r1"));
+            return kg.generateKeyPair();
+        }
+        KeyPairGenerator kg = KeyPairGenerator.getInstance("RSA", "BC");
+        kg.initialize(2048);
+        return kg.generateKeyPair();
+    }
+
+    private static X509Certificate createCertificate(String subject, KeyPair keyPair, long serialNumber) throws Exception {
+        Instant now = Instant.now();
+        JcaX509v3CertificateBuilder certificateBuilder = new JcaX509v3CertificateBuilder(
+            new X500Name("CN=test ca"),
+            BigInteger.valueOf(serialNumber),
+            Date.from(now.minus(Duration.ofMinutes(1))),
+            Date.from(now.plus(Duration.ofDays(1))),
+            new X500Name(subject),
+            keyPair.getPublic());
+        return new JcaX509CertificateConverter().setProvider(BouncyCastleProvider.PROVIDER_NAME)
+            .getCertificate(certificateBuilder.build(new JcaContentSignerBuilder("SHA256withRSA").build(caKeyPair.getPrivate())));
+    }
+
+    private static X509CertificateResult createRecipient(String mailAddress, X509Certificate... certs) throws Exception {
+        X509CertificateResult x509CertificateResult = new X509CertificateResult();
+        x509CertificateResult.setMailAddress(mailAddress);
+        for (int i = 0; i < certs.length; i++) {
+            x509CertificateResult.getCerts().add(certs[i].getEncoded());
+        }
+        //as in LoadVzdCertsOperation
+        return CMSUtils.filterRsaCerts(x509CertificateResult);
+    }
+
+    private static List<X509CertificateResult> createRecipients() throws Exception {
+        List<X509CertificateResult> recipients = new ArrayList<>();
+        recipients.add(createRecipient(RSA_MAIL_ADDRESS, rsaCert));
+        recipients.add(createRecipient(ECC_MAIL_ADDRESS, eccCert));
+        return recipients;
+    }
+
+    private static void assertIssuerAndSerial(X509Certificate cert, List<IssuerAndSerial> issuerAndSerials) throws Exception {
+        assertEquals(1, issuerAndSerials.size());
+        //as the card certificates are matched
+        assertEquals(X509CertificateCache.get(cert.getEncoded()).getIssuerAndSerial(), issuerAndSerials.get(0));
+    }
+
+    @Test
+    public void rsaRecipient() throws Exception {
+        CMSAuthEnvelopedData cmsAuthEnvelopedData = new CMSAuthEnvelopedData(CMSUtils.encryptAuthEnveloped(SIGNED_MSG, createRecipients(), konnektor));
+        assertEquals(CMSAlgorithm.AES256_GCM, cmsAuthEnvelopedData.getContentEncryptionAlgorithm().getAlgorithm());
+
+        RecipientInformation recipientInformation = cmsAuthEnvelopedData.getRecipientInfos().get(new JceKeyTransRecipientId(rsaCert));
+        assertTrue(recipientInformation instanceof KeyTransRecipientInformation);
+
+        //RSA-OAEP with SHA-256 and MGF1 SHA-256
+        AlgorithmIdentifier keyEncryptionAlgorithm = recipientInformation.getKeyEncryptionAlgorithm();
+        assertEquals(PKCSObjectIdentifiers.id_RSAES_OAEP, keyEncryptionAlgorithm.getAlgorithm());
+        RSAESOAEPparams oaepParams = RSAESOAEPparams.getInstance(keyEncryptionAlgorithm.getParameters());
+        assertEquals(NISTObjectIdentifiers.id_sha256, oaepParams.getHashAlgorithm().getAlgorithm());
+        assertEquals(PKCSObjectIdentifiers.id_mgf1, oaepParams.getMaskGenAlgorithm().getAlgorithm());
+        assertEquals(NISTObjectIdentifiers.id_sha256, AlgorithmIdentifier.getInstance(oaepParams.getMaskGenAlgorithm().getParameters()).getAlgorithm());
+
+        byte[] content = recipientInformation.getContent(new JceKeyTransAuthEnvelopedRecipient(rsaKeyPair.getPrivate()).setProvider("BC"));
+        assertArrayEquals(SIGNED_MSG, content);
+    }
+
+    @Test
+    public void brainpoolRecipient() throws Exception {
+        CMSAuthEnvelopedData cmsAuthEnvelopedData = new CMSAuthEnvelopedData(CMSUtils.encryptAuthEnveloped(SIGNED_MSG, createRecipients(), konnektor));
+
+        RecipientInformation recipientInformation = cmsAuthEnvelopedData.getRecipientInfos().get(new JceKeyAgreeRecipientId(eccCert));
+        assertTrue(recipientInformation instanceof KeyAgreeRecipientInformation);
+
+        //ephemeral-static ECDH with the X9.63 KDF SHA-256 and AES-256 key wrap
+        AlgorithmIdentifier keyEncryptionAlgorithm = recipientInformation.getKeyEncryptionAlgorithm();
+        assertEquals(CMSAlgorithm.ECDH_SHA256KDF, keyEncryptionAlgorithm.getAlgorithm());
+        assertEquals(CMSAlgorithm.AES256_WRAP, AlgorithmIdentifier.getInstance(keyEncryptionAlgorithm.getParameters()).getAlgorithm());
+
+        byte[] content = recipientInformation.getContent(new JceKeyAgreeAuthEnvelopedRecipient(eccKeyPair.getPrivate()).setProvider("BC"));
+        assertArrayEquals(SIGNED_MSG, content);
+    }
+
+    @Test
+    public void recipientEmails() throws Exception {
+        byte[] encrypted = CMSUtils.encryptAuthEnveloped(SIGNED_MSG, createRecipients(), konnektor);
+
+        CMSAuthEnvelopedData cmsAuthEnvelopedData = new CMSAuthEnvelopedData(encrypted);
+        Attribute attribute = cmsAuthEnvelopedData.getUnauthAttrs().get(new ASN1ObjectIdentifier(RECIPIENT_EMAILS_OID));
+        assertNotNull(attribute);
+        ASN1Encodable[] values = attribute.getAttributeValues();
+        assertEquals(2, values.length);
+        List<String> mailAddresses = new ArrayList<>();
+        for (int i = 0; i < values.length; i++) {
+            ASN1Sequence recipientEmail = ASN1Sequence.getInstance(values[i]);
+            assertEquals(2, recipientEmail.size());
+            mailAddresses.add(DERIA5String.getInstance(recipientEmail.getObjectAt(0)).getString());
+            assertNotNull(IssuerAndSerialNumber.getInstance(recipientEmail.getObjectAt(1)).getSerialNumber());
+        }
+        assertTrue(mailAddresses.containsAll(Arrays.asList(RSA_MAIL_ADDRESS, ECC_MAIL_ADDRESS)));
+
+        //the receiving side chooses the decrypt card by issuer and serial number of its own mail address
+        ContentInfo contentInfo = ContentInfo.getInstance(encrypted);
+        assertEquals(CMSUtils.AUTH_ENVELOPED_DATA_OID, contentInfo.getContentType().getId());
+        assertTrue(CMSUtils.encryptedRecipientEmailsAvailable(contentInfo));
+        assertIssuerAndSerial(rsaCert, CMSUtils.getCertIssuerAndSerialNumber(contentInfo, RSA_MAIL_ADDRESS));
+        assertIssuerAndSerial(eccCert, CMSUtils.getCertIssuerAndSerialNumber(contentInfo, ECC_MAIL_ADDRESS));
+    }
+
+    @Test
+    public void encryptedMailFormat() throws Exception {
+        //as in CheckEncryptedMailFormatOperation
+        AuthEnvelopedData authEnvelopedData = CMSUtils.extractEnvelopedCMS(CMSUtils.encryptAuthEnveloped(SIGNED_MSG, createRecipients(), konnektor));
+        EnvelopedData envelopedData = new EnvelopedData(
+            authEnvelopedData.getOriginatorInfo(),
+            authEnvelopedData.getRecipientInfos(),
+            authEnvelopedData.getAuthEncryptedContentInfo(),
+            authEnvelopedData.getUnauthAttrs()
+        );
+        CMSEnvelopedData cmsEnvelopedData = new CMSEnvelopedData(new ContentInfo(CMSObjectIdentifiers.envelopedData, envelopedData).getEncoded());
+        assertEquals(2, cmsEnvelopedData.getRecipientInfos().size());
+        assertTrue(CMSUtils.encryptedRecipientInfosAvailable(cmsEnvelopedData));
+    }
+
+    @Test
+    public void rsaCertsOnlyWithoutEccEncryption() throws Exception {
+        konnektor.setEccEncryptionAvailable(false);
+        List<X509CertificateResult> recipients = new ArrayList<>();
+        recipients.add(createRecipient(RSA_MAIL_ADDRESS, rsaCert, eccCert));
+
+        CMSAuthEnvelopedData cmsAuthEnvelopedData = new CMSAuthEnvelopedData(CMSUtils.encryptAuthEnveloped(SIGNED_MSG, recipients, konnektor));
+        assertEquals(1, cmsAuthEnvelopedData.getRecipientInfos().size());
+        assertNull(cmsAuthEnvelopedData.getRecipientInfos().get(new JceKeyAgreeRecipientId(eccCert)));
+        assertEquals(1, cmsAuthEnvelopedData.getUnauthAttrs().get(new ASN1ObjectIdentifier(RECIPIENT_EMAILS_OID)).getAttributeValues().length);
+
+        RecipientInformation recipientInformation = cmsAuthEnvelopedData.getRecipientInfos().get(new JceKeyTransRecipientId(rsaCert));
+        assertArrayEquals(SIGNED_MSG, recipientInformation.getContent(new JceKeyTransAuthEnvelopedRecipient(rsaKeyPair.getPrivate()).setProvider("BC")));
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.gateway;
+
+import io.netty.channel.epoll.Epoll;
+import org.apache.james.protocols.api.ProtocolConfigurationImpl;
+import org.apache.james.protocols.api.ProtocolImpl;
+import org.apache.james.protocols.api.handler.ProtocolHandlerChainImpl;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedStatic;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mockStatic;
+
+/**
+ * Binds gateway listeners on local ports, the sessions use an empty protocol handler chain.
+ */
+public class GatewayNettyServerTest {
+
+    private static final String HOST = "127.0.0.1";
+    private static final long WAIT_IN_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private final List<GatewayNettyServer> servers = new ArrayList<>();
+    private final List<ServerSocket> blockers = new ArrayList<>();
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        for (Iterator<GatewayNettyServer> iterator = servers.iterator(); iterator.hasNext(); ) {
+            iterator.next().unbind();
+        }
+        for (Iterator<ServerSocket> iterator = blockers.iterator(); iterator.hasNext(); ) {
+            iterator.next().close();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private int blockedPort() throws IOException {
+        ServerSocket blocker = new ServerSocket(0);
+        blockers.add(blocker);
+        return blocker.getLocalPort();
+    }
+
+    private GatewayNettyServer createServer(boolean nativeTransport, int... ports) {
+        GatewayNettyServer server = new GatewayNettyServer.Factory()
+            .protocol(new ProtocolImpl(new ProtocolHandlerChainImpl(), new ProtocolConfigurationImpl()))
+            .nativeTransport(nativeTransport)
+            .build();
+        InetSocketAddress[] addresses = new InetSocketAddress[ports.length];
+        for (int i = 0; i < ports.length; i++) {
+            addresses[i] = new InetSocketAddress(HOST, ports[i]);
+        }
+        server.setListenAddresses(addresses);
+        servers.add(server);
+        return server;
+    }
+
+    private static boolean canConnect(int port) {
+        try (Socket socket = new Socket(HOST, port)) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Connects and waits until the server has accepted the connection.
+     */
+    private static void assertAccepts(GatewayNettyServer server, int port) throws Exception {
+        int connectionCount = server.getConnectionCount();
+        try (Socket socket = new Socket(HOST, port)) {
+            long deadline = System.currentTimeMillis() + WAIT_IN_MILLIS;
+            while (server.getConnectionCount() == connectionCount && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(connectionCount + 1, server.getConnectionCount());
+        }
+    }
+
+    @Test
+    public void replaceOnTheSamePort() throws Exception {
+        int port = freePort();
+        GatewayNettyServer former = createServer(false, port);
+        former.bind();
+        assertAccepts(former, port);
+
+        GatewayNettyServer next = createServer(false, port);
+        next.bindReplacing(former);
+
+        assertTrue(next.isAccepting());
+        assertFalse(former.isAccepting());
+        //the former server stays bound for its sessions until it is drained
+        assertTrue(former.isBound());
+        assertAccepts(next, port);
+    }
+
+    @Test
+    public void replaceOnAnotherPort() throws Exception {
+        int formerPort = freePort();
+        GatewayNettyServer former = createServer(false, formerPort);
+        former.bind();
+
+        int nextPort = freePort();
+        GatewayNettyServer next = createServer(false, nextPort);
+        next.bindReplacing(former);
+
+        //the caller stops the former listener by draining it
+        assertTrue(former.isAccepting());
+        assertAccepts(next, nextPort);
+        former.drainAndUnbind(1, "test");
+        assertFalse(former.isAccepting());
+        assertFalse(canConnect(formerPort));
+    }
+
+    @Test
+    public void formerAcceptsAgainIfTheBindFails() throws Exception {
+        int port = freePort();
+        GatewayNettyServer former = createServer(false, port);
+        former.bind();
+
+        //the first address is taken over from the former server, the second one is in use
+        GatewayNettyServer next = createServer(false, port, blockedPort());
+        assertThrows(Exception.class, () -> next.bindReplacing(former));
+
+        assertFalse(next.isBound());
+        assertTrue(former.isAccepting());
+        assertAccepts(former, port);
+    }
+
+    @Test
+    public void resumeAccepting() throws Exception {
+        int port = freePort();
+        GatewayNettyServer server = createServer(false, port);
+        server.bind();
+
+        server.stopAccepting();
+        assertFalse(server.isAccepting());
+        assertFalse(canConnect(port));
+
+        server.resumeAccepting();
+        assertTrue(server.isAccepting());
+        assertAccepts(server, port);
+
+        server.unbind();
+        assertFalse(server.isAccepting());
+        assertThrows(IllegalStateException.class, server::resumeAccepting);
+    }
+
+    @Test
+    public void nioTransport() throws Exception {
+        int port = freePort();
+        GatewayNettyServer server = createServer(false, port);
+        server.bind();
+
+        assertFalse(server.isNativeTransportUsed());
+        assertAccepts(server, port);
+    }
+
+    @Test
+    public void nativeTransport() throws Exception {
+        int port = freePort();
+        GatewayNettyServer server = createServer(true, port);
+        server.bind();
+
+        //epoll on linux with the bundled native library, nio otherwise
+        assertEquals(Epoll.isAvailable(), server.isNativeTransportUsed());
+        assertAccepts(server, port);
+
+        server.stopAccepting();
+        assertFalse(canConnect(port));
+        server.resumeAccepting();
+        assertAccepts(server, port);
+    }
+
+    @Test
+    public void nativeTransportFallback() throws Exception {
+        int port = freePort();
+        GatewayNettyServer server = createServer(true, port);
+        try (MockedStatic<Epoll> epoll = mockStatic(Epoll.class)) {
+            epoll.when(Epoll::isAvailable).thenReturn(false);
+            server.bind();
+        }
+
+        assertFalse(server.isNativeTransportUsed());
+        assertAccepts(server, port);
+    }
+}
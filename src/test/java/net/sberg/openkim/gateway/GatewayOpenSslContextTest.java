@@ -0,0 +1,246 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.gateway;
+
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.ReferenceCountedOpenSslEngine;
+import org.apache.james.protocols.api.ClientAuth;
+import org.apache.james.protocols.api.ProtocolConfigurationImpl;
+import org.apache.james.protocols.api.ProtocolImpl;
+import org.apache.james.protocols.api.ProtocolSession;
+import org.apache.james.protocols.api.Response;
+import org.apache.james.protocols.api.handler.LineHandler;
+import org.apache.james.protocols.api.handler.ProtocolHandlerChainImpl;
+import org.apache.james.protocols.netty.Encryption;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.MockedStatic;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static net.sberg.openkim.gateway.GatewayTlsTestUtils.HOST;
+import static net.sberg.openkim.gateway.GatewayTlsTestUtils.PASSWORD;
+import static net.sberg.openkim.gateway.GatewayTlsTestUtils.createKeystore;
+import static net.sberg.openkim.gateway.GatewayTlsTestUtils.handshake;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.Mockito.mockStatic;
+
+/**
+ * Tls handshakes with gateway listeners on local ports, with OpenSSL where the native library is available
+ * and with the java tls implementation the gateway falls back to.
+ */
+public class GatewayOpenSslContextTest {
+
+    private static final long WAIT_IN_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+    @TempDir
+    File keystoreDir;
+
+    private GatewayNettyServer server;
+
+    @BeforeEach
+    public void setUp() {
+        GatewayTlsTestUtils.addProviders();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        if (server != null) {
+            server.unbind();
+        }
+    }
+
+    private GatewayKeyManager createKeyManager(String name, boolean brainpool) throws Exception {
+        GatewayKeyManager keyManager = new GatewayKeyManager();
+        keyManager.reload(createKeystore(keystoreDir, name, brainpool), PASSWORD);
+        return keyManager;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private int bindTls(SSLContext context, boolean nativeTransport) throws Exception {
+        return bindTls(context, nativeTransport, new ProtocolHandlerChainImpl());
+    }
+
+    private int bindTls(SSLContext context, boolean nativeTransport, ProtocolHandlerChainImpl chain) throws Exception {
+        int port = freePort();
+        server = new GatewayNettyServer.Factory()
+            .protocol(new ProtocolImpl(chain, new ProtocolConfigurationImpl()))
+            .secure(Encryption.createTls(context, null, null, ClientAuth.NONE))
+            .nativeTransport(nativeTransport)
+            .build();
+        server.setListenAddresses(new InetSocketAddress(HOST, port));
+        server.bind();
+        return port;
+    }
+
+    @Test
+    public void openSslListener() throws Exception {
+        assumeTrue(OpenSsl.isAvailable(), "netty-tcnative not available on this platform");
+
+        GatewayKeyManager keyManager = createKeyManager("first", false);
+        SSLContext context = GatewayOpenSslContext.create(keyManager);
+        assertNotNull(context);
+        assertTrue(context.createSSLEngine() instanceof ReferenceCountedOpenSslEngine);
+
+        int port = bindTls(context, true);
+        assertEquals("CN=first", handshake(port));
+
+        //a swapped keystore is used for new handshakes without binding again
+        keyManager.reload(createKeystore(keystoreDir, "second", false), PASSWORD);
+        assertEquals("CN=second", handshake(port));
+    }
+
+    @Test
+    public void fallbackWithoutOpenSsl() throws Exception {
+        GatewayKeyManager keyManager = createKeyManager("first", false);
+        try (MockedStatic<OpenSsl> openSsl = mockStatic(OpenSsl.class)) {
+            openSsl.when(OpenSsl::isAvailable).thenReturn(false);
+            assertNull(GatewayOpenSslContext.create(keyManager));
+        }
+    }
+
+    @Test
+    public void fallbackForKeysNotSupportedByOpenSsl() throws Exception {
+        //BoringSSL has no brainpool curves, the self signed keystore of the gateway uses brainpoolP256r1
+        assertNull(GatewayOpenSslContext.create(createKeyManager("brainpool", true)));
+    }
+
+    @Test
+    public void javaTlsListener() throws Exception {
+        //the fallback of the gateways
+        GatewayKeyManager keyManager = createKeyManager("first", false);
+        SSLContext context = SSLContext.getInstance("TLS", "BCJSSE");
+        context.init(new KeyManager[]{keyManager}, null, null);
+
+        int port = bindTls(context, true);
+        assertEquals("CN=first", handshake(port));
+
+        keyManager.reload(createKeystore(keystoreDir, "second", false), PASSWORD);
+        assertEquals("CN=second", handshake(port));
+    }
+
+    @Test
+    @Tag("benchmark")
+    public void throughput() throws Exception {
+        GatewayKeyManager keyManager = createKeyManager("benchmark", false);
+        SSLContext javaTls = SSLContext.getInstance("TLS", "BCJSSE");
+        javaTls.init(new KeyManager[]{keyManager}, null, null);
+
+        measure("nio, java tls", javaTls, false);
+        measure("epoll, java tls", javaTls, true);
+        SSLContext openSsl = GatewayOpenSslContext.create(keyManager);
+        if (openSsl == null) {
+            System.out.println("epoll, openssl: netty-tcnative not available");
+        } else {
+            measure("epoll, openssl", openSsl, true);
+        }
+    }
+
+    /**
+     * Full handshakes of new connections and the upload of lines the listener only counts.
+     */
+    private void measure(String variant, SSLContext context, boolean nativeTransport) throws Exception {
+        AtomicLong receivedLines = new AtomicLong();
+        ProtocolHandlerChainImpl chain = new ProtocolHandlerChainImpl();
+        chain.add(new LineHandler<ProtocolSession>() {
+            @Override
+            public Response onLine(ProtocolSession session, byte[] line) {
+                receivedLines.incrementAndGet();
+                return null;
+            }
+        });
+        chain.wireExtensibleHandlers();
+        int port = bindTls(context, nativeTransport, chain);
+        try {
+            if (nativeTransport && !server.isNativeTransportUsed()) {
+                System.out.println(variant + ": epoll not available");
+                return;
+            }
+
+            SSLContext clientContext = GatewayTlsTestUtils.createClientContext();
+            int handshakes = 500;
+            for (int i = 0; i < 50; i++) {
+                fullHandshake(clientContext, port);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < handshakes; i++) {
+                fullHandshake(clientContext, port);
+            }
+            long handshakeNanos = System.nanoTime() - start;
+
+            byte[] line = new byte[1000];
+            Arrays.fill(line, (byte) 'x');
+            line[line.length - 2] = '\r';
+            line[line.length - 1] = '\n';
+            int sizeInMB = 256;
+            long lines = sizeInMB * 1024L * 1024L / line.length;
+            long transferNanos;
+            try (SSLSocket socket = (SSLSocket) clientContext.getSocketFactory().createSocket(HOST, port)) {
+                socket.startHandshake();
+                OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+                start = System.nanoTime();
+                for (long i = 0; i < lines; i++) {
+                    out.write(line);
+                }
+                out.flush();
+                long deadline = System.currentTimeMillis() + WAIT_IN_MILLIS;
+                while (receivedLines.get() < lines && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(1);
+                }
+                transferNanos = System.nanoTime() - start;
+            }
+            assertEquals(lines, receivedLines.get());
+
+            System.out.println(variant + ": " + (handshakes * 1000000000L / Math.max(1, handshakeNanos)) + " handshakes/s, "
+                + (sizeInMB * 1000000000L / Math.max(1, transferNanos)) + " MB/s");
+        } finally {
+            server.unbind();
+            server = null;
+        }
+    }
+
+    private static void fullHandshake(SSLContext clientContext, int port) throws Exception {
+        try (SSLSocket socket = (SSLSocket) clientContext.getSocketFactory().createSocket(HOST, port)) {
+            socket.startHandshake();
+            //no resumption on the next connection
+            socket.getSession().invalidate();
+        }
+    }
+}
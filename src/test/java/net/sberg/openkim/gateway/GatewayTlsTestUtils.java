@@ -0,0 +1,147 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.gateway;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.jsse.provider.BouncyCastleJsseProvider;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.Security;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+
+/**
+ * Keystores and tls clients for the tests of the gateway listeners.
+ */
+public final class GatewayTlsTestUtils {
+
+    public static final String HOST = "127.0.0.1";
+    public static final String PASSWORD = "test";
+
+    private GatewayTlsTestUtils() {
+    }
+
+    public static void addProviders() {
+        //as in AppConfig
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+            Security.insertProviderAt(new BouncyCastleProvider(), 1);
+        }
+        if (Security.getProvider(BouncyCastleJsseProvider.PROVIDER_NAME) == null) {
+            Security.insertProviderAt(new BouncyCastleJsseProvider(), 1);
+        }
+    }
+
+    /**
+     * Self signed keystore as created by the GatewayKeystoreService, with a rsa or a brainpool key.
+     *
+     * @return the path of the PKCS12 file, protected by {@link #PASSWORD}
+     */
+    public static String createKeystore(File dir, String name, boolean brainpool) throws Exception {
+        KeyPair keyPair;
+        String signatureAlgorithm;
+        if (brainpool) {
+            KeyPairGenerator kg = KeyPairGenerator.getInstance("EC", "BC");
+            kg.initialize(new ECGenParameterSpec("brainpoolP256r1"));
+            keyPair = kg.generateKeyPair();
+            signatureAlgorithm = "SHA256withECDSA";
+        } else {
+            KeyPairGenerator kg = KeyPairGenerator.getInstance("RSA", "BC");
+            kg.initialize(2048);
+            keyPair = kg.generateKeyPair();
+            signatureAlgorithm = "SHA256withRSA";
+        }
+
+        Instant now = Instant.now();
+        X500Name x500Name = new X500Name("CN=" + name);
+        JcaX509v3CertificateBuilder certificateBuilder = new JcaX509v3CertificateBuilder(x500Name,
+            BigInteger.valueOf(now.toEpochMilli()),
+            Date.from(now.minus(Duration.ofMinutes(1))),
+            Date.from(now.plus(Duration.ofDays(1))),
+            x500Name,
+            keyPair.getPublic());
+        X509Certificate certificate = new JcaX509CertificateConverter().setProvider(BouncyCastleProvider.PROVIDER_NAME)
+            .getCertificate(certificateBuilder.build(new JcaContentSignerBuilder(signatureAlgorithm).build(keyPair.getPrivate())));
+
+        KeyStore keyStore = KeyStore.getInstance("PKCS12", "BC");
+        keyStore.load(null, null);
+        keyStore.setKeyEntry(name, keyPair.getPrivate(), PASSWORD.toCharArray(), new Certificate[]{certificate});
+        File file = new File(dir, name + ".p12");
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            keyStore.store(fos, PASSWORD.toCharArray());
+        }
+        return file.getAbsolutePath();
+    }
+
+    /**
+     * Client of the jdk tls implementation, trusting every server certificate.
+     */
+    public static SSLContext createClientContext() throws Exception {
+        return createClientContext("SunJSSE");
+    }
+
+    public static SSLContext createClientContext(String provider) throws Exception {
+        X509TrustManager trustAll = new X509TrustManager() {
+            @Override
+            public void checkClientTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            @Override
+            public void checkServerTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            @Override
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        };
+        SSLContext context = SSLContext.getInstance("TLS", provider);
+        context.init(null, new TrustManager[]{trustAll}, null);
+        return context;
+    }
+
+    public static String handshake(int port) throws Exception {
+        return handshake(port, "SunJSSE");
+    }
+
+    /**
+     * @param provider of the client, BCJSSE for brainpool keys
+     * @return the subject of the server certificate
+     */
+    public static String handshake(int port, String provider) throws Exception {
+        try (SSLSocket socket = (SSLSocket) createClientContext(provider).getSocketFactory().createSocket(HOST, port)) {
+            socket.startHandshake();
+            return ((X509Certificate) socket.getSession().getPeerCertificates()[0]).getSubjectX500Principal().getName();
+        }
+    }
+}
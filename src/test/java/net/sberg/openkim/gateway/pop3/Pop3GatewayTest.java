@@ -0,0 +1,385 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.gateway.pop3;
+
+import net.sberg.openkim.common.EnumMailConnectionSecurity;
+import io.netty.handler.ssl.OpenSsl;
+import net.sberg.openkim.gateway.GatewayNettyServer;
+import net.sberg.openkim.gateway.GatewayTlsTestUtils;
+import net.sberg.openkim.gateway.pop3.prefetch.Pop3MessagePrefetchService;
+import net.sberg.openkim.konfiguration.Konfiguration;
+import net.sberg.openkim.konfiguration.KonfigurationService;
+import net.sberg.openkim.log.LogService;
+import net.sberg.openkim.pipeline.PipelineService;
+import org.apache.james.protocols.api.Protocol;
+import org.apache.james.protocols.api.ProtocolConfigurationImpl;
+import org.apache.james.protocols.api.ProtocolImpl;
+import org.apache.james.protocols.api.ProtocolSession;
+import org.apache.james.protocols.api.Response;
+import org.apache.james.protocols.api.handler.LineHandler;
+import org.apache.james.protocols.api.handler.ProtocolHandlerChainImpl;
+import org.apache.james.protocols.pop3.POP3Response;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Reloads the pop3 gateway on local ports, the listeners, their tls handshakes and the draining of open sessions are checked.
+ */
+public class Pop3GatewayTest {
+
+    private static final String HOST = "127.0.0.1";
+    private static final long WAIT_IN_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private final AtomicReference<Konfiguration> konfiguration = new AtomicReference<>();
+    private Pop3Gateway gateway;
+    private ServerSocket blocker;
+    private final List<Client> clients = new ArrayList<>();
+
+    @TempDir
+    File keystoreDir;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        gateway = wire(new Pop3Gateway());
+    }
+
+    private Pop3Gateway wire(Pop3Gateway gateway) {
+        KonfigurationService konfigurationService = mock(KonfigurationService.class);
+        when(konfigurationService.getKonfiguration()).thenAnswer(invocation -> konfiguration.get());
+
+        ReflectionTestUtils.setField(gateway, "konfigurationService", konfigurationService);
+        ReflectionTestUtils.setField(gateway, "logService", mock(LogService.class));
+        ReflectionTestUtils.setField(gateway, "pipelineService", mock(PipelineService.class));
+        ReflectionTestUtils.setField(gateway, "pop3GatewayMessageService", mock(Pop3GatewayMessageService.class));
+        ReflectionTestUtils.setField(gateway, "pop3MessagePrefetchService", mock(Pop3MessagePrefetchService.class));
+        return gateway;
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        for (Iterator<Client> iterator = clients.iterator(); iterator.hasNext(); ) {
+            iterator.next().close();
+        }
+        gateway.destroy();
+        if (blocker != null) {
+            blocker.close();
+        }
+    }
+
+    private static Konfiguration createKonfiguration(int port) {
+        Konfiguration konfiguration = new Konfiguration();
+        konfiguration.setGatewayHost(HOST);
+        konfiguration.setPop3GatewayPort(String.valueOf(port));
+        konfiguration.setPop3GatewayConnectionSec(EnumMailConnectionSecurity.NONE);
+        konfiguration.setGatewayDrainTimeoutInSeconds(1);
+        return konfiguration;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static boolean canConnect(int port) {
+        try (Socket socket = new Socket(HOST, port)) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private GatewayNettyServer getServer() {
+        return (GatewayNettyServer) ReflectionTestUtils.getField(gateway, "server");
+    }
+
+    @Test
+    public void reloadOnTheSamePort() throws Exception {
+        int port = freePort();
+        konfiguration.set(createKonfiguration(port));
+        gateway.init();
+        GatewayNettyServer former = getServer();
+        assertTrue(gateway.isStartSucces());
+
+        konfiguration.set(createKonfiguration(port));
+        gateway.reload();
+
+        assertTrue(gateway.isStartSucces());
+        assertNotSame(former, getServer());
+        assertTrue(getServer().isAccepting());
+        assertFalse(former.isAccepting());
+        assertTrue(canConnect(port));
+    }
+
+    @Test
+    public void reloadOnAnotherPort() throws Exception {
+        int formerPort = freePort();
+        konfiguration.set(createKonfiguration(formerPort));
+        gateway.init();
+        GatewayNettyServer former = getServer();
+
+        int port = freePort();
+        konfiguration.set(createKonfiguration(port));
+        gateway.reload();
+
+        assertTrue(gateway.isStartSucces());
+        assertNotSame(former, getServer());
+        assertFalse(former.isAccepting());
+        assertFalse(canConnect(formerPort));
+        assertTrue(canConnect(port));
+    }
+
+    @Test
+    public void failedReloadKeepsTheFormerListener() throws Exception {
+        int formerPort = freePort();
+        konfiguration.set(createKonfiguration(formerPort));
+        gateway.init();
+        GatewayNettyServer former = getServer();
+
+        blocker = new ServerSocket(0);
+        konfiguration.set(createKonfiguration(blocker.getLocalPort()));
+        gateway.reload();
+
+        //the former listener is neither stopped nor drained
+        assertTrue(gateway.isStartSucces());
+        assertSame(former, getServer());
+        assertTrue(former.isAccepting());
+        assertTrue(canConnect(formerPort));
+
+        //the next reload replaces it
+        int port = freePort();
+        konfiguration.set(createKonfiguration(port));
+        gateway.reload();
+        assertNotSame(former, getServer());
+        assertFalse(former.isAccepting());
+        assertTrue(canConnect(port));
+    }
+
+    @Test
+    public void keystoreNotSupportedByOpenSsl() throws Exception {
+        assumeTrue(OpenSsl.isAvailable(), "netty-tcnative not available on this platform");
+        GatewayTlsTestUtils.addProviders();
+
+        String keystoreFilename = GatewayTlsTestUtils.createKeystore(keystoreDir, "rsa", false);
+        ReflectionTestUtils.setField(gateway, "keystoreFilename", keystoreFilename);
+        ReflectionTestUtils.setField(gateway, "keyStorePwd", GatewayTlsTestUtils.PASSWORD);
+
+        int port = freePort();
+        Konfiguration tlsKonfiguration = createKonfiguration(port);
+        tlsKonfiguration.setPop3GatewayConnectionSec(EnumMailConnectionSecurity.SSLTLS);
+        tlsKonfiguration.setGatewayOpenSslEnabled(true);
+        konfiguration.set(tlsKonfiguration);
+        gateway.init();
+        GatewayNettyServer former = getServer();
+        assertTrue((Boolean) ReflectionTestUtils.getField(gateway, "openSslActive"));
+        assertEquals("CN=rsa", GatewayTlsTestUtils.handshake(port));
+
+        //the self signed keystore of the GatewayKeystoreController uses brainpoolP256r1, BoringSSL has no brainpool curves
+        Files.copy(Paths.get(GatewayTlsTestUtils.createKeystore(keystoreDir, "brainpool", true)), Paths.get(keystoreFilename), StandardCopyOption.REPLACE_EXISTING);
+        gateway.reloadKeystore();
+
+        assertTrue(gateway.isStartSucces());
+        assertFalse((Boolean) ReflectionTestUtils.getField(gateway, "openSslActive"));
+        assertNotSame(former, getServer());
+        assertEquals("CN=brainpool", GatewayTlsTestUtils.handshake(port, "BCJSSE"));
+    }
+
+    /**
+     * Answers each line, a single dot ends the transaction like the end of a SMTP DATA or a POP3 RETR.
+     */
+    private static class TransactionLineHandler implements LineHandler<ProtocolSession> {
+
+        @Override
+        public Response onLine(ProtocolSession session, byte[] line) {
+            if (new String(line, StandardCharsets.US_ASCII).trim().equals(".")) {
+                return new POP3Response(POP3Response.OK_RESPONSE, "transaction finished");
+            }
+            return new POP3Response(POP3Response.OK_RESPONSE, "line received");
+        }
+    }
+
+    private static class Client implements Closeable {
+
+        private final Socket socket;
+        private final BufferedReader reader;
+        private final Writer writer;
+
+        private Client(int port) throws IOException {
+            socket = new Socket(HOST, port);
+            socket.setSoTimeout((int) WAIT_IN_MILLIS);
+            reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII);
+        }
+
+        private String send(String line) throws IOException {
+            writer.write(line + "\r\n");
+            writer.flush();
+            return reader.readLine();
+        }
+
+        /**
+         * @return true, if the server closed the connection
+         */
+        private boolean isClosedByServer() {
+            try {
+                return reader.readLine() == null;
+            } catch (IOException e) {
+                return true;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    private Client openTransaction(int port) throws IOException {
+        Client client = new Client(port);
+        clients.add(client);
+        assertEquals("+OK line received", client.send("first line"));
+        return client;
+    }
+
+    private void createTransactionGateway() {
+        gateway = wire(new Pop3Gateway() {
+            @Override
+            protected Protocol createProtocol() {
+                ProtocolHandlerChainImpl chain = new ProtocolHandlerChainImpl();
+                chain.add(new TransactionLineHandler());
+                chain.wireExtensibleHandlers();
+                return new ProtocolImpl(chain, new ProtocolConfigurationImpl());
+            }
+        });
+    }
+
+    private static void waitUntilUnbound(GatewayNettyServer server) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_IN_MILLIS;
+        while (server.isBound() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static void waitForConnections(GatewayNettyServer server, int connectionCount) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_IN_MILLIS;
+        while (server.getConnectionCount() != connectionCount && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void reloadDrainsOpenTransactions() throws Exception {
+        createTransactionGateway();
+        int port = freePort();
+        Konfiguration drainKonfiguration = createKonfiguration(port);
+        drainKonfiguration.setGatewayDrainTimeoutInSeconds(60);
+        konfiguration.set(drainKonfiguration);
+        gateway.init();
+
+        int sessionsPerListener = 5;
+        List<GatewayNettyServer> formerServers = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            GatewayNettyServer former = getServer();
+            for (int j = 0; j < sessionsPerListener; j++) {
+                openTransaction(port);
+            }
+            waitForConnections(former, sessionsPerListener);
+            assertEquals(sessionsPerListener, former.getConnectionCount());
+
+            gateway.reload();
+            formerServers.add(former);
+
+            //the former listener keeps its sessions, new connections land on the new listener
+            assertTrue(gateway.isStartSucces());
+            assertNotSame(former, getServer());
+            assertFalse(former.isAccepting());
+            assertTrue(former.isBound());
+            assertEquals(sessionsPerListener, former.getConnectionCount());
+            assertEquals(0, getServer().getConnectionCount());
+        }
+
+        //the open transactions of all former listeners are finished
+        for (Iterator<Client> iterator = clients.iterator(); iterator.hasNext(); ) {
+            Client client = iterator.next();
+            assertEquals("+OK line received", client.send("next line"));
+            assertEquals("+OK transaction finished", client.send("."));
+            client.close();
+        }
+        for (Iterator<GatewayNettyServer> iterator = formerServers.iterator(); iterator.hasNext(); ) {
+            GatewayNettyServer former = iterator.next();
+            waitUntilUnbound(former);
+            assertFalse(former.isBound());
+        }
+        assertTrue(getServer().isAccepting());
+        assertEquals("+OK line received", openTransaction(port).send("second line"));
+    }
+
+    @Test
+    public void drainTimeoutClosesOpenTransactions() throws Exception {
+        createTransactionGateway();
+        int port = freePort();
+        Konfiguration drainKonfiguration = createKonfiguration(port);
+        drainKonfiguration.setGatewayDrainTimeoutInSeconds(1);
+        konfiguration.set(drainKonfiguration);
+        gateway.init();
+
+        GatewayNettyServer former = getServer();
+        Client client = openTransaction(port);
+        waitForConnections(former, 1);
+
+        long reloaded = System.currentTimeMillis();
+        gateway.reload();
+        assertTrue(former.isBound());
+
+        waitUntilUnbound(former);
+        assertFalse(former.isBound());
+        assertTrue(System.currentTimeMillis() - reloaded >= TimeUnit.SECONDS.toMillis(1));
+        assertTrue(client.isClosedByServer());
+        assertEquals("+OK line received", openTransaction(port).send("first line"));
+    }
+}
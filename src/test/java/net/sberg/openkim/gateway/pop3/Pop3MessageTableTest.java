@@ -0,0 +1,79 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.gateway.pop3;
+
+import com.sun.mail.pop3.POP3Folder;
+import org.junit.jupiter.api.Test;
+
+import javax.mail.FetchProfile;
+import javax.mail.Message;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class Pop3MessageTableTest {
+
+    public static final int MESSAGE_COUNT = 5000;
+
+    public static POP3Folder createFolder(int messageCount, boolean uidlSupported) throws Exception {
+        POP3Folder folder = mock(POP3Folder.class);
+        Message[] messages = new Message[messageCount];
+        int[] sizes = new int[messageCount];
+        for (int i = 0; i < messageCount; i++) {
+            messages[i] = mock(Message.class);
+            when(messages[i].getMessageNumber()).thenReturn(i + 1);
+            when(folder.getUID(messages[i])).thenReturn(uidlSupported ? "uid-" + (i + 1) : null);
+            sizes[i] = 1000 + i;
+        }
+        when(folder.getMessages()).thenReturn(messages);
+        when(folder.getSizes()).thenReturn(sizes);
+        return folder;
+    }
+
+    @Test
+    public void loadsAllMessagesWithOneUidlAndOneList() throws Exception {
+        POP3Folder folder = createFolder(MESSAGE_COUNT, true);
+
+        Pop3MessageTable pop3MessageTable = Pop3MessageTable.load(folder);
+
+        verify(folder, times(1)).fetch(any(Message[].class), any(FetchProfile.class));
+        verify(folder, times(1)).getSizes();
+        assertTrue(pop3MessageTable.isUidlSupported());
+        assertEquals(MESSAGE_COUNT, pop3MessageTable.getEntries().size());
+        assertEquals("uid-4711", pop3MessageTable.get(4711).getUid());
+        assertEquals(1000 + 4710, pop3MessageTable.get(4711).getSize());
+        assertNull(pop3MessageTable.get(0));
+        assertNull(pop3MessageTable.get(MESSAGE_COUNT + 1));
+    }
+
+    @Test
+    public void withoutUidl() throws Exception {
+        Pop3MessageTable pop3MessageTable = Pop3MessageTable.load(createFolder(10, false));
+
+        assertFalse(pop3MessageTable.isUidlSupported());
+        assertEquals(10, pop3MessageTable.getEntries().size());
+        assertNull(pop3MessageTable.get(1).getUid());
+        assertEquals(1000, pop3MessageTable.get(1).getSize());
+    }
+}
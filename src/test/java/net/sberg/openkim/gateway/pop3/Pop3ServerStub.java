@@ -0,0 +1,189 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.gateway.pop3;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Upstream pop3 server on a local port for the tests of the pop3 gateway. Every login sees the same messages,
+ * DELE is ignored, the commands are counted.
+ */
+public class Pop3ServerStub implements Closeable {
+
+    private final List<byte[]> messages;
+    private final ServerSocket serverSocket;
+    private final Map<String, AtomicInteger> commandCounts = new ConcurrentHashMap<>();
+
+    /**
+     * @param messages with CRLF line endings, the uid of message n is uid-n
+     */
+    public Pop3ServerStub(List<byte[]> messages) throws IOException {
+        this.messages = new ArrayList<>(messages);
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptThread = new Thread(this::accept, "pop3-server-stub");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /**
+     * Messages with a header and a body of about the given size.
+     */
+    public static List<byte[]> createMessages(int count, int bodySize) {
+        List<byte[]> messages = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            StringBuilder message = new StringBuilder();
+            message.append("Message-ID: <").append(i).append("@pop3.stub>\r\n");
+            message.append("Subject: message ").append(i).append("\r\n");
+            message.append("\r\n");
+            while (message.length() < bodySize) {
+                message.append("line of message ").append(i).append("\r\n");
+            }
+            messages.add(message.toString().getBytes(StandardCharsets.US_ASCII));
+        }
+        return messages;
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public int getCommandCount(String command) {
+        AtomicInteger count = commandCounts.get(command);
+        return count == null ? 0 : count.get();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread sessionThread = new Thread(() -> session(socket), "pop3-server-stub-session");
+                sessionThread.setDaemon(true);
+                sessionThread.start();
+            } catch (IOException e) {
+                //closed
+            }
+        }
+    }
+
+    private void session(Socket socket) {
+        try (Socket s = socket) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.ISO_8859_1));
+            Writer writer = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.ISO_8859_1);
+            reply(writer, "+OK pop3 server stub ready");
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.trim().split(" ");
+                String cmd = parts[0].toUpperCase();
+                commandCounts.computeIfAbsent(cmd, k -> new AtomicInteger()).incrementAndGet();
+                switch (cmd) {
+                    case "CAPA":
+                        reply(writer, "+OK\r\nUSER\r\nUIDL\r\nTOP\r\n.");
+                        break;
+                    case "USER":
+                    case "PASS":
+                    case "NOOP":
+                    case "RSET":
+                    case "DELE":
+                        reply(writer, "+OK");
+                        break;
+                    case "STAT":
+                        long size = 0;
+                        for (int i = 0; i < messages.size(); i++) {
+                            size += messages.get(i).length;
+                        }
+                        reply(writer, "+OK " + messages.size() + " " + size);
+                        break;
+                    case "LIST":
+                    case "UIDL":
+                        list(writer, cmd.equals("UIDL"), parts);
+                        break;
+                    case "RETR":
+                        retr(writer, Integer.parseInt(parts[1]), -1);
+                        break;
+                    case "TOP":
+                        retr(writer, Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+                        break;
+                    case "QUIT":
+                        reply(writer, "+OK bye");
+                        return;
+                    default:
+                        reply(writer, "-ERR unknown command");
+                }
+            }
+        } catch (Exception e) {
+            //client gone
+        }
+    }
+
+    private void list(Writer writer, boolean uidl, String[] parts) throws IOException {
+        if (parts.length > 1) {
+            int number = Integer.parseInt(parts[1]);
+            reply(writer, "+OK " + number + " " + (uidl ? "uid-" + number : String.valueOf(messages.get(number - 1).length)));
+            return;
+        }
+        StringBuilder response = new StringBuilder("+OK");
+        for (int i = 0; i < messages.size(); i++) {
+            response.append("\r\n").append(i + 1).append(" ").append(uidl ? "uid-" + (i + 1) : String.valueOf(messages.get(i).length));
+        }
+        reply(writer, response.append("\r\n.").toString());
+    }
+
+    /**
+     * @param bodyLines number of body lines for TOP, -1 for the whole message
+     */
+    private void retr(Writer writer, int number, int bodyLines) throws IOException {
+        String[] lines = new String(messages.get(number - 1), StandardCharsets.ISO_8859_1).split("\r\n", -1);
+        StringBuilder response = new StringBuilder("+OK\r\n");
+        boolean body = false;
+        int writtenBodyLines = 0;
+        //the content ends with CRLF, the last split element is empty
+        for (int i = 0; i < lines.length - 1; i++) {
+            if (body && bodyLines >= 0 && writtenBodyLines++ >= bodyLines) {
+                break;
+            }
+            if (!body && lines[i].isEmpty()) {
+                body = true;
+            }
+            response.append(lines[i].startsWith(".") ? "." : "").append(lines[i]).append("\r\n");
+        }
+        reply(writer, response.append(".").toString());
+    }
+
+    private static void reply(Writer writer, String response) throws IOException {
+        writer.write(response + "\r\n");
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+}
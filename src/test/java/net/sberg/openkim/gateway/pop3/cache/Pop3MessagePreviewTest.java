@@ -0,0 +1,108 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.gateway.pop3.cache;
+
+import org.apache.james.protocols.pop3.core.ExtraDotInputStream;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class Pop3MessagePreviewTest {
+
+    @Test
+    public void keepsEightBitHeaders() {
+        //latin-1 encoded umlaut, not valid utf-8
+        byte[] subject = new byte[]{'S', 'u', 'b', 'j', 'e', 'c', 't', ':', ' ', 'G', 'r', (byte) 0xFC, 'n'};
+        ByteArrayOutputStream msg = new ByteArrayOutputStream();
+        msg.writeBytes(subject);
+        msg.writeBytes("\r\n\r\nbody\r\n".getBytes(StandardCharsets.US_ASCII));
+
+        Pop3MessagePreview preview = Pop3MessagePreview.create(msg.toByteArray(), 20);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.writeBytes(subject);
+        expected.writeBytes("\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+        assertArrayEquals(expected.toByteArray(), preview.top(0));
+    }
+
+    @Test
+    public void normalizesLineEndings() {
+        byte[] msg = "Subject: a\n\nline1\r\nline2\nline3".getBytes(StandardCharsets.US_ASCII);
+
+        Pop3MessagePreview preview = Pop3MessagePreview.create(msg, 20);
+
+        assertEquals("Subject: a\r\n\r\nline1\r\nline2\r\nline3\r\n", new String(preview.top(10), StandardCharsets.US_ASCII));
+        assertEquals("Subject: a\r\n\r\nline1\r\n", new String(preview.top(1), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void coversOnlyTheStoredLines() {
+        byte[] msg = "Subject: a\r\n\r\n1\r\n2\r\n3\r\n4\r\n".getBytes(StandardCharsets.US_ASCII);
+
+        Pop3MessagePreview preview = Pop3MessagePreview.create(msg, 2);
+        assertTrue(preview.covers(2));
+        assertFalse(preview.covers(3));
+
+        Pop3MessagePreview completePreview = Pop3MessagePreview.create(msg, 4);
+        assertTrue(completePreview.covers(100));
+    }
+
+    @Test
+    public void linesAreDotStuffedOnSending() throws Exception {
+        byte[] msg = "Subject: a\r\n\r\n.\r\n.line\r\nline\r\n".getBytes(StandardCharsets.US_ASCII);
+
+        Pop3MessagePreview preview = Pop3MessagePreview.create(msg, 20);
+        byte[] sent = new ExtraDotInputStream(new ByteArrayInputStream(preview.top(3))).readAllBytes();
+
+        assertEquals("Subject: a\r\n\r\n..\r\n..line\r\nline\r\n", new String(sent, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    @Tag("benchmark")
+    public void throughput() {
+        ByteArrayOutputStream msg = new ByteArrayOutputStream();
+        for (int i = 0; i < 30; i++) {
+            msg.writeBytes(("X-Header-" + i + ": " + "v".repeat(60) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        }
+        msg.writeBytes("\r\n".getBytes(StandardCharsets.US_ASCII));
+        for (int i = 0; i < 20000; i++) {
+            msg.writeBytes(("b".repeat(76) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        }
+        byte[] bytes = msg.toByteArray();
+
+        int iterations = 20000;
+        for (int i = 0; i < iterations; i++) {
+            Pop3MessagePreview.create(bytes, Pop3MessageHeaderIndexService.PREVIEW_BODY_LINES).top(10);
+        }
+        long start = System.nanoTime();
+        long sentBytes = 0;
+        for (int i = 0; i < iterations; i++) {
+            sentBytes += Pop3MessagePreview.create(bytes, Pop3MessageHeaderIndexService.PREVIEW_BODY_LINES).top(10).length;
+        }
+        long durationInNanos = System.nanoTime() - start;
+        System.out.println("pop3 message preview of a " + bytes.length / 1024 + " KB message: "
+            + (durationInNanos / iterations) + " ns per create and top, " + sentBytes / iterations + " bytes sent");
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.gateway.pop3.cmdhandler;
+
+import net.sberg.openkim.gateway.pop3.Pop3GatewaySession;
+import net.sberg.openkim.gateway.pop3.Pop3MessageTable;
+import net.sberg.openkim.gateway.pop3.Pop3MessageTableTest;
+import net.sberg.openkim.gateway.pop3.Pop3ServerStub;
+import org.apache.james.protocols.api.BaseRequest;
+import org.apache.james.protocols.api.Response;
+import org.apache.james.protocols.pop3.POP3Session;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.mail.Folder;
+import javax.mail.Session;
+import javax.mail.Store;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * LIST, UIDL and STAT of an upstream maildrop with 5,000 messages on a local pop3 server, half of them deleted in the session.
+ */
+public class Pop3GatewayListCmdHandlerTest {
+
+    private static final int MESSAGE_COUNT = Pop3MessageTableTest.MESSAGE_COUNT;
+
+    private static List<byte[]> messages;
+    private static Pop3ServerStub pop3ServerStub;
+
+    private Store store;
+    private Pop3GatewaySession session;
+    private final Set<Integer> delMsgs = ConcurrentHashMap.newKeySet();
+
+    @BeforeAll
+    public static void setUpServer() throws Exception {
+        messages = Pop3ServerStub.createMessages(MESSAGE_COUNT, 1000);
+        pop3ServerStub = new Pop3ServerStub(messages);
+    }
+
+    @AfterAll
+    public static void tearDownServer() throws Exception {
+        pop3ServerStub.close();
+    }
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        //as in Pop3GatewayPassCmdHandler
+        Properties properties = new Properties();
+        properties.put("mail.pop3.host", "127.0.0.1");
+        properties.put("mail.pop3.port", String.valueOf(pop3ServerStub.getPort()));
+        properties.put("mail.pop3.connectiontimeout", "10000");
+        properties.put("mail.pop3.timeout", "10000");
+        store = Session.getInstance(properties).getStore("pop3");
+        store.connect("user", "password");
+        Folder inbox = store.getFolder("INBOX");
+        inbox.open(Folder.READ_WRITE);
+
+        session = mock(Pop3GatewaySession.class, RETURNS_DEEP_STUBS);
+        doCallRealMethod().when(session).setPop3ClientFolder(any());
+        doCallRealMethod().when(session).getPop3MessageTable();
+        session.setPop3ClientFolder(inbox);
+        when(session.getHandlerState()).thenReturn(POP3Session.TRANSACTION);
+        when(session.getDelMsgs()).thenReturn(delMsgs);
+        for (int i = 2; i <= MESSAGE_COUNT; i += 2) {
+            delMsgs.add(i);
+        }
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        store.close();
+    }
+
+    private static String[] lines(Response response) {
+        StringBuilder result = new StringBuilder();
+        for (CharSequence line : response.getLines()) {
+            result.append(line).append("\r\n");
+        }
+        return result.toString().split("\r\n");
+    }
+
+    private static int size(int number) {
+        return messages.get(number - 1).length;
+    }
+
+    @Test
+    public void oneUidlAndOneListExchange() throws Exception {
+        int uidlCount = pop3ServerStub.getCommandCount("UIDL");
+        int listCount = pop3ServerStub.getCommandCount("LIST");
+        int statCount = pop3ServerStub.getCommandCount("STAT");
+
+        for (int i = 0; i < 2; i++) {
+            new Pop3GatewayListCmdHandler().onCommand(session, new BaseRequest("LIST", null));
+            new Pop3GatewayListCmdHandler().onCommand(session, new BaseRequest("LIST", "1"));
+            new Pop3GatewayUidlCmdHandler().onCommand(session, new BaseRequest("UIDL", null));
+            new Pop3GatewayUidlCmdHandler().onCommand(session, new BaseRequest("UIDL", "3"));
+            new Pop3GatewayStatCmdHandler().onCommand(session, new BaseRequest("STAT", null));
+        }
+
+        //the folder sends STAT once when it is opened, before the handlers run
+        assertEquals(uidlCount + 1, pop3ServerStub.getCommandCount("UIDL"));
+        assertEquals(listCount + 1, pop3ServerStub.getCommandCount("LIST"));
+        assertEquals(statCount, pop3ServerStub.getCommandCount("STAT"));
+    }
+
+    @Test
+    public void list() {
+        long start = System.nanoTime();
+        String[] lines = lines(new Pop3GatewayListCmdHandler().onCommand(session, new BaseRequest("LIST", null)));
+        long durationInMillis = (System.nanoTime() - start) / 1000000;
+
+        assertEquals(1 + MESSAGE_COUNT / 2 + 1, lines.length);
+        assertTrue(lines[0].startsWith("+OK"));
+        assertEquals("1 " + size(1), lines[1]);
+        assertEquals("3 " + size(3), lines[2]);
+        assertEquals(".", lines[lines.length - 1]);
+        //one LIST exchange and a set of the deleted messages, no quadratic lookup
+        assertTrue(durationInMillis < 2000, "list took " + durationInMillis + " ms");
+    }
+
+    @Test
+    public void listDeletedMessage() {
+        String[] lines = lines(new Pop3GatewayListCmdHandler().onCommand(session, new BaseRequest("LIST", "2")));
+        assertTrue(lines[0].startsWith("-ERR"));
+    }
+
+    @Test
+    public void uidl() {
+        String[] lines = lines(new Pop3GatewayUidlCmdHandler().onCommand(session, new BaseRequest("UIDL", null)));
+
+        assertEquals(1 + MESSAGE_COUNT / 2 + 1, lines.length);
+        assertEquals("1 uid-1", lines[1]);
+        assertEquals("4999 uid-4999", lines[lines.length - 2]);
+    }
+
+    @Test
+    public void uidlWithoutUidlSupport() throws Exception {
+        Pop3GatewaySession session = mock(Pop3GatewaySession.class, RETURNS_DEEP_STUBS);
+        when(session.getHandlerState()).thenReturn(POP3Session.TRANSACTION);
+        when(session.getDelMsgs()).thenReturn(delMsgs);
+        when(session.getPop3MessageTable()).thenReturn(Pop3MessageTable.load(Pop3MessageTableTest.createFolder(10, false)));
+
+        String[] lines = lines(new Pop3GatewayUidlCmdHandler().onCommand(session, new BaseRequest("UIDL", null)));
+        assertTrue(lines[0].startsWith("-ERR"));
+    }
+
+    @Test
+    public void stat() {
+        String[] lines = lines(new Pop3GatewayStatCmdHandler().onCommand(session, new BaseRequest("STAT", null)));
+
+        long size = 0;
+        for (int i = 1; i <= MESSAGE_COUNT; i += 2) {
+            size += size(i);
+        }
+        assertEquals("+OK " + MESSAGE_COUNT / 2 + " " + size, lines[0]);
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.gateway.pop3.cmdhandler;
+
+import net.sberg.openkim.gateway.pop3.Pop3GatewayMessageService;
+import net.sberg.openkim.gateway.pop3.Pop3GatewaySession;
+import net.sberg.openkim.gateway.pop3.Pop3ServerStub;
+import net.sberg.openkim.gateway.pop3.cache.Pop3MessageCacheService;
+import net.sberg.openkim.gateway.pop3.cache.Pop3MessageHeaderIndexService;
+import net.sberg.openkim.konfiguration.EnumGatewayTIMode;
+import net.sberg.openkim.konfiguration.Konfiguration;
+import net.sberg.openkim.log.DefaultLogger;
+import net.sberg.openkim.log.DefaultLoggerContext;
+import net.sberg.openkim.pipeline.PipelineService;
+import net.sberg.openkim.pipeline.operation.DefaultPipelineOperationContext;
+import net.sberg.openkim.pipeline.operation.mail.DecryptVerifyMailOperation;
+import net.sberg.openkim.pipeline.operation.mail.MailUtils;
+import org.apache.james.protocols.api.BaseRequest;
+import org.apache.james.protocols.api.Response;
+import org.apache.james.protocols.pop3.POP3Session;
+import org.apache.james.protocols.pop3.POP3StreamResponse;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.mail.Folder;
+import javax.mail.Session;
+import javax.mail.Store;
+import javax.mail.internet.MimeMessage;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * TOP of kim messages on a local pop3 server, the first TOP of a message decrypts it, the following ones are served from the header index.
+ * The konnektor is replaced by an operation returning the decrypted message.
+ */
+public class Pop3GatewayTopCmdHandlerTest {
+
+    private static final int MESSAGE_COUNT = 300;
+    private static final int ENCRYPTED_SIZE = 50000;
+    private static final int DECRYPTED_BODY_LINES = 500;
+
+    private static Pop3ServerStub pop3ServerStub;
+
+    private Store store;
+    private Pop3GatewaySession session;
+    private Pop3MessageHeaderIndexService pop3MessageHeaderIndexService;
+    private Pop3GatewayTopCmdHandler handler;
+    private final AtomicInteger decryptCount = new AtomicInteger();
+
+    @BeforeAll
+    public static void setUpServer() throws Exception {
+        List<byte[]> messages = new ArrayList<>(MESSAGE_COUNT);
+        for (Iterator<byte[]> iterator = Pop3ServerStub.createMessages(MESSAGE_COUNT, ENCRYPTED_SIZE).iterator(); iterator.hasNext(); ) {
+            byte[] message = iterator.next();
+            byte[] header = (MailUtils.X_KOM_LE_VERSION + ": 1.5\r\n").getBytes(StandardCharsets.US_ASCII);
+            byte[] kimMessage = new byte[header.length + message.length];
+            System.arraycopy(header, 0, kimMessage, 0, header.length);
+            System.arraycopy(message, 0, kimMessage, header.length, message.length);
+            messages.add(kimMessage);
+        }
+        pop3ServerStub = new Pop3ServerStub(messages);
+    }
+
+    @AfterAll
+    public static void tearDownServer() throws Exception {
+        pop3ServerStub.close();
+    }
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        Properties properties = new Properties();
+        properties.put("mail.pop3.host", "127.0.0.1");
+        properties.put("mail.pop3.port", String.valueOf(pop3ServerStub.getPort()));
+        properties.put("mail.pop3.connectiontimeout", "10000");
+        properties.put("mail.pop3.timeout", "10000");
+        store = Session.getInstance(properties).getStore("pop3");
+        store.connect("user", "password");
+        Folder inbox = store.getFolder("INBOX");
+        inbox.open(Folder.READ_WRITE);
+
+        Konfiguration konfiguration = new Konfiguration();
+        konfiguration.setGatewayTIMode(EnumGatewayTIMode.KONNEKTOR);
+        konfiguration.setPop3DecryptTopEnabled(true);
+        DefaultLoggerContext defaultLoggerContext = new DefaultLoggerContext().buildKonfiguration(konfiguration);
+        defaultLoggerContext.setMailServerHost("127.0.0.1");
+        defaultLoggerContext.setMailServerPort(String.valueOf(pop3ServerStub.getPort()));
+        defaultLoggerContext.setMailServerUsername("user");
+        defaultLoggerContext.setMailServerPassword("password");
+        DefaultLogger logger = mock(DefaultLogger.class);
+        when(logger.getDefaultLoggerContext()).thenReturn(defaultLoggerContext);
+
+        session = mock(Pop3GatewaySession.class);
+        doCallRealMethod().when(session).setPop3ClientFolder(any());
+        doCallRealMethod().when(session).getPop3ClientFolder();
+        doCallRealMethod().when(session).getPop3MessageTable();
+        session.setPop3ClientFolder(inbox);
+        when(session.getHandlerState()).thenReturn(POP3Session.TRANSACTION);
+        when(session.getLogger()).thenReturn(logger);
+        when(session.isDeleted(anyInt())).thenReturn(false);
+
+        DecryptVerifyMailOperation decryptVerifyMailOperation = mock(DecryptVerifyMailOperation.class);
+        doAnswer(invocation -> {
+            DefaultPipelineOperationContext context = invocation.getArgument(0);
+            MimeMessage encryptedMsg = (MimeMessage) context.getEnvironmentValue(DecryptVerifyMailOperation.NAME, DecryptVerifyMailOperation.ENV_ENCRYPTED_MSG);
+            //the upstream message is downloaded as for the konnektor
+            encryptedMsg.writeTo(OutputStream.nullOutputStream());
+            context.setEnvironmentValue(DecryptVerifyMailOperation.NAME, DecryptVerifyMailOperation.ENV_RESULT_MSG_BYTES, createDecryptedMessage(encryptedMsg.getMessageNumber()));
+            decryptCount.incrementAndGet();
+            ((Consumer<DefaultPipelineOperationContext>) invocation.getArgument(1)).accept(context);
+            return null;
+        }).when(decryptVerifyMailOperation).execute(any(), any(), any());
+        PipelineService pipelineService = mock(PipelineService.class);
+        when(pipelineService.getOperation(DecryptVerifyMailOperation.BUILTIN_VENDOR + "." + DecryptVerifyMailOperation.NAME)).thenReturn(decryptVerifyMailOperation);
+
+        pop3MessageHeaderIndexService = new Pop3MessageHeaderIndexService();
+        Pop3GatewayMessageService pop3GatewayMessageService = new Pop3GatewayMessageService();
+        ReflectionTestUtils.setField(pop3GatewayMessageService, "pipelineService", pipelineService);
+        ReflectionTestUtils.setField(pop3GatewayMessageService, "pop3MessageCacheService", new Pop3MessageCacheService());
+        ReflectionTestUtils.setField(pop3GatewayMessageService, "pop3MessageHeaderIndexService", pop3MessageHeaderIndexService);
+        handler = new Pop3GatewayTopCmdHandler(pop3GatewayMessageService);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        store.close();
+    }
+
+    private static byte[] createDecryptedMessage(int number) {
+        StringBuilder message = new StringBuilder();
+        message.append("From: sender@kim.telematik\r\n");
+        message.append("To: user@kim.telematik\r\n");
+        message.append("Subject: decrypted message ").append(number).append("\r\n");
+        message.append("\r\n");
+        for (int i = 1; i <= DECRYPTED_BODY_LINES; i++) {
+            message.append("line ").append(i).append(" of decrypted message ").append(number).append("\r\n");
+        }
+        return message.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private byte[] top(int number, int lineCount) throws Exception {
+        Response response = handler.onCommand(session, new BaseRequest("TOP", number + " " + lineCount));
+        assertTrue(response instanceof POP3StreamResponse, "top " + number + ": " + response.getRetCode());
+        return ((POP3StreamResponse) response).getStream().readAllBytes();
+    }
+
+    private byte[][] topAll(int lineCount) throws Exception {
+        byte[][] result = new byte[MESSAGE_COUNT][];
+        for (int i = 1; i <= MESSAGE_COUNT; i++) {
+            result[i - 1] = top(i, lineCount);
+        }
+        return result;
+    }
+
+    @Test
+    public void decryptOnceThenServeFromIndex() throws Exception {
+        byte[] cold = top(7, 10);
+        int retrCount = pop3ServerStub.getCommandCount("RETR");
+        int topCount = pop3ServerStub.getCommandCount("TOP");
+        byte[] warm = top(7, 10);
+
+        assertArrayEquals(cold, warm);
+        assertEquals(1, decryptCount.get());
+        assertEquals(retrCount, pop3ServerStub.getCommandCount("RETR"));
+        assertEquals(topCount, pop3ServerStub.getCommandCount("TOP"));
+
+        String[] lines = new String(warm, StandardCharsets.US_ASCII).split("\r\n");
+        assertEquals("Subject: decrypted message 7", lines[2]);
+        assertEquals("line 10 of decrypted message 7", lines[lines.length - 1]);
+    }
+
+    @Test
+    @Tag("benchmark")
+    public void throughput() throws Exception {
+        int retrCount = pop3ServerStub.getCommandCount("RETR");
+
+        long start = System.nanoTime();
+        byte[][] cold = topAll(10);
+        long coldDurationInNanos = System.nanoTime() - start;
+
+        int upstreamCount = pop3ServerStub.getCommandCount("RETR") + pop3ServerStub.getCommandCount("TOP");
+        start = System.nanoTime();
+        byte[][] warm = topAll(10);
+        long warmDurationInNanos = System.nanoTime() - start;
+
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            assertArrayEquals(cold[i], warm[i]);
+        }
+        assertEquals(MESSAGE_COUNT, decryptCount.get());
+        assertEquals(MESSAGE_COUNT, pop3MessageHeaderIndexService.getEntryCount());
+        assertEquals(retrCount + MESSAGE_COUNT, pop3ServerStub.getCommandCount("RETR"));
+        assertEquals(upstreamCount, pop3ServerStub.getCommandCount("RETR") + pop3ServerStub.getCommandCount("TOP"));
+
+        System.out.println("pop3 top of " + MESSAGE_COUNT + " kim messages of " + ENCRYPTED_SIZE / 1000 + " KB, without the konnektor time: cold (download, decrypt, index) "
+            + (coldDurationInNanos / MESSAGE_COUNT / 1000) + " µs per message, " + (MESSAGE_COUNT * 1000000000L / coldDurationInNanos) + " messages/s; warm (index hit) "
+            + (warmDurationInNanos / MESSAGE_COUNT / 1000) + " µs per message, " + (MESSAGE_COUNT * 1000000000L / warmDurationInNanos) + " messages/s");
+    }
+}
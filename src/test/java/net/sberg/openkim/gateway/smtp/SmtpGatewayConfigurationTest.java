@@ -0,0 +1,55 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.gateway.smtp;
+
+import net.sberg.openkim.konfiguration.EnumGatewayTIMode;
+import net.sberg.openkim.konfiguration.Konfiguration;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class SmtpGatewayConfigurationTest {
+
+    private static Konfiguration createKonfiguration(EnumGatewayTIMode gatewayTIMode, int mailSizeLimitInMB) {
+        Konfiguration konfiguration = new Konfiguration();
+        konfiguration.setGatewayTIMode(gatewayTIMode);
+        konfiguration.setMailSizeLimitInMB(mailSizeLimitInMB);
+        konfiguration.setKasMailSizeLimitInMB(500);
+        return konfiguration;
+    }
+
+    @Test
+    public void maxMessageSizeOfThePinnedVersion() {
+        Konfiguration first = createKonfiguration(EnumGatewayTIMode.NO_TI, 15);
+        AtomicReference<Konfiguration> current = new AtomicReference<>(first);
+        SmtpGatewayConfiguration configuration = new SmtpGatewayConfiguration(current::get, null, null);
+
+        SmtpGatewayConfiguration sessionConfiguration = configuration.pinKonfiguration();
+        assertEquals(15L * 1024 * 1024, sessionConfiguration.getMaxMessageSize());
+
+        //a new version is published while the session is running
+        current.set(createKonfiguration(EnumGatewayTIMode.FULLSTACK, 20));
+        assertEquals(500L * 1024 * 1024, configuration.getMaxMessageSize());
+        assertEquals(15L * 1024 * 1024, sessionConfiguration.getMaxMessageSize());
+        assertSame(first, sessionConfiguration.getKonfiguration());
+
+        assertEquals(500L * 1024 * 1024, configuration.pinKonfiguration().getMaxMessageSize());
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.gateway.smtp.spool;
+
+import net.sberg.openkim.konfiguration.EnumGatewayTIMode;
+import net.sberg.openkim.konfiguration.Konfiguration;
+import net.sberg.openkim.konfiguration.KonfigurationService;
+import net.sberg.openkim.log.DefaultLogger;
+import net.sberg.openkim.log.DefaultLoggerContext;
+import net.sberg.openkim.log.LogService;
+import net.sberg.openkim.log.error.EnumErrorCode;
+import net.sberg.openkim.log.error.IErrorContext;
+import net.sberg.openkim.log.error.MailaddressRcptToErrorContext;
+import net.sberg.openkim.pipeline.PipelineService;
+import net.sberg.openkim.pipeline.operation.DefaultPipelineOperationContext;
+import net.sberg.openkim.pipeline.operation.mail.MailUtils;
+import net.sberg.openkim.pipeline.operation.mail.SendDsnOperation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+/**
+ * Spools mails into a temporary directory, the relaying to the mail server is replaced.
+ */
+public class SmtpSpoolServiceTest {
+
+    private static final String ENCRYPTION_KEYS = "key1,key2";
+    private static final long WAIT_IN_MILLIS = TimeUnit.SECONDS.toMillis(20);
+
+    @TempDir
+    File spoolDir;
+
+    private Konfiguration konfiguration;
+    private LogService logService;
+    private PipelineService pipelineService;
+    private List<List<IErrorContext>> sentDsns;
+    private List<SmtpSpoolService> services;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        konfiguration = new Konfiguration();
+        konfiguration.setGatewayTIMode(EnumGatewayTIMode.NO_TI);
+        konfiguration.setSmtpSpoolEnabled(true);
+        konfiguration.setSmtpSpoolRetryIntervalInSeconds(1);
+        konfiguration.setSmtpSpoolMaxAttempts(3);
+
+        logService = mock(LogService.class);
+        when(logService.createLogger(any())).thenAnswer(invocation -> createLogger(invocation.getArgument(0)));
+
+        sentDsns = new CopyOnWriteArrayList<>();
+        SendDsnOperation sendDsnOperation = mock(SendDsnOperation.class);
+        doAnswer(invocation -> {
+            DefaultPipelineOperationContext context = invocation.getArgument(0);
+            sentDsns.add((List<IErrorContext>) context.getEnvironmentValue(SendDsnOperation.NAME, SendDsnOperation.ENV_ERROR_CONTEXTS));
+            ((Consumer<DefaultPipelineOperationContext>) invocation.getArgument(1)).accept(context);
+            return null;
+        }).when(sendDsnOperation).execute(any(), any(), any());
+        pipelineService = mock(PipelineService.class);
+        when(pipelineService.getOperation(SendDsnOperation.BUILTIN_VENDOR + "." + SendDsnOperation.NAME)).thenReturn(sendDsnOperation);
+
+        services = new ArrayList<>();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        for (SmtpSpoolService service : services) {
+            service.destroy();
+        }
+    }
+
+    private static DefaultLogger createLogger(DefaultLoggerContext defaultLoggerContext) {
+        DefaultLogger logger = new DefaultLogger();
+        logger.setId(String.valueOf(System.nanoTime()));
+        logger.setDefaultLoggerContext(defaultLoggerContext);
+        return logger;
+    }
+
+    /**
+     * @param relay answers the relaying of a spooled mail with the deferred recipients
+     */
+    private SmtpSpoolService createService(IRelay relay) throws Exception {
+        KonfigurationService konfigurationService = mock(KonfigurationService.class);
+        when(konfigurationService.getKonfiguration()).thenReturn(konfiguration);
+
+        SmtpSpoolService service = spy(new SmtpSpoolService());
+        ReflectionTestUtils.setField(service, "spoolDir", spoolDir);
+        ReflectionTestUtils.setField(service, "encryptionKeys", ENCRYPTION_KEYS);
+        ReflectionTestUtils.setField(service, "konfigurationService", konfigurationService);
+        ReflectionTestUtils.setField(service, "logService", logService);
+        ReflectionTestUtils.setField(service, "pipelineService", pipelineService);
+        doAnswer(invocation -> relay.relay(invocation.getArgument(2), new ArrayList<>(invocation.<List<String>>getArgument(3))))
+            .when(service).relay(any(), any(), any(), anyList(), any());
+        service.init();
+        services.add(service);
+        return service;
+    }
+
+    private interface IRelay {
+        List<String> relay(SmtpSpoolEntry entry, List<String> recipients) throws Exception;
+    }
+
+    private void spool(SmtpSpoolService service, List<String> recipients) throws Exception {
+        DefaultLoggerContext defaultLoggerContext = new DefaultLoggerContext().buildKonfiguration(konfiguration).buildMandantId("mandant");
+        defaultLoggerContext.setMailServerHost("127.0.0.1");
+        defaultLoggerContext.setMailServerPort("465");
+        defaultLoggerContext.setMailServerUsername("sender@example.org");
+        defaultLoggerContext.setMailServerPassword("secret");
+        defaultLoggerContext.setSenderAddress("sender@example.org");
+
+        MimeMessage message = new MimeMessage(MailUtils.getDefaultSession());
+        message.setFrom(new InternetAddress("sender@example.org"));
+        message.setSubject("spool test");
+        message.setText("spool test");
+        message.saveChanges();
+
+        service.spool(createLogger(defaultLoggerContext), message, recipients);
+    }
+
+    private static Map<String, SmtpSpoolEntry> getEntries(SmtpSpoolService service) {
+        return (Map<String, SmtpSpoolEntry>) ReflectionTestUtils.getField(service, "entries");
+    }
+
+    private static SmtpSpoolEntry getSingleEntry(SmtpSpoolService service) {
+        Map<String, SmtpSpoolEntry> entries = getEntries(service);
+        assertEquals(1, entries.size());
+        return entries.values().iterator().next();
+    }
+
+    private static void waitFor(BooleanSupplier condition, String message) throws Exception {
+        long end = System.currentTimeMillis() + WAIT_IN_MILLIS;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < end, message);
+            Thread.sleep(50);
+        }
+    }
+
+    private String[] listSpoolDir() {
+        String[] names = spoolDir.list();
+        return names != null ? names : new String[0];
+    }
+
+    @Test
+    public void retriesOnlyTheDeferredRecipients() throws Exception {
+        List<List<String>> relayedRecipients = new CopyOnWriteArrayList<>();
+        SmtpSpoolService service = createService((entry, recipients) -> {
+            relayedRecipients.add(recipients);
+            //the first attempt defers the second recipient
+            return relayedRecipients.size() == 1 ? List.of("b@example.org") : List.of();
+        });
+
+        long start = System.currentTimeMillis();
+        spool(service, List.of("a@example.org", "b@example.org"));
+
+        waitFor(() -> relayedRecipients.size() == 1 && getEntries(service).values().stream().allMatch(entry -> entry.getAttempts() == 1), "first attempt not finished");
+        SmtpSpoolEntry entry = getSingleEntry(service);
+        assertEquals(List.of("b@example.org"), entry.getRecipients());
+        assertTrue(entry.getNextAttempt() >= start + TimeUnit.SECONDS.toMillis(1));
+
+        waitFor(() -> service.getQueueDepth() == 0, "second attempt not finished");
+        assertEquals(List.of(List.of("a@example.org", "b@example.org"), List.of("b@example.org")), relayedRecipients);
+        assertTrue(sentDsns.isEmpty());
+        assertEquals(0, listSpoolDir().length);
+    }
+
+    @Test
+    public void recoversTheSpoolAfterARestart() throws Exception {
+        SmtpSpoolService crashed = createService((entry, recipients) -> {
+            throw new IllegalStateException("mail server not reachable");
+        });
+        spool(crashed, List.of("a@example.org"));
+        waitFor(() -> getEntries(crashed).values().stream().allMatch(entry -> entry.getAttempts() == 1), "first attempt not finished");
+        String id = getSingleEntry(crashed).getId();
+        crashed.destroy();
+
+        //remains of an interrupted spooling and an entry encrypted with other keys
+        Files.write(new File(spoolDir, "interrupted.msg").toPath(), new byte[] {1, 2, 3});
+        Files.write(new File(spoolDir, "foreign.meta").toPath(), new byte[] {1, 2, 3});
+        Files.write(new File(spoolDir, "foreign.msg").toPath(), new byte[] {1, 2, 3});
+
+        List<List<String>> relayedRecipients = new CopyOnWriteArrayList<>();
+        SmtpSpoolService restarted = createService((entry, recipients) -> {
+            relayedRecipients.add(recipients);
+            return List.of();
+        });
+        SmtpSpoolEntry recovered = getSingleEntry(restarted);
+        assertEquals(id, recovered.getId());
+        assertEquals(1, recovered.getAttempts());
+        assertEquals(List.of("a@example.org"), recovered.getRecipients());
+        assertFalse(new File(spoolDir, "interrupted.msg").exists());
+        assertTrue(new File(spoolDir, "foreign.meta.corrupt").exists());
+        assertTrue(new File(spoolDir, "foreign.msg.corrupt").exists());
+
+        waitFor(() -> restarted.getQueueDepth() == 0, "recovered entry not sent");
+        assertEquals(List.of(List.of("a@example.org")), relayedRecipients);
+        assertFalse(new File(spoolDir, id + ".meta").exists());
+        assertFalse(new File(spoolDir, id + ".msg").exists());
+    }
+
+    @Test
+    public void putsAsideAnEntryNotReadableAtRuntime() throws Exception {
+        List<List<String>> relayedRecipients = new CopyOnWriteArrayList<>();
+        SmtpSpoolService service = createService((entry, recipients) -> {
+            relayedRecipients.add(recipients);
+            throw new IllegalStateException("mail server not reachable");
+        });
+        spool(service, List.of("a@example.org"));
+        waitFor(() -> getEntries(service).values().stream().allMatch(entry -> entry.getAttempts() == 1), "first attempt not finished");
+        String id = getSingleEntry(service).getId();
+
+        //e.g. a damaged disk block
+        Files.write(new File(spoolDir, id + ".msg").toPath(), new byte[] {1, 2, 3});
+
+        waitFor(() -> service.getQueueDepth() == 0, "entry not put aside");
+        assertEquals(1, relayedRecipients.size());
+        assertTrue(sentDsns.isEmpty());
+        assertTrue(new File(spoolDir, id + ".msg.corrupt").exists());
+        assertTrue(new File(spoolDir, id + ".meta.corrupt").exists());
+    }
+
+    @Test
+    public void reportsTheRecipientsAfterTheLastAttempt() throws Exception {
+        konfiguration.setSmtpSpoolMaxAttempts(2);
+        List<List<String>> relayedRecipients = new CopyOnWriteArrayList<>();
+        SmtpSpoolService service = createService((entry, recipients) -> {
+            relayedRecipients.add(recipients);
+            throw new IllegalStateException("mail server not reachable");
+        });
+        spool(service, List.of("a@example.org"));
+
+        waitFor(() -> service.getQueueDepth() == 0, "entry not given up");
+        assertEquals(2, relayedRecipients.size());
+        assertEquals(1, sentDsns.size());
+        MailaddressRcptToErrorContext errorContext = (MailaddressRcptToErrorContext) sentDsns.get(0).get(0);
+        assertTrue(errorContext.isError("a@example.org"));
+        assertEquals(EnumErrorCode.CODE_X024, errorContext.getAddressErrors().get("a@example.org"));
+        assertEquals(0, listSpoolDir().length);
+    }
+
+    @Test
+    public void countsTheAttemptIfTheLoggerIsNotCreated() throws Exception {
+        when(logService.createLogger(any())).thenThrow(new IllegalStateException("logger not available"));
+        konfiguration.setSmtpSpoolMaxAttempts(2);
+        SmtpSpoolService service = createService((entry, recipients) -> List.of());
+        long start = System.currentTimeMillis();
+        spool(service, List.of("a@example.org"));
+
+        waitFor(() -> getEntries(service).values().stream().allMatch(entry -> entry.getAttempts() == 1), "attempt not counted");
+        assertTrue(getSingleEntry(service).getNextAttempt() >= start + TimeUnit.SECONDS.toMillis(1));
+
+        //without a logger no dsn can be sent, the entry is put aside after the last attempt
+        waitFor(() -> service.getQueueDepth() == 0, "entry not given up");
+        assertTrue(sentDsns.isEmpty());
+        String[] names = listSpoolDir();
+        assertEquals(2, names.length);
+        for (String name : names) {
+            assertTrue(name.endsWith(".corrupt"), name);
+        }
+    }
+
+    @Test
+    public void doublesTheRetryIntervalUpToOneHour() {
+        assertEquals(60, SmtpSpoolService.calcRetryIntervalInSeconds(60, 1));
+        assertEquals(120, SmtpSpoolService.calcRetryIntervalInSeconds(60, 2));
+        assertEquals(240, SmtpSpoolService.calcRetryIntervalInSeconds(60, 3));
+        assertEquals(3600, SmtpSpoolService.calcRetryIntervalInSeconds(60, 7));
+        assertEquals(3600, SmtpSpoolService.calcRetryIntervalInSeconds(60, 1000));
+        //an interval of 0 is treated as one second
+        assertEquals(1, SmtpSpoolService.calcRetryIntervalInSeconds(0, 1));
+    }
+}
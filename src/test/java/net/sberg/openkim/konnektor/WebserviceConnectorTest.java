@@ -0,0 +1,268 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.konnektor;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import jakarta.xml.bind.annotation.XmlAccessType;
+import jakarta.xml.bind.annotation.XmlAccessorType;
+import jakarta.xml.bind.annotation.XmlElement;
+import jakarta.xml.bind.annotation.XmlRootElement;
+import net.sberg.openkim.konfiguration.Konfiguration;
+import net.sberg.openkim.log.DefaultLogger;
+import net.sberg.openkim.log.DefaultLoggerContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.oxm.jaxb.Jaxb2Marshaller;
+import org.springframework.ws.client.WebServiceTransportException;
+import org.springframework.ws.client.support.interceptor.ClientInterceptor;
+import org.springframework.ws.transport.http.HttpComponentsMessageSender;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Sends a document carrying request to a local http server playing the konnektor.
+ */
+public class WebserviceConnectorTest {
+
+    private static final String NAMESPACE = "urn:openkim:test";
+    private static final String SOAP_ACTION = "http://ws.gematik.de/conn/SignatureService/v7.5#SignDocument";
+
+    @XmlRootElement(name = "DocumentRequest", namespace = NAMESPACE)
+    @XmlAccessorType(XmlAccessType.FIELD)
+    public static class DocumentRequest {
+        @XmlElement(namespace = NAMESPACE)
+        public byte[] document;
+    }
+
+    @XmlRootElement(name = "DocumentResponse", namespace = NAMESPACE)
+    @XmlAccessorType(XmlAccessType.FIELD)
+    public static class DocumentResponse {
+        @XmlElement(namespace = NAMESPACE)
+        public long receivedBytes;
+    }
+
+    private enum EnumAnswer {
+        OK,
+        //rejects multipart requests with http 415
+        REJECT_MTOM_HTTP,
+        //rejects multipart requests with a soap fault about the content type
+        REJECT_MTOM_FAULT,
+        //every request fails with a http 503
+        UNAVAILABLE
+    }
+
+    private HttpServer server;
+    private volatile EnumAnswer answer = EnumAnswer.OK;
+    private final List<String> contentTypes = new CopyOnWriteArrayList<>();
+    private Konnektor konnektor;
+    private DefaultLogger logger;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/konnektor", this::handle);
+        server.start();
+
+        konnektor = new Konnektor();
+        konnektor.setIp("127.0.0.1");
+        logger = new DefaultLogger();
+        logger.setDefaultLoggerContext(new DefaultLoggerContext().buildKonfiguration(new Konfiguration()).buildKonnektor(konnektor).buildLogSoap(true));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws java.io.IOException {
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        contentTypes.add(contentType);
+        long receivedBytes = 0;
+        byte[] buffer = new byte[65536];
+        try (InputStream inputStream = exchange.getRequestBody()) {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                receivedBytes += read;
+            }
+        }
+
+        boolean multipart = contentType != null && contentType.startsWith("multipart/related");
+        if (answer.equals(EnumAnswer.UNAVAILABLE)) {
+            respond(exchange, 503, "text/plain", "busy");
+        } else if (multipart && answer.equals(EnumAnswer.REJECT_MTOM_HTTP)) {
+            respond(exchange, 415, "text/plain", "unsupported");
+        } else if (multipart && answer.equals(EnumAnswer.REJECT_MTOM_FAULT)) {
+            respond(exchange, 500, "text/xml; charset=utf-8", "<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\"><soap:Body><soap:Fault>"
+                + "<faultcode>soap:Client</faultcode><faultstring>Content-Type multipart/related is not supported</faultstring>"
+                + "</soap:Fault></soap:Body></soap:Envelope>");
+        } else {
+            respond(exchange, 200, "text/xml; charset=utf-8", "<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\"><soap:Body>"
+                + "<t:DocumentResponse xmlns:t=\"" + NAMESPACE + "\"><t:receivedBytes>" + receivedBytes + "</t:receivedBytes></t:DocumentResponse>"
+                + "</soap:Body></soap:Envelope>");
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, String body) throws java.io.IOException {
+        byte[] content = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, content.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(content);
+        }
+    }
+
+    //as CommonBuilderFactory.buildWebserviceConnector, one connector per call
+    private WebserviceConnector createConnector(boolean mtom) throws Exception {
+        HttpComponentsMessageSender messageSender = new HttpComponentsMessageSender();
+        messageSender.afterPropertiesSet();
+
+        Jaxb2Marshaller marshaller = new Jaxb2Marshaller();
+        marshaller.setClassesToBeBound(DocumentRequest.class, DocumentResponse.class);
+        marshaller.afterPropertiesSet();
+
+        WebserviceConnector connector = new WebserviceConnector();
+        connector.setMessageSender(messageSender);
+        connector.setDefaultUri("http://127.0.0.1:" + server.getAddress().getPort() + "/konnektor");
+        connector.setMarshaller(marshaller);
+        connector.setUnmarshaller(marshaller);
+        connector.setInterceptors(new ClientInterceptor[]{new KonnektorWebserviceInterceptor(SOAP_ACTION, logger)});
+        connector.setMtom(konnektor, mtom);
+        connector.afterPropertiesSet();
+        return connector;
+    }
+
+    private static DocumentRequest createRequest(int size) {
+        DocumentRequest documentRequest = new DocumentRequest();
+        documentRequest.document = new byte[size];
+        new Random(size).nextBytes(documentRequest.document);
+        return documentRequest;
+    }
+
+    @Test
+    public void sendsTheDocumentAsAttachment() throws Exception {
+        DocumentResponse documentResponse = (DocumentResponse) createConnector(true).getSoapResponse(createRequest(100000));
+
+        assertEquals(1, contentTypes.size());
+        assertTrue(contentTypes.get(0).startsWith("multipart/related"), contentTypes.get(0));
+        //no base64 inflation
+        assertTrue(documentResponse.receivedBytes < 100000 * 4 / 3, String.valueOf(documentResponse.receivedBytes));
+        assertFalse(konnektor.isMtomRejected());
+    }
+
+    @Test
+    public void fallsBackOnHttp415() throws Exception {
+        answer = EnumAnswer.REJECT_MTOM_HTTP;
+        DocumentResponse documentResponse = (DocumentResponse) createConnector(true).getSoapResponse(createRequest(1000));
+
+        assertTrue(documentResponse.receivedBytes > 1000 * 4 / 3);
+        assertEquals(2, contentTypes.size());
+        assertTrue(contentTypes.get(1).startsWith("text/xml"), contentTypes.get(1));
+        assertTrue(konnektor.isMtomRejected());
+        //the soap log of the second request is written
+        assertTrue(logger.getLogContentAsStr().contains("DocumentResponse"), logger.getLogContentAsStr());
+
+        //later calls do not try mtom again
+        createConnector(true).getSoapResponse(createRequest(1000));
+        assertEquals(3, contentTypes.size());
+        assertTrue(contentTypes.get(2).startsWith("text/xml"), contentTypes.get(2));
+    }
+
+    @Test
+    public void fallsBackOnAContentTypeFault() throws Exception {
+        answer = EnumAnswer.REJECT_MTOM_FAULT;
+        DocumentResponse documentResponse = (DocumentResponse) createConnector(true).getSoapResponse(createRequest(1000));
+
+        assertTrue(documentResponse.receivedBytes > 1000 * 4 / 3);
+        assertEquals(2, contentTypes.size());
+        assertTrue(konnektor.isMtomRejected());
+    }
+
+    @Test
+    public void doesNotResendOnTransientErrors() throws Exception {
+        answer = EnumAnswer.UNAVAILABLE;
+        assertThrows(WebServiceTransportException.class, () -> createConnector(true).getSoapResponse(createRequest(1000)));
+
+        //a signature or an encryption is not requested twice
+        assertEquals(1, contentTypes.size());
+        assertFalse(konnektor.isMtomRejected());
+    }
+
+    @Test
+    public void recognizesTheRejectionOfMtom() {
+        assertTrue(WebserviceConnector.isMtomRejected(new WebServiceTransportException("Unsupported Media Type [415]")));
+        assertTrue(WebserviceConnector.isMtomRejected(new WebServiceTransportException("[415]")));
+        assertFalse(WebserviceConnector.isMtomRejected(new WebServiceTransportException("Bad Gateway [502]")));
+        assertFalse(WebserviceConnector.isMtomRejected(new WebServiceTransportException("Service Unavailable [503]")));
+        assertFalse(WebserviceConnector.isMtomRejected(new IllegalStateException("Unsupported Media Type [415]")));
+    }
+
+    @Test
+    @Tag("benchmark")
+    public void measuresHeapAndLatency() throws Exception {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        int[] sizesInMB = {1, 10, 25};
+        int rounds = 5;
+
+        //warm up
+        for (int i = 0; i < 3; i++) {
+            createConnector(false).getSoapResponse(createRequest(1024 * 1024));
+            createConnector(true).getSoapResponse(createRequest(1024 * 1024));
+        }
+        //the soap log would dominate the numbers
+        logger.getDefaultLoggerContext().buildLogSoap(false);
+
+        for (int sizeInMB : sizesInMB) {
+            DocumentRequest documentRequest = createRequest(sizeInMB * 1024 * 1024);
+            for (boolean mtom : new boolean[]{false, true}) {
+                long allocated = 0;
+                long nanos = 0;
+                long receivedBytes = 0;
+                for (int i = 0; i < rounds; i++) {
+                    WebserviceConnector connector = createConnector(mtom);
+                    long allocatedBefore = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+                    long start = System.nanoTime();
+                    receivedBytes = ((DocumentResponse) connector.getSoapResponse(documentRequest)).receivedBytes;
+                    nanos += System.nanoTime() - start;
+                    allocated += threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocatedBefore;
+                }
+                System.out.printf(
+                    "%2d MB %-6s: %6.1f ms, %7.1f MB allocated, %7.1f MB sent%n",
+                    sizeInMB,
+                    mtom ? "mtom" : "inline",
+                    nanos / rounds / 1e6,
+                    allocated / rounds / 1024.0 / 1024.0,
+                    receivedBytes / 1024.0 / 1024.0
+                );
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.pipeline.operation.konnektor;
+
+import de.gematik.ws.conn.cardservice.v8.PinStatusEnum;
+import de.gematik.ws.conn.cardservicecommon.v2.CardTypeType;
+import net.sberg.openkim.konnektor.Konnektor;
+import net.sberg.openkim.konnektor.KonnektorCard;
+import net.sberg.openkim.log.DefaultLogger;
+import net.sberg.openkim.log.DefaultLoggerContext;
+import net.sberg.openkim.pipeline.operation.DefaultPipelineOperationContext;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Resolves the sign card handle in many threads while the cards of the konnektor are reloaded.
+ */
+public class GetSignCardHandleOperationTest {
+
+    private static final int READERS = 8;
+    private static final int ITERATIONS_PER_READER = 5000;
+    private static final int HBA_COUNT = 20;
+
+    private static List<KonnektorCard> createCards(int generation) {
+        List<KonnektorCard> cards = new ArrayList<>();
+        for (int i = 0; i < HBA_COUNT; i++) {
+            KonnektorCard card = new KonnektorCard();
+            card.setCardHandle("hba-" + generation + "-" + i);
+            card.setCardType(CardTypeType.HBA.value());
+            card.setPinStatus(PinStatusEnum.VERIFIED.value());
+            cards.add(card);
+        }
+        KonnektorCard smcb = new KonnektorCard();
+        smcb.setCardHandle("smcb-" + generation);
+        smcb.setCardType(CardTypeType.SMC_B.value());
+        smcb.setPinStatus(PinStatusEnum.VERIFIED.value());
+        cards.add(smcb);
+        return cards;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void resolvesCardHandlesWhileTheCardsAreReloaded() throws Exception {
+        Konnektor konnektor = new Konnektor();
+        konnektor.setIp("127.0.0.1");
+        konnektor.setCards(createCards(0));
+
+        //the cards are reloaded by the refresher below
+        KonnektorLoadAllCardInformationOperation loadOperation = mock(KonnektorLoadAllCardInformationOperation.class);
+        when(loadOperation.getName()).thenReturn(KonnektorLoadAllCardInformationOperation.NAME);
+        doAnswer(invocation -> {
+            ((Consumer<DefaultPipelineOperationContext>) invocation.getArgument(1)).accept(invocation.getArgument(0));
+            return null;
+        }).when(loadOperation).execute(any(), any(), any());
+
+        GetSignCardHandleOperation operation = new GetSignCardHandleOperation();
+        ReflectionTestUtils.setField(operation, "konnektorLoadAllCardInformationOperation", loadOperation);
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicInteger generations = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executorService = Executors.newFixedThreadPool(READERS + 1);
+        try {
+            Future<?> refresher = executorService.submit(() -> {
+                start.await();
+                while (running.get()) {
+                    //as KonnektorLoadAllCardInformationOperation: the complete list is published at once
+                    konnektor.setCards(createCards(generations.incrementAndGet()));
+                }
+                return null;
+            });
+
+            List<Future<?>> readers = new ArrayList<>();
+            for (int i = 0; i < READERS; i++) {
+                readers.add(executorService.submit(() -> {
+                    start.await();
+                    for (int j = 0; j < ITERATIONS_PER_READER; j++) {
+                        DefaultLogger logger = new DefaultLogger();
+                        logger.setDefaultLoggerContext(new DefaultLoggerContext().buildKonnektor(konnektor));
+                        DefaultPipelineOperationContext context = new DefaultPipelineOperationContext(logger);
+                        operation.execute(context, ctx -> {}, (ctx, e) -> failures.incrementAndGet());
+
+                        Object found = context.getEnvironmentValue(GetSignCardHandleOperation.NAME, GetSignCardHandleOperation.ENV_RESULT_CARD_HANDLE_FOUND);
+                        Object cardHandle = context.getEnvironmentValue(GetSignCardHandleOperation.NAME, GetSignCardHandleOperation.ENV_RESULT_CARD_HANDLE);
+                        if (!Boolean.TRUE.equals(found) || !((String) cardHandle).startsWith("smcb-")) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+
+            start.countDown();
+            for (Future<?> reader : readers) {
+                reader.get(5, TimeUnit.MINUTES);
+            }
+            running.set(false);
+            refresher.get(1, TimeUnit.MINUTES);
+        } finally {
+            running.set(false);
+            executorService.shutdownNow();
+        }
+
+        assertEquals(0, failures.get());
+        assertTrue(generations.get() > 1, "the cards were not reloaded");
+        assertEquals(HBA_COUNT + 1, konnektor.getCards().size());
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.pipeline.operation.konnektor.dns;
+
+import net.sberg.openkim.konfiguration.Konfiguration;
+import net.sberg.openkim.konnektor.Konnektor;
+import net.sberg.openkim.log.DefaultLogger;
+import net.sberg.openkim.log.DefaultLoggerContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+
+/**
+ * The dns lookup is replaced, the static mock only applies to the test thread, so the test thread always sends the request.
+ */
+public class DnsCacheTest {
+
+    private static final String A = "A";
+
+    private Konfiguration konfiguration;
+    private Konnektor konnektor;
+    private DefaultLogger logger;
+    private MockedStatic<DnsUtils> dnsUtils;
+    private AtomicInteger lookups;
+
+    @BeforeEach
+    public void setUp() {
+        DnsCache.clear();
+        konfiguration = new Konfiguration();
+        konfiguration.setDnsCacheMinTtlInSeconds(1);
+        konfiguration.setDnsCacheMaxTtlInSeconds(3600);
+        konfiguration.setDnsCacheNegativeTtlInSeconds(60);
+        konnektor = new Konnektor();
+        konnektor.setIp("10.0.0.1");
+        logger = new DefaultLogger();
+        logger.setDefaultLoggerContext(new DefaultLoggerContext());
+        dnsUtils = Mockito.mockStatic(DnsUtils.class);
+        lookups = new AtomicInteger();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        dnsUtils.close();
+        DnsCache.clear();
+    }
+
+    private static DnsResultContainer createResult(long... ttls) {
+        DnsResultContainer dnsResultContainer = new DnsResultContainer();
+        for (int i = 0; i < ttls.length; i++) {
+            DnsResult dnsResult = new DnsResult();
+            dnsResult.setAddress("10.0.1." + (i + 1));
+            dnsResult.setTtl(ttls[i]);
+            dnsResultContainer.getResult().add(dnsResult);
+        }
+        return dnsResultContainer;
+    }
+
+    private static DnsResultContainer createError(boolean negative) {
+        DnsResultContainer dnsResultContainer = new DnsResultContainer();
+        dnsResultContainer.setError(true);
+        dnsResultContainer.setNegative(negative);
+        return dnsResultContainer;
+    }
+
+    private void answer(String domain, DnsResultContainer result) {
+        dnsUtils.when(() -> DnsUtils.lookup(any(), any(), eq(domain), eq(A))).thenAnswer(invocation -> {
+            lookups.incrementAndGet();
+            return result;
+        });
+    }
+
+    private DnsResultContainer get(String domain) throws Exception {
+        return DnsCache.get(logger, konfiguration, konnektor, domain, A);
+    }
+
+    @Test
+    public void keepsAnswersForTheSmallestRecordTtl() throws Exception {
+        answer("ttl.example.org", createResult(300, 1));
+
+        assertEquals(2, get("ttl.example.org").getResult().size());
+        assertEquals(2, get("TTL.example.org").getResult().size());
+        assertEquals(1, lookups.get());
+
+        //the record with a ttl of one second expires the entry
+        Thread.sleep(1100);
+        get("ttl.example.org");
+        assertEquals(2, lookups.get());
+    }
+
+    @Test
+    public void appliesTheMinimumAndMaximumTtl() throws Exception {
+        answer("zero.example.org", createResult(0));
+        get("zero.example.org");
+        get("zero.example.org");
+        //kept for the minimum ttl of one second
+        assertEquals(1, lookups.get());
+
+        konfiguration.setDnsCacheMaxTtlInSeconds(1);
+        answer("long.example.org", createResult(86400));
+        get("long.example.org");
+        Thread.sleep(1100);
+        get("long.example.org");
+        //kept for the maximum ttl of one second only
+        assertEquals(3, lookups.get());
+    }
+
+    @Test
+    public void returnsCopiesOfTheCachedAnswer() throws Exception {
+        answer("copy.example.org", createResult(300));
+
+        get("copy.example.org").getResult().clear();
+        assertEquals(1, get("copy.example.org").getResult().size());
+        assertEquals(1, lookups.get());
+    }
+
+    @Test
+    public void cachesNegativeAnswersForTheNegativeTtl() throws Exception {
+        answer("nxdomain.example.org", createError(true));
+
+        assertTrue(get("nxdomain.example.org").isNegative());
+        assertTrue(get("nxdomain.example.org").isNegative());
+        assertEquals(1, lookups.get());
+
+        konfiguration.setDnsCacheNegativeTtlInSeconds(0);
+        answer("off.example.org", createError(true));
+        get("off.example.org");
+        get("off.example.org");
+        //a negative ttl of 0 switches the negative caching off
+        assertEquals(3, lookups.get());
+    }
+
+    @Test
+    public void doesNotCacheFailedRequests() throws Exception {
+        answer("timeout.example.org", createError(false));
+
+        DnsResultContainer result = get("timeout.example.org");
+        assertTrue(result.isError());
+        assertFalse(result.isNegative());
+        get("timeout.example.org");
+        assertEquals(2, lookups.get());
+
+        dnsUtils.when(() -> DnsUtils.lookup(any(), any(), eq("exception.example.org"), eq(A))).thenAnswer(invocation -> {
+            lookups.incrementAndGet();
+            throw new IllegalStateException("resolver not reachable");
+        });
+        for (int i = 0; i < 2; i++) {
+            try {
+                get("exception.example.org");
+            } catch (IllegalStateException e) {
+                assertEquals("resolver not reachable", e.getMessage());
+            }
+        }
+        assertEquals(4, lookups.get());
+    }
+
+    @Test
+    public void sendsConcurrentIdenticalRequestsOnlyOnce() throws Exception {
+        int followers = 8;
+        long coalescedBefore = DnsCache.getCoalesced();
+        CountDownLatch lookupStarted = new CountDownLatch(1);
+        dnsUtils.when(() -> DnsUtils.lookup(any(), any(), eq("coalesce.example.org"), eq(A))).thenAnswer(invocation -> {
+            lookups.incrementAndGet();
+            lookupStarted.countDown();
+            //answers when all followers wait for this request
+            long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+            while (DnsCache.getCoalesced() - coalescedBefore < followers && System.currentTimeMillis() < end) {
+                Thread.sleep(10);
+            }
+            return createResult(300);
+        });
+
+        ExecutorService executorService = Executors.newFixedThreadPool(followers);
+        try {
+            List<Future<DnsResultContainer>> futures = new ArrayList<>();
+            for (int i = 0; i < followers; i++) {
+                futures.add(executorService.submit(() -> {
+                    lookupStarted.await();
+                    DefaultLogger followerLogger = new DefaultLogger();
+                    followerLogger.setDefaultLoggerContext(new DefaultLoggerContext());
+                    return DnsCache.get(followerLogger, konfiguration, konnektor, "coalesce.example.org", A);
+                }));
+            }
+
+            assertEquals(1, get("coalesce.example.org").getResult().size());
+            for (Future<DnsResultContainer> future : futures) {
+                assertEquals(1, future.get(10, TimeUnit.SECONDS).getResult().size());
+            }
+            assertEquals(1, lookups.get());
+            assertEquals(followers, DnsCache.getCoalesced() - coalescedBefore);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+}
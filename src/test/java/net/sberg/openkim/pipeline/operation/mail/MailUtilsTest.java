@@ -0,0 +1,181 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.pipeline.operation.mail;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import javax.activation.DataHandler;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import javax.mail.util.ByteArrayDataSource;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MailUtilsTest {
+
+    private static final int MB = 1024 * 1024;
+
+    /**
+     * Multipart mail with a text part and base64 attachments, about the given size when encoded.
+     */
+    private static byte[] createMessage(int sizeInMB) throws Exception {
+        MimeMessage message = new MimeMessage(MailUtils.getDefaultSession());
+        message.setFrom(new InternetAddress("sender@example.org"));
+        message.setRecipient(MimeMessage.RecipientType.TO, new InternetAddress("recipient@example.org"));
+        message.setSubject("parse once");
+
+        MimeMultipart multipart = new MimeMultipart();
+        MimeBodyPart textPart = new MimeBodyPart();
+        textPart.setText("Befund anbei.\r\n", "UTF-8");
+        multipart.addBodyPart(textPart);
+
+        //base64 grows by a third
+        int attachmentSize = sizeInMB * MB * 3 / 4 / 3;
+        Random random = new Random(sizeInMB);
+        for (int i = 0; i < 3; i++) {
+            byte[] content = new byte[attachmentSize];
+            random.nextBytes(content);
+            MimeBodyPart attachment = new MimeBodyPart();
+            attachment.setDataHandler(new DataHandler(new ByteArrayDataSource(content, "application/pdf")));
+            attachment.setFileName("befund-" + i + ".pdf");
+            attachment.setHeader("Content-Transfer-Encoding", "base64");
+            multipart.addBodyPart(attachment);
+        }
+        message.setContent(multipart);
+        message.saveChanges();
+
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        message.writeTo(byteArrayOutputStream);
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    private static byte[] write(MimeMessage message) throws Exception {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        message.writeTo(byteArrayOutputStream);
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    private static byte[] body(byte[] msg) {
+        for (int i = 0; i < msg.length - 3; i++) {
+            if (msg[i] == '\r' && msg[i + 1] == '\n' && msg[i + 2] == '\r' && msg[i + 3] == '\n') {
+                return Arrays.copyOfRange(msg, i + 4, msg.length);
+            }
+        }
+        throw new IllegalStateException("no header end");
+    }
+
+    @Test
+    public void writesAnUnchangedMessageAsItsOriginalBytes() throws Exception {
+        byte[] msg = createMessage(1);
+
+        MimeMessage message = MailUtils.parseMimeMessage(msg, 0, msg.length);
+        //decoding the parts does not mark them as modified
+        MimeMultipart multipart = (MimeMultipart) message.getContent();
+        assertEquals(4, multipart.getCount());
+        assertEquals("Befund anbei.\r\n", multipart.getBodyPart(0).getContent());
+
+        assertArrayEquals(msg, write(message));
+    }
+
+    @Test
+    public void streamsTheBodyIfOnlyHeadersAreChanged() throws Exception {
+        byte[] msg = createMessage(1);
+
+        MimeMessage message = MailUtils.parseMimeMessage(msg, 0, msg.length);
+        message.setSubject("changed");
+        byte[] written = write(message);
+
+        assertTrue(new String(written, 0, 4096, "US-ASCII").contains("Subject: changed"));
+        assertArrayEquals(body(msg), body(written));
+    }
+
+    @Test
+    public void parsesARangeOfTheGivenBytes() throws Exception {
+        byte[] msg = createMessage(1);
+        byte[] padded = new byte[msg.length + 20];
+        System.arraycopy(msg, 0, padded, 10, msg.length);
+
+        MimeMessage message = MailUtils.parseMimeMessage(padded, 10, msg.length);
+        assertEquals("parse once", message.getSubject());
+        assertArrayEquals(msg, write(message));
+    }
+
+    @Test
+    @Tag("benchmark")
+    public void measuresAllocationAndLatencyFor20MB() throws Exception {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        byte[] msg = createMessage(20);
+        File file = File.createTempFile("openkim-benchmark", ".eml");
+        file.deleteOnExit();
+        int rounds = 5;
+
+        String[] names = {"temp file, new session", "parse once", "parse once, header changed"};
+        for (int variant = 0; variant < names.length; variant++) {
+            long allocated = 0;
+            long nanos = 0;
+            for (int round = 0; round < rounds + 2; round++) {
+                long allocatedBefore = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+                long start = System.nanoTime();
+
+                MimeMessage message;
+                if (variant == 0) {
+                    //the former path of the smtp gateway
+                    Files.write(file.toPath(), msg);
+                    try (InputStream inputStream = new FileInputStream(file)) {
+                        message = new MimeMessage(Session.getInstance(new Properties()), inputStream);
+                    }
+                } else {
+                    message = MailUtils.parseMimeMessage(msg, 0, msg.length);
+                }
+                ((MimeMultipart) message.getContent()).getCount();
+                if (variant == 2) {
+                    message.setSubject("changed");
+                }
+                write(message);
+
+                //the first rounds warm up
+                if (round >= 2) {
+                    nanos += System.nanoTime() - start;
+                    allocated += threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocatedBefore;
+                }
+            }
+            System.out.printf(
+                "%.1f MB mail, %-27s: %6.1f ms, %7.1f MB allocated%n",
+                msg.length / (double) MB,
+                names[variant],
+                nanos / rounds / 1e6,
+                allocated / rounds / (double) MB
+            );
+        }
+        file.delete();
+    }
+}
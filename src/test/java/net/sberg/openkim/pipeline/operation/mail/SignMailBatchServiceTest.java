@@ -0,0 +1,171 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.pipeline.operation.mail;
+
+import de.gematik.ws.conn.signatureservice.v7.SignDocumentResponse;
+import de.gematik.ws.conn.signatureservice.v7.SignRequest;
+import de.gematik.ws.conn.signatureservice.v7.SignResponse;
+import net.sberg.openkim.log.DefaultLogger;
+import net.sberg.openkim.log.DefaultLoggerContext;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SignMailBatchServiceTest {
+
+    private static final String KEY = "konnektor#endpoint#mandant#cs#ws#smcb";
+    private static final int WINDOW_IN_MILLIS = 10000;
+
+    private static DefaultLogger createLogger() {
+        DefaultLogger logger = new DefaultLogger();
+        logger.setDefaultLoggerContext(new DefaultLoggerContext());
+        return logger;
+    }
+
+    private static SignDocumentResponse answer(List<SignRequest> signRequests) {
+        SignDocumentResponse signDocumentResponse = new SignDocumentResponse();
+        for (SignRequest signRequest : signRequests) {
+            SignResponse signResponse = new SignResponse();
+            signResponse.setRequestID(signRequest.getRequestID());
+            signDocumentResponse.getSignResponse().add(signResponse);
+        }
+        return signDocumentResponse;
+    }
+
+    @Test
+    public void sendsASingleRequestWithoutWaitingForTheWindow() throws Exception {
+        SignMailBatchService signMailBatchService = new SignMailBatchService();
+        List<Integer> calls = new CopyOnWriteArrayList<>();
+
+        long start = System.currentTimeMillis();
+        SignResponse signResponse = signMailBatchService.sign(KEY, new SignRequest(), WINDOW_IN_MILLIS, 10, createLogger(), signRequests -> {
+            calls.add(signRequests.size());
+            return answer(signRequests);
+        });
+
+        assertTrue(System.currentTimeMillis() - start < WINDOW_IN_MILLIS / 2, "the request waited for the window");
+        assertEquals(SignMailBatchService.REQUEST_ID, signResponse.getRequestID());
+        assertEquals(List.of(1), calls);
+    }
+
+    @Test
+    public void collectsTheRequestsArrivingWhileACallIsRunning() throws Exception {
+        SignMailBatchService signMailBatchService = new SignMailBatchService();
+        List<Integer> calls = new CopyOnWriteArrayList<>();
+        CountDownLatch firstCallStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirstCall = new CountDownLatch(1);
+        SignMailBatchService.ISignDocumentExecutor executor = signRequests -> {
+            calls.add(signRequests.size());
+            if (calls.size() == 1) {
+                firstCallStarted.countDown();
+                releaseFirstCall.await();
+            }
+            return answer(signRequests);
+        };
+
+        int followers = 5;
+        ExecutorService executorService = Executors.newFixedThreadPool(followers + 1);
+        try {
+            long start = System.currentTimeMillis();
+            Future<SignResponse> first = executorService.submit(() -> signMailBatchService.sign(KEY, new SignRequest(), WINDOW_IN_MILLIS, 10, createLogger(), executor));
+            assertTrue(firstCallStarted.await(10, TimeUnit.SECONDS));
+
+            List<DefaultLogger> loggers = new ArrayList<>();
+            List<Future<SignResponse>> futures = new ArrayList<>();
+            for (int i = 0; i < followers; i++) {
+                DefaultLogger logger = createLogger();
+                loggers.add(logger);
+                futures.add(executorService.submit(() -> signMailBatchService.sign(KEY, new SignRequest(), WINDOW_IN_MILLIS, 10, logger, executor)));
+            }
+            //the followers are collected while the first call is running
+            Thread.sleep(500);
+            assertEquals(1, calls.size());
+            releaseFirstCall.countDown();
+
+            assertEquals(SignMailBatchService.REQUEST_ID, first.get(10, TimeUnit.SECONDS).getRequestID());
+            List<String> requestIds = new ArrayList<>();
+            for (int i = 0; i < followers; i++) {
+                String requestId = futures.get(i).get(10, TimeUnit.SECONDS).getRequestID();
+                requestIds.add(requestId);
+
+                //each session only logs its own request
+                String logContent = loggers.get(i).getLogContentAsStr();
+                assertTrue(logContent.contains("RequestID = " + requestId), logContent);
+                for (int j = 1; j <= followers; j++) {
+                    if (!requestId.equals(SignMailBatchService.REQUEST_ID + j)) {
+                        assertFalse(logContent.contains(SignMailBatchService.REQUEST_ID + j), logContent);
+                    }
+                }
+            }
+            assertEquals(followers, requestIds.stream().distinct().count());
+            //the batch is sent when the running call is finished, not after the window
+            assertTrue(System.currentTimeMillis() - start < WINDOW_IN_MILLIS, "the batch waited for the window");
+            assertEquals(List.of(1, followers), calls);
+        } finally {
+            releaseFirstCall.countDown();
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void signsAloneIfTheBatchFails() throws Exception {
+        SignMailBatchService signMailBatchService = new SignMailBatchService();
+        List<Integer> calls = new CopyOnWriteArrayList<>();
+        CountDownLatch firstCallStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirstCall = new CountDownLatch(1);
+        SignMailBatchService.ISignDocumentExecutor executor = signRequests -> {
+            calls.add(signRequests.size());
+            if (calls.size() == 1) {
+                firstCallStarted.countDown();
+                releaseFirstCall.await();
+            }
+            if (signRequests.size() > 1) {
+                throw new IllegalStateException("broken request");
+            }
+            return answer(signRequests);
+        };
+
+        ExecutorService executorService = Executors.newFixedThreadPool(3);
+        try {
+            Future<SignResponse> first = executorService.submit(() -> signMailBatchService.sign(KEY, new SignRequest(), WINDOW_IN_MILLIS, 10, createLogger(), executor));
+            assertTrue(firstCallStarted.await(10, TimeUnit.SECONDS));
+            Future<SignResponse> second = executorService.submit(() -> signMailBatchService.sign(KEY, new SignRequest(), WINDOW_IN_MILLIS, 10, createLogger(), executor));
+            Future<SignResponse> third = executorService.submit(() -> signMailBatchService.sign(KEY, new SignRequest(), WINDOW_IN_MILLIS, 10, createLogger(), executor));
+            Thread.sleep(500);
+            releaseFirstCall.countDown();
+
+            assertEquals(SignMailBatchService.REQUEST_ID, first.get(10, TimeUnit.SECONDS).getRequestID());
+            assertEquals(SignMailBatchService.REQUEST_ID, second.get(10, TimeUnit.SECONDS).getRequestID());
+            assertEquals(SignMailBatchService.REQUEST_ID, third.get(10, TimeUnit.SECONDS).getRequestID());
+            assertEquals(List.of(1, 2, 1, 1), calls);
+        } finally {
+            releaseFirstCall.countDown();
+            executorService.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.pipeline.operation.mail.kas;
+
+import org.bouncycastle.crypto.engines.AESEngine;
+import org.bouncycastle.crypto.io.CipherOutputStream;
+import org.bouncycastle.crypto.modes.GCMBlockCipher;
+import org.bouncycastle.crypto.params.AEADParameters;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.Security;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class AesGcmHelperTest {
+
+    @BeforeEach
+    public void setUp() {
+        //as in AppConfig
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+            Security.insertProviderAt(new BouncyCastleProvider(), 1);
+        }
+    }
+
+    private static byte[] createContent(int size) {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+
+    private static byte[] decryptBc(byte[] cipherText, SecretKey secret, byte[] iv) throws Exception {
+        GCMBlockCipher cipher = new GCMBlockCipher(new AESEngine());
+        cipher.init(false, new AEADParameters(new KeyParameter(secret.getEncoded()), AesGcmHelper.TAG_LENGTH_BIT, iv));
+        byte[] plainText = new byte[cipher.getOutputSize(cipherText.length)];
+        int length = cipher.processBytes(cipherText, 0, cipherText.length, plainText, 0);
+        length += cipher.doFinal(plainText, length);
+        return Arrays.copyOf(plainText, length);
+    }
+
+    @Test
+    public void usesJceCipherWithBouncyCastleAsFirstProvider() throws Exception {
+        assertEquals(BouncyCastleProvider.PROVIDER_NAME, Security.getProviders()[0].getName());
+        assertEquals("SunJCE", AesGcmHelper.createCipher().getProvider().getName());
+    }
+
+    @Test
+    public void jceAndBouncyCastleHaveTheSameFormat() throws Exception {
+        SecretKey secret = AesGcmHelper.getAESKey(AesGcmHelper.AES_KEY_BIT);
+        byte[] iv = AesGcmHelper.getRandomNonce(AesGcmHelper.IV_LENGTH_BYTE);
+        byte[] content = createContent(100000);
+
+        byte[] cipherText = AesGcmHelper.encrypt(content, secret, iv);
+
+        assertArrayEquals(content, decryptBc(cipherText, secret, iv));
+    }
+
+    @Test
+    public void keysWithTheCipherNameAsAlgorithm() throws Exception {
+        //kas keys
+        SecretKey secret = new SecretKeySpec(AesGcmHelper.getAESKey(AesGcmHelper.AES_KEY_BIT).getEncoded(), AesGcmHelper.ENCRYPT_ALGO);
+        byte[] iv = AesGcmHelper.getRandomNonce(AesGcmHelper.IV_LENGTH_BYTE);
+
+        byte[] cipherText = AesGcmHelper.encryptWithPrefixIV("kas".getBytes(AesGcmHelper.UTF_8), secret, iv);
+
+        assertEquals("kas", AesGcmHelper.decryptWithPrefixIV(cipherText, secret));
+    }
+
+    @Test
+    public void streams() throws Exception {
+        SecretKey secret = AesGcmHelper.getAESKey(AesGcmHelper.AES_KEY_BIT);
+        byte[] iv = AesGcmHelper.getRandomNonce(AesGcmHelper.IV_LENGTH_BYTE);
+        byte[] content = createContent(1024 * 1024 + 17);
+        File input = File.createTempFile("aesgcm", ".plain");
+        File encrypted = File.createTempFile("aesgcm", ".encrypted");
+        File output = File.createTempFile("aesgcm", ".decrypted");
+        try {
+            Files.write(input.toPath(), content);
+
+            AesGcmHelper.encryptWithStream(encrypted, input, secret, iv, true);
+            AesGcmHelper.decryptWithStreamWithPrefixIV(output, encrypted, secret);
+            assertArrayEquals(content, Files.readAllBytes(output.toPath()));
+
+            AesGcmHelper.encryptWithStream(encrypted, input, secret, iv, false);
+            AesGcmHelper.decryptWithStream(output, new FileInputStream(encrypted), secret, iv);
+            assertArrayEquals(content, Files.readAllBytes(output.toPath()));
+        } finally {
+            input.delete();
+            encrypted.delete();
+            output.delete();
+        }
+    }
+
+    @Test
+    @Tag("benchmark")
+    public void throughput() throws Exception {
+        SecretKey secret = AesGcmHelper.getAESKey(AesGcmHelper.AES_KEY_BIT);
+        byte[] iv = AesGcmHelper.getRandomNonce(AesGcmHelper.IV_LENGTH_BYTE);
+        int[] sizesInMB = new int[]{1, 16, 64};
+        for (int i = 0; i < sizesInMB.length; i++) {
+            byte[] content = createContent(sizesInMB[i] * 1024 * 1024);
+            byte[] cipherText = AesGcmHelper.encrypt(content, secret, iv);
+
+            int iterations = Math.max(3, 64 / sizesInMB[i]);
+            for (int j = 0; j < 5; j++) {
+                decryptJce(cipherText, secret, iv);
+                decryptBc(cipherText, secret, iv);
+            }
+            long start = System.nanoTime();
+            for (int j = 0; j < iterations; j++) {
+                decryptJce(cipherText, secret, iv);
+            }
+            long jceNanos = (System.nanoTime() - start) / iterations;
+            start = System.nanoTime();
+            for (int j = 0; j < iterations; j++) {
+                decryptBc(cipherText, secret, iv);
+            }
+            long bcNanos = (System.nanoTime() - start) / iterations;
+
+            System.out.println("aes-gcm decrypt " + sizesInMB[i] + " MB: jce " + toMBPerSecond(sizesInMB[i], jceNanos)
+                + " MB/s, bouncycastle " + toMBPerSecond(sizesInMB[i], bcNanos) + " MB/s");
+
+            streamThroughput(sizesInMB[i], content, secret, iv, iterations);
+        }
+    }
+
+    //file to file, as the kas attachments are encrypted and decrypted
+    private static void streamThroughput(int sizeInMB, byte[] content, SecretKey secret, byte[] iv, int iterations) throws Exception {
+        File input = File.createTempFile("aesgcm", ".plain");
+        File encrypted = File.createTempFile("aesgcm", ".encrypted");
+        File output = File.createTempFile("aesgcm", ".decrypted");
+        try {
+            Files.write(input.toPath(), content);
+            for (int j = 0; j < 3; j++) {
+                AesGcmHelper.encryptWithStreamJce(encrypted, input, secret, iv, false);
+                encryptWithStreamBc(encrypted, input, secret, iv);
+                AesGcmHelper.decryptWithStreamJce(output, new FileInputStream(encrypted), secret, iv);
+                AesGcmHelper.decryptWithStreamBc(output, new FileInputStream(encrypted), secret, iv);
+            }
+
+            long start = System.nanoTime();
+            for (int j = 0; j < iterations; j++) {
+                AesGcmHelper.encryptWithStreamJce(encrypted, input, secret, iv, false);
+            }
+            long jceEncryptNanos = (System.nanoTime() - start) / iterations;
+            start = System.nanoTime();
+            for (int j = 0; j < iterations; j++) {
+                encryptWithStreamBc(encrypted, input, secret, iv);
+            }
+            long bcEncryptNanos = (System.nanoTime() - start) / iterations;
+            start = System.nanoTime();
+            for (int j = 0; j < iterations; j++) {
+                AesGcmHelper.decryptWithStreamJce(output, new FileInputStream(encrypted), secret, iv);
+            }
+            long jceDecryptNanos = (System.nanoTime() - start) / iterations;
+            start = System.nanoTime();
+            for (int j = 0; j < iterations; j++) {
+                AesGcmHelper.decryptWithStreamBc(output, new FileInputStream(encrypted), secret, iv);
+            }
+            long bcDecryptNanos = (System.nanoTime() - start) / iterations;
+            assertArrayEquals(content, Files.readAllBytes(output.toPath()));
+
+            System.out.println("aes-gcm stream " + sizeInMB + " MB: encrypt jce " + toMBPerSecond(sizeInMB, jceEncryptNanos)
+                + " MB/s, bouncycastle " + toMBPerSecond(sizeInMB, bcEncryptNanos) + " MB/s; decrypt jce " + toMBPerSecond(sizeInMB, jceDecryptNanos)
+                + " MB/s, bouncycastle " + toMBPerSecond(sizeInMB, bcDecryptNanos) + " MB/s");
+        } finally {
+            input.delete();
+            encrypted.delete();
+            output.delete();
+        }
+    }
+
+    //the former stream encryption of AesGcmHelper
+    private static void encryptWithStreamBc(File output, File input, SecretKey secret, byte[] iv) throws Exception {
+        GCMBlockCipher cipher = new GCMBlockCipher(new AESEngine());
+        cipher.init(true, new AEADParameters(new KeyParameter(secret.getEncoded()), AesGcmHelper.TAG_LENGTH_BIT, iv));
+
+        try (InputStream in = new FileInputStream(input); OutputStream out = new CipherOutputStream(new FileOutputStream(output), cipher)) {
+            in.transferTo(out);
+        }
+    }
+
+    private static byte[] decryptJce(byte[] cipherText, SecretKey secret, byte[] iv) throws Exception {
+        Cipher cipher = AesGcmHelper.createCipher();
+        cipher.init(Cipher.DECRYPT_MODE, secret, new GCMParameterSpec(AesGcmHelper.TAG_LENGTH_BIT, iv));
+        return cipher.doFinal(cipherText);
+    }
+
+    private static long toMBPerSecond(int sizeInMB, long nanos) {
+        return sizeInMB * 1000000000L / Math.max(1, nanos);
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.pipeline.operation.mail.part;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MimeStructureScannerTest {
+
+    private static final String NESTED_MESSAGE =
+        "From: sender@example.org\r\n" +
+        "Content-Type: multipart/mixed;\r\n boundary=\"outer\"\r\n" +
+        "\r\n" +
+        "preamble\r\n" +
+        "--outer\r\n" +
+        "Content-Type: text/plain\r\n" +
+        "Content-Transfer-Encoding: quoted-printable\r\n" +
+        "\r\n" +
+        "abc=\r\n" +
+        "def=3D\r\n" +
+        "--outer\r\n" +
+        "Content-Type: multipart/alternative; boundary=inner\r\n" +
+        "\r\n" +
+        "--inner\r\n" +
+        "Content-Type: text/plain\r\n" +
+        "\r\n" +
+        "hello\r\n" +
+        "--inner\r\n" +
+        "Content-Type: application/octet-stream\r\n" +
+        "Content-Transfer-Encoding: base64\r\n" +
+        "\r\n" +
+        "QUJDRA==\r\n" +
+        "--inner--\r\n" +
+        "--outer\r\n" +
+        "Content-Type: message/rfc822\r\n" +
+        "\r\n" +
+        "Subject: embedded\r\n" +
+        "\r\n" +
+        "world\r\n" +
+        "--outer--\r\n" +
+        "epilogue\r\n";
+
+    private static MimeStructurePart scan(byte[] message) {
+        MimeStructureScanner scanner = new MimeStructureScanner();
+        scanner.write(message, 0, message.length);
+        scanner.close();
+        return scanner.getResult();
+    }
+
+    private static MimeStructurePart scan(String message) {
+        return scan(message.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static String body(byte[] message, MimeStructurePart part) {
+        return new String(message, (int) part.getBodyOffset(), (int) part.getEncodedLength(), StandardCharsets.ISO_8859_1);
+    }
+
+    private static String describe(MimeStructurePart part) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(part.getContentType()).append(' ').append(part.getHeader()).append(' ')
+            .append(part.getHeaderOffset()).append('/').append(part.getBodyOffset()).append('/').append(part.getEndOffset())
+            .append(' ').append(part.getDecodedLength()).append(" [");
+        for (Iterator<MimeStructurePart> iterator = part.getChildren().iterator(); iterator.hasNext(); ) {
+            sb.append(describe(iterator.next()));
+        }
+        return sb.append(']').toString();
+    }
+
+    @Test
+    public void nestedMultiparts() {
+        byte[] message = NESTED_MESSAGE.getBytes(StandardCharsets.ISO_8859_1);
+        MimeStructurePart result = scan(message);
+
+        assertEquals("multipart/mixed", result.getContentType());
+        assertEquals(2, result.getHeader().size());
+        assertEquals(0, result.getHeaderOffset());
+        assertEquals(message.length, result.getEndOffset());
+        assertEquals(3, result.getChildren().size());
+
+        MimeStructurePart textPart = result.getChildren().get(0);
+        assertEquals("text/plain", textPart.getContentType());
+        assertEquals("quoted-printable", textPart.getContentTransferEncoding());
+        //the line break before a boundary belongs to the boundary
+        assertEquals("abc=\r\ndef=3D", body(message, textPart));
+        assertEquals(7, textPart.getDecodedLength());
+        assertTrue(new String(message, (int) textPart.getHeaderOffset(), 12, StandardCharsets.ISO_8859_1).startsWith("Content-Type"));
+
+        MimeStructurePart alternative = result.getChildren().get(1);
+        assertEquals("multipart/alternative", alternative.getContentType());
+        assertEquals(2, alternative.getChildren().size());
+        assertEquals("hello", body(message, alternative.getChildren().get(0)));
+        assertEquals(5, alternative.getChildren().get(0).getDecodedLength());
+        assertEquals("QUJDRA==", body(message, alternative.getChildren().get(1)));
+        assertEquals(4, alternative.getChildren().get(1).getDecodedLength());
+        assertEquals(9, alternative.getDecodedLength());
+        //the epilogue of the inner multipart ends with the next boundary of the outer one
+        assertEquals(result.getChildren().get(2).getHeaderOffset(), alternative.getEndOffset() + "\r\n--outer\r\n".length());
+
+        MimeStructurePart rfc822 = result.getChildren().get(2);
+        assertEquals("message/rfc822", rfc822.getContentType());
+        assertEquals(1, rfc822.getChildren().size());
+        MimeStructurePart embedded = rfc822.getChildren().get(0);
+        assertEquals("Subject: embedded", embedded.getHeader().get(0));
+        assertEquals(rfc822.getBodyOffset(), embedded.getHeaderOffset());
+        assertEquals("world", body(message, embedded));
+        assertEquals(5, rfc822.getDecodedLength());
+
+        assertEquals(7 + 9 + 5, result.getDecodedLength());
+    }
+
+    @Test
+    public void nestedMultipartsWithBareLineFeeds() {
+        MimeStructurePart result = scan(NESTED_MESSAGE.replace("\r\n", "\n"));
+
+        assertEquals(3, result.getChildren().size());
+        assertEquals(7, result.getChildren().get(0).getDecodedLength());
+        assertEquals(2, result.getChildren().get(1).getChildren().size());
+        assertEquals(9, result.getChildren().get(1).getDecodedLength());
+        assertEquals(5, result.getChildren().get(2).getDecodedLength());
+    }
+
+    @Test
+    public void chunkedInput() {
+        String longLine = "--outer" + "x".repeat(600);
+        String message = NESTED_MESSAGE.replace("hello\r\n", longLine + "\r\n" + "y".repeat(255) + "\r\r\n" + "z".repeat(256) + "\r\nhello\r\n");
+        byte[] bytes = message.getBytes(StandardCharsets.ISO_8859_1);
+        MimeStructurePart result = scan(bytes);
+        String expected = describe(result);
+        //the long lines are no boundaries and counted as they are
+        assertEquals(longLine.length() + 2 + 255 + 3 + 256 + 2 + 5, result.getChildren().get(1).getChildren().get(0).getDecodedLength());
+
+        MimeStructureScanner byteByByte = new MimeStructureScanner();
+        for (int i = 0; i < bytes.length; i++) {
+            byteByByte.write(bytes[i]);
+        }
+        byteByByte.close();
+        assertEquals(expected, describe(byteByByte.getResult()));
+
+        Random random = new Random(4711);
+        for (int run = 0; run < 50; run++) {
+            MimeStructureScanner chunked = new MimeStructureScanner();
+            int off = 0;
+            while (off < bytes.length) {
+                int len = Math.min(bytes.length - off, 1 + random.nextInt(300));
+                chunked.write(bytes, off, len);
+                off = off + len;
+            }
+            chunked.close();
+            assertEquals(expected, describe(chunked.getResult()), "run " + run);
+        }
+    }
+
+    @Test
+    public void quotedPrintableSoftLineBreaks() {
+        String header = "Content-Type: text/plain\r\nContent-Transfer-Encoding: quoted-printable\r\n\r\n";
+
+        //CRLF and LF soft line breaks, an escaped byte and a soft line break at the end
+        assertEquals(5 + 11 + 4 + 1 + 3, scan(header + "Zeile=\r\nfortgesetzt=\nund =E4nde=\r\n").getDecodedLength());
+        //hard line breaks are content
+        assertEquals(4, scan(header + "a\r\nb").getDecodedLength());
+        //whitespace between '=' and the line break
+        assertEquals(6, scan(header + "abc= \t\r\ndef").getDecodedLength());
+        //invalid and incomplete escape sequences are kept as they are
+        assertEquals(5, scan(header + "a=XYb").getDecodedLength());
+        assertEquals(4, scan(header + "ab=4").getDecodedLength());
+        //the line break before a boundary belongs to the boundary, the '=' is no soft line break and kept as it is
+        String multipart = "Content-Type: multipart/mixed; boundary=b\r\n\r\n--b\r\n" + header + "abc=\r\n--b--\r\n";
+        assertEquals(4, scan(multipart).getDecodedLength());
+    }
+
+    @Test
+    public void base64Padding() {
+        String header = "Content-Type: application/octet-stream\r\nContent-Transfer-Encoding: base64\r\n\r\n";
+
+        assertEquals(3, scan(header + "QUJD\r\n").getDecodedLength());
+        assertEquals(2, scan(header + "QUI=\r\n").getDecodedLength());
+        assertEquals(1, scan(header + "QQ==\r\n").getDecodedLength());
+        assertEquals(5, scan(header + "QUJD\r\nRUY=\r\n").getDecodedLength());
+
+        Random random = new Random(42);
+        for (int length = 0; length < 200; length++) {
+            byte[] content = new byte[length];
+            random.nextBytes(content);
+            String encoded = Base64.getMimeEncoder().encodeToString(content);
+            assertEquals(length, scan(header + encoded + "\r\n").getDecodedLength(), "length " + length);
+            //padding directly before a boundary line
+            String multipart = "Content-Type: multipart/mixed; boundary=b\r\n\r\n--b\r\n" + header + encoded + "\r\n--b--\r\n";
+            assertEquals(length, scan(multipart).getChildren().get(0).getDecodedLength(), "length " + length);
+        }
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2023 sberg it-systeme GmbH
+ *
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package net.sberg.openkim.simulator;
+
+import de.gematik.ws.conn.cardservice.v8.CardInfoType;
+import de.gematik.ws.conn.certificateservice.v6.ReadCardCertificate;
+import de.gematik.ws.conn.certificateservice.v6.ReadCardCertificateResponse;
+import de.gematik.ws.conn.certificateservicecommon.v2.CertRefEnum;
+import de.gematik.ws.conn.certificateservicecommon.v2.X509DataInfoListType;
+import de.gematik.ws.conn.connectorcommon.v5.DocumentType;
+import de.gematik.ws.conn.encryptionservice.v6.DecryptDocument;
+import de.gematik.ws.conn.encryptionservice.v6.DecryptDocumentResponse;
+import de.gematik.ws.conn.encryptionservice.v6.KeyOnCardType;
+import de.gematik.ws.conn.eventservice.v7.GetCards;
+import de.gematik.ws.conn.eventservice.v7.GetCardsResponse;
+import de.gematik.ws.conn.signatureservice.v7.SignDocument;
+import de.gematik.ws.conn.signatureservice.v7.SignDocumentResponse;
+import de.gematik.ws.conn.signatureservice.v7.SignRequest;
+import de.gematik.ws.conn.signatureservice.v7.SignResponse;
+import de.gematik.ws.conn.signatureservice.v7.VerifyDocument;
+import de.gematik.ws.conn.signatureservice.v7.VerifyDocumentResponse;
+import jakarta.xml.bind.JAXBElement;
+import jakarta.xml.bind.annotation.XmlSchema;
+import net.sberg.openkim.common.x509.CMSUtils;
+import net.sberg.openkim.common.x509.IssuerAndSerial;
+import net.sberg.openkim.common.x509.X509CertificateCache;
+import net.sberg.openkim.common.x509.X509CertificateResult;
+import net.sberg.openkim.konnektor.CMSAttribute;
+import net.sberg.openkim.konnektor.Konnektor;
+import net.sberg.openkim.konnektor.KonnektorWebserviceUtils;
+import oasis.names.tc.dss._1_0.core.schema.AnyType;
+import oasis.names.tc.dss._1_0.core.schema.Base64Data;
+import oasis.names.tc.dss._1_0.core.schema.Base64Signature;
+import oasis.names.tc.dss._1_0.core.schema.Properties;
+import oasis.names.tc.dss._1_0.core.schema.PropertiesType;
+import oasis.names.tc.dss._1_0.core.schema.Property;
+import oasis.names.tc.dss._1_0.core.schema.SignatureObject;
+import oasis.names.tc.dss_x._1_0.profiles.verificationreport.schema_.DetailedSignatureReportType;
+import oasis.names.tc.dss_x._1_0.profiles.verificationreport.schema_.VerificationReportType;
+import org.apache.commons.codec.binary.Base64;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.cms.CMSSignedData;
+import org.bouncycastle.cms.SignerInformation;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Calls the endpoints of the konnektor simulator like the mail pipeline does: card and certificate lookup,
+ * sign and verify, decryption of a mail encrypted locally for the C.ENC certificate of the card.
+ */
+public class KonnektorSimulatorEndpointTest {
+
+    private static final String TELEMATIK_ID = "1-SMC-B-Testkarte-883110000000001";
+    private static final String CARD_HANDLE = "SMC-B-1";
+    private static final String RECIPIENT_EMAILS_OID = "1.2.276.0.76.4.173";
+    private static final String MAIL_ADDRESS = "praxis@kim.telematik-test";
+    private static final byte[] MSG = "Content-Type: text/plain\r\n\r\nsimulated mail\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static KonnektorSimulator konnektorSimulator;
+    private static KonnektorSimulatorEndpoint konnektorSimulatorEndpoint;
+
+    @BeforeAll
+    public static void init() throws Exception {
+        konnektorSimulator = new KonnektorSimulator();
+        ReflectionTestUtils.setField(konnektorSimulator, "telematikId", TELEMATIK_ID);
+        ReflectionTestUtils.setField(konnektorSimulator, "cardHandle", CARD_HANDLE);
+        ReflectionTestUtils.setField(konnektorSimulator, "iccsn", "80276883110000000001");
+        ReflectionTestUtils.setField(konnektorSimulator, "ctId", "CT-1");
+        ReflectionTestUtils.setField(konnektorSimulator, "slotId", 1);
+        konnektorSimulator.init();
+
+        konnektorSimulatorEndpoint = new KonnektorSimulatorEndpoint();
+        ReflectionTestUtils.setField(konnektorSimulatorEndpoint, "konnektorSimulator", konnektorSimulator);
+        ReflectionTestUtils.setField(konnektorSimulatorEndpoint, "simulatorFaultInjector", new SimulatorFaultInjector());
+    }
+
+    @Test
+    public void namespacesOfTheGeneratedClasses() {
+        //the payload root mapping has to match the namespaces the webservice connector sends
+        assertEquals(KonnektorSimulatorEndpoint.EVENT_SERVICE_NAMESPACE, GetCards.class.getPackage().getAnnotation(XmlSchema.class).namespace());
+        assertEquals(KonnektorSimulatorEndpoint.CARD_SERVICE_NAMESPACE, CardInfoType.class.getPackage().getAnnotation(XmlSchema.class).namespace());
+        assertEquals(KonnektorSimulatorEndpoint.CERTIFICATE_SERVICE_NAMESPACE, ReadCardCertificate.class.getPackage().getAnnotation(XmlSchema.class).namespace());
+        assertEquals(KonnektorSimulatorEndpoint.SIGNATURE_SERVICE_NAMESPACE, SignDocument.class.getPackage().getAnnotation(XmlSchema.class).namespace());
+        assertEquals(KonnektorSimulatorEndpoint.ENCRYPTION_SERVICE_NAMESPACE, DecryptDocument.class.getPackage().getAnnotation(XmlSchema.class).namespace());
+    }
+
+    @Test
+    public void cardAndEncryptionCertificate() throws Exception {
+        GetCardsResponse getCardsResponse = konnektorSimulatorEndpoint.getCards(new GetCards());
+        assertEquals(KonnektorWebserviceUtils.STATUS_OK, getCardsResponse.getStatus().getResult());
+        assertEquals(1, getCardsResponse.getCards().getCard().size());
+        CardInfoType cardInfoType = getCardsResponse.getCards().getCard().get(0);
+        assertEquals(CARD_HANDLE, cardInfoType.getCardHandle());
+        assertEquals(KonnektorWebserviceUtils.CARD_TYPE_SMCB, cardInfoType.getCardType().value());
+
+        ReadCardCertificate readCardCertificate = new ReadCardCertificate();
+        readCardCertificate.setCardHandle(CARD_HANDLE);
+        ReadCardCertificate.CertRefList certRefList = new ReadCardCertificate.CertRefList();
+        certRefList.getCertRef().add(CertRefEnum.fromValue(KonnektorWebserviceUtils.CERT_REF_ENC));
+        readCardCertificate.setCertRefList(certRefList);
+        ReadCardCertificateResponse readCardCertificateResponse = konnektorSimulatorEndpoint.readCardCertificate(readCardCertificate);
+        assertEquals(KonnektorWebserviceUtils.STATUS_OK, readCardCertificateResponse.getStatus().getResult());
+
+        //as in KonnektorLoadAllCardInformationOperation and GetDecryptCardHandleOperation
+        X509DataInfoListType.X509DataInfo x509DataInfo = readCardCertificateResponse.getX509DataInfoList().getX509DataInfo().get(0);
+        byte[] certificate = x509DataInfo.getX509Data().getX509Certificate();
+        assertEquals(List.of(TELEMATIK_ID), X509CertificateCache.get(certificate).getTelematikIds());
+        IssuerAndSerial issuerAndSerial = new IssuerAndSerial();
+        issuerAndSerial.setSerialNumber(x509DataInfo.getX509Data().getX509IssuerSerial().getX509SerialNumber());
+        issuerAndSerial.setIssuer(x509DataInfo.getX509Data().getX509IssuerSerial().getX509IssuerName());
+        assertEquals(X509CertificateCache.get(certificate).getIssuerAndSerial(), issuerAndSerial);
+    }
+
+    @Test
+    public void unknownCardHandle() {
+        ReadCardCertificate readCardCertificate = new ReadCardCertificate();
+        readCardCertificate.setCardHandle("unknown");
+        assertThrows(IllegalStateException.class, () -> konnektorSimulatorEndpoint.readCardCertificate(readCardCertificate));
+    }
+
+    @Test
+    public void signAndVerify() throws Exception {
+        SignDocument signDocument = new SignDocument();
+        signDocument.setCardHandle(CARD_HANDLE);
+        signDocument.getSignRequest().add(createSignRequest("1"));
+        signDocument.getSignRequest().add(createSignRequest("2"));
+        SignDocumentResponse signDocumentResponse = konnektorSimulatorEndpoint.signDocument(signDocument);
+        assertEquals(2, signDocumentResponse.getSignResponse().size());
+
+        for (int i = 0; i < signDocumentResponse.getSignResponse().size(); i++) {
+            SignResponse signResponse = signDocumentResponse.getSignResponse().get(i);
+            assertEquals(String.valueOf(i + 1), signResponse.getRequestID());
+            assertEquals(KonnektorWebserviceUtils.STATUS_OK, signResponse.getStatus().getResult());
+            byte[] signedData = signResponse.getSignatureObject().getBase64Signature().getValue();
+
+            //encapsulated content and the recipient emails of the sign request as signed attribute
+            CMSSignedData cmsSignedData = new CMSSignedData(signedData);
+            assertArrayEquals(MSG, (byte[]) cmsSignedData.getSignedContent().getContent());
+            SignerInformation signerInformation = cmsSignedData.getSignerInfos().getSigners().iterator().next();
+            assertNotNull(signerInformation.getSignedAttributes().get(new ASN1ObjectIdentifier(RECIPIENT_EMAILS_OID)));
+
+            VerifyDocumentResponse verifyDocumentResponse = konnektorSimulatorEndpoint.verifyDocument(createVerifyDocument(signedData));
+            assertEquals(KonnektorWebserviceUtils.STATUS_OK, verifyDocumentResponse.getStatus().getResult());
+            assertEquals("VALID", verifyDocumentResponse.getVerificationResult().getHighLevelResult());
+
+            //as read by the SignReportService
+            VerificationReportType verificationReportType = verifyDocumentResponse.getOptionalOutputs().getVerificationReport();
+            assertNotNull(verificationReportType.getVerificationTimeInfo().getVerificationTime());
+            assertNotNull(verificationReportType.getIndividualReport().get(0).getSignedObjectIdentifier().getSignedProperties().getSignedSignatureProperties().getSigningTime());
+            JAXBElement jaxbElement = (JAXBElement) verificationReportType.getIndividualReport().get(0).getDetails().getAny().get(0);
+            DetailedSignatureReportType detailedSignatureReportType = (DetailedSignatureReportType) jaxbElement.getValue();
+            assertEquals(DetailedSignatureReportType.class, jaxbElement.getDeclaredType());
+            assertEquals("urn:oasis:names:tc:dss:1.0:detail:valid", detailedSignatureReportType.getFormatOK().getResultMajor());
+            assertEquals("urn:oasis:names:tc:dss:1.0:detail:valid", detailedSignatureReportType.getSignatureOK().getSigMathOK().getResultMajor());
+            assertEquals("urn:oasis:names:tc:dss:1.0:detail:valid", detailedSignatureReportType.getCertificatePathValidity().getPathValiditySummary().getResultMajor());
+            X509Certificate sigCert = konnektorSimulator.getCertificate(KonnektorWebserviceUtils.CERT_REF_SIG);
+            assertEquals(sigCert.getSerialNumber(), detailedSignatureReportType.getCertificatePathValidity().getCertificateIdentifier().getX509SerialNumber());
+            assertArrayEquals(sigCert.getEncoded(), detailedSignatureReportType.getCertificatePathValidity().getPathValidityDetail().getCertificateValidity().get(0).getCertificateValue());
+        }
+    }
+
+    @Test
+    public void verifyTamperedSignature() throws Exception {
+        SignDocument signDocument = new SignDocument();
+        signDocument.setCardHandle(CARD_HANDLE);
+        signDocument.getSignRequest().add(createSignRequest("1"));
+        byte[] signedData = konnektorSimulatorEndpoint.signDocument(signDocument).getSignResponse().get(0).getSignatureObject().getBase64Signature().getValue();
+
+        //change one byte of the encapsulated content
+        String signed = new String(signedData, StandardCharsets.ISO_8859_1);
+        int index = signed.indexOf("simulated mail");
+        signedData[index] = (byte) 'S';
+
+        VerifyDocumentResponse verifyDocumentResponse = konnektorSimulatorEndpoint.verifyDocument(createVerifyDocument(signedData));
+        assertEquals("INVALID", verifyDocumentResponse.getVerificationResult().getHighLevelResult());
+    }
+
+    @Test
+    public void decryptLocallyEncryptedMail() throws Exception {
+        //the sender encrypts with the certificate from the vzd, here the C.ENC certificate of the simulated card
+        X509CertificateResult x509CertificateResult = new X509CertificateResult();
+        x509CertificateResult.setMailAddress(MAIL_ADDRESS);
+        x509CertificateResult.getCerts().add(konnektorSimulator.getCertificate(KonnektorWebserviceUtils.CERT_REF_ENC).getEncoded());
+        List<X509CertificateResult> recipients = new ArrayList<>();
+        recipients.add(CMSUtils.filterRsaCerts(x509CertificateResult));
+        byte[] encrypted = CMSUtils.encryptAuthEnveloped(MSG, recipients, new Konnektor());
+
+        DecryptDocumentResponse decryptDocumentResponse = konnektorSimulatorEndpoint.decryptDocument(createDecryptDocument(encrypted));
+        assertEquals(KonnektorWebserviceUtils.STATUS_OK, decryptDocumentResponse.getStatus().getResult());
+        assertArrayEquals(MSG, decryptDocumentResponse.getDocument().getBase64Data().getValue());
+    }
+
+    @Test
+    public void encryptAndDecrypt() throws Exception {
+        byte[] encrypted = konnektorSimulator.encrypt(MSG);
+        DecryptDocumentResponse decryptDocumentResponse = konnektorSimulatorEndpoint.decryptDocument(createDecryptDocument(encrypted));
+        assertArrayEquals(MSG, decryptDocumentResponse.getDocument().getBase64Data().getValue());
+    }
+
+    private static SignRequest createSignRequest(String requestId) throws Exception {
+        //as in SignMailOperation
+        X509CertificateResult x509CertificateResult = new X509CertificateResult();
+        x509CertificateResult.setMailAddress(MAIL_ADDRESS);
+        x509CertificateResult.getCerts().add(konnektorSimulator.getCertificate(KonnektorWebserviceUtils.CERT_REF_ENC).getEncoded());
+        List<X509CertificateResult> recipients = new ArrayList<>();
+        recipients.add(CMSUtils.filterRsaCerts(x509CertificateResult));
+
+        CMSAttribute cmsAttribute = new CMSAttribute();
+        cmsAttribute.setContent(Base64.encodeBase64String(CMSUtils.buildCmsAttributeRecipientEmails(recipients, new Konnektor())));
+        AnyType recipientsEmailsAttribute = new AnyType();
+        recipientsEmailsAttribute.getAny().add(cmsAttribute);
+        Property signProperty = new Property();
+        signProperty.setIdentifier("RecipientEmailsAttribute");
+        signProperty.setValue(recipientsEmailsAttribute);
+        PropertiesType signPropertiesType = new PropertiesType();
+        signPropertiesType.getProperty().add(signProperty);
+        Properties signProperties = new Properties();
+        signProperties.setSignedProperties(signPropertiesType);
+
+        SignRequest.OptionalInputs optionalInputs = new SignRequest.OptionalInputs();
+        optionalInputs.setProperties(signProperties);
+        optionalInputs.setSignatureType(KonnektorSimulatorEndpoint.SIGNATURE_TYPE_CMS);
+        optionalInputs.setIncludeEContent(true);
+
+        Base64Data base64Data = new Base64Data();
+        base64Data.setValue(MSG);
+        de.gematik.ws.conn.signatureservice.v7.DocumentType documentType = new de.gematik.ws.conn.signatureservice.v7.DocumentType();
+        documentType.setBase64Data(base64Data);
+
+        SignRequest signRequest = new SignRequest();
+        signRequest.setOptionalInputs(optionalInputs);
+        signRequest.setDocument(documentType);
+        signRequest.setRequestID(requestId);
+        signRequest.setIncludeRevocationInfo(false);
+        return signRequest;
+    }
+
+    private static VerifyDocument createVerifyDocument(byte[] signedData) {
+        Base64Signature base64Signature = new Base64Signature();
+        base64Signature.setValue(signedData);
+        base64Signature.setType(KonnektorSimulatorEndpoint.SIGNATURE_TYPE_CMS);
+        SignatureObject signatureObject = new SignatureObject();
+        signatureObject.setBase64Signature(base64Signature);
+        VerifyDocument verifyDocument = new VerifyDocument();
+        verifyDocument.setSignatureObject(signatureObject);
+        return verifyDocument;
+    }
+
+    private static DecryptDocument createDecryptDocument(byte[] encrypted) {
+        KeyOnCardType keyOnCardType = new KeyOnCardType();
+        keyOnCardType.setCardHandle(CARD_HANDLE);
+        Base64Data base64Data = new Base64Data();
+        base64Data.setValue(encrypted);
+        DocumentType documentType = new DocumentType();
+        documentType.setBase64Data(base64Data);
+        DecryptDocument decryptDocument = new DecryptDocument();
+        decryptDocument.setPrivateKeyOnCard(keyOnCardType);
+        decryptDocument.setDocument(documentType);
+        return decryptDocument;
+    }
+}